@@ -30,6 +30,13 @@ ftp.delay=5000
 #Maximum number of attempts to download a single file.
 ftp.retry=3
 
+#Number of banks installed at the same time (default: 1, i.e. one bank
+#after the other). When greater than 1, 'task.workers' sets the number of
+#tasks executed at a time by all these banks (default: number of processors).
+#A failure while installing a bank does not stop the other ones.
+#db.workers=1
+#task.workers=4
+
 #Mailer configuration. Leave values empty if no mailer available.
 mail.smtp.host=
 mail.smtp.port=
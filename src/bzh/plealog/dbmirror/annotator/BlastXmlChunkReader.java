@@ -0,0 +1,174 @@
+/* Copyright (C) 2006-2019 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.annotator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class reads a legacy NCBI Blast XML file by chunks. Each chunk is a
+ * valid Blast XML document made of the header of the file (program,
+ * parameters, etc), one or more complete Iteration elements, then the end of
+ * the file. So, only a chunk at a time has to be loaded in memory.<br>
+ * Data are read as ISO-8859-1 characters: each byte is read and written back
+ * unchanged whatever the encoding of the file is.
+ *
+ * @author Patrick G. Durand
+ */
+public class BlastXmlChunkReader implements Closeable {
+  private Reader              _reader;
+  private StringBuilder       _buffer;
+  private String              _header;
+  private String              _trailer;
+  private boolean             _eof;
+  private int                 _chunkSize;
+
+  /** charset used to read and write chunks */
+  public static final Charset CHARSET         = StandardCharsets.ISO_8859_1;
+
+  private static final String ITERATION_START = "<Iteration>";
+  private static final String ITERATION_END   = "</Iteration>";
+  private static final String ITERATIONS_END  = "</BlastOutput_iterations>";
+
+  // amount of data read at the end of the file to locate its trailer
+  private static final int    TRAILER_SIZE    = 1024 * 1024;
+  private static final int    READ_SIZE       = 64 * 1024;
+
+  /**
+   * Constructor.
+   *
+   * @param f
+   *          a legacy NCBI Blast XML file
+   * @param chunkSize
+   *          number of characters from which a chunk is complete. A chunk
+   *          always contains at least one iteration, whatever its size is.
+   */
+  public BlastXmlChunkReader(File f, int chunkSize) throws IOException {
+    _trailer = readTrailer(f);
+    _reader = new InputStreamReader(new FileInputStream(f), CHARSET);
+    _buffer = new StringBuilder();
+    _chunkSize = chunkSize;
+  }
+
+  private String readTrailer(File f) throws IOException {
+    byte[] data;
+    String str;
+    int idx;
+
+    try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+      data = new byte[(int) Math.min(raf.length(), TRAILER_SIZE)];
+      raf.seek(raf.length() - data.length);
+      raf.readFully(data);
+    }
+    str = new String(data, CHARSET);
+    idx = str.lastIndexOf(ITERATIONS_END);
+    return idx != -1 ? str.substring(idx) : null;
+  }
+
+  /**
+   * Reads the header of the file. Has to be called before reading chunks.
+   *
+   * @return false if the file does not contain iterations, or if its content
+   *         cannot be split in chunks.
+   */
+  public boolean open() throws IOException {
+    int idx;
+
+    if (_trailer == null) {
+      return false;
+    }
+    idx = find(ITERATION_START, 0);
+    if (idx == -1) {
+      return false;
+    }
+    _header = _buffer.substring(0, idx);
+    _buffer.delete(0, idx);
+    return true;
+  }
+
+  /**
+   * Writes the next chunk.
+   *
+   * @return the number of iterations written. Zero means that the end of the
+   *         file has been reached.
+   */
+  public int nextChunk(Writer writer) throws IOException {
+    int start, end, size = 0, count = 0;
+
+    while (size < _chunkSize) {
+      start = find(ITERATION_START, 0);
+      if (start == -1) {
+        break;
+      }
+      end = find(ITERATION_END, start);
+      if (end == -1) {
+        throw new IOException("truncated Blast XML file: iteration not closed");
+      }
+      end += ITERATION_END.length();
+      if (count == 0) {
+        writer.write(_header);
+      } else {
+        writer.write("\n");
+      }
+      writer.append(_buffer, start, end);
+      _buffer.delete(0, end);
+      size += end - start;
+      count++;
+    }
+    if (count != 0) {
+      writer.write("\n");
+      writer.write(_trailer);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the position of a string within the buffer, reading data as
+   * needed. Returns -1 if the string is not found before the end of the file.
+   */
+  private int find(String str, int from) throws IOException {
+    char[] data = new char[READ_SIZE];
+    int idx, n;
+
+    while ((idx = _buffer.indexOf(str, from)) == -1) {
+      if (_eof) {
+        return -1;
+      }
+      from = Math.max(from, _buffer.length() - str.length() + 1);
+      n = _reader.read(data);
+      if (n == -1) {
+        _eof = true;
+      } else {
+        _buffer.append(data, 0, n);
+      }
+    }
+    return idx;
+  }
+
+  @Override
+  public void close() throws IOException {
+    _reader.close();
+  }
+}
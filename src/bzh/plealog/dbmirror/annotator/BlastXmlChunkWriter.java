@@ -0,0 +1,101 @@
+/* Copyright (C) 2006-2019 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.annotator;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.commons.io.FileUtils;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.io.searchresult.ncbi.BlastLoader;
+
+/**
+ * This class writes a legacy NCBI Blast XML file by chunks. Each chunk is a
+ * Blast result containing some of the iterations of the file. The resulting
+ * file is the same as the one written by BlastLoader for a Blast result
+ * containing all the iterations.
+ *
+ * @author Patrick G. Durand
+ */
+public class BlastXmlChunkWriter implements Closeable {
+  private Writer              _writer;
+  private File                _tmpFile;
+  private BlastLoader         _loader;
+  private String              _trailer;
+
+  private static final String ITERATIONS_START = "<BlastOutput_iterations>";
+  private static final String ITERATION_END    = "</Iteration>";
+
+  /**
+   * Constructor.
+   *
+   * @param f
+   *          the file to create
+   */
+  public BlastXmlChunkWriter(File f) throws IOException {
+    _tmpFile = File.createTempFile("bdmchunk", ".xml");
+    _loader = new BlastLoader();
+    _writer = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(f), BlastXmlChunkReader.CHARSET));
+  }
+
+  /**
+   * Writes the iterations of a Blast result. The header of the file is the
+   * one of the first Blast result written.
+   */
+  public void write(SROutput bo) throws Exception {
+    String data;
+    int start, end;
+
+    if (bo.countIteration() == 0) {
+      return;
+    }
+    _loader.write(_tmpFile, bo);
+    data = FileUtils.readFileToString(_tmpFile, BlastXmlChunkReader.CHARSET);
+    start = data.indexOf(ITERATIONS_START);
+    end = data.lastIndexOf(ITERATION_END);
+    if (start == -1 || end == -1) {
+      throw new IOException("unexpected Blast XML data: iterations not found");
+    }
+    start += ITERATIONS_START.length();
+    end += ITERATION_END.length();
+    _writer.write(data, _trailer == null ? 0 : start, end
+        - (_trailer == null ? 0 : start));
+    _trailer = data.substring(end);
+  }
+
+  /**
+   * Completes the file.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (_trailer != null) {
+        _writer.write(_trailer);
+      }
+      _writer.close();
+    } finally {
+      FileUtils.deleteQuietly(_tmpFile);
+    }
+  }
+}
@@ -16,11 +16,18 @@
  */
 package bzh.plealog.dbmirror.annotator;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
 import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
 import bzh.plealog.bioinfo.io.searchresult.ncbi.BlastLoader;
 import bzh.plealog.bioinfo.io.searchresult.srnative.NativeBlastWriter;
@@ -44,6 +51,13 @@ public class PAnnotateBlastResult {
   public static final String    writer_type_xml           = "xml";
   
   public static final String    include_bco               = "incbc";
+
+  public static final String    workers                   = "workers";
+
+  public static final String    stream                    = "stream";
+
+  // number of characters of the Blast XML chunks read in streaming mode
+  private static final int      CHUNK_SIZE                = 4 * 1024 * 1024;
   
   protected static final Log    LOGGER                    = LogFactory
                                                               .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
@@ -55,6 +69,30 @@ public class PAnnotateBlastResult {
   
   public boolean annotate(String input, String output, String writer,
       String type, boolean include_BC) {
+    return annotate(input, output, writer, type, include_BC, 1);
+  }
+
+  public boolean annotate(String input, String output, String writer,
+      String type, boolean include_BC, int nbWorkers) {
+    return annotate(input, output, writer, type, include_BC, nbWorkers, false);
+  }
+
+  /**
+   * Annotates a Blast result file.
+   * 
+   * @param nbWorkers
+   *          number of threads used to annotate the iterations of the Blast
+   *          result. Use zero to use all available processors.
+   * @param streaming
+   *          if true, the Blast result is read and annotated by chunks of
+   *          iterations, so that the entire input file is never loaded in
+   *          memory. With the xml writer, each chunk is also written as soon
+   *          as it has been annotated. With the zml writer, the annotated
+   *          chunks are gathered before writing the file since that format
+   *          cannot be written by parts.
+   */
+  public boolean annotate(String input, String output, String writer,
+      String type, boolean include_BC, int nbWorkers, boolean streaming) {
     SROutputAnnotator annotator = null;
     SROutput bo;
     BlastLoader loader;
@@ -68,7 +106,23 @@ public class PAnnotateBlastResult {
       LOGGER.debug("writer: " + writer);
       LOGGER.debug("type  : " + type);
       LOGGER.debug("incbc : " + include_BC);
-      
+      LOGGER.debug("workers: " + nbWorkers);
+      LOGGER.debug("stream: " + streaming);
+
+      // classification data are computed once all iterations are annotated
+      annotator = new SROutputAnnotator(false);
+      annotator.setWorkers(nbWorkers);
+
+      if (streaming) {
+        LOGGER.debug("annotating blast result file by chunks");
+        if (annotateByChunks(new File(input), new File(output), writer, type,
+            include_BC, annotator)) {
+          LOGGER.debug("<-- annotate");
+          return true;
+        }
+        LOGGER.debug("unable to split blast result file: load it entirely");
+      }
+
       // get an NCBI blast data loader
       LOGGER.debug("loading blast result file");
       loader = new BlastLoader();
@@ -78,11 +132,8 @@ public class PAnnotateBlastResult {
 
       LOGGER.debug("annotating data");
       // start the Job
-      annotator = new SROutputAnnotator(include_BC);
-      if (annot_type_full.equals(type))
-        annotator.doFullAnnotation(bo);
-      else
-        annotator.doClassificationAnnotation(bo);
+      if (annotate(annotator, bo, type) && include_BC)
+        annotator.prepareClassification(bo);
 
       LOGGER.debug("writing results");
       // write the result
@@ -108,4 +159,97 @@ public class PAnnotateBlastResult {
     return bRet;
   }
 
+  private boolean annotate(SROutputAnnotator annotator, SROutput bo,
+      String type) {
+    if (annot_type_full.equals(type))
+      return annotator.doFullAnnotation(bo);
+    else
+      return annotator.doClassificationAnnotation(bo);
+  }
+
+  /**
+   * Annotates a Blast result file by chunks of iterations.
+   * 
+   * @return false if the input file cannot be read by chunks. In such a case,
+   *         output file has not been created.
+   * @throws Exception if a chunk cannot be loaded or annotated. In such a
+   *         case, output file is deleted.
+   */
+  private boolean annotateByChunks(File input, File output, String writer,
+      String type, boolean include_BC, SROutputAnnotator annotator)
+      throws Exception {
+    BlastXmlChunkReader reader = null;
+    BlastXmlChunkWriter xmlWriter = null;
+    BlastLoader loader;
+    SROutput bo, result = null;
+    Writer chunkWriter;
+    File chunk = null;
+    boolean found = false, done = false;
+    int nbIterations, first = 1;
+
+    try {
+      reader = new BlastXmlChunkReader(input, CHUNK_SIZE);
+      if (!reader.open()) {
+        return false;
+      }
+      chunk = File.createTempFile("bdmchunk", ".xml");
+      loader = new BlastLoader();
+      if (writer_type_xml.equals(writer)) {
+        xmlWriter = new BlastXmlChunkWriter(output);
+      }
+      while (true) {
+        chunkWriter = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(chunk), BlastXmlChunkReader.CHARSET));
+        try {
+          nbIterations = reader.nextChunk(chunkWriter);
+        } finally {
+          chunkWriter.close();
+        }
+        if (nbIterations == 0) {
+          break;
+        }
+        LOGGER.debug("annotating " + nbIterations + " iterations");
+        bo = loader.load(chunk);
+        if (bo == null) {
+          // do not produce a result missing some iterations
+          throw new Exception("unable to load iterations " + first + " to "
+              + (first + nbIterations - 1));
+        }
+        first += nbIterations;
+        if (annotate(annotator, bo, type)) {
+          found = true;
+        }
+        if (xmlWriter != null) {
+          xmlWriter.write(bo);
+        } else if (result == null) {
+          result = bo;
+        } else {
+          for (SRIteration bi : bo.getIterations()) {
+            result.addIteration(bi);
+          }
+        }
+      }
+      if (xmlWriter != null) {
+        // close now to report errors
+        xmlWriter.close();
+        xmlWriter = null;
+      } else if (result != null) {
+        if (found && include_BC) {
+          annotator.prepareClassification(result);
+        }
+        new NativeBlastWriter().write(output, result);
+      }
+      done = true;
+    } finally {
+      IOUtils.closeQuietly(reader);
+      IOUtils.closeQuietly(xmlWriter);
+      FileUtils.deleteQuietly(chunk);
+      if (!done && chunk != null) {
+        // do not leave a partly written output file
+        FileUtils.deleteQuietly(output);
+      }
+    }
+    return true;
+  }
+
 }
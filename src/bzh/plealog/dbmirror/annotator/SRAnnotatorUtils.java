@@ -230,72 +230,88 @@ public class SRAnnotatorUtils {
       DicoTermQuerySystem dico) {
     Hashtable<String, BankSequenceInfo> taxons;
     Hashtable<String, String> dbXrefs;
+    int i, size;
+    boolean dbxrefsFound = false;
+
+    size = bo.countIteration();
+    taxons = new Hashtable<String, BankSequenceInfo>();
+    dbXrefs = new Hashtable<String, String>();
+    for (i = 0; i < size; i++) {
+      if (extractDbXrefFromHitDefline(bo.getIteration(i), taxons, dbXrefs,
+          dico)) {
+        dbxrefsFound = true;
+      }
+    }
+    taxons.clear();
+    dbXrefs.clear();
+    return dbxrefsFound;
+  }
+
+  /**
+   * Same as extractDbXrefFromHitDefline(SROutput, DicoTermQuerySystem) but
+   * for a single iteration. Tables taxons and dbXrefs are used to cache
+   * dictionary data; they can be shared by several threads.
+   */
+  public static boolean extractDbXrefFromHitDefline(SRIteration bi,
+      Hashtable<String, BankSequenceInfo> taxons,
+      Hashtable<String, String> dbXrefs, DicoTermQuerySystem dico) {
     FeatureTableFactory ftFactory;
     FeatureTable fTable;
     Feature feat;
-    SRIteration bi;
     SRHit hit;
     SRHsp hsp;
     List<String> xrefs;
     String hitDef;
     BankSequenceInfo si;
-    int i, j, k, size, size2, size3, from, to, strand;
+    int j, k, size2, size3, from, to, strand;
     boolean dbxrefsFound = false, xrefsSpecificFound;
 
     ftFactory = CoreSystemConfigurator.getFeatureTableFactory();
-    size = bo.countIteration();
-    taxons = new Hashtable<String, BankSequenceInfo>();
-    dbXrefs = new Hashtable<String, String>();
-    for (i = 0; i < size; i++) {
-      bi = bo.getIteration(i);
-      size2 = bi.countHit();
-      for (j = 0; j < size2; j++) {
-        hit = bi.getHit(j);
-        hitDef = hit.getHitDef();
-        // try to locate KoriBlast/Fasta-extended special data
-        xrefs = DBXrefInstancesManager.getDbXrefs(hitDef);
-        if (xrefs.isEmpty()) {
-          xrefs = getTaxonomyFromDefLine(hitDef, dico);
-          if (xrefs == null)
-            continue;
-          xrefsSpecificFound = false;
-        } else {
-          xrefsSpecificFound = true;
-        }
-        if (!dbxrefsFound)
-          dbxrefsFound = true;
-        // remove the KoriBlast/Fasta-extended special data
-        if (xrefsSpecificFound) {
-          hit.setHitDef(hitDef.substring(0,
-              hitDef.indexOf(DBXrefInstancesManager.HIT_DEF_LINE_START)));
-        }
-        // check once for Taxonomy data if any available
-        si = prepareSequenceInfo(xrefs, taxons, dico);
-        if (si != null) {
-          hit.setSequenceInfo(si);
-        }
-        size3 = hit.countHsp();
-        for (k = 0; k < size3; k++) {
-          hsp = hit.getHsp(k);
-          fTable = ftFactory.getFTInstance();
-          from = hsp.getHit().getFrom();
-          to = hsp.getHit().getTo();
-          strand = (hsp.getHit().getFrame() < 0 ? Feature.MINUS_STRAND
-              : Feature.PLUS_STRAND);
-          feat = fTable.addFeature(
-              DBXrefInstancesManager.DEFAULT_FEATURE_TYPE_XREF,
-              Math.min(from, to), Math.max(from, to), strand);
-          if (si != null && si.getOrganism() != null) {
-            feat.addQualifier(DBXrefInstancesManager.DEFAULT_FEATURE_TYPE_ORG,
-                si.getOrganism());
-          }
-          prepareXrefsFeatureTable(dbXrefs, xrefs, feat, dico);
-          hsp.setFeatures(fTable);
+    size2 = bi.countHit();
+    for (j = 0; j < size2; j++) {
+      hit = bi.getHit(j);
+      hitDef = hit.getHitDef();
+      // try to locate KoriBlast/Fasta-extended special data
+      xrefs = DBXrefInstancesManager.getDbXrefs(hitDef);
+      if (xrefs.isEmpty()) {
+        xrefs = getTaxonomyFromDefLine(hitDef, dico);
+        if (xrefs == null)
+          continue;
+        xrefsSpecificFound = false;
+      } else {
+        xrefsSpecificFound = true;
+      }
+      if (!dbxrefsFound)
+        dbxrefsFound = true;
+      // remove the KoriBlast/Fasta-extended special data
+      if (xrefsSpecificFound) {
+        hit.setHitDef(hitDef.substring(0,
+            hitDef.indexOf(DBXrefInstancesManager.HIT_DEF_LINE_START)));
+      }
+      // check once for Taxonomy data if any available
+      si = prepareSequenceInfo(xrefs, taxons, dico);
+      if (si != null) {
+        hit.setSequenceInfo(si);
+      }
+      size3 = hit.countHsp();
+      for (k = 0; k < size3; k++) {
+        hsp = hit.getHsp(k);
+        fTable = ftFactory.getFTInstance();
+        from = hsp.getHit().getFrom();
+        to = hsp.getHit().getTo();
+        strand = (hsp.getHit().getFrame() < 0 ? Feature.MINUS_STRAND
+            : Feature.PLUS_STRAND);
+        feat = fTable.addFeature(
+            DBXrefInstancesManager.DEFAULT_FEATURE_TYPE_XREF,
+            Math.min(from, to), Math.max(from, to), strand);
+        if (si != null && si.getOrganism() != null) {
+          feat.addQualifier(DBXrefInstancesManager.DEFAULT_FEATURE_TYPE_ORG,
+              si.getOrganism());
         }
+        prepareXrefsFeatureTable(dbXrefs, xrefs, feat, dico);
+        hsp.setFeatures(fTable);
       }
     }
-    taxons.clear();
-    dbXrefs.clear();
     return dbxrefsFound;
   }
 
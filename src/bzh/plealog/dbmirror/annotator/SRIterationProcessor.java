@@ -0,0 +1,129 @@
+/* Copyright (C) 2006-2019 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.annotator;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+
+/**
+ * This class handles the iterations of a Blast result using several threads.
+ * Iterations are independent from each other: each of them is handled by a
+ * single thread, then iterations are passed to a consumer using their
+ * original order. The number of iterations handled at the same time is
+ * bounded to keep memory usage under control.
+ *
+ * @author Patrick G. Durand
+ */
+public class SRIterationProcessor {
+
+  /**
+   * Handles an iteration. Implementations have to be thread-safe.
+   */
+  public interface IterationHandler {
+    public void handle(SRIteration iteration) throws Exception;
+  }
+
+  /**
+   * Receives handled iterations. Always called from the thread that started
+   * the processing.
+   */
+  public interface IterationConsumer {
+    public void consume(SRIteration iteration) throws Exception;
+  }
+
+  private SRIterationProcessor() {
+  }
+
+  /**
+   * Returns a valid number of workers. Zero or a negative value stands for the
+   * number of available processors.
+   */
+  public static int getWorkers(int workers) {
+    int cpus = Runtime.getRuntime().availableProcessors();
+    return workers < 1 ? cpus : Math.min(workers, 4 * cpus);
+  }
+
+  /**
+   * Handles iterations.
+   *
+   * @param iterations
+   *          the iterations to handle. This iterator is only used by the thread
+   *          calling this method.
+   * @param workers
+   *          number of threads. When equals to one, iterations are handled by
+   *          the calling thread.
+   * @param handler
+   *          handles each iteration
+   * @param consumer
+   *          receives handled iterations in their original order. May be null.
+   *
+   * @throws Exception
+   *           exception raised by the handler, once all previous iterations
+   *           have been consumed, or by the consumer.
+   */
+  public static void process(Iterator<SRIteration> iterations, int workers,
+      IterationHandler handler, IterationConsumer consumer) throws Exception {
+    ArrayDeque<Future<SRIteration>> pending;
+    ExecutorService executor;
+    SRIteration iteration;
+
+    if (workers <= 1) {
+      while (iterations.hasNext()) {
+        iteration = iterations.next();
+        handler.handle(iteration);
+        if (consumer != null) {
+          consumer.consume(iteration);
+        }
+      }
+      return;
+    }
+    executor = Executors.newFixedThreadPool(workers);
+    pending = new ArrayDeque<Future<SRIteration>>();
+    try {
+      while (iterations.hasNext() || !pending.isEmpty()) {
+        // bounded number of iterations in progress
+        while (iterations.hasNext() && pending.size() < 2 * workers) {
+          final SRIteration bi = iterations.next();
+          pending.add(executor.submit(() -> {
+            handler.handle(bi);
+            return bi;
+          }));
+        }
+        try {
+          iteration = pending.poll().get();
+        } catch (ExecutionException e) {
+          throw (e.getCause() instanceof Exception) ? (Exception) e.getCause()
+              : e;
+        }
+        if (consumer != null) {
+          consumer.consume(iteration);
+        }
+      }
+    } finally {
+      for (Future<SRIteration> f : pending) {
+        f.cancel(true);
+      }
+      executor.shutdownNow();
+    }
+  }
+}
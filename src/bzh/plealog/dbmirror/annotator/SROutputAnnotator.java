@@ -19,7 +19,12 @@ package bzh.plealog.dbmirror.annotator;
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.Date;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
@@ -27,12 +32,14 @@ import org.apache.commons.logging.LogFactory;
 
 import bzh.plealog.bioinfo.api.core.config.CoreSystemConfigurator;
 import bzh.plealog.bioinfo.api.data.feature.FeatureTable;
+import bzh.plealog.bioinfo.api.data.sequence.BankSequenceInfo;
 import bzh.plealog.bioinfo.api.data.searchresult.SRHit;
 import bzh.plealog.bioinfo.api.data.searchresult.SRHsp;
 import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
 import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
 import bzh.plealog.bioinfo.data.feature.IFeatureTable;
 import bzh.plealog.dbmirror.lucenedico.DicoTermQuerySystem;
+import bzh.plealog.dbmirror.reader.DBEntryRecord;
 import bzh.plealog.dbmirror.reader.DBUtils;
 import bzh.plealog.dbmirror.reader.PQueryMirrorBase;
 import bzh.plealog.dbmirror.reader.PSequence;
@@ -51,7 +58,14 @@ public class SROutputAnnotator {
   private String              _confFile;
   private boolean             _annotatorOk;
   private boolean             _includeBC;
+  private int                 _workers = 1;
+  // idle workers of doFullAnnotation(), kept from one call to another
+  private ConcurrentLinkedQueue<FullAnnotationWorker> _fullWorkers = new ConcurrentLinkedQueue<FullAnnotationWorker>();
   
+  // bounds of the cache of entries used by doFullAnnotation()
+  private static final int    MAX_CACHED_ENTRIES = 1000;
+  private static final long   MAX_CACHED_SIZE    = 64L * 1024L * 1024L;
+
   protected static final Log  LOGGER = LogFactory
                                          .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
                                              + ".SROutputAnnotator");
@@ -120,6 +134,14 @@ public class SROutputAnnotator {
     }
   }
 
+  /**
+   * Set the number of threads used to annotate the iterations of a Blast
+   * result. Default is one. Use zero to use all available processors.
+   */
+  public void setWorkers(int workers) {
+    _workers = SRIterationProcessor.getWorkers(workers);
+  }
+
   /**
    * Annotate Blast results with biological classifications only.
    * 
@@ -131,9 +153,28 @@ public class SROutputAnnotator {
       return false;
     }
     else {
-      boolean bRet = SRAnnotatorUtils.extractDbXrefFromHitDefline(output, _dicoConnector);
+      Hashtable<String, BankSequenceInfo> taxons;
+      Hashtable<String, String> dbXrefs;
+      AtomicBoolean found;
+
+      taxons = new Hashtable<String, BankSequenceInfo>();
+      dbXrefs = new Hashtable<String, String>();
+      found = new AtomicBoolean();
+      try {
+        SRIterationProcessor.process(output.getIterations().iterator(),
+            _workers, bi -> {
+              if (SRAnnotatorUtils.extractDbXrefFromHitDefline(bi, taxons,
+                  dbXrefs, _dicoConnector)) {
+                found.set(true);
+              }
+            }, null);
+      } catch (Exception e) {
+        LOGGER.warn("unable to annotate Blast result: " + e);
+        return false;
+      }
+      boolean bRet = found.get();
       if (bRet && _includeBC) {
-        output.setClassification(SRAnnotatorUtils.prepareClassification(output, _dicoConnector));
+        prepareClassification(output);
       }
       return bRet;
     }
@@ -153,22 +194,11 @@ public class SROutputAnnotator {
       return false;
     }
 
-    PQueryMirrorBase qm;
-    PSequence[] kseqs;
-    SRIteration bi;
-    SRHit hit;
-    SRHsp hsp;
-    String db, gi, today, hitDef;
-    String[] ids, vals;
-    int blastType, nbSRIteration, nbHit, idx, nbHSP, from, to, start, stop;
-    boolean updateHitData;
+    FullAnnotation job;
+    String db;
+    int blastType;
 
     blastType = output.getBlastType();
-    nbSRIteration = output.countIteration();
-
-    today = DBUtils.getDateFormatter().format(new Date());
-
-    ids = tokenize(_config.getIdKeyString());
     // Get blastType
     if (blastType == SROutput.BLASTP || blastType == SROutput.SCANPS
         || blastType == SROutput.PSIBLAST || blastType == SROutput.BLASTX) {
@@ -176,20 +206,72 @@ public class SROutputAnnotator {
     } else {
       db = DBMirrorConfig.NUCLEOTIDEC_IDX;
     }
-    qm = new PQueryMirrorBase();
+    job = new FullAnnotation();
+    job.blastType = blastType;
+    job.db = db;
+    job.ids = tokenize(_config.getIdKeyString());
+    job.today = DBUtils.getDateFormatter().format(new Date());
     // Start to loop on SRIterations
-    for (int j = 0; j < nbSRIteration; j++) {
-      bi = output.getIteration(j);
+    try {
+      SRIterationProcessor.process(output.getIterations().iterator(),
+          _workers, bi -> doFullAnnotation(bi, job), null);
+    } catch (Exception e) {
+      LOGGER.warn("unable to annotate Blast result: " + e);
+      return false;
+    }
+
+    if (_includeBC) {
+      prepareClassification(output);
+    }
+    return true;
+
+  }
+
+  /**
+   * Sets the biological classification data of Blast results already
+   * annotated, e.g. when the iterations of the results have been annotated by
+   * several calls to doXXXAnnotation() using an annotator not including these
+   * data.
+   */
+  public void prepareClassification(SROutput output) {
+    if (_annotatorOk) {
+      output.setClassification(SRAnnotatorUtils.prepareClassification(output, _dicoConnector));
+    }
+  }
+
+  /**
+   * Annotates a single iteration with full feature tables.
+   */
+  private void doFullAnnotation(SRIteration bi, FullAnnotation job) {
+    FullAnnotationWorker worker;
+    CachedEntry cachedEntry;
+    PSequence kseq;
+    SRHit hit;
+    SRHsp hsp;
+    String gi, hitDef;
+    String[] vals;
+    int blastType, nbHit, idx, nbHSP, from, to, start, stop;
+    boolean updateHitData;
+
+    // each thread uses its own query system and cache
+    worker = _fullWorkers.poll();
+    if (worker == null) {
+      worker = new FullAnnotationWorker();
+    }
+    // the worker goes back to the pool whatever happens
+    try {
+      blastType = job.blastType;
       nbHit = bi.countHit();
 
       // Start to loop on SRHits
       for (int l = 0; l < nbHit; l++) {
         hit = bi.getHit(l);
-        vals = SRAnnotatorUtils.getIdAndDb((SRHit) hit, ids);
+        vals = SRAnnotatorUtils.getIdAndDb((SRHit) hit, job.ids);
         gi = vals[1];
 
         nbHSP = hit.countHsp();
         updateHitData = true;
+        cachedEntry = null;
 
         hitDef = hit.getHitDef();
         // skip special KoriBlast Classifications IDs
@@ -245,29 +327,24 @@ public class SROutputAnnotator {
           }
 
           try {
-            // get the databank
-            if (_confFile != null) {
-              kseqs = qm.executeJob(db, gi, start, stop, Boolean.FALSE, "insd",
-                  null, _confFile);
-            } else if (_config != null) {
-              kseqs = qm.executeJob(db, gi, start, stop, Boolean.FALSE, "insd",
-                  null, _config);
-            } else {
-              kseqs = null;
+            // the entry is read once for all HSPs of the hit
+            if (cachedEntry == null) {
+              cachedEntry = getCachedEntry(worker, job.db, gi);
             }
-            if (qm.terminateWithError()) {
+            if (cachedEntry.errMsg != null) {
               IFeatureTable ift = new IFeatureTable();
-              ift.setMessage(qm.getErrorMessage());
+              ift.setMessage(cachedEntry.errMsg);
               ift.setStatus(FeatureTable.ERROR_STATUS);
-              ift.setDate(today);
+              ift.setDate(job.today);
               hsp.setFeatures(ift);
-            } else if (kseqs != null && kseqs.length != 0 && kseqs[0] != null) {
+            } else if (cachedEntry.record != null) {
               // set the feature table into the corresponding HSP
-              hsp.setFeatures(kseqs[0].getFeatTable());
+              kseq = cachedEntry.record.getSequence(start, stop, false);
+              hsp.setFeatures(kseq.getFeatTable());
               // set the sequence information (taxonomy, etc) into the
               // corresponding HIT
               if (updateHitData) {
-                hit.setSequenceInfo(kseqs[0].getSeqInfo());
+                hit.setSequenceInfo(kseq.getSeqInfo());
                 updateHitData = false;
               }
             }
@@ -278,13 +355,91 @@ public class SROutputAnnotator {
           }
         }// end HSP loop
       }// end Hit loop
-    }// end Iteration loop
+    } finally {
+      _fullWorkers.add(worker);
+    }
+  }
 
-    if (_includeBC) {
-      output.setClassification(SRAnnotatorUtils.prepareClassification(output, _dicoConnector));
+  /**
+   * Returns the entry of a hit, reading it from the databank if it is not
+   * already in the cache.
+   */
+  private CachedEntry getCachedEntry(FullAnnotationWorker worker, String db,
+      String id) {
+    CachedEntry entry;
+
+    // a hit may be reported for several queries
+    entry = id != null ? worker.cache.get(id) : null;
+    if (entry != null) {
+      return entry;
     }
-    return true;
+    entry = new CachedEntry();
+    entry.record = worker.qm.getEntryRecord(db, id, _config);
+    if (worker.qm.terminateWithError()) {
+      entry.errMsg = worker.qm.getErrorMessage();
+    }
+    if (id != null) {
+      worker.cache.add(id, entry);
+    }
+    return entry;
+  }
 
+  /**
+   * Data shared by all threads annotating a Blast result.
+   */
+  private static class FullAnnotation {
+    private int      blastType;
+    private String   db;
+    private String[] ids;
+    private String   today;
+  }
+
+  /**
+   * Data used by a single thread annotating a Blast result.
+   */
+  private static class FullAnnotationWorker {
+    private PQueryMirrorBase qm    = new PQueryMirrorBase();
+    private EntryCache       cache = new EntryCache();
+  }
+
+  /**
+   * An entry read from a databank, or the error reported while reading it.
+   */
+  private static class CachedEntry {
+    private DBEntryRecord record;
+    private String        errMsg;
+
+    private int getSize() {
+      return record != null ? record.getSize() : 0;
+    }
+  }
+
+  /**
+   * Least recently used entries, bounded by number of entries and by total
+   * size of entries.
+   */
+  @SuppressWarnings("serial")
+  private static class EntryCache extends LinkedHashMap<String, CachedEntry> {
+    private long size;
+
+    private EntryCache() {
+      super(16, 0.75f, true);
+    }
+
+    private void add(String id, CachedEntry entry) {
+      Iterator<CachedEntry> iter;
+      CachedEntry eldest;
+
+      put(id, entry);
+      size += entry.getSize();
+      iter = values().iterator();
+      while (size() > 1
+          && (size() > MAX_CACHED_ENTRIES || size > MAX_CACHED_SIZE)) {
+        eldest = iter.next();
+        size -= eldest.getSize();
+        iter.remove();
+      }
+    }
   }
 
   public PSequence getSequence(String seqId, boolean isProtein) {
@@ -0,0 +1,236 @@
+/* Copyright (C) 2007-2022 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.fetcher;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import bzh.plealog.dbmirror.indexer.LuceneUtils;
+import bzh.plealog.dbmirror.util.Utils;
+import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
+import bzh.plealog.dbmirror.util.log.LoggerCentral;
+
+/**
+ * This class handles the list of the files a bank has been installed from.
+ * This list is saved along with the bank, so that the next installation of
+ * that bank can reuse the files that did not change in the meantime (see
+ * DBMSConfigurator.DELTA_UPDATE).<br>
+ * <br>
+ * A file is unchanged when its name, size and time stamp are the same. It is
+ * reused by linking its data file, i.e. its uncompressed version for a
+ * gzipped file, from the installed bank to the new one. Its individual Lucene
+ * index is linked too, if it has been kept. Then, the file is marked as loaded:
+ * the loaders and the tasks processing it skip it as they do when resuming an
+ * installation. Archives (tar, zip) are never reused since their content is
+ * unknown.
+ *
+ * @author Patrick G. Durand
+ */
+public class BankManifest {
+  private static final Log   LOGGER         = LogFactory
+                                                .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
+                                                    + ".BankManifest");
+
+  public static final String MANIFEST_FNAME = "files-manifest.txt";
+
+  private BankManifest() {
+  }
+
+  /**
+   * Saves the list of the files of a bank in its installation directory.
+   */
+  public static void write(DBServerConfig dbsc, List<DBMSFile> files)
+      throws IOException {
+    Path path = new File(Utils.terminatePath(dbsc.getLocalTmpFolder())
+        + MANIFEST_FNAME).toPath();
+    String header = StringUtils.isNotBlank(dbsc.getAddress()) ? dbsc
+        .getAddress() : "local";
+
+    try (BufferedWriter writer = Files.newBufferedWriter(path,
+        StandardCharsets.UTF_8)) {
+      for (DBMSFile rFile : files) {
+        writer.write(header);
+        writer.write("\t");
+        rFile.write(writer);
+        if (rFile.getChecksum() != null) {
+          writer.write("\t");
+          writer.write(rFile.getChecksum());
+        }
+        writer.newLine();
+      }
+    }
+  }
+
+  /**
+   * Reads the list of the files of a bank. Returns an empty map if that list
+   * does not exist.
+   *
+   * @param dbPath the bank installation directory
+   *
+   * @return the files, by name
+   */
+  public static Map<String, DBMSFile> read(String dbPath) throws IOException {
+    HashMap<String, DBMSFile> files = new HashMap<>();
+    File f = new File(Utils.terminatePath(dbPath) + MANIFEST_FNAME);
+    DBMSFile rFile;
+    String line;
+
+    if (!f.exists()) {
+      return files;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(f.toPath(),
+        StandardCharsets.UTF_8)) {
+      while ((line = reader.readLine()) != null) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        rFile = new DBMSFile(line);
+        files.put(rFile.getName(), rFile);
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Returns the name of the file containing the data of a file, once the
+   * unit tasks are done. Returns null for archives.
+   */
+  private static String getDataFileName(String fName) {
+    String name = fName.toLowerCase();
+
+    if (name.endsWith(".tar.gz") || name.endsWith(".tgz")
+        || name.endsWith(".tar") || name.endsWith(".zip")) {
+      return null;
+    }
+    if (name.endsWith(".gz")) {
+      return fName.substring(0, fName.length() - 3);
+    }
+    return fName;
+  }
+
+  /**
+   * Links a file or a directory. Files are copied if they cannot be linked,
+   * e.g. when located on different file systems.
+   */
+  private static void link(Path src, Path dest) throws IOException {
+    try (Stream<Path> paths = Files.walk(src)) {
+      for (Path p : (Iterable<Path>) paths::iterator) {
+        Path target = dest.resolve(src.relativize(p).toString());
+        if (Files.isDirectory(p)) {
+          Files.createDirectories(target);
+          continue;
+        }
+        try {
+          Files.createLink(target, p);
+        } catch (IOException | UnsupportedOperationException e) {
+          Files.copy(p, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reuses the unchanged files of the installed release of a bank. Sets the
+   * checksum of these files when it was recorded.
+   *
+   * @param dbsc the bank
+   * @param files the files to install
+   *
+   * @return the number of files reused
+   */
+  public static int reuseUnchangedFiles(DBServerConfig dbsc,
+      List<DBMSFile> files) {
+    Map<String, DBMSFile> installed;
+    String prodDir, tmpDir, dataName, idxName, numName;
+    File data;
+    DBMSFile old;
+    int reused = 0;
+
+    prodDir = Utils.terminatePath(dbsc.getLocalProdFolder());
+    tmpDir = Utils.terminatePath(dbsc.getLocalTmpFolder());
+    try {
+      installed = read(prodDir);
+    } catch (IOException e) {
+      LoggerCentral.warn(LOGGER, dbsc.getName() + ": unable to read "
+          + MANIFEST_FNAME + ": " + e.getMessage());
+      return 0;
+    }
+    if (installed.isEmpty()) {
+      LoggerCentral.info(LOGGER, dbsc.getName()
+          + ": no installed release to update");
+      return 0;
+    }
+    new File(tmpDir).mkdirs();
+    for (DBMSFile rFile : files) {
+      old = installed.get(rFile.getName());
+      dataName = getDataFileName(rFile.getName());
+      if (old == null || dataName == null || old.getSize() != rFile.getSize()
+          || old.getEpochStamp() != rFile.getEpochStamp()) {
+        continue;
+      }
+      data = new File(prodDir + dataName);
+      if (!data.isFile()) {
+        continue;
+      }
+      try {
+        // already done when resuming an installation
+        if (!new File(tmpDir + dataName).exists()) {
+          link(data.toPath(), new File(tmpDir + dataName).toPath());
+        }
+        // the number of entries of a file is saved by its indexing
+        idxName = dataName + LuceneUtils.DIR_OK_FEXT;
+        numName = dataName + DBMSAbstractConfig.FEXT_NUM;
+        if (new File(prodDir + idxName).isDirectory()
+            && new File(prodDir + numName).isFile()
+            && !new File(tmpDir + idxName).exists()) {
+          link(new File(prodDir + numName).toPath(),
+              new File(tmpDir + numName).toPath());
+          link(new File(prodDir + idxName).toPath(),
+              new File(tmpDir + idxName).toPath());
+        }
+      } catch (IOException e) {
+        // a partial index would not be built again
+        FileUtils.deleteQuietly(new File(tmpDir + dataName
+            + LuceneUtils.DIR_OK_FEXT));
+        LoggerCentral.warn(LOGGER, dbsc.getName() + ": unable to reuse "
+            + dataName + ": " + e.getMessage());
+        continue;
+      }
+      rFile.setChecksum(old.getChecksum());
+      LoaderEngine.setLoadOkForFile(tmpDir + rFile.getName(), old.getChecksum());
+      reused++;
+    }
+    LoggerCentral.info(LOGGER, dbsc.getName() + ": " + reused + "/"
+        + files.size() + " unchanged files reused from installed release");
+    return reused;
+  }
+}
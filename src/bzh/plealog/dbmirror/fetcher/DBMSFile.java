@@ -37,6 +37,7 @@ public class DBMSFile {
   private String  fName;
   private long    fSize;
   private long    fTimeStamp;
+  private String  fChecksum;
   
   private transient Date fDateStamp;
   private transient File fRepr;
@@ -45,7 +46,8 @@ public class DBMSFile {
    * Constructor
    * 
    * @param line must contain four fields separated by a tab. Fields in this order:
-   * path to file, file name, size (bytes), time stamp (long value from epoch)
+   * path to file, file name, size (bytes), time stamp (long value from epoch).
+   * An optional checksum field may follow.
    */
   public DBMSFile(String line) {
     super();
@@ -92,6 +94,18 @@ public class DBMSFile {
     return fTimeStamp;
   }
   
+  /**
+   * Returns the checksum of this file, formatted as its type followed by its
+   * value. Returns null if this file has not been verified.
+   */
+  public String getChecksum() {
+    return fChecksum;
+  }
+
+  public void setChecksum(String checksum) {
+    fChecksum = checksum;
+  }
+
   public File getRemoteFile() {
     if (fRepr==null) {
       fRepr = new File(EZFileUtils.terminatePath(remoteDir)+fName);
@@ -115,6 +129,9 @@ public class DBMSFile {
     fName = elements[2];
     fSize = Long.valueOf(elements[3]);
     fTimeStamp = Long.valueOf(elements[4]);
+    if (elements.length > 5) {
+      fChecksum = elements[5];
+    }
   }
 
 }
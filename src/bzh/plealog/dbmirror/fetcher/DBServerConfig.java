@@ -68,6 +68,9 @@ public class DBServerConfig {
   private static final String   DBLDIR_KEY           = "db.ldir";
   private static final String   DBINCFILES_KEY       = "db.files.include";
   private static final String   DBEXCFILES_KEY       = "db.files.exclude";
+  // md5, sha1, sha256 or sha512: type and extension of the checksum files
+  // published along with the data files
+  private static final String   DBCHECKSUM_KEY       = "db.files.checksum";
   // for future use
   private static final String   DBDTFROM_KEY         = "db.date.from";
   private static final String   DBDTTO_KEY           = "db.date.to";
@@ -118,7 +121,7 @@ public class DBServerConfig {
 
   private static final String[] KEYS                 = { DBNAME_KEY,
       DBDESC_KEY, DBPROVIDER_KEY, DBTYPE_KEY, DBLDIR_KEY, DBINCFILES_KEY, DBEXCFILES_KEY,
-      DBDTFROM_KEY, DBDTTO_KEY, TASKS_U_POST, TASKS_G_POST, TASKS_G_PRE,
+      DBCHECKSUM_KEY, DBDTFROM_KEY, DBDTTO_KEY, TASKS_U_POST, TASKS_G_POST, TASKS_G_PRE,
       FTPSERVER_KEY,
       FTPPORT_KEY, FTPUNAME_KEY, FTPPSWD_KEY, FTPRDIR_KEY, FTPRDIR_EXCL_KEY,
       FTPALT_PROTOCOL_KEY,
@@ -559,6 +562,14 @@ public class DBServerConfig {
     return val;
   }
 
+  /**
+   * Returns the type of the checksum files published along with the data
+   * files. Returns null if the provider does not publish such files.
+   */
+  public String getFilesChecksumType() {
+    return _properties.getProperty(DBCHECKSUM_KEY);
+  }
+
   public String getDBLocalInstallDir() {
     return _properties.getProperty(DBLDIR_KEY);
   }
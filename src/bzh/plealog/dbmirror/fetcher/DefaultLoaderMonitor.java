@@ -18,6 +18,7 @@ package bzh.plealog.dbmirror.fetcher;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.StringTokenizer;
 
 import org.apache.commons.lang.StringUtils;
@@ -51,6 +52,7 @@ import bzh.plealog.dbmirror.task.PTaskUnzip;
 import bzh.plealog.dbmirror.util.Formatters;
 import bzh.plealog.dbmirror.util.Utils;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
+import bzh.plealog.dbmirror.util.conf.DBMSConfigurator;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
 
 /**
@@ -63,6 +65,10 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
   private DBServerConfig    _dbConf;
   private ArrayList<String> _luceneDirs;
   private ArrayList<String> _formatDBfiles;
+  // global tasks indexing dictionaries
+  private ArrayList<PTask>  _dicoTasks;
+  // last unit task added for the file being handled
+  private PTask             _lastUnitTask;
   // nb. of sequences to retrieve
   private int               _files;
   // nb. of sequences successfully downloaded
@@ -89,6 +95,7 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
     _files = nbFilesToRetrieve;
     _luceneDirs = new ArrayList<String>();
     _formatDBfiles = new ArrayList<String>();
+    _dicoTasks = new ArrayList<PTask>();
   }
 
   /**
@@ -154,15 +161,17 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
         _luceneDirs.add(aName + LuceneUtils.DIR_OK_FEXT);
         PTaskDicoIndexer dicoTask = new PTaskDicoIndexer(aName);
         dicoTask.setParameters(args);
-        _taskEngine.addTask(dicoTask, _dbConf.getName());
+        _taskEngine.addTask(dicoTask, _dbConf.getName(), _dicoTasks);
+        _dicoTasks.add(dicoTask);
       }
     }
     // start Lucene indexes merging only when all individual files
-    // have been indexed
+    // have been indexed. Unit tasks are all done since they precede the
+    // release date task; formatdb may run alongside the merge.
     if (_luceneDirs.size() == _files) {
       str = getFullDBPathName();
       _taskEngine.addTask(new PTaskLuceneDirMerge(str, _luceneDirs),
-          _dbConf.getName());
+          _dbConf.getName(), _dicoTasks);
     }
 
     // Handle all other tasks
@@ -185,7 +194,8 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
         PTaskFormatDB fTask = new PTaskFormatDB(_formatDBfiles,
             getFullDBPathName(), _dbConf.isNucleic());
         fTask.setParameters(getTaskParameters(task, PTask.TASK_G_FORMATDB));
-        _taskEngine.addTask(fTask, _dbConf.getName());
+        _taskEngine.addTask(fTask, _dbConf.getName(),
+            Collections.<PTask> emptyList());
       }
       
       // user provided external script
@@ -208,8 +218,15 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
             "*.tar"), _dbConf.getName());
       }
       else if (task.indexOf(PTask.TASK_G_DELETETMPIDX) >= 0) {
-        _taskEngine.addTask(new PTaskDeleteFiles(_dbConf.getLocalTmpFolder(),
-            "*" + LuceneUtils.DIR_OK_FEXT + "/**"), _dbConf.getName());
+        // individual indexes are part of the bank index when not merged
+        if (DBMSAbstractConfig.isLuceneMultiIndex()) {
+          LoggerCentral.warn(LOGGER, _dbConf.getName() + ": "
+              + PTask.TASK_G_DELETETMPIDX + " ignored: "
+              + DBMSConfigurator.LUCENE_MULTI_INDEX + " is set");
+        } else {
+          _taskEngine.addTask(new PTaskDeleteFiles(_dbConf.getLocalTmpFolder(),
+              "*" + LuceneUtils.DIR_OK_FEXT + "/**"), _dbConf.getName());
+        }
       }
       else if (task.indexOf(PTask.TASK_G_MAKEALIAS) >= 0) {
         PTaskMakeBlastAlias mkTask = new PTaskMakeBlastAlias(
@@ -233,6 +250,8 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
 
     uTasks = _dbConf.getUnitPostTasks();
     gTasks = _dbConf.getGlobalPostTasks();
+    // tasks of a file are independent from the ones of other files
+    _lastUnitTask = null;
 
     // at the origin of the system, list of unit tasks where not tokenized
     // using a comma (,)
@@ -328,6 +347,20 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
     _taskEngine.addTask(task, _dbConf.getName());
   }
 
+  /**
+   * Adds a task processing the file being handled. It runs after the previous
+   * tasks processing that file, possibly alongside tasks processing other
+   * files.
+   */
+  private void addUnitTaskToEngine(PTask task) {
+    ArrayList<PTask> dependsOn = new ArrayList<PTask>();
+    if (_lastUnitTask != null) {
+      dependsOn.add(_lastUnitTask);
+    }
+    _taskEngine.addTask(task, _dbConf.getName(), dependsOn);
+    _lastUnitTask = task;
+  }
+
   private void handleUnitTask(String unitTask, String uTasks, String gTasks,
       String fName) {
     String aName;
@@ -337,10 +370,10 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
     // (g)unzip ?
     if (unitTask.contains(PTask.TASK_U_GUNZIP)) {
       if (fName.toLowerCase().endsWith(".zip")) {
-        addTaskToEngine(new PTaskUnzip(_dbConf.getLocalTmpFolder() + fName,
+        addUnitTaskToEngine(new PTaskUnzip(_dbConf.getLocalTmpFolder() + fName,
             _dbConf.getLocalTmpFolder()));
       } else if (fName.toLowerCase().endsWith(".gz")) {
-        addTaskToEngine(new PTaskGunzip(_dbConf.getLocalTmpFolder() + fName,
+        addUnitTaskToEngine(new PTaskGunzip(_dbConf.getLocalTmpFolder() + fName,
             _dbConf.getLocalTmpFolder()));
       }
     }
@@ -351,18 +384,18 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
       if (fName.toLowerCase().endsWith(".tar.gz")) {
         // remove ".gz" because it will be done before with an gunzip
         // task
-        addTaskToEngine(new PTaskUntar(StringUtils.removeEnd(
+        addUnitTaskToEngine(new PTaskUntar(StringUtils.removeEnd(
             _dbConf.getLocalTmpFolder() + fName, ".gz"),
             _dbConf.getLocalTmpFolder()));
       }
       // case 2
       else if (fName.toLowerCase().endsWith(".tar")) {
-        addTaskToEngine(new PTaskUntar(_dbConf.getLocalTmpFolder() + fName,
+        addUnitTaskToEngine(new PTaskUntar(_dbConf.getLocalTmpFolder() + fName,
             _dbConf.getLocalTmpFolder()));
       }
       // case 3
       else if (fName.toLowerCase().endsWith(".tgz")) {
-        addTaskToEngine(new PTaskUntarTgz(_dbConf.getLocalTmpFolder() + fName,
+        addUnitTaskToEngine(new PTaskUntarTgz(_dbConf.getLocalTmpFolder() + fName,
             _dbConf.getLocalTmpFolder()));
       }
     }
@@ -371,7 +404,7 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
     // supported
     else if (unitTask.contains(PTask.TASK_U_BOLD2GB)) {
       aName = getTaskFilepath(unitTask, fName, true);
-      addTaskToEngine(new PTaskBold2Genbank(aName));
+      addUnitTaskToEngine(new PTaskBold2Genbank(aName));
     }
 
     // create Lucene index for GB or GP?
@@ -383,7 +416,7 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
       PTaskLuceneGBIndexer fTask = new PTaskLuceneGBIndexer(aName);
       fTask.setParameters(getTaskParameters(unitTask, PTask.TASK_U_GB_IDX));
       fTask.setParameters(getTaskParameters(unitTask, PTask.TASK_U_GP_IDX));
-      addTaskToEngine(fTask);
+      addUnitTaskToEngine(fTask);
       addForFormatDb(gTasks, aName);
     }
 
@@ -396,7 +429,7 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
       PTaskLuceneSWIndexer fTask = new PTaskLuceneSWIndexer(aName);
       fTask.setParameters(getTaskParameters(unitTask, PTask.TASK_U_SW_IDX));
       fTask.setParameters(getTaskParameters(unitTask, PTask.TASK_U_EM_IDX));
-      addTaskToEngine(fTask);
+      addUnitTaskToEngine(fTask);
       addForFormatDb(gTasks, aName);
     }
 
@@ -406,7 +439,7 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
       _luceneDirs.add(aName + LuceneUtils.DIR_OK_FEXT);
       PTaskEggNogIndexer task = new PTaskEggNogIndexer(aName);
       task.setParameters(getTaskParameters(unitTask, PTask.TASK_U_NOG_IDX));
-      addTaskToEngine(task);
+      addUnitTaskToEngine(task);
       addForFormatDb(gTasks, aName);
     }
 
@@ -446,11 +479,11 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
             new File(aName).getName(), false), _dbConf.getName() + "00", fTask);
       }
 
-      addTaskToEngine(fTask);
+      addUnitTaskToEngine(fTask);
       addForFormatDb(gTasks, aName);
       // Add the task renamer AFTER the index one
       if (taskRenamer != null) {
-        addTaskToEngine(taskRenamer);
+        addUnitTaskToEngine(taskRenamer);
       }
     }
 
@@ -471,7 +504,7 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
       PTaskDicoIndexer dicoTask = new PTaskDicoIndexer(aName);
       dicoTask
           .setParameters(getTaskParameters(unitTask, PTask.TASK_U_DICO_IDX));
-      addTaskToEngine(dicoTask);
+      addUnitTaskToEngine(dicoTask);
       addForFormatDb(gTasks, aName);
     }
 
@@ -482,7 +515,7 @@ public class DefaultLoaderMonitor implements LoaderMonitor {
       PTaskExecScript execTask = new PTaskExecScript(dicoPath, aName,
           _dbConf.getName(), _dbConf.getTypeCode());
       execTask.setParameters(getTaskParameters(unitTask, PTask.TASK_U_DICO_IDX));
-      addTaskToEngine(execTask);
+      addUnitTaskToEngine(execTask);
     }
     
     // no unit task
@@ -0,0 +1,220 @@
+/* Copyright (C) 2007-2022 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.fetcher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
+import bzh.plealog.dbmirror.util.log.LoggerCentral;
+
+/**
+ * This class computes the checksum of a file while its data are transferred.
+ * Providers publish such checksums in companion files, e.g. nr.gz.md5 for
+ * nr.gz; a descriptor declares them with the db.files.checksum key (md5, sha1,
+ * sha256 or sha512), which is also the extension of the companion files.
+ *
+ * @author Patrick G. Durand
+ */
+public class FileChecksum {
+  private String        _type;
+  private MessageDigest _digest;
+  private long          _count;
+  private String        _value;
+
+  private static final Log     LOGGER   = LogFactory
+                                            .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
+                                                + ".FileChecksum");
+
+  private static final String[] TYPES    = { "md5", "sha1", "sha256", "sha512" };
+  private static final String[] ALGOS    = { "MD5", "SHA-1", "SHA-256",
+      "SHA-512"                         };
+  private static final Pattern  HEX      = Pattern
+                                            .compile("\\b[0-9a-fA-F]{32,128}\\b");
+  // e.g. MD5 (nr.gz) = 0123...
+  private static final Pattern  BSD_LINE = Pattern
+                                            .compile("\\w+ \\((.+)\\) = ([0-9a-fA-F]{32,128})");
+  private static final int      BUF_SIZE = 64 * 1024;
+
+  private FileChecksum(String type, MessageDigest digest) {
+    _type = type;
+    _digest = digest;
+  }
+
+  /**
+   * Returns a new checksum for a file of a databank, or null if the descriptor
+   * of that databank does not declare checksums.
+   */
+  public static FileChecksum create(DBServerConfig dbsc) {
+    String type = dbsc.getFilesChecksumType();
+
+    if (StringUtils.isBlank(type)) {
+      return null;
+    }
+    type = type.trim().toLowerCase();
+    for (int i = 0; i < TYPES.length; i++) {
+      if (TYPES[i].equals(type)) {
+        try {
+          return new FileChecksum(type, MessageDigest.getInstance(ALGOS[i]));
+        } catch (NoSuchAlgorithmException e) {
+          break;
+        }
+      }
+    }
+    LoggerCentral.warn(LOGGER, dbsc.getName() + ": unknown checksum type: "
+        + type);
+    return null;
+  }
+
+  public String getType() {
+    return _type;
+  }
+
+  /**
+   * Returns the name of the companion file containing the checksum of a file.
+   */
+  public String getCompanionName(String fName) {
+    return fName + "." + _type;
+  }
+
+  /**
+   * Returns the checksum of a file from the content of its companion file.
+   * Handles lists of checksums (one file per line, as written by md5sum or by
+   * BSD md5) as well as single ones. In a list, the file name has to match
+   * exactly. Returns null if no checksum is found.
+   */
+  public static String parseCompanion(String content, String fName) {
+    String digest, name, single = null;
+    Matcher m;
+    int nDigests = 0;
+
+    if (content == null) {
+      return null;
+    }
+    for (String line : content.split("\n")) {
+      line = line.trim();
+      m = BSD_LINE.matcher(line);
+      if (m.matches()) {
+        name = m.group(1);
+        digest = m.group(2);
+      } else {
+        m = HEX.matcher(line);
+        if (!m.lookingAt()) {
+          continue;
+        }
+        digest = m.group();
+        name = line.substring(m.end()).trim();
+        // md5sum marks files read in binary mode with a '*'
+        if (name.startsWith("*")) {
+          name = name.substring(1);
+        }
+      }
+      if (name.equals(fName) || name.endsWith("/" + fName)) {
+        return digest.toLowerCase();
+      }
+      single = digest;
+      nDigests++;
+    }
+    // a single checksum, whatever the file name it refers to
+    return nDigests == 1 ? single.toLowerCase() : null;
+  }
+
+  /**
+   * Resets this checksum.
+   */
+  public void reset() {
+    _digest.reset();
+    _count = 0;
+    _value = null;
+  }
+
+  /**
+   * Returns the number of bytes given to this checksum.
+   */
+  public long getCount() {
+    return _count;
+  }
+
+  /**
+   * Returns a stream computing this checksum on the data written to another
+   * stream.
+   */
+  public OutputStream wrap(OutputStream out) {
+    return new FilterOutputStream(out) {
+      @Override
+      public void write(int b) throws IOException {
+        out.write(b);
+        _digest.update((byte) b);
+        _count++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        _digest.update(b, off, len);
+        _count += len;
+      }
+    };
+  }
+
+  /**
+   * Gives the first bytes of a file to this checksum. Used for files
+   * whose data are not written through wrap(), e.g. the part of a file
+   * downloaded before a transfer is resumed.
+   */
+  public void update(File f, long length) throws IOException {
+    byte[] buf = new byte[BUF_SIZE];
+    int n;
+
+    try (InputStream in = new FileInputStream(f)) {
+      while (length > 0
+          && (n = in.read(buf, 0, (int) Math.min(buf.length, length))) != -1) {
+        _digest.update(buf, 0, n);
+        _count += n;
+        length -= n;
+      }
+    }
+  }
+
+  /**
+   * Returns the value of this checksum, as an hexadecimal string.
+   */
+  public String getValue() {
+    StringBuilder buf;
+
+    if (_value == null) {
+      buf = new StringBuilder();
+      for (byte b : _digest.digest()) {
+        buf.append(String.format("%02x", b));
+      }
+      _value = buf.toString();
+    }
+    return _value;
+  }
+}
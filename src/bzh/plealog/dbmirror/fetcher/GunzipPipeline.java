@@ -0,0 +1,290 @@
+/* Copyright (C) 2007-2022 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.fetcher;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import bzh.plealog.dbmirror.task.PTask;
+import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
+
+/**
+ * This class uncompresses a gzipped file while its data are downloaded. Data
+ * written to this stream are handed over to a separate thread through a
+ * bounded buffer, so that the transfer and the decompression run alongside
+ * each other. Uncompressed data are written in a temporary file that becomes
+ * the target file only when commit() is called: a target file that exists is
+ * always complete.<br>
+ * Usage: write the gzipped data, call close() to wait for the decompression,
+ * then call commit() if the transfer succeeded. Calling abort() at the end
+ * discards the data if they were not committed.
+ *
+ * @author Patrick G. Durand
+ */
+public class GunzipPipeline extends OutputStream {
+  private BlockingQueue<byte[]> _queue;
+  private Thread                _inflater;
+  private File                  _target;
+  private File                  _tmpFile;
+  private byte[]                _current;
+  private int                   _curPos;
+  private volatile Exception    _error;
+  private volatile boolean      _inflated;
+  private boolean               _closed;
+  private boolean               _committed;
+
+  /** extension of the file under construction */
+  public static final String    PART_FEXT   = ".part";
+
+  private static final byte[]   EOF         = new byte[0];
+  // at most 64 blocks of 64 Kb are waiting for the inflater
+  private static final int      QUEUE_SIZE  = 64;
+  private static final int      BLOCK_SIZE  = 64 * 1024;
+  private static final int      WRITE_SIZE  = 1024 * 1024;
+  private static final long     WAIT_TIME   = 100;
+
+  /**
+   * Constructor. Starts the decompression thread.
+   *
+   * @param target
+   *          the uncompressed file to create
+   */
+  public GunzipPipeline(File target) {
+    _target = target;
+    _tmpFile = new File(target.getAbsolutePath() + PART_FEXT);
+    _queue = new ArrayBlockingQueue<byte[]>(QUEUE_SIZE);
+    _current = new byte[BLOCK_SIZE];
+    _inflater = new Thread(this::inflate, "gunzip-" + target.getName());
+    _inflater.setDaemon(true);
+    _inflater.start();
+  }
+
+  /**
+   * Figures out whether a file of a databank can be uncompressed while it is
+   * downloaded: this has to be allowed by the configuration and the databank
+   * has to gunzip its files anyway.
+   */
+  public static boolean canGunzip(DBServerConfig dbsc, String fName) {
+    String tasks;
+
+    if (!DBMSAbstractConfig.isGunzipWhileCopying()
+        || !fName.toLowerCase().endsWith(".gz")) {
+      return false;
+    }
+    tasks = dbsc.getUnitPostTasks();
+    return tasks != null && tasks.contains(PTask.TASK_U_GUNZIP);
+  }
+
+  /**
+   * Returns the uncompressed file corresponding to a gzipped one.
+   */
+  public static File getTargetFile(File gzFile) {
+    String name = gzFile.getAbsolutePath();
+    return new File(name.substring(0, name.length() - 3));
+  }
+
+  public File getTargetFile() {
+    return _target;
+  }
+
+  private void inflate() {
+    try (InputStream in = new GZIPInputStream(new QueueInputStream(),
+        BLOCK_SIZE);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(
+            _tmpFile), WRITE_SIZE)) {
+      IOUtils.copyLarge(in, out, new byte[BLOCK_SIZE]);
+      _inflated = true;
+    } catch (Exception e) {
+      _error = e;
+      _queue.clear();
+    }
+  }
+
+  private void checkError() throws IOException {
+    if (_error != null) {
+      throw new IOException("unable to gunzip " + _target.getName() + ": "
+          + _error.getMessage(), _error);
+    }
+  }
+
+  /**
+   * Hands over a block of data to the inflater.
+   */
+  private void enqueue(byte[] block) throws IOException {
+    try {
+      while (!_queue.offer(block, WAIT_TIME, TimeUnit.MILLISECONDS)) {
+        checkError();
+        // trailing data after the end of the gzipped data are ignored, as
+        // GZIPInputStream does
+        if (_inflated) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("data transfer interrupted");
+    }
+  }
+
+  private void flushBlock() throws IOException {
+    if (_curPos != 0) {
+      enqueue(Arrays.copyOf(_current, _curPos));
+      _curPos = 0;
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (_curPos == _current.length) {
+      flushBlock();
+    }
+    _current[_curPos++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    int n;
+
+    checkError();
+    while (len > 0) {
+      if (_curPos == _current.length) {
+        flushBlock();
+      }
+      n = Math.min(len, _current.length - _curPos);
+      System.arraycopy(b, off, _current, _curPos, n);
+      _curPos += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Ends the transfer and waits for the decompression of all data.
+   *
+   * @throws IOException
+   *           if the data cannot be uncompressed
+   */
+  @Override
+  public void close() throws IOException {
+    if (_closed) {
+      return;
+    }
+    _closed = true;
+    flushBlock();
+    enqueue(EOF);
+    try {
+      _inflater.join();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("decompression interrupted");
+    }
+    checkError();
+  }
+
+  /**
+   * Makes the uncompressed file available. Has to be called after close().
+   */
+  public void commit() throws IOException {
+    if (!_closed || !_inflated) {
+      throw new IOException("data not uncompressed: " + _target.getName());
+    }
+    if (_target.exists() && !_target.delete()) {
+      throw new IOException("unable to delete " + _target.getAbsolutePath());
+    }
+    if (!_tmpFile.renameTo(_target)) {
+      throw new IOException("unable to rename " + _tmpFile.getAbsolutePath());
+    }
+    _committed = true;
+  }
+
+  /**
+   * Discards uncompressed data if they have not been committed.
+   */
+  public void abort() {
+    if (_committed) {
+      return;
+    }
+    _closed = true;
+    _inflater.interrupt();
+    try {
+      _inflater.join();
+    } catch (InterruptedException e) {
+    }
+    FileUtils.deleteQuietly(_tmpFile);
+  }
+
+  /**
+   * The input stream read by the inflater.
+   */
+  private class QueueInputStream extends InputStream {
+    private byte[] _block;
+    private int    _pos;
+
+    private boolean nextBlock() throws IOException {
+      if (_block == EOF) {
+        return false;
+      }
+      while (_block == null || _pos == _block.length) {
+        try {
+          _block = _queue.take();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException("decompression interrupted");
+        }
+        _pos = 0;
+        if (_block == EOF) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!nextBlock()) {
+        return -1;
+      }
+      return _block[_pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n;
+
+      if (len == 0) {
+        return 0;
+      }
+      if (!nextBlock()) {
+        return -1;
+      }
+      n = Math.min(len, _block.length - _pos);
+      System.arraycopy(_block, _pos, b, off, n);
+      _pos += n;
+      return n;
+    }
+  }
+}
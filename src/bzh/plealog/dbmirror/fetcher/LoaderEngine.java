@@ -18,6 +18,9 @@ package bzh.plealog.dbmirror.fetcher;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.io.FileUtils;
 
 /**
  * A super class to merge the shared method between the FTP and the Local
@@ -31,6 +34,7 @@ public class LoaderEngine extends Thread {
   protected DBServerConfig _dbsc;
   protected LoaderMonitor  _monitor;
   protected boolean        _ok;
+  private Semaphore        _downloadSlots;
 
   // File load/Copy done with success (to enable easiest resume of bank installation
   // especially after a cleanup of source files)
@@ -99,6 +103,34 @@ public class LoaderEngine extends Thread {
     this._monitor = _monitor;
   }
 
+  /**
+   * Sets the download slots shared with other engines. When set, each file
+   * transfer needs a slot, so that engines running concurrently do not exceed
+   * a global number of downloads.
+   */
+  public void setDownloadSlots(Semaphore slots) {
+    _downloadSlots = slots;
+  }
+
+  /**
+   * Waits for a download slot, if any. A call to this method has to be
+   * followed by a call to releaseDownloadSlot().
+   */
+  protected void acquireDownloadSlot() {
+    if (_downloadSlots != null) {
+      _downloadSlots.acquireUninterruptibly();
+    }
+  }
+
+  /**
+   * Releases a slot obtained with acquireDownloadSlot().
+   */
+  protected void releaseDownloadSlot() {
+    if (_downloadSlots != null) {
+      _downloadSlots.release();
+    }
+  }
+
   public static void setLoadOkForFile(String fPath) {
     File f = new File(fPath+LOAD_OK_FEXT);
     try {
@@ -110,6 +142,35 @@ public class LoaderEngine extends Thread {
     }
   }
   
+  /**
+   * Same as setLoadOkForFile(String) and also records the checksum of the
+   * file, if any: a resumed installation does not have to verify it again.
+   */
+  public static void setLoadOkForFile(String fPath, String checksum) {
+    if (checksum == null) {
+      setLoadOkForFile(fPath);
+      return;
+    }
+    try {
+      FileUtils.writeStringToFile(new File(fPath+LOAD_OK_FEXT), checksum, "UTF-8");
+    } catch (IOException e) {
+      //same as above
+    }
+  }
+
+  /**
+   * Returns the checksum recorded with setLoadOkForFile(String, String). Returns
+   * null if none.
+   */
+  public static String getLoadOkChecksum(String fPath) {
+    File f = new File(fPath+LOAD_OK_FEXT);
+    try {
+      return f.length() != 0 ? FileUtils.readFileToString(f, "UTF-8").trim() : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
   public static boolean testLoadOkForFileExists(String fPath) {
     File f = new File(fPath+LOAD_OK_FEXT);
     return f.exists();
@@ -17,9 +17,11 @@
 package bzh.plealog.dbmirror.fetcher;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Timer;
 import java.util.TimerTask;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -108,6 +110,33 @@ public class PAsperaLoader extends PFTPLoader {
     return bRet;
 	}
 
+  @Override
+  protected boolean canGunzipWhileLoading() {
+    // files are written by the ascp command-line tool
+    return false;
+  }
+
+  @Override
+  protected String fetchChecksum(DBServerConfig fsc, DBMSFile rFile, String fName) {
+    File f = new File(fsc.getLocalTmpFolder() + fName);
+
+    if (aspera_cmd==null) {
+      return null;
+    }
+    //small file: simply retrieved in the local directory, then discarded
+    new File(fsc.getLocalTmpFolder()).mkdirs();
+    try {
+      if (aspera_cmd.getRemoteFile(rFile.getRemoteDir() + fName) && f.exists()) {
+        return FileUtils.readFileToString(f, "UTF-8");
+      }
+    } catch (IOException e) {
+      LoggerCentral.info(LOGGER, getLoaderId() + ": " + fName + ": " + e.getMessage());
+    } finally {
+      f.delete();
+    }
+    return null;
+  }
+
 	@Override
 	protected int downloadFile(DBServerConfig fsc, DBMSFile rFile, File file, long lclFSize) {
 		int iRet = 0;
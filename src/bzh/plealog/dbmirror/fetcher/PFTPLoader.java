@@ -17,10 +17,12 @@
 package bzh.plealog.dbmirror.fetcher;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -58,6 +60,9 @@ public class PFTPLoader {
   private int                   _timeout     = 50000;
   private String                _fileOfFiles;
   private FTPClient             _ftp = null;
+  // checksum of the file being downloaded; null if it is not verified
+  FileChecksum                  _checksum;
+  private String                _verifiedChecksum;
   
   protected static final String CANCEL_MSG   = "job cancelled";
   protected static final String CONN_ERR_MSG = "Server does not answer. Retry...";
@@ -103,6 +108,15 @@ public class PFTPLoader {
     return _errMsg;
   }
 
+  /**
+   * Returns the checksum of the latest file handled by this loader, formatted
+   * as its type followed by its value. Returns null if that file has not been
+   * verified.
+   */
+  public String getChecksum() {
+    return _verifiedChecksum;
+  }
+
   public void setUserProcessingMonitor(UserProcessingMonitor userMonitor) {
     _userMonitor = userMonitor;
   }
@@ -195,7 +209,58 @@ public class PFTPLoader {
    *         resuming from a previous work) and 3 if aborted.
    * */
 	protected int downloadFile(DBServerConfig fsc, DBMSFile rFile, File file, long lclFSize) {
-		FileOutputStream fos = null;
+	  return transferFile(fsc, rFile, file, lclFSize, false);
+	}
+
+  /**
+   * Downloads a gzipped file and uncompresses it while its data are received.
+   * Only the uncompressed file is created. Parameters and returned values are
+   * the same as downloadFile().
+   */
+  protected int downloadAndGunzip(DBServerConfig fsc, DBMSFile rFile, File file) {
+    return transferFile(fsc, rFile, file, 0l, true);
+  }
+
+  /**
+   * Figures out whether this loader can uncompress gzipped files while they
+   * are downloaded (see downloadAndGunzip()).
+   */
+  protected boolean canGunzipWhileLoading() {
+    return true;
+  }
+
+  /**
+   * Returns a stream computing the checksum of the data written to another
+   * stream, if the file being downloaded has to be verified. Otherwise,
+   * returns that other stream.
+   */
+  protected OutputStream wrapOutput(OutputStream out) {
+    return _checksum != null ? _checksum.wrap(out) : out;
+  }
+
+  /**
+   * Returns the content of a checksum file located in the remote directory
+   * of a data file. Returns null if that checksum file cannot be retrieved.
+   */
+  protected String fetchChecksum(DBServerConfig fsc, DBMSFile rFile, String fName) {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+    try {
+      if (_ftp.changeWorkingDirectory(rFile.getRemoteDir())) {
+        _ftp.setRestartOffset(0l);
+        if (_ftp.retrieveFile(fName, bos)) {
+          return bos.toString("UTF-8");
+        }
+      }
+    } catch (IOException e) {
+      LoggerCentral.info(LOGGER, getLoaderId() + ": " + fName + ": " + e.getMessage());
+    }
+    return null;
+  }
+
+	private int transferFile(DBServerConfig fsc, DBMSFile rFile, File file, long lclFSize, boolean gunzip) {
+		OutputStream fos = null;
+		GunzipPipeline pipeline = null;
 		InputStream ftpIS = null;
 		String remoteFName;
 		long remoteFSize;
@@ -211,12 +276,17 @@ public class PFTPLoader {
 				// download file
 				LoggerCentral.info(LOGGER, "  " + getLoaderId() + ": download: " + rFile.getRemoteDir() + remoteFName);
 				
-				if (lclFSize!=0) {
-				  fos = new FileOutputStream(file, true);
+				if (gunzip) {
+				  pipeline = new GunzipPipeline(GunzipPipeline.getTargetFile(file));
+				  fos = wrapOutput(pipeline);
+				  _ftp.setRestartOffset(0l);
+				}
+				else if (lclFSize!=0) {
+				  fos = wrapOutput(new FileOutputStream(file, true));
 				  _ftp.setRestartOffset(lclFSize);
 				}
 				else {
-          fos = new FileOutputStream(file);  
+          fos = wrapOutput(new FileOutputStream(file));
           _ftp.setRestartOffset(0l);
 				}
 				ftpIS = _ftp.retrieveFileStream(remoteFName);
@@ -227,9 +297,19 @@ public class PFTPLoader {
 						new MyCopyStreamListener(getLoaderId(), _userMonitor, fsc.getName(), remoteFName, remoteFSize, lclFSize));
 				IOUtils.closeQuietly(ftpIS);
 				fos.flush();
+				if (pipeline != null) {
+				  // wait for the end of the decompression
+				  pipeline.close();
+				}
 				IOUtils.closeQuietly(fos);
 				if (_ftp.completePendingCommand()) {
-					file.setLastModified(remoteFDate.getTime());
+				  if (pipeline != null) {
+				    pipeline.commit();
+				    pipeline.getTargetFile().setLastModified(remoteFDate.getTime());
+				  }
+				  else {
+				    file.setLastModified(remoteFDate.getTime());
+				  }
 				} else {
 					throw new Exception(getLoaderId() + ": unable to download full file.");
 				}
@@ -244,7 +324,12 @@ public class PFTPLoader {
 			bRet = 0;
 		} finally {
 			IOUtils.closeQuietly(ftpIS);
-			IOUtils.closeQuietly(fos);
+			if (pipeline != null) {
+			  pipeline.abort();
+			}
+			else {
+			  IOUtils.closeQuietly(fos);
+			}
 		}
 		return bRet;
 	}
@@ -273,16 +358,24 @@ public class PFTPLoader {
   public int downloadFile(DBServerConfig fsc, DBMSFile rFile,
       int fileNum, int totFiles) {
 	  File file, filegz, tmpDir;
-    String remoteFName, name, msg;
+    String remoteFName, name, msg, expected;
     long remoteFSize, lclFSize;
+    boolean gunzip;
     int iRet;
     
     _errMsg = null;
+    _verifiedChecksum = null;
     // check whether remote file already exists locally
     remoteFName = rFile.getName();
     //remoteFDate = rFile.getFtpFile().getTimestamp().getTime();
     remoteFSize = rFile.getSize();
     file = new File(fsc.getLocalTmpFolder() + remoteFName);
+    expected = prepareChecksum(fsc, rFile);
+    if (file.exists() && file.length() == remoteFSize
+        && !checkLoadedFile(file, expected)) {
+      // corrupted file: download it again
+      file.delete();
+    }
     lclFSize = file.length();
     if (file.exists() && lclFSize == remoteFSize) {
       msg = "Skipping already loaded file "
@@ -334,7 +427,24 @@ public class PFTPLoader {
           UserProcessingMonitor.MSG_TYPE.OK,
           msg);
     }
-    iRet = downloadFile(fsc, rFile, file, lclFSize<remoteFSize?lclFSize:0);
+    gunzip = canGunzipWhileLoading() && GunzipPipeline.canGunzip(fsc, remoteFName);
+    if (gunzip) {
+      // a partially downloaded gzipped file cannot be resumed
+      if (_checksum != null) {
+        _checksum.reset();
+      }
+      iRet = downloadAndGunzip(fsc, rFile, file);
+    }
+    else {
+      lclFSize = lclFSize<remoteFSize?lclFSize:0;
+      if (_checksum != null && !resumeChecksum(file, lclFSize)) {
+        lclFSize = 0;
+      }
+      iRet = downloadFile(fsc, rFile, file, lclFSize);
+    }
+    if (iRet == 1 && _checksum != null) {
+      iRet = checkDownloadedFile(rFile, file, expected, gunzip);
+    }
     if (_userMonitor != null) {
       _userMonitor.processingMessage(getLoaderId(), fsc.getName(), 
           UserProcessingMonitor.PROCESS_TYPE.FTP_LOADING,
@@ -344,6 +454,109 @@ public class PFTPLoader {
     return iRet;
   }
 
+  /**
+   * Prepares the verification of a file to download. Returns the checksum
+   * published by the provider, or null if the file cannot be verified.
+   */
+  private String prepareChecksum(DBServerConfig fsc, DBMSFile rFile) {
+    String expected;
+
+    _checksum = FileChecksum.create(fsc);
+    if (_checksum == null) {
+      return null;
+    }
+    expected = FileChecksum.parseCompanion(fetchChecksum(fsc, rFile,
+        _checksum.getCompanionName(rFile.getName())), rFile.getName());
+    if (expected == null) {
+      LoggerCentral.warn(LOGGER, getLoaderId() + ": " + rFile.getName()
+          + ": no " + _checksum.getType() + " checksum available: file not verified");
+      _checksum = null;
+    }
+    return expected;
+  }
+
+  /**
+   * Gives the data of a partially downloaded file to the checksum. Returns
+   * false if that file cannot be read: then, it has to be downloaded again.
+   */
+  private boolean resumeChecksum(File file, long lclFSize) {
+    _checksum.reset();
+    if (lclFSize == 0) {
+      return true;
+    }
+    try {
+      _checksum.update(file, lclFSize);
+      return true;
+    } catch (IOException e) {
+      LoggerCentral.warn(LOGGER, getLoaderId() + ": unable to read "
+          + file.getAbsolutePath() + ": " + e.getMessage());
+      _checksum.reset();
+      return false;
+    }
+  }
+
+  /**
+   * Checks a file left by a previous run. Returns false if it is corrupted.
+   */
+  private boolean checkLoadedFile(File file, String expected) {
+    if (_checksum == null) {
+      return true;
+    }
+    _checksum.reset();
+    try {
+      _checksum.update(file, file.length());
+    } catch (IOException e) {
+      LoggerCentral.warn(LOGGER, getLoaderId() + ": unable to read "
+          + file.getAbsolutePath() + ": " + e.getMessage());
+      return false;
+    }
+    if (!expected.equals(_checksum.getValue())) {
+      LoggerCentral.warn(LOGGER, getLoaderId() + ": " + file.getName()
+          + ": checksum mismatch, file loaded again");
+      return false;
+    }
+    _verifiedChecksum = _checksum.getType() + " " + expected;
+    return true;
+  }
+
+  /**
+   * Checks a downloaded file. Returns 1 if it is valid. Otherwise, the file
+   * is discarded and 0 is returned so that it is downloaded again.
+   */
+  private int checkDownloadedFile(DBMSFile rFile, File file, String expected,
+      boolean gunzip) {
+    String value;
+
+    try {
+      // data not written through wrapOutput(), e.g. segmented downloads
+      if (!gunzip && _checksum.getCount() != file.length()) {
+        _checksum.reset();
+        _checksum.update(file, file.length());
+      }
+    } catch (IOException e) {
+      _errMsg = getLoaderId() + ": unable to read " + file.getAbsolutePath()
+          + ": " + e.getMessage();
+      return 0;
+    }
+    value = _checksum.getValue();
+    if (expected.equals(value)) {
+      LoggerCentral.info(LOGGER, getLoaderId() + ": " + rFile.getName() + ": "
+          + _checksum.getType() + " checksum ok");
+      _verifiedChecksum = _checksum.getType() + " " + value;
+      return 1;
+    }
+    _errMsg = getLoaderId() + ": " + rFile.getName() + ": checksum mismatch (expected: "
+        + expected + ", got: " + value + ")";
+    LoggerCentral.warn(LOGGER, _errMsg);
+    if (gunzip) {
+      GunzipPipeline.getTargetFile(file).delete();
+    }
+    else {
+      file.delete();
+    }
+    return 0;
+  }
+
   private void dumpFileListInLog(DBServerConfig fsc, List<DBMSFile> fNames) {
     long val, totBytes = 0;
     int nFiles;
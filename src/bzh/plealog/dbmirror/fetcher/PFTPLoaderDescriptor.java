@@ -53,6 +53,12 @@ public class PFTPLoaderDescriptor {
   public static final String TASK_DELAY_KEY    = "task.delay";
   public static final String FTP_DELAY_KEY     = "ftp.delay";
   public static final String FTP_RETRY_KEY     = "ftp.retry";
+  // number of banks installed concurrently; default is 1, i.e. one bank
+  // after the other
+  public static final String DB_WORKERS_KEY    = "db.workers";
+  // number of tasks executed at a time by all the banks installed
+  // concurrently; default is the number of processors
+  public static final String TASK_WORKERS_KEY  = "task.workers";
 
   public static final String MAILER_HOST       = "mail.smtp.host";
   public static final String MAILER_PORT       = "mail.smtp.port";
@@ -135,45 +135,52 @@ public class PFTPLoaderEngine extends LoaderEngine {
           _monitor.beginLoading(fName);
         
         if (LoaderEngine.testLoadOkForFileExists(lclFilePath) == false) {
-          // try to get a ftp connection
-          retry = 0;
-          while (retry < _retry) {
-            if (_loader.prepareLoader(get_dbsc()))
-              break;
-            retry++;
-            LoggerCentral.info(
-                LogFactory.getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
-                    + ".PFTPLoader"), _loader.getLoaderId() + ": "
-                    + PFTPLoader.CONN_ERR_MSG);
-            try {
-              sleep(_scheduleTime);
-            } catch (InterruptedException e) {
-            }
-          }
-          if (_loader.readyToDownload()) {
-            // start loading
+          acquireDownloadSlot();
+          try {
+            // try to get a ftp connection
             retry = 0;
             while (retry < _retry) {
-              bRet = _loader.downloadFile(get_dbsc(), file.getFile(),
-                  file.getFileNum(), nFiles);
-              if (bRet != 0)
+              if (_loader.prepareLoader(get_dbsc()))
                 break;
               retry++;
               LoggerCentral.info(
                   LogFactory.getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
-                      + ".PFTPLoader"), PFTPLoader.CONN_ERR_MSG);
+                      + ".PFTPLoader"), _loader.getLoaderId() + ": "
+                      + PFTPLoader.CONN_ERR_MSG);
               try {
                 sleep(_scheduleTime);
               } catch (InterruptedException e) {
               }
             }
-            if (bRet == 1 || bRet == 2) { //ok only
-              LoaderEngine.setLoadOkForFile(lclFilePath);
+            if (_loader.readyToDownload()) {
+              // start loading
+              retry = 0;
+              while (retry < _retry) {
+                bRet = _loader.downloadFile(get_dbsc(), file.getFile(),
+                    file.getFileNum(), nFiles);
+                if (bRet != 0)
+                  break;
+                retry++;
+                LoggerCentral.info(
+                    LogFactory.getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
+                        + ".PFTPLoader"), PFTPLoader.CONN_ERR_MSG);
+                try {
+                  sleep(_scheduleTime);
+                } catch (InterruptedException e) {
+                }
+              }
+              if (bRet == 1 || bRet == 2) { //ok only
+                file.getFile().setChecksum(_loader.getChecksum());
+                LoaderEngine.setLoadOkForFile(lclFilePath, _loader.getChecksum());
+              }
             }
+          } finally {
+            releaseDownloadSlot();
           }
         }
         else {
           bRet = 2;
+          file.getFile().setChecksum(LoaderEngine.getLoadOkChecksum(lclFilePath));
           String msg = "Skipping already loaded file "
               + (file.getFileNum() + 1) + "/" + nFiles + ": ";
           LoggerCentral.info(_loader.getLogger(),
@@ -24,6 +24,11 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -36,6 +41,7 @@ import bzh.plealog.dbmirror.task.PTaskInstallInProduction;
 import bzh.plealog.dbmirror.util.Utils;
 import bzh.plealog.dbmirror.util.ant.PAntTasks;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
+import bzh.plealog.dbmirror.util.log.JobContext;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
 import bzh.plealog.dbmirror.util.runner.DBStampProperties;
 
@@ -92,19 +98,14 @@ public class PFTPLoaderSystem {
     String[] dbNames;
     PFTPLoader ftpLoader;
     DBServerConfig dbConf;
-    String fName, maintask, str;
-    ArrayList<DBMSFile> validNames = null;
+    String maintask, str;
     List<DBServerConfig> processedDB;
-    boolean proceed;
-    LoaderEngine loaderEngine;
-    FileListLoader fll;
-    DefaultLoaderMonitor monitor;
+    List<String> failedDB;
     PProxyConfig pConfig;
+    BankContext ctx;
     boolean forceFreshInstall;
-    int i, ftpRetry;
+    int i, ftpRetry, bankWorkers;
     long taskDelay, ftpDelay;
-    boolean isFTP;
-    PPreTaskProcessor preTaskProcessor;
     
     LoggerCentral.info(LOGGER, "*** START PROCESSING *** " + new Date());
 
@@ -183,220 +184,32 @@ public class PFTPLoaderSystem {
         maintask = PFTPLoaderDescriptor.MAINTASK_INFO;
       }
 
-      processedDB = new ArrayList<DBServerConfig>();
-      // For each database descriptor
-      for (i = 0; i < dbNames.length; i++) {
-        if (LoggerCentral.errorMsgEmitted() || LoggerCentral.processAborted())
-          break;
-        fName = dbNames[i];
-        LoggerCentral.info(LOGGER, "Start processing db: " + fName);
-        // load a database descriptor
-        dbConf = new DBServerConfig();
-
-        LoggerCentral.info(LOGGER, "Loading db descriptor: " + fName);
-        proceed = false;
-        try {
-          dbConf.load(fName);
-          proceed = true;
-        } catch (FileNotFoundException e) {
-          LoggerCentral.error(LOGGER, "File not found: " + fName);
-        } catch (IOException e) {
-          LoggerCentral.error(LOGGER, "Error while reading: " + fName + ": "
-              + e);
-        }
-        if (!proceed)
-          continue;
-        if (_userMonitor != null) {
-          _userMonitor.startProcessing(dbConf.getName());
-        }
+      ctx = new BankContext();
+      ctx.taskEngine = _taskEngine;
+      ctx.ftpLoader = ftpLoader;
+      ctx.ftpDelay = ftpDelay;
+      ctx.ftpRetry = ftpRetry;
+      ctx.maintask = maintask;
+      ctx.forceFreshInstall = forceFreshInstall;
+      ctx.pConfig = pConfig;
 
-        // if no unit tasks and no global tasks : just install in prod
-        if (StringUtils.isBlank(dbConf.getUnitPostTasks())
-            && StringUtils.isBlank(dbConf.getGlobalPostTasks())) {
-          processedDB.add(dbConf);
-        } else {
-          //Handle pre-processing task before any other things
-          preTaskProcessor = new PPreTaskProcessor(dbConf, _taskEngine, ftpDelay);
-          preTaskProcessor.setUserProcessingMonitor(_userMonitor);
-          preTaskProcessor.start();
-          try {
-            preTaskProcessor.join();
-          } catch (InterruptedException e1) {
-            //not bad
-          }
-          //In case pre-processing task(s) failed, stop installing this bank
+      processedDB = new ArrayList<DBServerConfig>();
+      failedDB = new ArrayList<String>();
+      bankWorkers = Math.min(dbNames.length, this.getNumber(descriptor
+          .getProperty(PFTPLoaderDescriptor.DB_WORKERS_KEY)));
+      if (bankWorkers > 1) {
+        processBanksConcurrently(dbNames, ctx, bankWorkers,
+            this.getNumber(descriptor
+                .getProperty(PFTPLoaderDescriptor.TASK_WORKERS_KEY)),
+            processedDB, failedDB);
+      } else {
+        // For each database descriptor
+        for (i = 0; i < dbNames.length; i++) {
           if (LoggerCentral.errorMsgEmitted() || LoggerCentral.processAborted())
             break;
-          // FTP or Local installation?
-          if (dbConf.getAddress() != null && !dbConf.getAddress().equals("")) {
-            LoggerCentral.info(LOGGER, "FTP descriptor file: " + fName);
-            isFTP = true;
-          } else {
-            LoggerCentral.info(LOGGER, "Local descriptor file: " + fName);
-            isFTP = false;
-          }
-          validNames = new ArrayList<DBMSFile>();
-          // the following has been added to help support (we usually do not
-          // have user's
-          // descriptors, so we dump the content here)
-          LoggerCentral.info(LOGGER, "Descriptor content:");
-          dbConf.dumpContent(LOGGER);
-          LoggerCentral.info(LOGGER, "--");
-
-          if (isFTP) {
-            if (pConfig != null) {
-              pConfig.configureProxyConnexion(dbConf.getAddress());
-            }
-
-            LoggerCentral.info(LOGGER, "Loading db files list (FTP).");
-            // get files list to download using a task capable of retrying
-            // download
-            // process several times in case of failure
-            fll = new FTPFileListLoader(dbConf, ftpLoader, validNames,
-                ftpDelay, ftpRetry);
-
-            String msg;
-            if (PFTPLoaderDescriptor.MAINTASK_INFO.equals(maintask)) {
-              msg = "connecting to " + dbConf.getAddress()
-                  + " to retrieve databank information";
-            } else {
-              msg = "connecting to " + dbConf.getAddress()
-                  + " to download files";
-            }
-            LoggerCentral.info(LOGGER, msg);
-            if (_userMonitor != null) {
-              _userMonitor.processingMessage(WORKER_ID, dbConf.getName(),
-                  UserProcessingMonitor.PROCESS_TYPE.FTP_LOADING,
-                  UserProcessingMonitor.MSG_TYPE.OK, msg);
-            }
-
-          } else {
-            LoggerCentral.info(LOGGER, "Loading db files list (local). ");
-            fll = new PLocalFileListLoader(dbConf, validNames);
-            ((PLocalFileListLoader) fll).setUserProcessingMonitor(_userMonitor);
-          }
-
-          fll.start();
-          try {
-            fll.join();
-          } catch (InterruptedException e) {
-          }
-          // something to do ?
-          if (fll.listingOk()) {
-            if (validNames != null && validNames.isEmpty()) {
-              if (_userMonitor != null) {
-                _userMonitor.processingMessage(WORKER_ID, dbConf.getName(),
-                    UserProcessingMonitor.PROCESS_TYPE.FTP_LOADING,
-                    UserProcessingMonitor.MSG_TYPE.ERROR, "nothing to load");
-              }
-              LoggerCentral.error(LOGGER, "Nothing to load.");
-            } 
-            else {
-              if (PFTPLoaderDescriptor.MAINTASK_INFO.equals(maintask)) {
-                // just dump the list of files to retrieve
-                // already done by FTPLoader task, so does nothing here
-              } else {
-                // Control release date: remote vs. local
-                boolean updateBank=true;
-                
-                //date of bank currently installed
-                String dbPathCur = Paths.get(DBMSAbstractConfig.getLocalMirrorPath(),
-                        dbConf.getTypeCode(), dbConf.getName(), /*GT*/
-                        DBMSAbstractConfig.CURRENT_DIR, dbConf.getName()).toString();
-                // caution: first time bank installation, dbPathCur does not exist
-                if (new File(dbPathCur).exists()){
-                  String curDate = DBStampProperties.readReleaseDate(dbPathCur);            
-                  String newDate = DBStampProperties.BANK_DATE_FORMATTER.format(
-                      (validNames==null||validNames.isEmpty()) ? 
-                          Calendar.getInstance().getTime() :
-                          validNames.get(0).getDateStamp());
-                  updateBank = !curDate.equalsIgnoreCase(newDate);
-                }
-                //do we have to install new release of bank?
-                if (!updateBank){
-                  LoggerCentral.info(LOGGER, "BANK IS UP TO DATE: nothing to do.");
-                }
-                else{
-                  // download and process the DB
-                  LoggerCentral.info(LOGGER, "Loading db files.");
-                  if (_userMonitor != null) {
-                    _userMonitor.startProcessing(dbConf.getName());
-                  }
-
-                  processedDB.add(dbConf);
-
-                  if (forceFreshInstall) {
-                    str = dbConf.getLocalFolder()
-                        + DBMSAbstractConfig.DOWNLOADING_DIR;
-                    if (new File(str).exists()) {
-                      if (!PAntTasks.deleteDirectory(str)) {
-                        LoggerCentral.error(LOGGER,
-                            "unable to delete old index: " + str);
-                      }
-                    }
-                  }
-
-                  if (isFTP) {
-                    monitor = new DefaultLoaderMonitor(_taskEngine, dbConf,
-                        validNames.size());
-                    loaderEngine = new PFTPLoaderEngine(dbConf, monitor,
-                        validNames);
-                    ((PFTPLoaderEngine) loaderEngine)
-                        .setUserProcessingMonitor(_userMonitor);
-                    ((PFTPLoaderEngine) loaderEngine).setScheduleTime(ftpDelay);
-                    ((PFTPLoaderEngine) loaderEngine).setRetry(ftpRetry);
-                  } else {
-                    String destPath = dbConf.getLocalTmpFolder();
-                    monitor = new DefaultLoaderMonitor(_taskEngine, dbConf,
-                        validNames.size());
-                    loaderEngine = new PLocalLoaderEngine(dbConf, validNames,
-                        destPath, monitor);
-                    ((PLocalLoaderEngine) loaderEngine)
-                        .setUserProcessingMonitor(_userMonitor);
-                  }
-
-                  loaderEngine.start();
-
-                  try {
-                    loaderEngine.join();
-                  } catch (InterruptedException e) {
-                    LoggerCentral.error(LOGGER,
-                        "Unexpected thread interruption while processing db: "
-                            + dbNames[i]);
-                  }
-
-                  if (isFTP) {
-                    if (_userMonitor != null) {
-                      _userMonitor.processingMessage(WORKER_ID, dbConf.getName(),
-                          UserProcessingMonitor.PROCESS_TYPE.FTP_LOADING,
-                          UserProcessingMonitor.MSG_TYPE.OK,
-                          "file transfer processing done");
-                    }
-                  } else {
-                    // copie ok
-                  }
-                }
-              }
-            }
-          } else {
-            // we come here in two cases : error or job aborted
-            if (_userMonitor != null) {
-              if (LoggerCentral.processAborted() == false) {
-                _userMonitor.processingMessage(WORKER_ID, dbConf.getName(),
-                    UserProcessingMonitor.PROCESS_TYPE.FTP_LOADING,
-                    UserProcessingMonitor.MSG_TYPE.ERROR,
-                    "unable to retrieve the list of files");
-              } else {
-                _userMonitor.processingMessage(WORKER_ID, dbConf.getName(),
-                    UserProcessingMonitor.PROCESS_TYPE.FTP_LOADING,
-                    UserProcessingMonitor.MSG_TYPE.ABORTED,
-                    "FTP transaction stopped");
-              }
-            }
-            if (LoggerCentral.processAborted() == false) {
-              LoggerCentral.error(LOGGER,
-                  "Failed to retrieve files list for db: " + dbNames[i]);
-            }
+          dbConf = processBank(dbNames[i], ctx);
+          if (dbConf != null) {
+            processedDB.add(dbConf);
           }
         }
       }
@@ -425,7 +238,7 @@ public class PFTPLoaderSystem {
       
       }
       // wait for all jobs to terminate
-      SystemTerminator st = new SystemTerminator();
+      SystemTerminator st = new SystemTerminator(failedDB);
       st.start();
       try {
         st.join();
@@ -452,6 +265,372 @@ public class PFTPLoaderSystem {
     LoggerCentral.info(LOGGER, "*** DONE *** " + new Date());
   }
 
+  /**
+   * Handles a single databank: pre-processing tasks, list of files, download
+   * and post-processing tasks. Tasks are added to the task engine of the
+   * context.
+   * 
+   * @return the databank configuration if it has to be installed in
+   *         production, null otherwise.
+   */
+  private DBServerConfig processBank(String fName, BankContext ctx) {
+    ArrayList<DBMSFile> validNames = null;
+    DBServerConfig dbConf, toInstall = null;
+    PPreTaskProcessor preTaskProcessor;
+    DefaultLoaderMonitor monitor;
+    LoaderEngine loaderEngine;
+    FileListLoader fll;
+    boolean proceed, isFTP;
+    String str;
+
+    LoggerCentral.info(LOGGER, "Start processing db: " + fName);
+    // load a database descriptor
+    dbConf = new DBServerConfig();
+
+    LoggerCentral.info(LOGGER, "Loading db descriptor: " + fName);
+    proceed = false;
+    try {
+      dbConf.load(fName);
+      proceed = true;
+    } catch (FileNotFoundException e) {
+      LoggerCentral.error(LOGGER, "File not found: " + fName);
+    } catch (IOException e) {
+      LoggerCentral.error(LOGGER, "Error while reading: " + fName + ": "
+          + e);
+    }
+    if (!proceed)
+      return null;
+    if (_userMonitor != null) {
+      _userMonitor.startProcessing(dbConf.getName());
+    }
+
+    // if no unit tasks and no global tasks : just install in prod
+    if (StringUtils.isBlank(dbConf.getUnitPostTasks())
+        && StringUtils.isBlank(dbConf.getGlobalPostTasks())) {
+      toInstall = dbConf;
+    } else {
+      //Handle pre-processing task before any other things
+      preTaskProcessor = new PPreTaskProcessor(dbConf, ctx.taskEngine, ctx.ftpDelay);
+      preTaskProcessor.setUserProcessingMonitor(_userMonitor);
+      preTaskProcessor.start();
+      try {
+        preTaskProcessor.join();
+      } catch (InterruptedException e1) {
+        //not bad
+      }
+      //In case pre-processing task(s) failed, stop installing this bank
+      if (LoggerCentral.errorMsgEmitted() || LoggerCentral.processAborted())
+        return null;
+      // FTP or Local installation?
+      if (dbConf.getAddress() != null && !dbConf.getAddress().equals("")) {
+        LoggerCentral.info(LOGGER, "FTP descriptor file: " + fName);
+        isFTP = true;
+      } else {
+        LoggerCentral.info(LOGGER, "Local descriptor file: " + fName);
+        isFTP = false;
+      }
+      validNames = new ArrayList<DBMSFile>();
+      // the following has been added to help support (we usually do not
+      // have user's
+      // descriptors, so we dump the content here)
+      LoggerCentral.info(LOGGER, "Descriptor content:");
+      dbConf.dumpContent(LOGGER);
+      LoggerCentral.info(LOGGER, "--");
+
+      if (isFTP) {
+        if (ctx.pConfig != null) {
+          ctx.pConfig.configureProxyConnexion(dbConf.getAddress());
+        }
+
+        LoggerCentral.info(LOGGER, "Loading db files list (FTP).");
+        // get files list to download using a task capable of retrying
+        // download
+        // process several times in case of failure
+        fll = new FTPFileListLoader(dbConf, ctx.ftpLoader, validNames,
+            ctx.ftpDelay, ctx.ftpRetry);
+
+        String msg;
+        if (PFTPLoaderDescriptor.MAINTASK_INFO.equals(ctx.maintask)) {
+          msg = "connecting to " + dbConf.getAddress()
+              + " to retrieve databank information";
+        } else {
+          msg = "connecting to " + dbConf.getAddress()
+              + " to download files";
+        }
+        LoggerCentral.info(LOGGER, msg);
+        if (_userMonitor != null) {
+          _userMonitor.processingMessage(WORKER_ID, dbConf.getName(),
+              UserProcessingMonitor.PROCESS_TYPE.FTP_LOADING,
+              UserProcessingMonitor.MSG_TYPE.OK, msg);
+        }
+
+      } else {
+        LoggerCentral.info(LOGGER, "Loading db files list (local). ");
+        fll = new PLocalFileListLoader(dbConf, validNames);
+        ((PLocalFileListLoader) fll).setUserProcessingMonitor(_userMonitor);
+      }
+
+      fll.start();
+      try {
+        fll.join();
+      } catch (InterruptedException e) {
+      }
+      // something to do ?
+      if (fll.listingOk()) {
+        if (validNames != null && validNames.isEmpty()) {
+          if (_userMonitor != null) {
+            _userMonitor.processingMessage(WORKER_ID, dbConf.getName(),
+                UserProcessingMonitor.PROCESS_TYPE.FTP_LOADING,
+                UserProcessingMonitor.MSG_TYPE.ERROR, "nothing to load");
+          }
+          LoggerCentral.error(LOGGER, "Nothing to load.");
+        } 
+        else {
+          if (PFTPLoaderDescriptor.MAINTASK_INFO.equals(ctx.maintask)) {
+            // just dump the list of files to retrieve
+            // already done by FTPLoader task, so does nothing here
+          } else {
+            // Control release date: remote vs. local
+            boolean updateBank=true;
+            
+            //date of bank currently installed
+            String dbPathCur = Paths.get(DBMSAbstractConfig.getLocalMirrorPath(),
+                    dbConf.getTypeCode(), dbConf.getName(), /*GT*/
+                    DBMSAbstractConfig.CURRENT_DIR, dbConf.getName()).toString();
+            // caution: first time bank installation, dbPathCur does not exist
+            if (new File(dbPathCur).exists()){
+              String curDate = DBStampProperties.readReleaseDate(dbPathCur);            
+              String newDate = DBStampProperties.BANK_DATE_FORMATTER.format(
+                  (validNames==null||validNames.isEmpty()) ? 
+                      Calendar.getInstance().getTime() :
+                      validNames.get(0).getDateStamp());
+              updateBank = !curDate.equalsIgnoreCase(newDate);
+            }
+            //do we have to install new release of bank?
+            if (!updateBank){
+              LoggerCentral.info(LOGGER, "BANK IS UP TO DATE: nothing to do.");
+            }
+            else{
+              // download and process the DB
+              LoggerCentral.info(LOGGER, "Loading db files.");
+              if (_userMonitor != null) {
+                _userMonitor.startProcessing(dbConf.getName());
+              }
+
+              toInstall = dbConf;
+
+              if (ctx.forceFreshInstall) {
+                str = dbConf.getLocalFolder()
+                    + DBMSAbstractConfig.DOWNLOADING_DIR;
+                if (new File(str).exists()) {
+                  if (!PAntTasks.deleteDirectory(str)) {
+                    LoggerCentral.error(LOGGER,
+                        "unable to delete old index: " + str);
+                  }
+                }
+              }
+
+              // only load and process new and changed files
+              if (DBMSAbstractConfig.isDeltaUpdate() && !ctx.forceFreshInstall) {
+                BankManifest.reuseUnchangedFiles(dbConf, validNames);
+              }
+
+              if (isFTP) {
+                monitor = new DefaultLoaderMonitor(ctx.taskEngine, dbConf,
+                    validNames.size());
+                loaderEngine = new PFTPLoaderEngine(dbConf, monitor,
+                    validNames);
+                ((PFTPLoaderEngine) loaderEngine)
+                    .setUserProcessingMonitor(_userMonitor);
+                ((PFTPLoaderEngine) loaderEngine).setScheduleTime(ctx.ftpDelay);
+                ((PFTPLoaderEngine) loaderEngine).setRetry(ctx.ftpRetry);
+              } else {
+                String destPath = dbConf.getLocalTmpFolder();
+                monitor = new DefaultLoaderMonitor(ctx.taskEngine, dbConf,
+                    validNames.size());
+                loaderEngine = new PLocalLoaderEngine(dbConf, validNames,
+                    destPath, monitor);
+                ((PLocalLoaderEngine) loaderEngine)
+                    .setUserProcessingMonitor(_userMonitor);
+              }
+              loaderEngine.setDownloadSlots(ctx.downloadSlots);
+
+              loaderEngine.start();
+
+              try {
+                loaderEngine.join();
+              } catch (InterruptedException e) {
+                LoggerCentral.error(LOGGER,
+                    "Unexpected thread interruption while processing db: "
+                        + fName);
+              }
+              // enable a delta update of the next release
+              try {
+                BankManifest.write(dbConf, validNames);
+              } catch (IOException e) {
+                LoggerCentral.warn(LOGGER, "unable to save list of files of db: "
+                    + fName + ": " + e.getMessage());
+              }
+
+              if (isFTP) {
+                if (_userMonitor != null) {
+                  _userMonitor.processingMessage(WORKER_ID, dbConf.getName(),
+                      UserProcessingMonitor.PROCESS_TYPE.FTP_LOADING,
+                      UserProcessingMonitor.MSG_TYPE.OK,
+                      "file transfer processing done");
+                }
+              } else {
+                // copie ok
+              }
+            }
+          }
+        }
+      } else {
+        // we come here in two cases : error or job aborted
+        if (_userMonitor != null) {
+          if (LoggerCentral.processAborted() == false) {
+            _userMonitor.processingMessage(WORKER_ID, dbConf.getName(),
+                UserProcessingMonitor.PROCESS_TYPE.FTP_LOADING,
+                UserProcessingMonitor.MSG_TYPE.ERROR,
+                "unable to retrieve the list of files");
+          } else {
+            _userMonitor.processingMessage(WORKER_ID, dbConf.getName(),
+                UserProcessingMonitor.PROCESS_TYPE.FTP_LOADING,
+                UserProcessingMonitor.MSG_TYPE.ABORTED,
+                "FTP transaction stopped");
+          }
+        }
+        if (LoggerCentral.processAborted() == false) {
+          LoggerCentral.error(LOGGER,
+              "Failed to retrieve files list for db: " + fName);
+        }
+      }
+    }
+    return toInstall;
+  }
+
+  /**
+   * Handles several databanks at a time. Each databank is handled by its own
+   * thread, task engine and FTP loader, and works for its own child job (see
+   * JobContext): a failure while installing a databank does not stop the
+   * other ones. The task engines share a same pool of threads and the FTP
+   * engines share a same number of download slots, so that the overall load
+   * does not depend on the number of databanks.
+   * 
+   * @param processedDB
+   *          filled with the databanks to install in production
+   * @param failedDB
+   *          filled with the names of the databanks that failed
+   */
+  private void processBanksConcurrently(String[] dbNames,
+      BankContext template, int bankWorkers, int taskWorkers,
+      List<DBServerConfig> processedDB, List<String> failedDB) {
+    List<Future<BankContext>> results;
+    ExecutorService banks, tasks;
+    Semaphore downloadSlots;
+    BankContext ctx;
+
+    if (taskWorkers < 1) {
+      taskWorkers = Runtime.getRuntime().availableProcessors();
+    }
+    LoggerCentral.info(LOGGER, "Installing " + bankWorkers
+        + " dbs at a time using " + taskWorkers + " task workers");
+    banks = Executors.newFixedThreadPool(bankWorkers);
+    tasks = Executors.newFixedThreadPool(taskWorkers);
+    downloadSlots = new Semaphore(DBMSAbstractConfig.getFileCopyWorkers());
+    results = new ArrayList<Future<BankContext>>();
+    try {
+      for (String fName : dbNames) {
+        results.add(banks.submit(() -> processIsolatedBank(fName, template,
+            tasks, downloadSlots)));
+      }
+      for (int i = 0; i < dbNames.length; i++) {
+        try {
+          ctx = results.get(i).get();
+        } catch (InterruptedException | ExecutionException e) {
+          LoggerCentral.error(LOGGER, "Unexpected error while processing db: "
+              + dbNames[i] + ": " + e);
+          continue;
+        }
+        if (ctx.job.getErrorCount() != 0) {
+          failedDB.add(dbNames[i]);
+        } else if (ctx.toInstall != null) {
+          processedDB.add(ctx.toInstall);
+        }
+      }
+    } finally {
+      banks.shutdown();
+      tasks.shutdown();
+    }
+  }
+
+  /**
+   * Handles a single databank concurrently with other ones, then waits for its
+   * tasks to terminate.
+   */
+  private BankContext processIsolatedBank(String fName, BankContext template,
+      ExecutorService tasks, Semaphore downloadSlots) {
+    BankContext ctx = template.copy();
+
+    // a child job: cancelled with the whole process, but its errors do not
+    // stop the other databanks
+    ctx.job = new JobContext(LoggerCentral.getJobContext());
+    LoggerCentral.setJobContext(ctx.job);
+    try {
+      if (LoggerCentral.processAborted()) {
+        return ctx;
+      }
+      ctx.taskEngine = new PTaskEngine();
+      ctx.taskEngine.setUserProcessingMonitor(_userMonitor);
+      ctx.taskEngine.setExecutor(tasks);
+      ctx.ftpLoader = new PFTPLoader(0);
+      ctx.ftpLoader.setUserProcessingMonitor(_userMonitor);
+      ctx.ftpLoader.setFileOfFiles(_fileOfFiles);
+      ctx.downloadSlots = downloadSlots;
+      ctx.toInstall = processBank(fName, ctx);
+      while (!ctx.taskEngine.terminate()) {
+        try {
+          Thread.sleep(PTaskEngine.ENGINE_SCHEDULING_TIMER);
+        } catch (InterruptedException e) {
+        }
+      }
+      if (ctx.job.getErrorCount() != 0) {
+        LoggerCentral.info(LOGGER, "Failed to install db: " + fName
+            + ". Other dbs are still processed.");
+      }
+    } finally {
+      LoggerCentral.setJobContext(ctx.job.getParent());
+    }
+    return ctx;
+  }
+
+  /**
+   * What is needed to handle a single databank.
+   */
+  private static class BankContext {
+    private PTaskEngine              taskEngine;
+    private PFTPLoader               ftpLoader;
+    private long                     ftpDelay;
+    private int                      ftpRetry;
+    private String                   maintask;
+    private boolean                  forceFreshInstall;
+    private PProxyConfig             pConfig;
+    // null when databanks are handled one after the other
+    private Semaphore                downloadSlots;
+    private JobContext               job;
+    private DBServerConfig           toInstall;
+
+    private BankContext copy() {
+      BankContext ctx = new BankContext();
+      ctx.ftpDelay = ftpDelay;
+      ctx.ftpRetry = ftpRetry;
+      ctx.maintask = maintask;
+      ctx.forceFreshInstall = forceFreshInstall;
+      ctx.pConfig = pConfig;
+      return ctx;
+    }
+  }
+
   /**
    * This thread aims at retrieving a file list from a remote FTP server using a
    * retry process capable of handling possible FTP session errors.
@@ -517,6 +696,12 @@ public class PFTPLoaderSystem {
    * engine.
    */
   private class SystemTerminator extends Thread {
+    private List<String> _failedDB;
+
+    public SystemTerminator(List<String> failedDB) {
+      _failedDB = failedDB;
+    }
+
     public void run() {
       while (true) {
         if (_taskEngine.terminate())
@@ -526,6 +711,11 @@ public class PFTPLoaderSystem {
         } catch (InterruptedException e) {
         }
       }
+      // databanks installed concurrently: errors were reported to the job
+      // of each databank
+      for (String fName : _failedDB) {
+        LoggerCentral.error(LOGGER, "Failed to install db: " + fName);
+      }
       if (LoggerCentral.errorMsgEmitted()) {
         LoggerCentral.error(
             LogFactory.getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
@@ -17,14 +17,21 @@
 package bzh.plealog.dbmirror.fetcher;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.commons.net.io.Util;
 
 import bzh.plealog.bioinfo.io.http.HTTPBasicEngine;
 import bzh.plealog.bioinfo.io.http.HTTPEngineException;
+import bzh.plealog.dbmirror.util.Utils;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
 
@@ -39,6 +46,9 @@ public class PHTTPLoader extends PFTPLoader {
 	
 	public static final String HTTP_WORKER = "HTTPLoader";
 
+	// files smaller than this are always downloaded as a single stream
+	private static final long MIN_SEGMENTED_SIZE = 64 * Utils.MEGA;
+
 	private static final Log      LOGGER       = LogFactory
       .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
           + ".PHTTPLoader");
@@ -77,35 +87,181 @@ public class PHTTPLoader extends PFTPLoader {
 
 	@Override
 	protected int downloadFile(DBServerConfig fsc, DBMSFile rFile, File file, long lclFSize) {
+		HttpURLConnection conn = null;
+		OutputStream fos = null;
 		int iRet = 0;
-		Map<String, String> header_attrs=null;
 		
 		//prepare the server side file to retrieve
 		String fileToRetrive = url_base + "/" + rFile.getRemoteDir()+rFile.getName();
 
     LoggerCentral.info(LOGGER, "  " + getLoaderId() + ": download: " + fileToRetrive);
 
+    //large file: several connections if the server can send byte ranges.
+    //A file partially downloaded as a single stream is resumed that way.
+    int segments = DBMSAbstractConfig.getDownloadSegments();
+    if (lclFSize == 0 && segments > 1 && rFile.getSize() >= MIN_SEGMENTED_SIZE
+        && SegmentedDownload.supportsRanges(fileToRetrive, rFile.getSize())) {
+      return downloadSegments(fsc, rFile, file, fileToRetrive, segments);
+    }
     //resume downloading if needed
     if (lclFSize!=0) {
       LoggerCentral.info(LOGGER, "resume downloading at byte: "+lclFSize);
-      header_attrs = new HashMap<>();
-      header_attrs.put(
-          HTTPBasicEngine.RANGE_HTTP, 
-          String.format(HTTPBasicEngine.RANGE_HTTP_FORMAT, lclFSize));
     }
     //go!
     try {
-      HTTPBasicEngine.doGet(fileToRetrive, header_attrs, file,
-          new MyCopyStreamListener(getLoaderId(), _userMonitor, 
-              fsc.getName(), rFile.getName(), rFile.getSize(), 0));
+      conn = openConnection(fileToRetrive, lclFSize);
+      if (lclFSize!=0 && conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
+        //byte range ignored by the server: the whole file is sent
+        LoggerCentral.info(LOGGER, "  " + getLoaderId() + ": cannot resume, download full file");
+        lclFSize = 0;
+        if (_checksum != null) {
+          _checksum.reset();
+        }
+      }
+      fos = wrapOutput(new FileOutputStream(file, lclFSize!=0));
+      try (InputStream is = conn.getInputStream()) {
+        Util.copyStream(is, fos, Util.DEFAULT_COPY_BUFFER_SIZE, rFile.getSize(),
+            new MyCopyStreamListener(getLoaderId(), _userMonitor, 
+                fsc.getName(), rFile.getName(), rFile.getSize(), lclFSize));
+      }
+      fos.close();
+      file.setLastModified(rFile.getDateStamp().getTime());
       iRet = 1;
     } catch (HTTPEngineException e1) {
       //do not raise warn or error here, handled by LoaderEngine
       LoggerCentral.info(LOGGER, e1.getMessage() + " (" + e1.getHttpCode() + ")");
+    } catch (MyCopyInteruptException e2) {
+      iRet = 3;
+    } catch (Exception e3) {
+      LoggerCentral.info(LOGGER, getLoaderId() + ": " + e3.getMessage());
+    } finally {
+      IOUtils.closeQuietly(fos);
+      if (conn != null) {
+        conn.disconnect();
+      }
     }
     if (_userMonitor!=null && _userMonitor.jobCancelled()) {
       iRet=3;
     }
 		return iRet;
 	}
+
+  /**
+   * Downloads a file using several connections.
+   */
+  private int downloadSegments(DBServerConfig fsc, DBMSFile rFile, File file,
+      String fileToRetrive, int segments) {
+    SegmentedDownload download;
+    long done;
+    int iRet = 0;
+
+    LoggerCentral.info(LOGGER, "  " + getLoaderId() + ": " + segments + " segments");
+    download = new SegmentedDownload(fileToRetrive, file, rFile.getSize(), segments);
+    try {
+      done = download.open();
+      download.setCopyStreamListener(new MyCopyStreamListener(getLoaderId(), 
+          _userMonitor, fsc.getName(), rFile.getName(), rFile.getSize(), done));
+      download.download();
+      file.setLastModified(rFile.getDateStamp().getTime());
+      iRet = 1;
+    } catch (MyCopyInteruptException e1) {
+      iRet = 3;
+    } catch (IOException e2) {
+      //do not raise warn or error here, handled by LoaderEngine
+      LoggerCentral.info(LOGGER, getLoaderId() + ": " + e2.getMessage());
+    }
+    if (_userMonitor!=null && _userMonitor.jobCancelled()) {
+      iRet=3;
+    }
+    return iRet;
+  }
+
+  /**
+   * Opens a connection to get a file, starting at a given offset. Fails if
+   * the server does not answer with the file data.
+   */
+  private HttpURLConnection openConnection(String fileToRetrive, long offset)
+      throws IOException, HTTPEngineException {
+    HttpURLConnection conn;
+    int code;
+
+    conn = (HttpURLConnection) new URL(fileToRetrive).openConnection();
+    conn.setInstanceFollowRedirects(true);
+    conn.setConnectTimeout(HTTPBasicEngine.CONNECT_TIMEOUT);
+    conn.setReadTimeout(HTTPBasicEngine.SOCKET_TIMEOUT);
+    if (offset!=0) {
+      conn.setRequestProperty(HTTPBasicEngine.RANGE_HTTP, 
+          String.format(HTTPBasicEngine.RANGE_HTTP_FORMAT, offset));
+    }
+    code = conn.getResponseCode();
+    if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+      conn.disconnect();
+      throw new HTTPEngineException("Failed to connect to server", 
+          fileToRetrive, code);
+    }
+    return conn;
+  }
+
+  @Override
+  protected String fetchChecksum(DBServerConfig fsc, DBMSFile rFile, String fName) {
+    HttpURLConnection conn = null;
+
+    try {
+      conn = openConnection(url_base + "/" + rFile.getRemoteDir() + fName, 0);
+      try (InputStream is = conn.getInputStream()) {
+        return IOUtils.toString(is, "UTF-8");
+      }
+    } catch (HTTPEngineException e1) {
+      LoggerCentral.info(LOGGER, fName + ": " + e1.getMessage() + " (" + e1.getHttpCode() + ")");
+    } catch (IOException e2) {
+      LoggerCentral.info(LOGGER, getLoaderId() + ": " + fName + ": " + e2.getMessage());
+    } finally {
+      if (conn != null) {
+        conn.disconnect();
+      }
+    }
+    return null;
+  }
+
+  @Override
+  protected int downloadAndGunzip(DBServerConfig fsc, DBMSFile rFile, File file) {
+    GunzipPipeline pipeline = null;
+    HttpURLConnection conn = null;
+    int iRet = 0;
+
+    String fileToRetrive = url_base + "/" + rFile.getRemoteDir()+rFile.getName();
+
+    LoggerCentral.info(LOGGER, "  " + getLoaderId() + ": download and gunzip: " + fileToRetrive);
+    try {
+      conn = openConnection(fileToRetrive, 0);
+      pipeline = new GunzipPipeline(GunzipPipeline.getTargetFile(file));
+      try (InputStream is = conn.getInputStream()) {
+        Util.copyStream(is, wrapOutput(pipeline), Util.DEFAULT_COPY_BUFFER_SIZE, rFile.getSize(),
+            new MyCopyStreamListener(getLoaderId(), _userMonitor, 
+                fsc.getName(), rFile.getName(), rFile.getSize(), 0));
+      }
+      pipeline.close();
+      pipeline.commit();
+      pipeline.getTargetFile().setLastModified(rFile.getDateStamp().getTime());
+      iRet = 1;
+    } catch (HTTPEngineException e1) {
+      //do not raise warn or error here, handled by LoaderEngine
+      LoggerCentral.info(LOGGER, e1.getMessage() + " (" + e1.getHttpCode() + ")");
+    } catch (MyCopyInteruptException e2) {
+      iRet = 3;
+    } catch (Exception e3) {
+      LoggerCentral.info(LOGGER, getLoaderId() + ": " + e3.getMessage());
+    } finally {
+      if (pipeline != null) {
+        pipeline.abort();
+      }
+      if (conn != null) {
+        conn.disconnect();
+      }
+    }
+    if (_userMonitor!=null && _userMonitor.jobCancelled()) {
+      iRet=3;
+    }
+    return iRet;
+  }
 }
@@ -19,12 +19,14 @@ package bzh.plealog.dbmirror.fetcher;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -268,13 +270,12 @@ public class PLocalLoader {
    * @return 1 if success, 0 if failure, 3 if aborted
    */
   public int copyFiles(List<DBMSFile> files, String destDir, LoaderMonitor monitor) {
-    InputStream input = null;
-    OutputStream output = null;
-    String fName = null, msg;
+    FileChecksum checksum;
+    String fName = null, msg, expected;
     int result = 0;
     File destPath = new File(destDir);
     int fileNum, nFiles;
-    long fSize;
+    boolean loaded, verified;
 
     if (!destPath.exists()) {
       if (!destPath.mkdirs()) {
@@ -304,19 +305,52 @@ public class PLocalLoader {
               UserProcessingMonitor.MSG_TYPE.OK, msg);
         }
         
-        // does not copy file if already done
+        // does not copy file if already done, e.g. when reused from the
+        // installed release of the bank (see BankManifest)
         File dFile = new File(destDir + file.getName());
-        if (dFile.exists() && dFile.length()==file.getSize()){
+        loaded = LoaderEngine.testLoadOkForFileExists(dFile.getAbsolutePath());
+
+        checksum = loaded ? null : FileChecksum.create(_dbsc);
+        expected = null;
+        if (checksum != null) {
+          expected = readChecksum(file, checksum);
+          if (expected == null) {
+            LoggerCentral.warn(LOGGER, WORKER_ID + ": " + fName + ": no "
+                + checksum.getType() + " checksum available: file not verified");
+            checksum = null;
+          }
+        }
+
+        verified = false;
+        if (loaded) {
+          file.setChecksum(LoaderEngine.getLoadOkChecksum(dFile
+              .getAbsolutePath()));
           msg = "Skip already copyied file: " + fName;
         }
-        else{
-          input = new FileInputStream(file.getRemoteFile());
-          output = new FileOutputStream(destDir + file.getName());
-          fSize = file.getSize();
-          Util.copyStream(input, output, Util.DEFAULT_COPY_BUFFER_SIZE, fSize,
-              new MyCopyStreamListener(WORKER_ID, _userMonitor, file.getName(),
-                  file.getName(), fSize));
-          msg = "Done coying file: " + fName;
+        else if (dFile.exists() && dFile.length()==file.getSize()
+            && checkCopiedFile(dFile, checksum, expected)){
+          verified = true;
+          msg = "Skip already copyied file: " + fName;
+        }
+        else if (GunzipPipeline.canGunzip(_dbsc, fName)
+            && GunzipPipeline.getTargetFile(dFile).exists()) {
+          // the compressed data are gone: the file cannot be verified
+          msg = "Skip already copyied file: " + fName;
+        }
+        else {
+          // a corrupted copy is done again, once
+          if (!copyFile(file, dFile, checksum, expected)
+              && !copyFile(file, dFile, checksum, expected)) {
+            throw new Exception(checksum.getType() + " checksum mismatch");
+          }
+          verified = true;
+          msg = (GunzipPipeline.canGunzip(_dbsc, fName) ? "Done coying and uncompressing file: "
+              : "Done coying file: ") + fName;
+        }
+        if (checksum != null && verified) {
+          file.setChecksum(checksum.getType() + " " + expected);
+          LoaderEngine.setLoadOkForFile(dFile.getAbsolutePath(),
+              file.getChecksum());
         }
         
         LoggerCentral.info(LOGGER, msg);
@@ -345,13 +379,108 @@ public class PLocalLoader {
               UserProcessingMonitor.MSG_TYPE.ERROR, "Cannot copy file: "
                   + fName);
         }
-      } finally {
-        IOUtils.closeQuietly(input);
-        IOUtils.closeQuietly(output);
       }
     }
 
     return result;
   }
 
+  /**
+   * Copies a file. Files to gunzip are uncompressed while they are copied.
+   * Returns false if the checksum of the copied data does not match the
+   * expected one: then, the copy is discarded.
+   */
+  private boolean copyFile(DBMSFile file, File dFile, FileChecksum checksum,
+      String expected) throws Exception {
+    InputStream input = null;
+    OutputStream output = null;
+    GunzipPipeline pipeline = null;
+    boolean gunzip = GunzipPipeline.canGunzip(_dbsc, file.getName());
+    long fSize = file.getSize();
+
+    try {
+      input = new FileInputStream(file.getRemoteFile());
+      if (gunzip) {
+        // uncompress while copying: the gzipped file is not copied
+        pipeline = new GunzipPipeline(GunzipPipeline.getTargetFile(dFile));
+        output = pipeline;
+      }
+      else {
+        output = new FileOutputStream(dFile);
+      }
+      if (checksum != null) {
+        checksum.reset();
+        output = checksum.wrap(output);
+      }
+      Util.copyStream(input, output, Util.DEFAULT_COPY_BUFFER_SIZE, fSize,
+          new MyCopyStreamListener(WORKER_ID, _userMonitor, file.getName(),
+              file.getName(), fSize));
+      output.close();
+      if (checksum != null && !expected.equals(checksum.getValue())) {
+        LoggerCentral.warn(LOGGER, WORKER_ID + ": " + file.getName()
+            + ": checksum mismatch (expected: " + expected + ", got: "
+            + checksum.getValue() + ")");
+        if (!gunzip) {
+          dFile.delete();
+        }
+        return false;
+      }
+      if (pipeline != null) {
+        pipeline.commit();
+      }
+      return true;
+    } finally {
+      IOUtils.closeQuietly(input);
+      IOUtils.closeQuietly(output);
+      if (pipeline != null) {
+        pipeline.abort();
+      }
+    }
+  }
+
+  /**
+   * Returns the checksum of a file, read from the checksum file located next
+   * to it. Returns null if that checksum file does not exist.
+   */
+  private String readChecksum(DBMSFile file, FileChecksum checksum) {
+    File f = new File(file.getRemoteFile().getParentFile(),
+        checksum.getCompanionName(file.getName()));
+
+    if (!f.exists()) {
+      return null;
+    }
+    try {
+      return FileChecksum.parseCompanion(
+          FileUtils.readFileToString(f, "UTF-8"), file.getName());
+    } catch (IOException e) {
+      LoggerCentral.info(LOGGER, WORKER_ID + ": " + f.getName() + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Checks a file copied by a previous run. Files verified by that run are not
+   * read again. Returns false if the file is corrupted.
+   */
+  private boolean checkCopiedFile(File dFile, FileChecksum checksum,
+      String expected) throws IOException {
+    String digest;
+
+    if (checksum == null) {
+      return true;
+    }
+    digest = checksum.getType() + " " + expected;
+    if (digest.equals(LoaderEngine.getLoadOkChecksum(dFile.getAbsolutePath()))) {
+      return true;
+    }
+    checksum.reset();
+    checksum.update(dFile, dFile.length());
+    if (!expected.equals(checksum.getValue())) {
+      LoggerCentral.warn(LOGGER, WORKER_ID + ": " + dFile.getName()
+          + ": checksum mismatch, file copied again");
+      return false;
+    }
+    return true;
+  }
+
 }
@@ -63,7 +63,13 @@ public class PLocalLoaderEngine extends LoaderEngine {
   public void run() {
     int ret;
 
-    ret = _kloader.copyFiles(_files, _destDir, _monitor);
+    // files are copied one at a time: a single slot is needed
+    acquireDownloadSlot();
+    try {
+      ret = _kloader.copyFiles(_files, _destDir, _monitor);
+    } finally {
+      releaseDownloadSlot();
+    }
     if (ret == 3) {
       LoggerCentral.abortProcess();
       _monitor.doneLoading("", LoaderMonitor.STATUS_ABORTED);
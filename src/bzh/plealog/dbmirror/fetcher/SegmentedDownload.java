@@ -0,0 +1,453 @@
+/* Copyright (C) 2007-2022 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.fetcher;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.net.io.CopyStreamListener;
+
+import bzh.plealog.bioinfo.io.http.HTTPBasicEngine;
+import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
+import bzh.plealog.dbmirror.util.log.JobContext;
+import bzh.plealog.dbmirror.util.log.LoggerCentral;
+
+/**
+ * This class downloads a file from an HTTP server using several connections
+ * at the same time. The file is split into byte ranges (segments), each of
+ * them being fetched by its own thread and written at its place in a
+ * preallocated file. That file is renamed once all segments are complete.<br>
+ * The progress of each segment is saved next to the file, so that an
+ * interrupted download resumes where it stopped. A segment failing is tried
+ * again a few times before the whole download fails.<br>
+ * Usage: call open(), then download().
+ *
+ * @author Patrick G. Durand
+ */
+public class SegmentedDownload {
+  private String             _url;
+  private File               _target;
+  private File               _partFile;
+  private File               _stateFile;
+  private long               _size;
+  private int                _nSegments;
+  private int                _retries     = 3;
+  private long               _retryDelay  = 2000;
+  private Segment[]          _segments;
+  private FileChannel        _channel;
+  private CopyStreamListener _listener;
+  private JobContext         _job;
+  private long               _transferred;
+  private long               _lastSave;
+  private volatile boolean   _stopped;
+
+  /** extension of the file under construction */
+  public static final String PART_FEXT   = ".part";
+  /** extension of the file containing the progress of each segment */
+  public static final String STATE_FEXT  = ".segments";
+
+  private static final Log   LOGGER      = LogFactory
+                                             .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
+                                                 + ".SegmentedDownload");
+
+  private static final int   BUF_SIZE    = 64 * 1024;
+  private static final long  STATE_DELAY = 5000;
+  private static final String RANGE_FORMAT = "bytes=%d-%d";
+
+  /**
+   * Constructor.
+   *
+   * @param url
+   *          the file to download
+   * @param target
+   *          the local file
+   * @param size
+   *          size of the file to download
+   * @param segments
+   *          number of segments, i.e. of concurrent connections
+   */
+  public SegmentedDownload(String url, File target, long size, int segments) {
+    _url = url;
+    _target = target;
+    _partFile = new File(target.getAbsolutePath() + PART_FEXT);
+    _stateFile = new File(target.getAbsolutePath() + STATE_FEXT);
+    _size = size;
+    _nSegments = (int) Math.max(1, Math.min(segments, size));
+  }
+
+  /**
+   * Sets the number of times a segment is tried again when its transfer fails
+   * and the delay between two tries. Delay unit is milliseconds.
+   */
+  public void setRetry(int retries, long delay) {
+    _retries = retries;
+    _retryDelay = delay;
+  }
+
+  /**
+   * Sets a listener receiving the progress of the whole download. Reported
+   * bytes do not include the ones downloaded before open() was called. The
+   * listener is never called by two threads at the same time.
+   */
+  public void setCopyStreamListener(CopyStreamListener listener) {
+    _listener = listener;
+  }
+
+  /**
+   * Figures out whether a server can send parts of a file.
+   *
+   * @param url
+   *          the file to download
+   * @param size
+   *          the expected size of the file
+   *
+   * @return true if the server answers a request for a byte range with that
+   *         byte range
+   */
+  public static boolean supportsRanges(String url, long size) {
+    HttpURLConnection conn = null;
+    String range;
+
+    try {
+      conn = openConnection(url, 0, 0);
+      range = conn.getHeaderField("Content-Range");
+      return conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL
+          && range != null && range.endsWith("/" + size);
+    } catch (IOException e) {
+      LoggerCentral.info(LOGGER, url + ": " + e.getMessage());
+      return false;
+    } finally {
+      if (conn != null) {
+        conn.disconnect();
+      }
+    }
+  }
+
+  private static HttpURLConnection openConnection(String url, long from,
+      long to) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+
+    conn.setInstanceFollowRedirects(true);
+    conn.setConnectTimeout(HTTPBasicEngine.CONNECT_TIMEOUT);
+    conn.setReadTimeout(HTTPBasicEngine.SOCKET_TIMEOUT);
+    conn.setRequestProperty(HTTPBasicEngine.RANGE_HTTP,
+        String.format(RANGE_FORMAT, from, to));
+    return conn;
+  }
+
+  /**
+   * Prepares the download. Reloads the progress of a previous download of the
+   * same file if any.
+   *
+   * @return the number of bytes already downloaded
+   */
+  public long open() throws IOException {
+    RandomAccessFile raf;
+    long done = 0;
+
+    if (_channel != null) {
+      return 0;
+    }
+    _job = LoggerCentral.getJobContext();
+    _stopped = false;
+    _segments = _partFile.exists() ? loadState() : null;
+    if (_segments == null) {
+      FileUtils.deleteQuietly(_partFile);
+      _segments = new Segment[_nSegments];
+      long segSize = (_size + _nSegments - 1) / _nSegments;
+      for (int i = 0; i < _nSegments; i++) {
+        _segments[i] = new Segment(Math.min(_size, i * segSize), Math.min(
+            _size, (i + 1) * segSize));
+      }
+    } else {
+      _nSegments = _segments.length;
+      for (Segment s : _segments) {
+        done += s.done;
+      }
+      LoggerCentral.info(LOGGER, _target.getName()
+          + ": resume segmented download at byte: " + done);
+    }
+    raf = new RandomAccessFile(_partFile, "rw");
+    try {
+      raf.setLength(_size);
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+    _channel = raf.getChannel();
+    _lastSave = System.currentTimeMillis();
+    saveState();
+    return done;
+  }
+
+  /**
+   * Downloads the file. Calls open() if needed. The local file exists only
+   * when the download has succeeded.
+   *
+   * @throws IOException
+   *           if a segment cannot be downloaded. Its progress is saved, so that
+   *           calling this method again resumes the download.
+   * @throws MyCopyInteruptException
+   *           if the job has been cancelled
+   */
+  public void download() throws IOException {
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    ExecutorService executor;
+    Throwable error = null;
+
+    open();
+    executor = Executors.newFixedThreadPool(_nSegments);
+    try {
+      for (Segment s : _segments) {
+        if (!s.isComplete()) {
+          futures.add(executor.submit(() -> {
+            downloadSegment(s);
+            return null;
+          }));
+        }
+      }
+      for (Future<?> f : futures) {
+        try {
+          f.get();
+        } catch (ExecutionException e) {
+          if (error == null) {
+            error = e.getCause();
+          }
+        } catch (InterruptedException e) {
+          _stopped = true;
+          error = new InterruptedIOException("download interrupted");
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      synchronized (this) {
+        saveState();
+      }
+      IOUtils.closeQuietly(_channel);
+      _channel = null;
+    }
+    if (error instanceof RuntimeException) {
+      throw (RuntimeException) error;
+    } else if (error instanceof IOException) {
+      throw (IOException) error;
+    } else if (error != null) {
+      throw new IOException(error);
+    }
+    for (Segment s : _segments) {
+      if (!s.isComplete()) {
+        throw new IOException(_target.getName() + ": segment " + s.getRange()
+            + " not complete");
+      }
+    }
+    Files.move(_partFile.toPath(), _target.toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+    FileUtils.deleteQuietly(_stateFile);
+  }
+
+  private void downloadSegment(Segment s) throws IOException {
+    int attempt = 0;
+
+    while (true) {
+      try {
+        transferSegment(s);
+        return;
+      } catch (IOException e) {
+        if (_stopped || ++attempt > _retries) {
+          _stopped = true;
+          throw new IOException(_target.getName() + ": segment "
+              + s.getRange() + ": " + e.getMessage(), e);
+        }
+        LoggerCentral.info(LOGGER, _target.getName() + ": retry segment "
+            + s.getRange() + ": " + e.getMessage());
+        try {
+          Thread.sleep(_retryDelay * attempt);
+        } catch (InterruptedException e1) {
+          throw new InterruptedIOException("download interrupted");
+        }
+      } catch (RuntimeException e) {
+        // job cancelled
+        _stopped = true;
+        throw e;
+      }
+    }
+  }
+
+  private void transferSegment(Segment s) throws IOException {
+    HttpURLConnection conn;
+    ByteBuffer bb;
+    byte[] buf;
+    int n;
+
+    conn = openConnection(_url, s.start + s.done, s.end - 1);
+    try {
+      if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+        throw new IOException("byte range not sent by server (HTTP code: "
+            + conn.getResponseCode() + ")");
+      }
+      buf = new byte[BUF_SIZE];
+      try (InputStream is = conn.getInputStream()) {
+        while (!s.isComplete() && !_stopped) {
+          n = is.read(buf, 0, (int) Math.min(buf.length, s.end - s.start
+              - s.done));
+          if (n == -1) {
+            throw new EOFException("connection closed at byte "
+                + (s.start + s.done));
+          }
+          bb = ByteBuffer.wrap(buf, 0, n);
+          while (bb.hasRemaining()) {
+            _channel.write(bb, s.start + s.done + bb.position());
+          }
+          s.done += n;
+          bytesTransferred(n);
+        }
+      }
+    } finally {
+      conn.disconnect();
+    }
+  }
+
+  private synchronized void bytesTransferred(int n) {
+    long now;
+
+    if (_job.isAborted()) {
+      throw new MyCopyInteruptException();
+    }
+    _transferred += n;
+    if (_listener != null) {
+      _listener.bytesTransferred(_transferred, n, _size);
+    }
+    now = System.currentTimeMillis();
+    if (now - _lastSave > STATE_DELAY) {
+      saveState();
+      _lastSave = now;
+    }
+  }
+
+  /**
+   * Saves the progress of each segment. Data are flushed to disk first, so
+   * that saved progress never goes beyond the data actually written.
+   */
+  private void saveState() {
+    File tmpFile = new File(_stateFile.getAbsolutePath() + ".tmp");
+
+    try {
+      if (_channel != null && _channel.isOpen()) {
+        _channel.force(false);
+      }
+      try (PrintWriter writer = new PrintWriter(tmpFile)) {
+        writer.println(_size);
+        for (Segment s : _segments) {
+          writer.println(s.start + " " + s.end + " " + s.done);
+        }
+      }
+      Files.move(tmpFile.toPath(), _stateFile.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      // in the worst case, the download will restart from the beginning
+      LoggerCentral.info(LOGGER, "unable to save " + _stateFile.getName()
+          + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Reloads the progress of each segment. Returns null if there is no such
+   * progress for the file to download.
+   */
+  private Segment[] loadState() {
+    List<Segment> segments = new ArrayList<Segment>();
+    long next = 0;
+    String line;
+    String[] values;
+    Segment s;
+
+    if (!_stateFile.exists()) {
+      return null;
+    }
+    try (BufferedReader reader = new BufferedReader(new FileReader(
+        _stateFile))) {
+      line = reader.readLine();
+      if (line == null || Long.parseLong(line.trim()) != _size) {
+        return null;
+      }
+      while ((line = reader.readLine()) != null) {
+        values = line.trim().split(" ");
+        s = new Segment(Long.parseLong(values[0]), Long.parseLong(values[1]));
+        s.done = Long.parseLong(values[2]);
+        // segments have to cover the whole file
+        if (s.start != next || s.done < 0 || s.start + s.done > s.end) {
+          return null;
+        }
+        next = s.end;
+        segments.add(s);
+      }
+      if (next != _size) {
+        return null;
+      }
+    } catch (Exception e) {
+      LoggerCentral.info(LOGGER, "unable to read " + _stateFile.getName()
+          + ": " + e.getMessage());
+      return null;
+    }
+    return segments.isEmpty() ? null : segments.toArray(new Segment[0]);
+  }
+
+  /**
+   * A byte range of the file to download.
+   */
+  private static class Segment {
+    private long          start;
+    private long          end;
+    // only updated by the thread downloading this segment
+    private volatile long done;
+
+    private Segment(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    private boolean isComplete() {
+      return start + done >= end;
+    }
+
+    private String getRange() {
+      return start + "-" + (end - 1);
+    }
+  }
+}
@@ -0,0 +1,261 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.indexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class reads a database file line by line without decoding them. Line
+ * terminators are the same as the ones of BufferedReader.readLine(): '\n',
+ * '\r' or "\r\n".<br>
+ * <br>
+ * The current line is only available as a byte slice: parsers check its
+ * content using startsWith() or contains() and call getLine() only for the
+ * lines they really need. Line positions are byte offsets within the file, so
+ * they can be used as is to read back entries (see
+ * DBUtils.readDBEntryData()).<br>
+ * <br>
+ * An instance of this class is not thread-safe.
+ *
+ * @author Patrick G. Durand
+ */
+public class ByteLineReader implements Closeable {
+
+  private static final int DEFAULT_BUF_SIZE = 1024 * 1024;
+
+  private RandomAccessFile _raf;
+  private FileChannel      _fc;
+  private byte[]           _buf;
+  // file offset of _buf[0]
+  private long             _bufPos;
+  // file offset of the next byte to read from the file
+  private long             _readPos;
+  // file offset where to stop reading
+  private long             _end;
+  // number of valid bytes in _buf
+  private int              _dataEnd;
+  // current line is _buf[_lineStart.._lineEnd[ ; next one starts at _next
+  private int              _lineStart;
+  private int              _lineEnd;
+  private int              _next;
+  private boolean          _eof;
+
+  /**
+   * Constructor.
+   *
+   * @param file
+   *          the file to read
+   */
+  public ByteLineReader(String file) throws IOException {
+    this(file, 0, -1);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param file
+   *          the file to read
+   * @param from
+   *          position of the first byte to read. Should be the beginning of a
+   *          line.
+   * @param to
+   *          position where to stop reading (excluded). Use -1 to read up to
+   *          the end of the file.
+   */
+  public ByteLineReader(String file, long from, long to) throws IOException {
+    _raf = new RandomAccessFile(file, "r");
+    _fc = _raf.getChannel();
+    _end = to < 0 ? _fc.size() : Math.min(to, _fc.size());
+    _buf = new byte[(int) Math.max(1, Math.min(DEFAULT_BUF_SIZE, _end - from))];
+    _bufPos = _readPos = from;
+  }
+
+  /**
+   * Moves to the next line.
+   *
+   * @return false when there is no more line to read.
+   */
+  public boolean nextLine() throws IOException {
+    int i;
+    byte b;
+
+    _lineStart = i = _next;
+    while (true) {
+      while (i < _dataEnd) {
+        b = _buf[i];
+        if (b == '\n') {
+          _lineEnd = i;
+          _next = i + 1;
+          return true;
+        }
+        if (b == '\r') {
+          if (i + 1 == _dataEnd && !_eof) {
+            // need next byte to know whether this is a "\r\n" terminator
+            break;
+          }
+          _lineEnd = i;
+          _next = (i + 1 < _dataEnd && _buf[i + 1] == '\n') ? i + 2 : i + 1;
+          return true;
+        }
+        i++;
+      }
+      if (_eof) {
+        if (_lineStart >= _dataEnd) {
+          return false;
+        }
+        _lineEnd = _next = _dataEnd;
+        return true;
+      }
+      i -= fill();
+    }
+  }
+
+  /**
+   * Moves the current line at the beginning of the buffer, then appends data
+   * read from the file.
+   *
+   * @return the number of bytes the current line has been shifted by
+   */
+  private int fill() throws IOException {
+    int shift, n;
+
+    shift = _lineStart;
+    if (shift != 0) {
+      System.arraycopy(_buf, shift, _buf, 0, _dataEnd - shift);
+      _dataEnd -= shift;
+      _bufPos += shift;
+      _lineStart = 0;
+      _next -= shift;
+    }
+    if (_dataEnd == _buf.length) {
+      // very long line
+      byte[] buf = new byte[_buf.length * 2];
+      System.arraycopy(_buf, 0, buf, 0, _dataEnd);
+      _buf = buf;
+    }
+    n = (int) Math.min(_buf.length - _dataEnd, _end - _readPos);
+    if (n > 0) {
+      n = _fc.read(ByteBuffer.wrap(_buf, _dataEnd, n), _readPos);
+    }
+    if (n <= 0) {
+      _eof = true;
+    } else {
+      _dataEnd += n;
+      _readPos += n;
+    }
+    return shift;
+  }
+
+  /**
+   * Returns the position of the current line within the file.
+   */
+  public long getLinePos() {
+    return _bufPos + _lineStart;
+  }
+
+  /**
+   * Returns the position following the current line and its terminator
+   * within the file.
+   */
+  public long getPos() {
+    return _bufPos + _next;
+  }
+
+  /**
+   * Returns the length of the current line, in bytes, terminator excluded.
+   */
+  public int length() {
+    return _lineEnd - _lineStart;
+  }
+
+  /**
+   * Figures out whether the current line starts with a prefix.
+   */
+  public boolean startsWith(byte[] prefix) {
+    int i;
+
+    if (prefix.length > _lineEnd - _lineStart) {
+      return false;
+    }
+    for (i = 0; i < prefix.length; i++) {
+      if (_buf[_lineStart + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Figures out whether the current line contains some bytes.
+   */
+  public boolean contains(byte[] pattern) {
+    int i, j, last;
+
+    last = _lineEnd - pattern.length;
+    for (i = _lineStart; i <= last; i++) {
+      for (j = 0; j < pattern.length; j++) {
+        if (_buf[i + j] != pattern[j]) {
+          break;
+        }
+      }
+      if (j == pattern.length) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the number of ASCII letters of the current line.
+   */
+  public int countLetters() {
+    int i, c, count = 0;
+
+    for (i = _lineStart; i < _lineEnd; i++) {
+      c = _buf[i] | 0x20;
+      if (c >= 'a' && c <= 'z') {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the current line as a UTF-8 decoded string, terminator excluded.
+   */
+  public String getLine() {
+    return new String(_buf, _lineStart, _lineEnd - _lineStart,
+        StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Utility method to convert a keyword to bytes.
+   */
+  public static byte[] toBytes(String str) {
+    return str.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void close() throws IOException {
+    _raf.close();
+  }
+}
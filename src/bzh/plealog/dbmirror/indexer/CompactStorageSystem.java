@@ -0,0 +1,788 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.indexer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.search.Query;
+
+import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
+import bzh.plealog.dbmirror.util.log.LoggerCentral;
+
+/**
+ * This class represents a compact, read-only index aims at storing required
+ * data to retrieve specific entries from sequence database files. Contrary to
+ * LuceneStorageSystem, this index only stores what is needed to locate
+ * entries: a sorted table of hashed ID keys, and a table of entry records
+ * (data file, start, stop, id and name). Lookups are binary searches over a
+ * memory mapped key table.<br>
+ * <br>
+ * An index is a directory containing the following files:
+ * <ul>
+ * <li>keys: a header (magic, version, number of entries) followed by sorted
+ * records of (64-bit key hash, entry number)</li>
+ * <li>offsets: position of each entry record in the entries file</li>
+ * <li>entries: entry records</li>
+ * <li>files: paths to the database files, one per line, written as "FP:path".
+ * Indexes created by previous releases contain names of 'dX' files instead;
+ * such files are shared with LuceneStorageSystem.</li>
+ * </ul>
+ * Keys of an entry are its full ID and each of its pipe separated tokens
+ * except database tokens (see LuceneUtils.DB_TOKENS). Keys are case
+ * insensitive.
+ *
+ * @author Patrick G. Durand
+ */
+public class CompactStorageSystem implements StorageSystem {
+  private String                        _indexName;
+  private int                           _mode;
+  private boolean                       _writerOk;
+  private boolean                       _readerOk;
+
+  // write mode
+  private DataOutputStream              _entriesOut;
+  private DataOutputStream              _offsetsOut;
+  private ByteArrayOutputStream         _record;
+  private DataOutputStream              _recordOut;
+  private long                          _entriesPos;
+  private long[]                        _hashes;
+  private long[]                        _ords;
+  private int                           _nKeys;
+  private List<File>                    _runs;
+  private Map<String, Integer>          _fileOrds;
+  private List<String>                  _fileKeys;
+
+  // read mode and write mode
+  private long                          _nEntries;
+
+  // read mode
+  private RandomAccessFile              _keysFile;
+  private RandomAccessFile              _offsetsFile;
+  private RandomAccessFile              _entriesFile;
+  private FileChannel                   _entriesChannel;
+  private MappedByteBuffer[]            _keysMaps;
+  private MappedByteBuffer[]            _offsetsMaps;
+  private long                          _nKeysRead;
+  private String[]                      _fileNames;
+
+  public static final String            KEYS_FILE    = "keys";
+  public static final String            OFFSETS_FILE = "offsets";
+  public static final String            ENTRIES_FILE = "entries";
+  public static final String            FILES_FILE   = "files";
+
+  private static final int              MAGIC        = 0x42444D43;
+  private static final int              VERSION      = 1;
+  private static final int              HEADER_SIZE  = 16;
+  private static final int              KEY_SIZE     = 16;
+  // must be a multiple of KEY_SIZE
+  private static final long             MAP_SIZE     = 1L << 30;
+  // number of keys kept in memory before being spilled to disk
+  private static final int              RUN_SIZE     = 1 << 20;
+  private static final int              IO_BUF_SIZE  = 1 << 16;
+  private static final String           RUN_PREFIX   = "run";
+  private static final int              ADDED_PAGE   = 200000;
+
+  private static final Log              LOGGER       = LogFactory
+                                                         .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
+                                                             + ".CompactStorageSystem");
+
+  public CompactStorageSystem() {
+  }
+
+  /**
+   * Figures out whether or not an index path refers to a compact index.
+   */
+  public static boolean isCompactStorage(String indexName) {
+    return new File(indexName, KEYS_FILE).isFile();
+  }
+
+  /**
+   * Returns the keys of a sequence ID. First key is always the full ID.
+   */
+  protected static List<String> getKeys(String id) {
+    LinkedHashSet<String> keys;
+    StringTokenizer tokenizer;
+    String token, uToken;
+    boolean isPdb = false;
+
+    keys = new LinkedHashSet<String>();
+    keys.add(id.toLowerCase());
+    tokenizer = new StringTokenizer(id, "|");
+    while (tokenizer.hasMoreTokens()) {
+      token = tokenizer.nextToken().trim();
+      uToken = token.toUpperCase();
+      if (LuceneUtils.DB_TOKENS.contains(uToken)) {
+        if ("GNL".equals(uToken)) {
+          if (tokenizer.hasMoreTokens())
+            tokenizer.nextToken();
+        } else if ("PDB".equals(uToken)) {
+          isPdb = true;
+        }
+        continue;
+      }
+      if (token.length() != 0) {
+        keys.add(token.toLowerCase());
+      }
+      if (isPdb)
+        break;
+    }
+    return new ArrayList<String>(keys);
+  }
+
+  /**
+   * 64-bit FNV-1a hash of a key.
+   */
+  private static long hash(String key) {
+    long h = 0xcbf29ce484222325L;
+    int i, size = key.length();
+    char ch;
+
+    for (i = 0; i < size; i++) {
+      ch = key.charAt(i);
+      h ^= (ch & 0xff);
+      h *= 0x100000001b3L;
+      h ^= (ch >>> 8);
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+
+  private static void writeVLong(DataOutputStream out, long value)
+      throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static long readVLong(ByteBuffer buf) {
+    long value = 0;
+    int shift = 0;
+    byte b;
+
+    do {
+      b = buf.get();
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  private static void writeString(DataOutputStream out, String str)
+      throws IOException {
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    writeVLong(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buf) {
+    byte[] bytes = new byte[(int) readVLong(buf)];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int compare(long h1, long o1, long h2, long o2) {
+    int c = Long.compare(h1, h2);
+    return c != 0 ? c : Long.compare(o1, o2);
+  }
+
+  /**
+   * Sorts keys by hash, then by entry number. Both arrays are sorted
+   * together.
+   */
+  public static void sortKeys(long[] hashes, long[] ords, int from, int to) {
+    int i, j;
+    long ph, po, t;
+
+    while (to - from > 16) {
+      i = from + (to - from) / 2;
+      ph = hashes[i];
+      po = ords[i];
+      i = from;
+      j = to - 1;
+      while (i <= j) {
+        while (compare(hashes[i], ords[i], ph, po) < 0)
+          i++;
+        while (compare(hashes[j], ords[j], ph, po) > 0)
+          j--;
+        if (i <= j) {
+          t = hashes[i]; hashes[i] = hashes[j]; hashes[j] = t;
+          t = ords[i]; ords[i] = ords[j]; ords[j] = t;
+          i++;
+          j--;
+        }
+      }
+      // recurse on the smaller part to bound stack depth
+      if (j - from < to - i) {
+        sortKeys(hashes, ords, from, j + 1);
+        from = i;
+      } else {
+        sortKeys(hashes, ords, i, to);
+        to = j + 1;
+      }
+    }
+    for (i = from + 1; i < to; i++) {
+      ph = hashes[i];
+      po = ords[i];
+      for (j = i - 1; j >= from && compare(hashes[j], ords[j], ph, po) > 0; j--) {
+        hashes[j + 1] = hashes[j];
+        ords[j + 1] = ords[j];
+      }
+      hashes[j + 1] = ph;
+      ords[j + 1] = po;
+    }
+  }
+
+  private static DataOutputStream openOutput(File f) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+        f), IO_BUF_SIZE));
+  }
+
+  private static MappedByteBuffer[] map(FileChannel fc, long from)
+      throws IOException {
+    MappedByteBuffer[] maps;
+    long size, pos;
+    int i;
+
+    size = fc.size() - from;
+    maps = new MappedByteBuffer[(int) ((size + MAP_SIZE - 1) / MAP_SIZE)];
+    for (i = 0, pos = from; i < maps.length; i++, pos += MAP_SIZE) {
+      maps[i] = fc.map(FileChannel.MapMode.READ_ONLY, pos,
+          Math.min(MAP_SIZE, fc.size() - pos));
+    }
+    return maps;
+  }
+
+  private static long getLong(MappedByteBuffer[] maps, long pos) {
+    return maps[(int) (pos / MAP_SIZE)].getLong((int) (pos % MAP_SIZE));
+  }
+
+  /**
+   * Implementation of StorageSystem interface.
+   */
+  public boolean open(String name, int mode, boolean loadInRAM) {
+    _mode = mode;
+    _indexName = name;
+
+    switch (mode) {
+      case StorageSystem.WRITE_MODE:
+        return openWriter();
+      case StorageSystem.READ_MODE:
+        return openReader();
+    }
+    return false;
+  }
+
+  /**
+   * Implementation of StorageSystem interface.
+   */
+  public boolean open(String name, int mode) {
+    return open(name, mode, false);
+  }
+
+  /**
+   * Implementation of StorageSystem interface.
+   */
+  public boolean close() {
+    boolean bRet = true;
+
+    switch (_mode) {
+      case StorageSystem.WRITE_MODE:
+        bRet = closeWriter();
+        break;
+      case StorageSystem.READ_MODE:
+        bRet = closeReader();
+        break;
+    }
+    return bRet;
+  }
+
+  /**
+   * Implementation of StorageSystem interface.
+   */
+  public int size() {
+    return (int) _nEntries;
+  }
+
+  private boolean openWriter() {
+    File dir;
+
+    try {
+      dir = new File(_indexName);
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        throw new IOException("unable to create directory");
+      }
+      _entriesOut = openOutput(new File(dir, ENTRIES_FILE));
+      _offsetsOut = openOutput(new File(dir, OFFSETS_FILE));
+      _record = new ByteArrayOutputStream();
+      _recordOut = new DataOutputStream(_record);
+      _hashes = new long[RUN_SIZE];
+      _ords = new long[RUN_SIZE];
+      _runs = new ArrayList<File>();
+      _fileOrds = new HashMap<String, Integer>();
+      _fileKeys = new ArrayList<String>();
+      _entriesPos = 0;
+      _nEntries = 0;
+      _nKeys = 0;
+      _writerOk = true;
+    } catch (IOException e) {
+      LoggerCentral.error(LOGGER, "Unable to open index (write mode): " + e);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Implementation of StorageSystem interface.
+   */
+  public synchronized void addEntry(String id, String name, String fName,
+      long start, long stop) throws StorageSystemException {
+    Integer fileOrd;
+
+    if (_writerOk == false)
+      throw new StorageSystemException(
+          "CompactStorageSystem not initialised.");
+    if (stop < start)
+      throw new StorageSystemException("While adding entry in index: " + id
+          + ": invalid location: " + start + "-" + stop);
+    try {
+      fileOrd = _fileOrds.get(fName);
+      if (fileOrd == null) {
+        fileOrd = _fileKeys.size();
+        _fileKeys.add(LuceneStorageSystem.FP_KEY
+            + LuceneStorageSystem.convertPath(fName));
+        _fileOrds.put(fName, fileOrd);
+      }
+      _record.reset();
+      writeVLong(_recordOut, fileOrd);
+      writeVLong(_recordOut, start);
+      writeVLong(_recordOut, stop - start);
+      writeString(_recordOut, id);
+      writeString(_recordOut, name != null ? name : "");
+      _offsetsOut.writeLong(_entriesPos);
+      _record.writeTo(_entriesOut);
+      _entriesPos += _record.size();
+      for (String key : getKeys(id)) {
+        if (_nKeys == _hashes.length) {
+          spillKeys();
+        }
+        _hashes[_nKeys] = hash(key);
+        _ords[_nKeys] = _nEntries;
+        _nKeys++;
+      }
+      _nEntries++;
+      if (_nEntries % ADDED_PAGE == 0) {
+        LoggerCentral.info(LOGGER, "Sequences added: " + _nEntries);
+      }
+    } catch (IOException e) {
+      throw new StorageSystemException("While adding entry in index: " + e);
+    }
+  }
+
+  /**
+   * Sorts keys currently kept in memory and writes them in a run file.
+   */
+  private void spillKeys() throws IOException {
+    DataOutputStream out;
+    File f;
+    int i;
+
+    sortKeys(_hashes, _ords, 0, _nKeys);
+    f = new File(_indexName, RUN_PREFIX + _runs.size());
+    out = openOutput(f);
+    try {
+      for (i = 0; i < _nKeys; i++) {
+        out.writeLong(_hashes[i]);
+        out.writeLong(_ords[i]);
+      }
+    } finally {
+      out.close();
+    }
+    _runs.add(f);
+    _nKeys = 0;
+  }
+
+  /**
+   * Reader of a sorted run file used during the final merge.
+   */
+  private static class RunReader implements Comparable<RunReader> {
+    private DataInputStream in;
+    private long            hash;
+    private long            ord;
+
+    private RunReader(File f) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(f),
+          IO_BUF_SIZE));
+    }
+
+    private boolean next() throws IOException {
+      try {
+        hash = in.readLong();
+        ord = in.readLong();
+        return true;
+      } catch (EOFException e) {
+        return false;
+      }
+    }
+
+    public int compareTo(RunReader o) {
+      return compare(hash, ord, o.hash, o.ord);
+    }
+  }
+
+  /**
+   * Writes the final key table.
+   */
+  private void writeKeys() throws IOException {
+    PriorityQueue<RunReader> queue;
+    DataOutputStream out;
+    RunReader run;
+    int i;
+
+    out = openOutput(new File(_indexName, KEYS_FILE + ".tmp"));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(_nEntries);
+      if (_runs.isEmpty()) {
+        sortKeys(_hashes, _ords, 0, _nKeys);
+        for (i = 0; i < _nKeys; i++) {
+          out.writeLong(_hashes[i]);
+          out.writeLong(_ords[i]);
+        }
+      } else {
+        if (_nKeys != 0) {
+          spillKeys();
+        }
+        _hashes = null;
+        _ords = null;
+        LoggerCentral.info(LOGGER, "merging " + _runs.size() + " key runs");
+        queue = new PriorityQueue<RunReader>();
+        try {
+          for (File f : _runs) {
+            run = new RunReader(f);
+            if (run.next())
+              queue.add(run);
+            else
+              run.in.close();
+          }
+          while (!queue.isEmpty()) {
+            run = queue.poll();
+            out.writeLong(run.hash);
+            out.writeLong(run.ord);
+            if (run.next())
+              queue.add(run);
+            else
+              run.in.close();
+          }
+        } finally {
+          for (RunReader r : queue) {
+            IOUtils.closeQuietly(r.in);
+          }
+        }
+        for (File f : _runs) {
+          f.delete();
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private boolean closeWriter() {
+    PrintWriter writer;
+    File dir;
+    boolean bRet = true;
+
+    if (_writerOk == false)
+      return true;
+    try {
+      _entriesOut.close();
+      _offsetsOut.writeLong(_entriesPos);
+      _offsetsOut.close();
+      dir = new File(_indexName);
+      writer = new PrintWriter(new File(dir, FILES_FILE));
+      for (String key : _fileKeys) {
+        writer.println(key);
+      }
+      writer.close();
+      writeKeys();
+      // keys file is written last: it marks the index as complete
+      if (!new File(dir, KEYS_FILE + ".tmp").renameTo(new File(dir, KEYS_FILE))) {
+        throw new IOException("unable to rename keys file");
+      }
+    } catch (IOException e) {
+      LoggerCentral.error(LOGGER, "Unable to close index (write mode): " + e);
+      bRet = false;
+    }
+    _hashes = null;
+    _ords = null;
+    _writerOk = false;
+    return bRet;
+  }
+
+  private boolean openReader() {
+    ArrayList<String> keys;
+    BufferedReader reader = null;
+    File dir;
+    String line;
+    int i;
+
+    try {
+      dir = new File(_indexName);
+      _keysFile = new RandomAccessFile(new File(dir, KEYS_FILE), "r");
+      if (_keysFile.readInt() != MAGIC) {
+        throw new IOException("not a compact index");
+      }
+      if (_keysFile.readInt() > VERSION) {
+        throw new IOException("unsupported version");
+      }
+      _nEntries = _keysFile.readLong();
+      _nKeysRead = (_keysFile.length() - HEADER_SIZE) / KEY_SIZE;
+      _keysMaps = map(_keysFile.getChannel(), HEADER_SIZE);
+      _offsetsFile = new RandomAccessFile(new File(dir, OFFSETS_FILE), "r");
+      _offsetsMaps = map(_offsetsFile.getChannel(), 0);
+      _entriesFile = new RandomAccessFile(new File(dir, ENTRIES_FILE), "r");
+      _entriesChannel = _entriesFile.getChannel();
+      keys = new ArrayList<String>();
+      reader = new BufferedReader(new FileReader(new File(dir, FILES_FILE)));
+      while ((line = reader.readLine()) != null) {
+        if (line.length() != 0)
+          keys.add(line);
+      }
+      _fileNames = new String[keys.size()];
+      for (i = 0; i < _fileNames.length; i++) {
+        if (keys.get(i).startsWith(LuceneStorageSystem.FP_KEY)) {
+          _fileNames[i] = IndexFileTable.resolve(
+              IndexFileTable.getIndexParent(_indexName), keys.get(i));
+        } else {
+          _fileNames[i] = LuceneStorageSystem.getRealFName(_indexName,
+              keys.get(i));
+        }
+        if (_fileNames[i] == null) {
+          throw new IOException("Unable to get data fName for key: "
+              + keys.get(i));
+        }
+      }
+      _readerOk = true;
+    } catch (IOException e) {
+      LoggerCentral.error(LOGGER, "Unable to open index (read mode): " + e);
+      closeReader();
+      return false;
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+    return true;
+  }
+
+  private boolean closeReader() {
+    _readerOk = false;
+    _keysMaps = null;
+    _offsetsMaps = null;
+    IOUtils.closeQuietly(_keysFile);
+    IOUtils.closeQuietly(_offsetsFile);
+    IOUtils.closeQuietly(_entriesFile);
+    return true;
+  }
+
+  /**
+   * Reads an entry given its number.
+   */
+  private DBEntry readEntry(long ord) throws IOException {
+    ByteBuffer buf;
+    DBEntry entry;
+    long from, start, stop;
+    int fileOrd;
+    String id, name;
+
+    from = getLong(_offsetsMaps, ord * 8);
+    buf = ByteBuffer.allocate((int) (getLong(_offsetsMaps, (ord + 1) * 8) - from));
+    while (buf.hasRemaining()) {
+      if (_entriesChannel.read(buf, from + buf.position()) < 0) {
+        throw new EOFException("entries file is truncated");
+      }
+    }
+    buf.flip();
+    fileOrd = (int) readVLong(buf);
+    start = readVLong(buf);
+    stop = start + readVLong(buf);
+    id = readString(buf);
+    name = readString(buf);
+    entry = new DBEntry(id, name, _fileNames[fileOrd], String.valueOf(start),
+        String.valueOf(stop));
+    entry.setIndexPath(_indexName);
+    return entry;
+  }
+
+  /**
+   * Returns the entries having a particular key, indexed by entry numbers.
+   * Hash collisions are discarded using the entry IDs.
+   */
+  private TreeMap<Long, DBEntry> findEntries(String key) throws IOException {
+    TreeMap<Long, DBEntry> entries;
+    DBEntry entry;
+    long h, low, high, mid, pos, ord;
+
+    entries = new TreeMap<Long, DBEntry>();
+    h = hash(key);
+    // lower bound of h
+    low = 0;
+    high = _nKeysRead;
+    while (low < high) {
+      mid = (low + high) >>> 1;
+      if (getLong(_keysMaps, mid * KEY_SIZE) < h)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    for (pos = low; pos < _nKeysRead; pos++) {
+      if (getLong(_keysMaps, pos * KEY_SIZE) != h)
+        break;
+      ord = getLong(_keysMaps, pos * KEY_SIZE + 8);
+      entry = readEntry(ord);
+      if (getKeys(entry.getId()).contains(key)) {
+        entries.put(ord, entry);
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Implementation of StorageSystem interface. An entry whose ID equals the
+   * queried one is preferred; otherwise entries matching the largest number of
+   * ID tokens are returned.
+   */
+  public DBEntry[] getEntry(String id) throws StorageSystemException {
+    TreeMap<Long, DBEntry> entries, matched;
+    HashMap<Long, Integer> counts;
+    List<String> keys;
+    int i, max = 0;
+
+    if (_readerOk == false)
+      throw new StorageSystemException(
+          "CompactStorageSystem not initialised.");
+    try {
+      keys = getKeys(id);
+      entries = findEntries(keys.get(0));
+      if (entries.isEmpty()) {
+        counts = new HashMap<Long, Integer>();
+        for (i = 1; i < keys.size(); i++) {
+          matched = findEntries(keys.get(i));
+          for (Long ord : matched.keySet()) {
+            max = Math.max(max, counts.merge(ord, 1, Integer::sum));
+          }
+          entries.putAll(matched);
+        }
+        for (Map.Entry<Long, Integer> count : counts.entrySet()) {
+          if (count.getValue() != max)
+            entries.remove(count.getKey());
+        }
+      }
+    } catch (IOException e) {
+      throw new StorageSystemException("Unable to query index: " + e);
+    }
+    return entries.isEmpty() ? null : entries.values().toArray(new DBEntry[0]);
+  }
+
+  /**
+   * Implementation of StorageSystem interface. Query is not used by this
+   * storage system.
+   */
+  public DBEntry[] getEntry(String id, Query q) throws StorageSystemException {
+    return getEntry(id);
+  }
+
+  /**
+   * Implementation of StorageSystem interface.
+   */
+  public Map<String, DBEntry> getEntries(Map<String, List<String[]>> queries)
+      throws StorageSystemException {
+    HashMap<String, DBEntry> entries;
+    DBEntry[] found;
+
+    entries = new HashMap<String, DBEntry>();
+    for (String id : queries.keySet()) {
+      found = getEntry(id);
+      if (found == null)
+        continue;
+      if (found.length > 1) {
+        LOGGER.warn("ID " + id
+            + " refers to multiple entries. First entry is returned.");
+      }
+      entries.put(id, found[0]);
+    }
+    return entries;
+  }
+
+  /**
+   * Implementation of StorageSystem interface. Entries are returned in the
+   * order they were added to the index.
+   */
+  public Enumeration<DBEntry> entries() {
+    return new Enumeration<DBEntry>() {
+      long curEntry = 0;
+
+      @Override
+      public boolean hasMoreElements() {
+        return curEntry < _nEntries;
+      }
+
+      @Override
+      public DBEntry nextElement() {
+        if (curEntry >= _nEntries)
+          throw new NoSuchElementException();
+        try {
+          return readEntry(curEntry++);
+        } catch (IOException e) {
+          throw new StorageSystemException("Unable to read entry from index: "
+              + e);
+        }
+      }
+    };
+  }
+}
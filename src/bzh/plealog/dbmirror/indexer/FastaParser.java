@@ -16,16 +16,15 @@
  */
 package bzh.plealog.dbmirror.indexer;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import bzh.plealog.dbmirror.util.Utils;
+import bzh.plealog.dbmirror.indexer.ParallelRecordScanner.ScannedLine;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
 import bzh.plealog.dbmirror.util.runner.DBMSUniqueSeqIdRedundantException;
@@ -46,11 +45,15 @@ public class FastaParser implements DBParsable {
   private ParserMonitor      _pMonitor;
   private boolean            _checkNR         = false;
   private boolean            _generateLocalID = false;
+  private int                _workers         = 0;
+  private long               _chunkSize       = ParallelRecordScanner.DEFAULT_CHUNK_SIZE;
 
   public static final String LCl_PREFIX_ID    = "kd_i";
   public static final String LENGTH_PREFIX    = " [Length=";
   public static final String LENGTH_SUFFIX    = "]";
 
+  private static final byte[] HEADER_START = ByteLineReader.toBytes(">");
+
   private static final Log   LOGGER           = LogFactory
                                                   .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
                                                       + ".FastaParser");
@@ -93,6 +96,21 @@ public class FastaParser implements DBParsable {
     _pMonitor = pm;
   }
 
+  /**
+   * Sets the parameters of the parallel scan of files. By default, the number
+   * of workers comes from the main configuration (see
+   * DBMSAbstractConfig.getIndexWorkers()).
+   * 
+   * @param workers
+   *          number of threads. Use 1 to force sequential parsing.
+   * @param chunkSize
+   *          files smaller than that are parsed sequentially. Unit is bytes.
+   */
+  public void setParallelScan(int workers, long chunkSize) {
+    _workers = workers;
+    _chunkSize = chunkSize;
+  }
+
   private void handleData(StorageSystem ss, String idLine, String fName,
       int seqLen, long start, long curPos) {
     String data, lclId, desc, id;
@@ -143,51 +161,98 @@ public class FastaParser implements DBParsable {
 
   }
 
+  private int getWorkers() {
+    return _workers > 0 ? _workers : DBMSAbstractConfig.getIndexWorkers();
+  }
+
+  /**
+   * Collects the header lines of a chunk along with the number of sequence
+   * letters of each entry.
+   */
+  private static class FastaChunkScanner implements
+      ParallelRecordScanner.ChunkScanner<List<ScannedLine>> {
+    private ArrayList<ScannedLine> _headers = new ArrayList<ScannedLine>();
+    private ScannedLine            _current;
+
+    public void handleLine(ByteLineReader line) {
+      if (line.startsWith(HEADER_START)) {
+        _current = new ScannedLine(line.getLine(), line.getLinePos(), 0);
+        _headers.add(_current);
+      } else if (_current != null) {
+        _current.setValue(_current.getValue() + line.countLetters());
+      }
+    }
+
+    public List<ScannedLine> getResult() {
+      return _headers;
+    }
+  }
+
+  /**
+   * Parses a file using several threads. Entries are reported in file order
+   * with the same locations than the sequential parsing.
+   */
+  private void parseParallel(String file, StorageSystem ss, String fName)
+      throws Exception {
+    final ScannedLine[] last = new ScannedLine[1];
+    long curPos;
+
+    curPos = ParallelRecordScanner.scan(file, ">", getWorkers(), _chunkSize,
+        FastaChunkScanner::new, (headers) -> {
+          for (ScannedLine header : headers) {
+            if (last[0] != null)
+              handleData(ss, last[0].getLine(), fName, last[0].getValue(),
+                  last[0].getPos(), header.getPos() - 1l);
+            last[0] = header;
+          }
+        });
+    if (last[0] != null)
+      handleData(ss, last[0].getLine(), fName, last[0].getValue(),
+          last[0].getPos(), curPos);
+    else
+      handleData(ss, null, fName, 0, 0, curPos);
+  }
+
   /**
    * Implementation of DBParsable interface.
    */
   public void parse(String file, StorageSystem ss) throws DBParserException {
-    BufferedReader reader = null;
-    String line, id, fName;
+    ByteLineReader reader = null;
+    String id, fName;
     long curPos = 0, start = 0;
-    int endOfLineSize, i, size, seqLen = 0;
+    int seqLen = 0;
     boolean readseq = false;
-    char c;
 
     try {
-      endOfLineSize = Utils.getLineTerminatorSize(file);
       _entries = 0;
-      reader = new BufferedReader(new InputStreamReader(new FileInputStream(
-          file), "UTF-8"));
       fName = file;
       id = null;
       if (_pMonitor != null) {
         _pMonitor.startProcessingFile(fName, new File(file).length());
       }
-      while ((line = reader.readLine()) != null) {
-        /*
-         * if (counter>5) break;
-         */
-        if (line.startsWith(">")) {
-          if (id != null)
-            handleData(ss, id, fName, seqLen, start, curPos - 1l);
-          start = curPos;
-          id = line;
-          readseq = true;
-          seqLen = 0;
-        } else if (readseq) {
-          size = line.length();
-          for (i = 0; i < size; i++) {
-            c = line.charAt(i);
-            if (Character.isLetter(c)) {
-              seqLen++;
-            }
+      if (ParallelRecordScanner.useParallelScan(file, getWorkers(), _chunkSize)) {
+        parseParallel(file, ss, fName);
+      } else {
+        reader = new ByteLineReader(file);
+        while (reader.nextLine()) {
+          /*
+           * if (counter>5) break;
+           */
+          if (reader.startsWith(HEADER_START)) {
+            if (id != null)
+              handleData(ss, id, fName, seqLen, start, curPos - 1l);
+            start = curPos;
+            id = reader.getLine();
+            readseq = true;
+            seqLen = 0;
+          } else if (readseq) {
+            seqLen += reader.countLetters();
           }
-        }
 
-        curPos += (long) (line.length() + endOfLineSize);
+          curPos = reader.getPos();
+        }
+        handleData(ss, id, fName, seqLen, start, curPos);
       }
-      handleData(ss, id, fName, seqLen, start, curPos);
     } catch (Exception e) {
       String msg = "Error while parsing Fasta entry no. " + (_entries + 1);
       LOGGER.warn(msg + ": " + e);
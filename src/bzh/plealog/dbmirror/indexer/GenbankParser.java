@@ -16,17 +16,14 @@
  */
 package bzh.plealog.dbmirror.indexer;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.StringTokenizer;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import bzh.plealog.dbmirror.util.Utils;
+import bzh.plealog.dbmirror.indexer.ParallelRecordScanner.ScannedLine;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
 import bzh.plealog.dbmirror.util.runner.DBMSUniqueSeqIdRedundantException;
@@ -44,11 +41,18 @@ public class GenbankParser extends TaxonMatcherHelper implements DBParsable {
   private int              _dicarded;
   private boolean          _verbose;
   private ParserMonitor    _pMonitor;
-  private boolean          _checkNR = false;
+  private boolean          _checkNR   = false;
+  private int              _workers   = 0;
+  private long             _chunkSize = ParallelRecordScanner.DEFAULT_CHUNK_SIZE;
 
-  private static final Log LOGGER   = LogFactory
-                                        .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
-                                            + ".GenbankParser");
+  private static final byte[] LOCUS     = ByteLineReader.toBytes("LOCUS");
+  private static final byte[] ACCESSION = ByteLineReader.toBytes("ACCESSION");
+  private static final byte[] ORIGIN    = ByteLineReader.toBytes("ORIGIN");
+  private static final byte[] END_ENTRY = ByteLineReader.toBytes("//");
+
+  private static final Log LOGGER     = LogFactory
+                                          .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
+                                              + ".GenbankParser");
 
   public GenbankParser() {
   }
@@ -110,15 +114,106 @@ public class GenbankParser extends TaxonMatcherHelper implements DBParsable {
     _pMonitor = pm;
   }
 
+  /**
+   * Sets the parameters of the parallel scan of files. By default, the number
+   * of workers comes from the main configuration (see
+   * DBMSAbstractConfig.getIndexWorkers()). Parallel scan is not used with
+   * taxonomy constraints.
+   * 
+   * @param workers
+   *          number of threads. Use 1 to force sequential parsing.
+   * @param chunkSize
+   *          files smaller than that are parsed sequentially. Unit is bytes.
+   */
+  public void setParallelScan(int workers, long chunkSize) {
+    _workers = workers;
+    _chunkSize = chunkSize;
+  }
+
+  private int getWorkers() {
+    return _workers > 0 ? _workers : DBMSAbstractConfig.getIndexWorkers();
+  }
+
+  /**
+   * Handles the end of an entry, i.e. the '//' line located at curPos.
+   * 
+   * @return the value of gi to use for next entries
+   */
+  private String handleEntry(StorageSystem ss, String fName, String gi,
+      String locus, long start, long curPos, boolean seqOk) {
+    _total++;
+    if (seqOk) {
+      if (locus == null)
+        throw new StorageSystemException("field Locus is missing");
+      if (gi == null)
+        gi = locus;
+      try {
+        if (_pMonitor != null) {
+          _pMonitor.seqFound(gi, locus, fName, start, curPos + 2l, _checkNR);
+        }
+        if (ss != null) {
+          ss.addEntry(gi, locus, fName, start, curPos + 2);
+        }
+        if (_verbose)
+          System.out.println(locus + "," + gi + "," + start + ","
+              + (curPos + 2l));
+        _kept++;
+      } catch (DBMSUniqueSeqIdRedundantException ex) {
+        // JIRA KDMS-22 accept a redundant sequence, just add a log
+        LoggerCentral.warn(LOGGER, "Redundant sequence id " + gi);
+        _dicarded++;
+        if (_verbose)
+          System.out.println("discarded: " + gi + "," + locus + "," + start
+              + "," + (curPos + 2l));
+      }
+    } else {
+      _dicarded++;
+      if (_verbose)
+        System.out.println("discarded: " + gi + "," + locus + "," + start + ","
+            + (curPos + 2l));
+    }
+    return gi;
+  }
+
+  /**
+   * Parses a file using several threads. Entries are reported in file order
+   * with the same locations than the sequential parsing. Workers only collect
+   * LOCUS, ACCESSION and '//' lines which are then handled in order.
+   */
+  private void parseParallel(String file, StorageSystem ss, String fName)
+      throws Exception {
+    final StringBuffer locusBuf = new StringBuffer();
+    // gi, locus
+    final String[] state = new String[2];
+    final long[] start = new long[1];
+
+    ParallelRecordScanner.scan(file, "LOCUS", getWorkers(), _chunkSize,
+        () -> new ParallelRecordScanner.PrefixLineScanner(LOCUS, ACCESSION,
+            END_ENTRY), (lines) -> {
+          for (ScannedLine l : lines) {
+            String line = l.getLine();
+            if (line.startsWith("LOCUS")) {
+              start[0] = l.getPos();
+              state[1] = getLocus(5, line, locusBuf);
+            } else if (line.startsWith("ACCESSION")) {
+              state[0] = getAccession(line);
+            }
+            if (line.startsWith("//")) {
+              state[0] = handleEntry(ss, fName, state[0], state[1], start[0],
+                  l.getPos(), true);
+            }
+          }
+        });
+  }
+
   /**
    * Implementation of DBParsable interface.
    */
   public void parse(String file, StorageSystem ss) throws DBParserException {
-    BufferedReader reader = null;
-    String fName, line, locus = null, gi = null;
+    ByteLineReader reader = null;
+    String fName, locus = null, gi = null;
     long curPos = 0, start = 0;
     StringBuffer locusBuf;
-    int endOfLineSize;
     boolean handleTaxon = true, seqOk = true, hasTaxoConstraints;
     boolean[] values = new boolean[3];
 
@@ -131,71 +226,42 @@ public class GenbankParser extends TaxonMatcherHelper implements DBParsable {
           throw new Exception(TaxonMatcherHelper.ERR1);
         }
       }
-      endOfLineSize = Utils.getLineTerminatorSize(file);
       _kept = _dicarded = _total = 0;
-      reader = new BufferedReader(new InputStreamReader(new FileInputStream(
-          file), "UTF-8"));
       fName = file;// new File(file).getName();
       if (_pMonitor != null) {
         _pMonitor.startProcessingFile(fName, new File(file).length());
       }
-      locusBuf = new StringBuffer();
-      while ((line = reader.readLine()) != null) {
-        if (line.startsWith("LOCUS")) {
-          start = curPos;
-          locus = getLocus(5, line, locusBuf);
-          handleTaxon = true;
-          seqOk = true;
-        } else if (line.startsWith("ACCESSION")) {
-          gi = getAccession(line);
-        } else if (line.startsWith("ORIGIN")) {
-          handleTaxon = false;
-        }
-        if (hasTaxoConstraints && handleTaxon) {
-          isSeqTaxonvalid(line, values);
-          seqOk = values[1];
-          if (values[0] == true) {
+      if (!hasTaxoConstraints
+          && ParallelRecordScanner.useParallelScan(file, getWorkers(),
+              _chunkSize)) {
+        parseParallel(file, ss, fName);
+      } else {
+        reader = new ByteLineReader(file);
+        locusBuf = new StringBuffer();
+        while (reader.nextLine()) {
+          curPos = reader.getLinePos();
+          if (reader.startsWith(LOCUS)) {
+            start = curPos;
+            locus = getLocus(5, reader.getLine(), locusBuf);
+            handleTaxon = true;
+            seqOk = true;
+          } else if (reader.startsWith(ACCESSION)) {
+            gi = getAccession(reader.getLine());
+          } else if (reader.startsWith(ORIGIN)) {
             handleTaxon = false;
           }
-        }
-
-        if (line.startsWith("//")) {
-          _total++;
-          if (seqOk) {
-            if (locus == null)
-              throw new StorageSystemException("field Locus is missing");
-            if (gi == null)
-              gi = locus;
-            try {
-              if (_pMonitor != null) {
-                _pMonitor.seqFound(gi, locus, fName, start, curPos + 2l,
-                    _checkNR);
-              }
-              if (ss != null) {
-                ss.addEntry(gi, locus, fName, start, curPos + 2);
-              }
-              if (_verbose)
-                System.out.println(locus + "," + gi + "," + start + ","
-                    + (curPos + 2l));
-              _kept++;
-            } catch (DBMSUniqueSeqIdRedundantException ex) {
-              // JIRA KDMS-22 accept a redundant sequence, just add a log
-              LoggerCentral.warn(LOGGER, "Redundant sequence id " + gi);
-              _dicarded++;
-              if (_verbose)
-                System.out.println("discarded: " + gi + "," + locus + ","
-                    + start + "," + (curPos + 2l));
+          if (hasTaxoConstraints && handleTaxon) {
+            isSeqTaxonvalid(reader.getLine(), values);
+            seqOk = values[1];
+            if (values[0] == true) {
+              handleTaxon = false;
             }
-          } else {
-            _dicarded++;
-            if (_verbose)
-              System.out.println("discarded: " + gi + "," + locus + "," + start
-                  + "," + (curPos + 2l));
           }
 
+          if (reader.startsWith(END_ENTRY)) {
+            gi = handleEntry(ss, fName, gi, locus, start, curPos, seqOk);
+          }
         }
-
-        curPos += (long) (line.length() + endOfLineSize);
       }
       this.dumpTaxonNotFound(LOGGER);
     } catch (Exception e) {
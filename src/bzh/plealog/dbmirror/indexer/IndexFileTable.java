@@ -0,0 +1,266 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import bzh.plealog.dbmirror.util.Utils;
+
+/**
+ * This class handles the table of database files referenced by a sequence
+ * index. Within the index, database files are referenced using keys such as
+ * 'dX'; this table maps each key to the path of a database file. It is stored
+ * in a single file located within the index directory, so that it can be read
+ * once when the index is opened.<br>
+ * <br>
+ * Keys are unique among all the indexes of a directory: this enables merging
+ * indexes without rewriting their documents. Indexes created by previous
+ * releases do not contain such a table; keys are then resolved using the 'dX'
+ * files located next to them (see LuceneStorageSystem.getRealFName()).
+ *
+ * @author Patrick G. Durand
+ */
+public class IndexFileTable {
+
+  private LinkedHashMap<String, String>       _entries   = new LinkedHashMap<String, String>();
+
+  /** name of the table file within an index directory */
+  public static final String                  TABLE_FILE = "dbfiles";
+
+  private static final char                   SEPARATOR  = '\t';
+
+  // next key to use for each directory containing indexes
+  private static final HashMap<String, Integer> NEXT_KEYS  = new HashMap<String, Integer>();
+
+  /**
+   * Allocates a new key to reference a database file from an index. The key
+   * is not used by any other index located in the same directory, including
+   * indexes created by previous releases.
+   *
+   * @param idxName
+   *          the index path
+   * @param fName
+   *          the database file path
+   *
+   * @return the new key
+   */
+  public String addFile(String idxName, String fName) {
+    String key;
+    File parent;
+    Integer next;
+
+    parent = new File(idxName).getAbsoluteFile().getParentFile();
+    synchronized (NEXT_KEYS) {
+      next = NEXT_KEYS.get(parent.getPath());
+      if (next == null) {
+        next = getMaxKey(parent) + 1;
+      }
+      NEXT_KEYS.put(parent.getPath(), next + 1);
+    }
+    key = LuceneStorageSystem.FP_KEY_FILE_PREFIX + next;
+    _entries.put(key, LuceneStorageSystem.FP_KEY
+        + LuceneStorageSystem.convertPath(fName));
+    return key;
+  }
+
+  /**
+   * Adds all the keys of another table to this one.
+   */
+  public void addAll(IndexFileTable table) {
+    _entries.putAll(table._entries);
+  }
+
+  /**
+   * Returns the number of database files contained in this table.
+   */
+  public int size() {
+    return _entries.size();
+  }
+
+  /**
+   * Returns the values of this table as they are stored, i.e. "FP:path" where
+   * path is the database file path used when the index was created.
+   */
+  public Collection<String> getValues() {
+    return Collections.unmodifiableCollection(_entries.values());
+  }
+
+  /**
+   * Returns the paths to the database files of this table. Paths are resolved
+   * given the location of an index.
+   *
+   * @param idxName
+   *          the index path
+   *
+   * @return a map of paths indexed by keys
+   */
+  public Map<String, String> getFiles(String idxName) {
+    HashMap<String, String> files;
+    String path;
+
+    path = getIndexParent(idxName);
+    files = new HashMap<String, String>();
+    for (Map.Entry<String, String> entry : _entries.entrySet()) {
+      files.put(entry.getKey(), resolve(path, entry.getValue()));
+    }
+    return files;
+  }
+
+  /**
+   * Writes this table within an index directory. The table is first written in
+   * a temporary file, then renamed, so that readers never see a partial table.
+   *
+   * @param idxName
+   *          the index path. Must be an existing directory.
+   */
+  public void write(String idxName) throws IOException {
+    ArrayList<String> lines;
+    File tmpFile;
+
+    lines = new ArrayList<String>();
+    for (Map.Entry<String, String> entry : _entries.entrySet()) {
+      lines.add(entry.getKey() + SEPARATOR + entry.getValue());
+    }
+    tmpFile = new File(idxName, TABLE_FILE + ".tmp");
+    Files.write(tmpFile.toPath(), lines, StandardCharsets.UTF_8);
+    Files.move(tmpFile.toPath(), new File(idxName, TABLE_FILE).toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads the table of an index.
+   *
+   * @param idxName
+   *          the index path
+   *
+   * @return the table or null if the index does not contain any table, i.e. it
+   *         has been created by a previous release.
+   */
+  public static IndexFileTable read(String idxName) throws IOException {
+    IndexFileTable table;
+    File file;
+    int idx;
+
+    file = new File(idxName, TABLE_FILE);
+    if (!file.exists()) {
+      return null;
+    }
+    table = new IndexFileTable();
+    for (String line : Files.readAllLines(file.toPath(),
+        StandardCharsets.UTF_8)) {
+      idx = line.indexOf(SEPARATOR);
+      if (idx > 0) {
+        table._entries.put(line.substring(0, idx), line.substring(idx + 1));
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Returns the path of the directory containing an index. Returned value is
+   * terminated by a file separator.
+   */
+  public static String getIndexParent(String idxName) {
+    String parent = new File(idxName).getParent();
+
+    return parent != null ? Utils.terminatePath(parent) : "";
+  }
+
+  /**
+   * Returns the path to a database file as stored in a table or in a 'dX'
+   * file.
+   *
+   * @param path
+   *          the directory containing the index, as returned by
+   *          getIndexParent()
+   * @param value
+   *          the value read from the table or from the 'dX' file
+   */
+  public static String resolve(String path, String value) {
+    // we do not use anymore absolute paths to retrieve database files (see
+    // DBMirrorConfig.getMirrorPath()): files are expected to be located next
+    // to the index. Paths written as "FP:XXX" are absolute ones, for backward
+    // compatibility.
+    if (value.startsWith(LuceneStorageSystem.FP_KEY)) {
+      return path
+          + new File(value.substring(LuceneStorageSystem.FP_KEY.length()))
+              .getName();
+    }
+    return path + value;
+  }
+
+  /**
+   * Returns the highest key used by the indexes of a directory, either in
+   * 'dX' files or in tables.
+   */
+  private static int getMaxKey(File dir) {
+    List<String> keys;
+    File[] files;
+    IndexFileTable table;
+    int max = 0;
+
+    files = dir.listFiles();
+    if (files == null) {
+      return max;
+    }
+    for (File file : files) {
+      keys = new ArrayList<String>();
+      if (file.isDirectory()) {
+        try {
+          table = read(file.getPath());
+        } catch (IOException e) {
+          table = null;
+        }
+        if (table != null) {
+          keys.addAll(table._entries.keySet());
+        }
+      } else {
+        keys.add(file.getName());
+      }
+      for (String key : keys) {
+        max = Math.max(max, getKeyValue(key));
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Returns X given a 'dX' key. Returns 0 if the key is not a valid one.
+   */
+  private static int getKeyValue(String key) {
+    if (!key.matches(LuceneStorageSystem.FP_KEY_FILE_PREFIX + "\\d+")) {
+      return 0;
+    }
+    try {
+      return Integer.parseInt(key.substring(LuceneStorageSystem.FP_KEY_FILE_PREFIX
+          .length()));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
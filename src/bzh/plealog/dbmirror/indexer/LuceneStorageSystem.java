@@ -19,12 +19,19 @@ package bzh.plealog.dbmirror.indexer;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
@@ -34,12 +41,14 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.search.Hit;
 import org.apache.lucene.search.Hits;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.Version;
 
@@ -57,18 +66,27 @@ import bzh.plealog.dbmirror.util.log.LoggerCentral;
 public class LuceneStorageSystem implements StorageSystem {
   protected IndexWriter             _writer;
   protected IndexSearcher           _searcher;
-  protected RAMDirectory            _ramDir;
-  protected IndexWriter             _ramWriter;
+  // set when searching several indexes all together
+  protected MultiReader             _multiReader;
   protected int                     _mode;
   protected boolean                 _writerOk           = false;
   protected boolean                 _readerOk           = false;
   protected String                  _indexName;
+  protected boolean                 _mainIndex          = false;
   protected Document[]              _docs;
   protected int                     _maxDocs            = 10000;
   protected int                     _curDoc;
   private int                       _docsAddedCount     = 0;
-  private int                       _queryCounter       = 1;
+  // amount of sequence data indexed, used to report throughput
+  private long                      _bytesAddedCount    = 0;
+  private long                      _writeStartTime;
   private Hashtable<String, String> _keyNames           = new Hashtable<String, String>();
+  // write mode: database files referenced by this index
+  private IndexFileTable            _fileTable;
+  // read mode: paths of database files indexed by keys
+  private Map<String, String>       _fileNames;
+  // read mode: indexes to look at to find 'dX' files of old indexes
+  private List<String>              _keyIndexes;
 
   public static final String        ID_FIELD            = "id";
   protected static final String     NAME_FIELD          = "name";
@@ -81,17 +99,21 @@ public class LuceneStorageSystem implements StorageSystem {
                                                             .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
                                                                 + ".LuceneStorageSystem");
 
-  private static final boolean      USE_RAM_DRIVE       = true;
   private static final String       ERR_MSG1            = "While adding entry in index: ";
   private static final int          DOC_ADDED_PAGE_SIZE = 200000;
+  // IDs having terms matching more documents than that are not resolved
+  // in batch mode, but one at a time
+  private static final int          MAX_TERM_DOCS       = 1000;
 
   // this was added to ensure compatibility with prevsious release of kdms
   // where idxFileName did contain only the file name without full path.
   // Full path were added in 'dxxx' files to handle the case where source
-  // files are not located in the same directory.
+  // files are not located in the same directory. These files are now
+  // replaced by a single table stored within the index (see IndexFileTable).
   public static final String        FP_KEY              = "FP:";
   public static final String        FP_KEY_FILE_PREFIX  = "d";
-  private static final Object       LOCKER              = new Object();
+  // file listing the indexes that make a multi-index (see writeMultiIndex())
+  public static final String        MULTI_INDEX_FILE    = "indexes";
 
   // doc to reuse for insert in lucene index
   private Document                  doc;
@@ -121,48 +143,74 @@ public class LuceneStorageSystem implements StorageSystem {
     this.doc.add(this.fieldIdxAble);
   }
 
-  private void checkRamUsage() throws IOException {
-    long totMem = Runtime.getRuntime().totalMemory(); // current heap allocated
-                                                      // to the VM process
-    long freeMem = Runtime.getRuntime().freeMemory(); // out of the current
-                                                      // heap, how much is free
-    long maxMem = Runtime.getRuntime().maxMemory(); // Max heap VM can use e.g.
-                                                    // Xmx setting
-    long usedMemory = totMem - freeMem; // how much of the current heap the VM
-                                        // is using
+  /**
+   * Figures out whether or not this index is the main index of a bank. Such
+   * an index is merged given the merge policy of the main configuration (see
+   * LuceneUtils.optimize()). Default is false.
+   */
+  public void setMainIndex(boolean mainIndex) {
+    _mainIndex = mainIndex;
+  }
 
-    if (_docsAddedCount % DOC_ADDED_PAGE_SIZE == 0) {
-      LoggerCentral.info(LOGGER, "Sequences added: " + _docsAddedCount + " ["
-          + Utils.getBytes(usedMemory) + "/" + Utils.getBytes(totMem) + "//"
-          + Utils.getBytes(maxMem) + "]");
+  /**
+   * Sets up the RAM buffer of a Lucene writer given the main configuration.
+   * Lucene flushes buffered documents to disk when either the buffer size or
+   * the number of buffered documents is reached.
+   */
+  private void configureWriteBuffer(IndexWriter writer) {
+    int ramSize = DBMSAbstractConfig.getLuceneRamBufferSize();
+    int maxDocs = DBMSAbstractConfig.getLuceneMaxBufferedDocs();
+
+    // Lucene does not accept to disable both flush triggers; since it checks
+    // the values against each other, order of calls matters
+    if (maxDocs > 0) {
+      writer.setMaxBufferedDocs(maxDocs);
+      writer.setRAMBufferSizeMB(ramSize > 0 ? ramSize
+          : IndexWriter.DISABLE_AUTO_FLUSH);
+    } else {
+      if (ramSize == 0) {
+        ramSize = (int) IndexWriter.DEFAULT_RAM_BUFFER_SIZE_MB;
+      }
+      writer.setRAMBufferSizeMB(ramSize);
+      writer.setMaxBufferedDocs(IndexWriter.DISABLE_AUTO_FLUSH);
     }
+    LoggerCentral.info(LOGGER, "Index write buffer: "
+        + (ramSize > 0 ? ramSize + " Mb" : "-") + ", "
+        + (maxDocs > 0 ? maxDocs + " docs" : "-"));
+  }
+
+  private void logThroughput(String msg) {
+    long elapsed = Math.max(1, System.currentTimeMillis() - _writeStartTime);
 
-    // when used memory is > 70 of max memory, report a warning
-    if ((usedMemory * 100 / maxMem) > 70) {
-      LoggerCentral.info(LOGGER, "flush RAM: " + Utils.getBytes(usedMemory)
-          + "/" + Utils.getBytes(maxMem));
-      _ramWriter.flush();
-      _ramWriter.close();
-      _writer.addIndexes(new Directory[] { _ramDir });
-      System.gc();
-      _ramWriter = new IndexWriter(_ramDir, new StandardAnalyzer(), true);
+    StringBuffer buf = new StringBuffer(msg);
 
+    buf.append(_docsAddedCount);
+    buf.append(" [");
+    buf.append(_docsAddedCount * 1000l / elapsed);
+    buf.append(" docs/s");
+    // not available when documents are copied from other indexes
+    if (_bytesAddedCount != 0) {
+      buf.append(", ");
+      Utils.setBytes(buf, _bytesAddedCount * 1000l / elapsed);
+      buf.append("/s");
     }
+    buf.append("]");
+    LoggerCentral.info(LOGGER, buf.toString());
   }
 
   /**
-   * Implementation of StorageSystem interface.
+   * Implementation of StorageSystem interface. Documents and fields used to
+   * add entries are reused from one call to another: entries are added one
+   * at a time.
    */
-  public void addEntry(String id, String name, String fName, long start,
-      long stop) throws StorageSystemException {
+  public synchronized void addEntry(String id, String name, String fName,
+      long start, long stop) throws StorageSystemException {
     String keyName;
 
     if (_writerOk == false)
       throw new StorageSystemException("LuceneStorageSystem not initialised.");
     try {
-      synchronized (LOCKER) {
-        keyName = getIdxKeyName(_indexName, fName);
-      }
+      keyName = getIdxKeyName(_indexName, fName);
       this.fieldId.setValue(id);
       this.fieldName.setValue(name);
       this.fieldFName.setValue(keyName);
@@ -175,7 +223,7 @@ public class LuceneStorageSystem implements StorageSystem {
         this.fieldIdxAble.setValue(id + " " + name);
       }
       this.addDocument(this.doc);
-
+      _bytesAddedCount += stop - start + 1;
     } catch (Exception e) {
       throw new StorageSystemException(ERR_MSG1 + e);
     }
@@ -183,20 +231,14 @@ public class LuceneStorageSystem implements StorageSystem {
   }
 
   public void addDocument(Document doc) throws IOException {
+    _writer.addDocument(doc);
     _docsAddedCount++;
-    if (USE_RAM_DRIVE) {
-      checkRamUsage();
-      _ramWriter.addDocument(doc);
-    } else {
-      if (_docsAddedCount % DOC_ADDED_PAGE_SIZE == 0) {
-        LoggerCentral.info(LOGGER, "Sequences added: " + _docsAddedCount);
-      }
-      _writer.addDocument(doc);
+    if (_docsAddedCount % DOC_ADDED_PAGE_SIZE == 0) {
+      logThroughput("Sequences added: ");
     }
-
   }
 
-  protected String convertPath(String fName) {
+  protected static String convertPath(String fName) {
     String str;
     int idx1, idx2;
 
@@ -214,72 +256,56 @@ public class LuceneStorageSystem implements StorageSystem {
         + fName.substring(idx2 - 1);
   }
 
-  private String getIdxKeyName(String idxName, String fName) throws IOException {
-    PrintWriter writer;
-    String path, keyName;
-    File file;
+  private String getIdxKeyName(String idxName, String fName) {
+    String keyName;
 
     keyName = _keyNames.get(fName);
     if (keyName != null) {
       return keyName;
     }
-    file = new File(idxName);
-    String parent = file.getParent();
-    if (parent!=null)
-      path = Utils.terminatePath(parent);
-    else
-      path="";
-    while (true) {
-      keyName = FP_KEY_FILE_PREFIX + _queryCounter;
-      file = new File(path + keyName);
-      if (file.exists() == false) {
-        writer = new PrintWriter(new FileWriter(file));
-        // backward compatibilty ; we won't use anymore absolute path to
-        // retrieve
-        // path to data storage (see DBMirrorConfig.getMirrorPath()). So, here
-        // we build
-        // the full path from the index location of only the file name part
-        // stored in
-        // the "dX" file name.
-        // backward compatibility when data file was written as "FP:XXX" where
-        // XXX was an absolute file path
-        writer.write(FP_KEY + convertPath(fName));
-        writer.close();
-        _keyNames.put(fName, keyName);
+    keyName = _fileTable.addFile(idxName, fName);
+    _keyNames.put(fName, keyName);
+    return keyName;
+  }
+
+  /**
+   * Returns the path to a database file given its key. Paths are read from the
+   * table of the index when it is opened; keys of indexes created by previous
+   * releases are resolved using 'dX' files, once.
+   */
+  private String getRealFName(String key) {
+    String fName;
+
+    fName = _fileNames.get(key);
+    if (fName != null) {
+      return fName;
+    }
+    for (String idxName : _keyIndexes) {
+      fName = getRealFName(idxName, key);
+      if (fName != null) {
+        _fileNames.put(key, fName);
         break;
       }
-      _queryCounter++;
     }
-    return keyName;
+    return fName;
   }
 
-  private String getRealFName(String key) {
+  /**
+   * Returns the path to a database file given the name of a 'dX' file located
+   * next to an index. Returns null if the file cannot be read.
+   */
+  protected static String getRealFName(String idxName, String key) {
     BufferedReader reader = null;
     String fName = null;
-    String path, srcFile;
-    File file;
+    String srcFile;
 
     try {
-      file = new File(_indexName);
-      path = Utils.terminatePath(file.getParent());
-      reader = new BufferedReader(new FileReader(path + key));
+      reader = new BufferedReader(new FileReader(
+          IndexFileTable.getIndexParent(idxName) + key));
       srcFile = reader.readLine();
       if (srcFile != null) {
-        if (srcFile.startsWith(FP_KEY)) {
-          // backward compatibilty ; we won't use anymore absolute path to
-          // retrieve
-          // path to data storage (see DBMirrorConfig.getMirrorPath()). So, here
-          // we build
-          // the full path from the index location of only the file name part
-          // stored in
-          // the "dX" file name.
-          // backward compatibility when data file was written as "FP:XXX" where
-          // XXX was an absolute file path
-          file = new File(srcFile.substring(FP_KEY.length()));
-          fName = path + file.getName();
-        } else {
-          fName = path + srcFile;
-        }
+        fName = IndexFileTable.resolve(IndexFileTable.getIndexParent(idxName),
+            srcFile);
       }
       reader.close();
     } catch (Exception e) {
@@ -290,6 +316,36 @@ public class LuceneStorageSystem implements StorageSystem {
     return fName;
   }
 
+  /**
+   * Loads the paths of the database files referenced by an index.
+   * 
+   * @param idxName
+   *          the index path
+   */
+  private void loadFileTable(String idxName) throws IOException {
+    IndexFileTable table;
+
+    _keyIndexes.add(idxName);
+    table = IndexFileTable.read(idxName);
+    if (table != null) {
+      _fileNames.putAll(table.getFiles(idxName));
+    }
+  }
+
+  /**
+   * Adds the database files referenced by an existing index to the table of
+   * this index. Used when documents are copied from that index as is.
+   */
+  protected synchronized void importFileTable(String idxName)
+      throws IOException {
+    IndexFileTable table;
+
+    table = IndexFileTable.read(idxName);
+    if (table != null) {
+      _fileTable.addAll(table);
+    }
+  }
+
   /**
    * Implementation of StorageSystem interface. Please note that this method
    * only works for Index opened in READ mode. Returns zero otherwise.
@@ -355,6 +411,172 @@ public class LuceneStorageSystem implements StorageSystem {
     return entries;
   }
   
+  /**
+   * Returns the documents containing a term. Returns null if the term is not
+   * discriminant, i.e. if it is contained in more than MAX_TERM_DOCS
+   * documents.
+   */
+  private int[] getTermDocs(TermDocs termDocs, String text) throws IOException {
+    int[] docs = new int[8];
+    int n = 0;
+
+    termDocs.seek(new Term(IDXABLE_FIELD, text));
+    while (termDocs.next()) {
+      if (n == MAX_TERM_DOCS) {
+        return null;
+      }
+      if (n == docs.length) {
+        docs = Arrays.copyOf(docs, Math.min(2 * n, MAX_TERM_DOCS));
+      }
+      docs[n++] = termDocs.doc();
+    }
+    return Arrays.copyOf(docs, n);
+  }
+
+  /**
+   * Figures out whether an ID can be resolved using the documents of its
+   * terms. This is not the case when one of its tokens is made of several
+   * terms, since getEntry() then looks for a phrase, or when one of its terms
+   * is not discriminant.
+   */
+  private boolean isResolvable(Map<String, int[]> termsDocs,
+      List<String[]> query) {
+    for (String[] terms : query) {
+      if (terms.length != 1 || termsDocs.get(terms[0]) == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Resolves a set of IDs in a single pass over the index. All the terms
+   * required to resolve the IDs are looked up once, in sorted order, then
+   * each ID is resolved as the single document matching all its tokens. IDs
+   * that cannot be resolved that way (tokens made of several terms, terms
+   * contained in more than MAX_TERM_DOCS documents, several or partial
+   * matches) are resolved using getEntry(), so that results are the same as
+   * the ones of getEntry().
+   * 
+   * @param queries
+   *          map of sequence IDs to resolve. Values are the terms of each ID
+   *          token, as returned by LuceneUtils.getQueryTerms().
+   * 
+   * @return a map of entries indexed by queried IDs. IDs that cannot be found
+   *         are not reported in the map.
+   */
+  public Map<String, DBEntry> getEntries(Map<String, List<String[]>> queries)
+      throws StorageSystemException {
+    HashMap<String, DBEntry> entries;
+    TreeMap<String, int[]> termsDocs;
+    TreeMap<Integer, Integer> counts;
+    TreeMap<Integer, List<String>> selected;
+    ArrayList<String> others;
+    IndexReader reader;
+    TermDocs termDocs = null;
+    Document doc;
+    DBEntry entry;
+    DBEntry[] found;
+    String key, fName;
+    int best, nbest;
+
+    if (_readerOk == false)
+      throw new StorageSystemException("LuceneStorageSystem not initialised.");
+
+    entries = new HashMap<String, DBEntry>();
+    try {
+      reader = _searcher.getIndexReader();
+      // look up each term once, in sorted order
+      termsDocs = new TreeMap<String, int[]>();
+      for (List<String[]> query : queries.values()) {
+        for (String[] terms : query) {
+          for (String term : terms) {
+            termsDocs.put(term, null);
+          }
+        }
+      }
+      termDocs = reader.termDocs();
+      for (Map.Entry<String, int[]> term : termsDocs.entrySet()) {
+        term.setValue(getTermDocs(termDocs, term.getKey()));
+      }
+      // resolve each ID
+      selected = new TreeMap<Integer, List<String>>();
+      others = new ArrayList<String>();
+      for (Map.Entry<String, List<String[]>> query : queries.entrySet()) {
+        if (!isResolvable(termsDocs, query.getValue())) {
+          others.add(query.getKey());
+          continue;
+        }
+        counts = new TreeMap<Integer, Integer>();
+        for (String[] terms : query.getValue()) {
+          for (int d : termsDocs.get(terms[0])) {
+            counts.merge(d, 1, Integer::sum);
+          }
+        }
+        if (counts.isEmpty()) {
+          // none of the tokens is contained in the index
+          continue;
+        }
+        best = -1;
+        nbest = 0;
+        for (Map.Entry<Integer, Integer> count : counts.entrySet()) {
+          if (count.getValue() == query.getValue().size()) {
+            best = count.getKey();
+            nbest++;
+          }
+        }
+        if (nbest != 1) {
+          others.add(query.getKey());
+          continue;
+        }
+        selected.computeIfAbsent(best, d -> new ArrayList<String>())
+            .add(query.getKey());
+      }
+      // load documents in index order
+      for (Map.Entry<Integer, List<String>> sel : selected.entrySet()) {
+        doc = reader.document(sel.getKey());
+        key = doc.get(FNAME_FIELD);
+        fName = getRealFName(key);
+        if (fName == null) {
+          throw new Exception("Unable to get data fName for key: " + key);
+        }
+        entry = new DBEntry(doc.get(ID_FIELD), doc.get(NAME_FIELD), fName,
+            doc.get(START_FIELD), doc.get(STOP_FIELD));
+        entry.setIndexPath(_indexName);
+        for (String id : sel.getValue()) {
+          entries.put(id, entry);
+        }
+      }
+      // IDs that cannot be resolved in batch are resolved one at a time
+      if (!others.isEmpty()) {
+        LOGGER.debug(others.size() + " IDs resolved one at a time");
+      }
+      for (String id : others) {
+        found = getEntry(id, LuceneUtils.getQuery(id));
+        if (found == null) {
+          continue;
+        }
+        if (found.length > 1) {
+          // this may happen with Uniprot entries. As for now, the
+          // software returns the first entry.
+          LOGGER.warn("ID " + id
+              + " refers to multiple entries. First entry is returned.");
+        }
+        entries.put(id, found[0]);
+      }
+    } catch (Exception e) {
+      throw new StorageSystemException("Unable to query index: " + e);
+    } finally {
+      if (termDocs != null) {
+        try {
+          termDocs.close();
+        } catch (IOException e) {
+        }
+      }
+    }
+    return entries;
+  }
+
   /**
    * Return an enumeration over all entries contained in an index. It is worth noting
    * that this method does not handle deleted documents, so use it only with clean
@@ -417,14 +639,11 @@ public class LuceneStorageSystem implements StorageSystem {
     if (_writerOk == false)
       return true;
     try {
-      if (USE_RAM_DRIVE) {
-        _ramWriter.flush();
-        _ramWriter.close();
-        _writer.addIndexes(new Directory[] { _ramDir });
-      }
       _writer.flush();
-      _writer.optimize();
+      LuceneUtils.optimize(_writer, _mainIndex);
       _writer.close();
+      _fileTable.write(_indexName);
+      logThroughput("Sequences indexed: ");
     } catch (IOException e) {
       LoggerCentral.error(LOGGER, "Unable to close index (write mode): " + e);
       bRet = false;
@@ -441,11 +660,12 @@ public class LuceneStorageSystem implements StorageSystem {
     try {
       _writer = new IndexWriter(_indexName, new StandardAnalyzer(
           Version.LUCENE_29), true);
-      if (USE_RAM_DRIVE) {
-        _ramDir = new RAMDirectory();
-        _ramWriter = new IndexWriter(_ramDir, new StandardAnalyzer(
-            Version.LUCENE_29), true);
-      }
+      configureWriteBuffer(_writer);
+      _fileTable = new IndexFileTable();
+      _keyNames.clear();
+      _docsAddedCount = 0;
+      _bytesAddedCount = 0;
+      _writeStartTime = System.currentTimeMillis();
       _writerOk = true;
 
     } catch (IOException e) {
@@ -455,6 +675,77 @@ public class LuceneStorageSystem implements StorageSystem {
     return bRet;
   }
 
+  /**
+   * Creates a multi-index, i.e. an index made of several other indexes which
+   * are searched all together. Such an index is a directory containing a
+   * single file listing the indexes. Indexes located in the same directory as
+   * the multi-index are listed using their names, so that the whole directory
+   * can be moved.
+   * 
+   * @param indexName
+   *          the multi-index path
+   * @param indexPaths
+   *          the indexes to search. They must all be Lucene-based indexes.
+   */
+  protected static void writeMultiIndex(String indexName,
+      List<String> indexPaths) throws IOException {
+    ArrayList<String> lines;
+    File dir, idx, parent;
+
+    dir = new File(indexName);
+    parent = dir.getAbsoluteFile().getParentFile();
+    lines = new ArrayList<String>();
+    for (String path : indexPaths) {
+      idx = new File(path).getAbsoluteFile();
+      lines.add(parent.equals(idx.getParentFile()) ? idx.getName() : idx
+          .getAbsolutePath());
+    }
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new IOException("unable to create " + indexName);
+    }
+    Files.write(new File(dir, MULTI_INDEX_FILE).toPath(), lines,
+        StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Opens the indexes listed in a multi-index.
+   */
+  private MultiReader openMultiIndex(String indexName, boolean loadInRAM)
+      throws IOException {
+    ArrayList<IndexReader> readers;
+    File dir, idx;
+
+    dir = new File(indexName);
+    readers = new ArrayList<IndexReader>();
+    try {
+      for (String line : Files.readAllLines(new File(dir, MULTI_INDEX_FILE)
+          .toPath(), StandardCharsets.UTF_8)) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        idx = new File(line.trim());
+        if (!idx.isAbsolute()) {
+          idx = new File(dir.getAbsoluteFile().getParentFile(), line.trim());
+        }
+        loadFileTable(idx.getPath());
+        if (loadInRAM)
+          readers.add(IndexReader.open(new RAMDirectory(LuceneUtils
+              .getDirectory(idx)), true));
+        else
+          readers.add(IndexReader.open(LuceneUtils.getDirectory(idx), true));
+      }
+    } catch (IOException e) {
+      for (IndexReader reader : readers) {
+        try {
+          reader.close();
+        } catch (IOException ex) {
+        }
+      }
+      throw e;
+    }
+    return new MultiReader(readers.toArray(new IndexReader[0]), true);
+  }
+
   /**
    * Closes a Lucene reader.
    */
@@ -464,6 +755,11 @@ public class LuceneStorageSystem implements StorageSystem {
       return true;
     try {
       _searcher.close();
+      // an IndexSearcher does not close readers it has not opened
+      if (_multiReader != null) {
+        _multiReader.close();
+        _multiReader = null;
+      }
     } catch (IOException e) {
       LoggerCentral.error(LOGGER, "Unable to close index (read mode): " + e);
       bRet = false;
@@ -478,10 +774,21 @@ public class LuceneStorageSystem implements StorageSystem {
     boolean bRet = true;
 
     try {
-      if (loadInRAM)
-        _searcher = new IndexSearcher(new RAMDirectory(_indexName));
-      else
-        _searcher = new IndexSearcher(_indexName);
+      _fileNames = new ConcurrentHashMap<String, String>();
+      _keyIndexes = new ArrayList<String>();
+      if (new File(_indexName, MULTI_INDEX_FILE).exists()) {
+        _multiReader = openMultiIndex(_indexName, loadInRAM);
+        _searcher = new IndexSearcher(_multiReader);
+      } else {
+        loadFileTable(_indexName);
+        // searchers are shared by all threads querying an index: use the
+        // configured directory implementation (see LuceneUtils.getDirectory())
+        if (loadInRAM)
+          _searcher = new IndexSearcher(new RAMDirectory(_indexName));
+        else
+          _searcher = new IndexSearcher(LuceneUtils.getDirectory(new File(
+              _indexName)), true);
+      }
       _readerOk = true;
     } catch (IOException e) {
       LoggerCentral.error(LOGGER, "Unable to open index (read mode): " + e);
@@ -16,20 +16,31 @@
  */
 package bzh.plealog.dbmirror.indexer;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.BooleanClause;
@@ -50,6 +61,7 @@ import bzh.plealog.dbmirror.lucenedico.DicoTerm;
 import bzh.plealog.dbmirror.task.PTaskEngine;
 import bzh.plealog.dbmirror.task.PTaskEngineAbortException;
 import bzh.plealog.dbmirror.util.Utils;
+import bzh.plealog.dbmirror.util.ant.PAntTasks;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 import bzh.plealog.dbmirror.util.conf.DBMSConfigurator;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
@@ -71,8 +83,12 @@ public class LuceneUtils {
   public static final String                            IDX_TMP_FEXT            = ".ldx.tmp";
   public static final String                            IDX_OK_FEXT             = ".ldx";
 
-  private static Hashtable<String, LuceneStorageSystem> _openedSequenceStorages = new Hashtable<String, LuceneStorageSystem>();
-  private static Hashtable<String, DicoStorageSystem>   _openedDicoStorages     = new Hashtable<String, DicoStorageSystem>();
+  // types of sequence storage systems
+  public static final String                            STORAGE_LUCENE          = "lucene";
+  public static final String                            STORAGE_COMPACT         = "compact";
+
+  // max number of segments of an index when using the tiered merge policy
+  private static final int                              TIERED_MAX_SEGMENTS     = 10;
 
   // from: http://www.ncbi.nlm.nih.gov/staff/tao/URLAPI/formatdb_fastacmd.html
   // gi,gb,emb,dbj,pir,prf,sp,pdb,pat,bbs,ref,gnl,lcl
@@ -105,50 +121,149 @@ public class LuceneUtils {
    * files.length!=0){ for(int i=0;i<files.length;i++){ totSize +=
    * files[i].length(); } } return totSize; }
    */
-  private static synchronized LuceneStorageSystem getSequenceStorage(
-      String idxName) {
-    LuceneStorageSystem lss;
+  /**
+   * Creates a new sequence storage system.
+   * 
+   * @param type
+   *          one of STORAGE_XXX constants. Null or unknown values stand for
+   *          STORAGE_LUCENE.
+   */
+  public static StorageSystem createSequenceStorage(String type) {
+    if (STORAGE_COMPACT.equalsIgnoreCase(type))
+      return new CompactStorageSystem();
+    else
+      return new LuceneStorageSystem();
+  }
+
+  /**
+   * Returns the type of an existing sequence index.
+   * 
+   * @return one of STORAGE_XXX constants
+   */
+  public static String getStorageType(String idxName) {
+    return CompactStorageSystem.isCompactStorage(idxName) ? STORAGE_COMPACT
+        : STORAGE_LUCENE;
+  }
+
+  // opened storages; created on first use, i.e. once the configuration has
+  // been loaded
+  private static class Storages {
+    private static final StorageCache<StorageSystem>     SEQUENCES = new StorageCache<StorageSystem>(
+                                                                       LuceneUtils::openSequenceStorage,
+                                                                       StorageSystem::close,
+                                                                       DBMSAbstractConfig
+                                                                           .getLuceneMaxOpenedIndexes());
+    private static final StorageCache<DicoStorageSystem> DICOS     = new StorageCache<DicoStorageSystem>(
+                                                                       LuceneUtils::openDicoStorage,
+                                                                       DicoStorageSystem::close,
+                                                                       DBMSAbstractConfig
+                                                                           .getLuceneMaxOpenedIndexes());
+  }
+
+  private static StorageSystem openSequenceStorage(String idxName) {
+    StorageSystem lss;
 
-    lss = _openedSequenceStorages.get(idxName);
-    if (lss != null)
-      return lss;
     LOGGER.debug("open sequence storage : " + idxName);
-    lss = new LuceneStorageSystem();
+    lss = createSequenceStorage(getStorageType(idxName));
     if (!lss.open(idxName, StorageSystem.READ_MODE))
       return null;
-    _openedSequenceStorages.put(idxName, lss);
     return lss;
   }
 
-  private static synchronized DicoStorageSystem getDicoStorage(String idxName) {
+  private static DicoStorageSystem openDicoStorage(String idxName) {
     DicoStorageSystem lss;
 
-    lss = _openedDicoStorages.get(idxName);
-    if (lss != null)
-      return lss;
     LOGGER.debug("open dictionary storage : " + idxName);
     lss = new DicoStorageSystemImplem();
     if (!lss.open(idxName, StorageSystem.READ_MODE))
       return null;
-    _openedDicoStorages.put(idxName, lss);
     return lss;
   }
 
-  public static synchronized void closeStorages() {
-    Enumeration<LuceneStorageSystem> enums;
-    Enumeration<DicoStorageSystem> dnums;
-
+  /**
+   * Closes all opened storages. Storages are opened again when needed.
+   */
+  public static void closeStorages() {
     LOGGER.debug("close storages");
-    enums = _openedSequenceStorages.elements();
-    while (enums.hasMoreElements()) {
-      enums.nextElement().close();
+    Storages.SEQUENCES.closeAll();
+    Storages.DICOS.closeAll();
+  }
+
+  /**
+   * Returns the full paths of individual indexes to merge.
+   */
+  private static List<String> getIndexPaths(List<String> indexPaths) {
+    String path;
+    int i, size;
+    File f;
+    ArrayList<String> fullIdxPath;
+
+    size = indexPaths.size();
+    fullIdxPath = new ArrayList<String>();
+    for (i = 0; i < size; i++) {
+      path = indexPaths.get(i);
+      // check here before calling SimpleFSDirectory API: require otherwise
+      // that API may create path if it does not exist.
+      /*
+       * f = new File(path); if (f.exists()==false){ throw new
+       * Exception("index "+path+" not found"); }
+       */
+      // added because of KLDicoIndex tasks (see line
+      // KLTaskDicoIndexer dicoTask = new KLTaskDicoIndexer(aName);
+      // in DefaultLoaderMonitor
+      if (!path.endsWith(LuceneUtils.DIR_OK_FEXT)) {
+        LuceneUtils.collectIndex(path, fullIdxPath, LuceneUtils.DIR_OK_FEXT);
+      } else {
+        f = new File(path);
+        if (f.exists() == false) {
+          LoggerCentral.info(LOGGER, "skip " + path
+              + " for merging: not found");
+        } else {
+          fullIdxPath.add(path);
+        }
+      }
     }
-    dnums = _openedDicoStorages.elements();
-    while (dnums.hasMoreElements()) {
-      dnums.nextElement().close();
+    return fullIdxPath;
+  }
+
+  private static boolean hasCompactStorage(List<String> indexPaths) {
+    for (String path : indexPaths) {
+      if (CompactStorageSystem.isCompactStorage(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Merges the segments of an index being created given the merge policy set
+   * in the main configuration (see DBMSAbstractConfig.getLuceneMergePolicy()).
+   * Call this method before closing the writer.
+   * 
+   * @param writer
+   *          the writer used to create the index
+   * @param mainIndex
+   *          pass false for intermediate indexes, i.e. indexes that will be
+   *          merged within another one during bank installation.
+   */
+  public static void optimize(IndexWriter writer, boolean mainIndex)
+      throws IOException {
+    switch (DBMSAbstractConfig.getLuceneMergePolicy()) {
+      case MERGE_OPTIMIZE:
+        writer.optimize();
+        break;
+      case MERGE_INSTALL:
+        if (mainIndex) {
+          writer.optimize();
+        }
+        break;
+      case MERGE_TIERED:
+        // only merges small segments; large ones are left untouched
+        writer.optimize(TIERED_MAX_SEGMENTS);
+        break;
+      case MERGE_NONE:
+        break;
     }
-    _openedSequenceStorages.clear();
-    _openedDicoStorages.clear();
   }
 
   /**
@@ -166,37 +281,16 @@ public class LuceneUtils {
 
     String path;
     int i, size;
-    File f;
-    ArrayList<String> fullIdxPath;
+    List<String> fullIdxPath;
     try {
-      size = indexPaths.size();
-      fullIdxPath = new ArrayList<String>();
-      for (i = 0; i < size; i++) {
-        path = indexPaths.get(i);
-        // check here before calling SimpleFSDirectory API: require otherwise
-        // that API may create path if it does not exist.
-        /*
-         * f = new File(path); if (f.exists()==false){ throw new
-         * Exception("index "+path+" not found"); }
-         */
-        // added because of KLDicoIndex tasks (see line
-        // KLTaskDicoIndexer dicoTask = new KLTaskDicoIndexer(aName);
-        // in DefaultLoaderMonitor
-        if (!path.endsWith(LuceneUtils.DIR_OK_FEXT)) {
-          LuceneUtils.collectIndex(path, fullIdxPath, LuceneUtils.DIR_OK_FEXT);
-        } else {
-          f = new File(path);
-          if (f.exists() == false) {
-            LoggerCentral.info(LOGGER, "skip " + path
-                + " for merging: not found");
-          } else {
-            fullIdxPath.add(path);
-          }
-        }
+      fullIdxPath = getIndexPaths(indexPaths);
+      size = fullIdxPath.size();
+      if (hasCompactStorage(fullIdxPath)) {
+        return mergeIndex(indexName, fullIdxPath, STORAGE_COMPACT, monitor);
       }
       LuceneStorageSystem lss = new LuceneStorageSystem();
+      lss.setMainIndex(true);
       lss.open(indexName, StorageSystem.WRITE_MODE, false);
-      size = fullIdxPath.size();
 
       IndexReader reader = null;
       int indexSize = 0;
@@ -212,6 +306,8 @@ public class LuceneUtils {
           }
           LoggerCentral.info(LOGGER, "merging (" + (i + 1) + "/" + size + ") "
               + path + " with main index");
+          // documents are copied as is: they keep the keys of their files
+          lss.importFileTable(path);
           indexDir = LuceneUtils.getDirectory(new File(path));
           reader = IndexReader.open(indexDir, true);
           indexSize = reader.maxDoc();
@@ -239,6 +335,163 @@ public class LuceneUtils {
     return true;
   }
 
+  /**
+   * Creates a new index of a given type and put all the entries of the indexes
+   * listed by indexPaths. Contrary to mergeIndex(indexName, indexPaths,
+   * monitor), entries are copied one by one, so that source indexes may be of
+   * any type.
+   * 
+   * @param indexName
+   *          the new index
+   * @param indexPaths
+   *          the list of full paths to individual index
+   * @param type
+   *          one of STORAGE_XXX constants
+   * @return true if success.
+   */
+  public static boolean mergeIndex(String indexName, List<String> indexPaths,
+      String type, UserProcessingMonitor monitor) {
+    StorageSystem dest = null, src;
+    Enumeration<DBEntry> entries;
+    DBEntry entry;
+    String path;
+    int i, size;
+
+    try {
+      dest = createSequenceStorage(type);
+      if (dest instanceof LuceneStorageSystem) {
+        ((LuceneStorageSystem) dest).setMainIndex(true);
+      }
+      if (!dest.open(indexName, StorageSystem.WRITE_MODE)) {
+        throw new Exception("unable to create " + indexName);
+      }
+      size = indexPaths.size();
+      for (i = 0; i < size; i++) {
+        path = indexPaths.get(i);
+        if (!new File(path).exists()) {
+          LoggerCentral
+              .info(LOGGER, "skip " + path + " for merging: not found");
+          continue;
+        }
+        if (monitor != null) {
+          monitor.processingMessage(PTaskEngine.WORKER_ID, null,
+              UserProcessingMonitor.PROCESS_TYPE.TASK_EXECUTION,
+              UserProcessingMonitor.MSG_TYPE.OK, "merging file '"
+                  + new File(path).getName() + "'  " + (i + 1) + "/" + size);
+        }
+        LoggerCentral.info(LOGGER, "merging (" + (i + 1) + "/" + size + ") "
+            + path + " with main index");
+        src = createSequenceStorage(getStorageType(path));
+        if (!src.open(path, StorageSystem.READ_MODE)) {
+          throw new Exception("unable to open " + path);
+        }
+        try {
+          entries = src.entries();
+          while (entries.hasMoreElements()) {
+            entry = entries.nextElement();
+            dest.addEntry(entry.getId(), entry.getName(), entry.getFName(),
+                entry.getStart(), entry.getStop());
+          }
+        } finally {
+          src.close();
+        }
+        if (LoggerCentral.processAborted()) {
+          throw new PTaskEngineAbortException();
+        }
+      }
+      if (!dest.close()) {
+        dest = null;
+        throw new Exception("unable to close " + indexName);
+      }
+      dest = null;
+    } catch (Exception e) {
+      LoggerCentral.error(LOGGER, "Unable to merge indexes: " + e);
+      return false;
+    } finally {
+      if (dest != null)
+        dest.close();
+    }
+    return true;
+  }
+
+
+  /**
+   * Creates a new index named indexNamed that gives access to the content of
+   * the indexes listed by indexPaths without copying it: these indexes are
+   * searched all together at query time. Falls back to mergeIndex() when some
+   * indexes are not Lucene ones.
+   * 
+   * @param indexName
+   *          the new index
+   * @param indexPaths
+   *          the list of full paths to individual index
+   * @return true if success.
+   */
+  public static boolean linkIndex(String indexName, List<String> indexPaths,
+      UserProcessingMonitor monitor) {
+    List<String> fullIdxPath;
+
+    fullIdxPath = getIndexPaths(indexPaths);
+    if (hasCompactStorage(fullIdxPath)) {
+      return mergeIndex(indexName, fullIdxPath, STORAGE_COMPACT, monitor);
+    }
+    try {
+      LuceneStorageSystem.writeMultiIndex(indexName, fullIdxPath);
+    } catch (Exception e) {
+      LoggerCentral.error(LOGGER, "Unable to link indexes: " + e);
+      return false;
+    }
+    LoggerCentral.info(LOGGER, indexName + ": " + fullIdxPath.size()
+        + " indexes linked");
+    return true;
+  }
+  /**
+   * Converts a sequence index to another type of storage system. The new
+   * index is first created next to the source one, then it replaces it. The
+   * source index is kept with the extension '.bak'.
+   * 
+   * @param indexName
+   *          path to an existing sequence index
+   * @param type
+   *          one of STORAGE_XXX constants
+   * @return true if success.
+   */
+  public static boolean convertIndex(String indexName, String type) {
+    String tmpName, bakName;
+    File idx;
+
+    idx = new File(indexName);
+    if (!idx.isDirectory()) {
+      LoggerCentral.error(LOGGER, "Unable to convert index: " + indexName
+          + ": not found");
+      return false;
+    }
+    if (getStorageType(indexName).equalsIgnoreCase(type)) {
+      LoggerCentral.info(LOGGER, indexName + ": already a " + type + " index");
+      return true;
+    }
+    tmpName = indexName + ".tmp";
+    bakName = indexName + ".bak";
+    if ((new File(tmpName).exists() && !PAntTasks.deleteDirectory(tmpName))
+        || new File(bakName).exists()) {
+      LoggerCentral.error(LOGGER, "Unable to convert index: " + tmpName
+          + " or " + bakName + " already exists");
+      return false;
+    }
+    LoggerCentral.info(LOGGER, "converting " + indexName + " to " + type);
+    if (!mergeIndex(tmpName, Collections.singletonList(indexName),
+        type, null)) {
+      return false;
+    }
+    if (!idx.renameTo(new File(bakName))
+        || !new File(tmpName).renameTo(idx)) {
+      LoggerCentral.error(LOGGER, "Unable to convert index: cannot rename "
+          + tmpName);
+      return false;
+    }
+    return true;
+  }
+
   /**
    * Utility method aims at collecting all Lucene index files located under a
    * specific directory. This method also explores rootPath sub-directories if
@@ -293,26 +546,71 @@ public class LuceneUtils {
    * Returns the number of entries contains in an index.
    */
   public static int getSize(String indexName) {
-    LuceneStorageSystem lss = LuceneUtils.getSequenceStorage(indexName);
-    if (lss != null)
-      return lss.size();
-    else
+    StorageSystem lss = Storages.SEQUENCES.acquire(indexName);
+    if (lss == null)
       return 0;
+    try {
+      return lss.size();
+    } finally {
+      Storages.SEQUENCES.release(indexName, lss);
+    }
   }
 
   /**
    * Return an enumeration over all entries contained in an index. It is worth noting
    * that this method does not handle deleted documents, so use it only with clean
-   * index.
+   * index. The enumeration has to be closed, preferably using a try-with-resources
+   * statement, to release the index.
    * 
    * @return an enumeration over all entries contained in the index or null.
    */
-  public static Enumeration<DBEntry> entries(String indexName){
-    LuceneStorageSystem lss = LuceneUtils.getSequenceStorage(indexName);
-    if (lss != null)
-      return lss.entries();
-    else
+  public static EntryEnumeration entries(String indexName){
+    StorageSystem lss = Storages.SEQUENCES.acquire(indexName);
+    if (lss == null)
       return null;
+    return new EntryEnumeration(indexName, lss);
+  }
+
+  /**
+   * Enumeration over the entries of a shared index. The index is released when
+   * all entries have been read or when the enumeration is closed.
+   */
+  public static class EntryEnumeration implements Enumeration<DBEntry>,
+      Closeable {
+    private String               indexName;
+    private StorageSystem        lss;
+    private Enumeration<DBEntry> entries;
+
+    private EntryEnumeration(String indexName, StorageSystem lss) {
+      this.indexName = indexName;
+      this.lss = lss;
+      this.entries = lss.entries();
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+      if (lss == null)
+        return false;
+      if (entries.hasMoreElements())
+        return true;
+      close();
+      return false;
+    }
+
+    @Override
+    public DBEntry nextElement() {
+      if (lss == null)
+        throw new NoSuchElementException();
+      return entries.nextElement();
+    }
+
+    @Override
+    public void close() {
+      if (lss == null)
+        return;
+      Storages.SEQUENCES.release(indexName, lss);
+      lss = null;
+    }
   }
   
   @SuppressWarnings("deprecation")
@@ -349,6 +647,123 @@ public class LuceneUtils {
     return q;
   }
 
+  /**
+   * Return the terms to look for in an index given a sequence ID. The ID is
+   * analyzed the same way getQuery() does, i.e. it is split using the pipe
+   * character and database tokens are skipped. Each remaining token is then
+   * analyzed to get the terms as they are stored in the index.
+   * 
+   * @return a list of term arrays, one array per ID token. Never return null.
+   */
+  @SuppressWarnings("deprecation")
+  protected static List<String[]> getQueryTerms(String id, Analyzer an)
+      throws IOException {
+    StringTokenizer tokenizer;
+    ArrayList<String[]> terms;
+    ArrayList<String> tokTerms;
+    TokenStream ts;
+    TermAttribute termAtt;
+    String token;
+    boolean isPdb = false;
+
+    terms = new ArrayList<String[]>();
+    tokenizer = new StringTokenizer(id, "|");
+    while (tokenizer.hasMoreTokens()) {
+      token = tokenizer.nextToken();
+      if (DB_TOKENS.contains(token)) {
+        if ("GNL".equals(token)) {
+          if (tokenizer.hasMoreTokens())
+            tokenizer.nextToken();
+        } else if ("PDB".equals(token)) {
+          isPdb = true;
+        }
+        continue;
+      }
+      tokTerms = new ArrayList<String>();
+      ts = an.tokenStream(LuceneStorageSystem.IDXABLE_FIELD, new StringReader(
+          token));
+      termAtt = (TermAttribute) ts.addAttribute(TermAttribute.class);
+      while (ts.incrementToken()) {
+        tokTerms.add(termAtt.term());
+      }
+      ts.close();
+      if (!tokTerms.isEmpty()) {
+        terms.add(tokTerms.toArray(new String[0]));
+      }
+      if (isPdb)
+        break;
+    }
+    return terms;
+  }
+
+  /**
+   * Return database entries given a set of sequence IDs and a list of Lucene
+   * index files. Contrary to getEntry(), IDs are sorted, made unique and
+   * resolved using exact term lookups: each index is visited once for the
+   * whole set of IDs. Entries are the same as the ones returned by
+   * getEntry().
+   * 
+   * @return a map of entries indexed by sequence IDs. IDs that cannot be found
+   *         are not reported in the map. Never return null.
+   */
+  @SuppressWarnings("deprecation")
+  public static Map<String, DBEntry> getEntries(List<String> idxNames,
+      Collection<String> ids) {
+    TreeMap<String, List<String[]>> queries;
+    HashMap<String, DBEntry> entries;
+    Map<String, DBEntry> found;
+    StorageSystem lss;
+    Analyzer an;
+
+    entries = new HashMap<String, DBEntry>();
+    if (idxNames == null || idxNames.size() == 0 || ids == null
+        || ids.isEmpty())
+      return entries;
+    queries = new TreeMap<String, List<String[]>>();
+    an = new StandardAnalyzer();
+    try {
+      for (String id : new TreeSet<String>(ids)) {
+        if (id.length() != 0) {
+          queries.put(id, getQueryTerms(id, an));
+        }
+      }
+      for (String idxName : idxNames) {
+        if (queries.isEmpty())
+          break;
+        lss = Storages.SEQUENCES.acquire(idxName);
+        if (lss == null)
+          continue;
+        try {
+          found = lss.getEntries(queries);
+        } finally {
+          Storages.SEQUENCES.release(idxName, lss);
+        }
+        entries.putAll(found);
+        queries.keySet().removeAll(found.keySet());
+      }
+    } catch (Exception ex) {
+      LOGGER.warn("Unable to get DBEntries: " + ex);
+    }
+    if (!queries.isEmpty()) {
+      LOGGER.debug("Unable to locate " + queries.size() + " IDs");
+    }
+    return entries;
+  }
+
+  /**
+   * Return database entries given a set of sequence IDs and the rootPath
+   * containing Lucene index files.
+   * 
+   * @return a map of entries indexed by sequence IDs. IDs that cannot be found
+   *         are not reported in the map. Never return null.
+   */
+  public static Map<String, DBEntry> getEntries(String rootPath,
+      Collection<String> ids) {
+    if (rootPath == null || ids == null)
+      return new HashMap<String, DBEntry>();
+    return getEntries(LuceneUtils.collectIndex(rootPath), ids);
+  }
+
   /**
    * Return a database entry given a sequence ID and a list of Lucene index
    * files.
@@ -357,7 +772,7 @@ public class LuceneUtils {
    *         the index searching.
    */
   public static DBEntry getEntry(List<String> idxNames, String id) {
-    LuceneStorageSystem lss = null;
+    StorageSystem lss = null;
     DBEntry[] entries;
     DBEntry entry = null;
     Query q;
@@ -367,10 +782,14 @@ public class LuceneUtils {
     try {
       q = getQuery(id);
       for (String idxName : idxNames) {
-        lss = LuceneUtils.getSequenceStorage(idxName);
-        if (lss != null)
-          entries = lss.getEntry(id, q);
-        else
+        lss = Storages.SEQUENCES.acquire(idxName);
+        if (lss != null) {
+          try {
+            entries = lss.getEntry(id, q);
+          } finally {
+            Storages.SEQUENCES.release(idxName, lss);
+          }
+        } else
           entries = null;
         if (entries != null) {
           if (entries.length > 1) {
@@ -426,10 +845,14 @@ public class LuceneUtils {
       return null;
     try {
       for (String idxName : idxNames) {
-        lss = LuceneUtils.getDicoStorage(idxName);
-        if (lss != null)
-          entries = lss.getTerms(ids);
-        else
+        lss = Storages.DICOS.acquire(idxName);
+        if (lss != null) {
+          try {
+            entries = lss.getTerms(ids);
+          } finally {
+            Storages.DICOS.release(idxName, lss);
+          }
+        } else
           entries = null;
         lss = null;
         if (entries != null)
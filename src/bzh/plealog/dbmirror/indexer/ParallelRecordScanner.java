@@ -0,0 +1,341 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.indexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
+import bzh.plealog.dbmirror.util.log.LoggerCentral;
+
+/**
+ * This class scans a database file using several threads. The file is split
+ * into chunks starting at record boundaries, i.e. at lines starting with a
+ * given prefix. Each chunk is read by a worker using a ByteLineReader which
+ * passes every line to a ChunkScanner. Results are then handed to a
+ * ChunkConsumer in file order, from the calling thread.<br>
+ * <br>
+ * Line positions are byte offsets within the file. As a consequence, a parser
+ * replaying the results of its scanners gets exactly the same entry locations
+ * than when parsing the file line by line.
+ *
+ * @author Patrick G. Durand
+ */
+public class ParallelRecordScanner {
+
+  /** default size of a chunk. Unit is bytes. */
+  public static final long DEFAULT_CHUNK_SIZE = 64l * 1024l * 1024l;
+
+  private static final int BUF_SIZE           = 64 * 1024;
+
+  private static final Log LOGGER             = LogFactory
+                                                  .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
+                                                      + ".ParallelRecordScanner");
+
+  /**
+   * Scans the lines of a chunk. A new scanner is created for each chunk and
+   * it is used by a single thread.
+   */
+  public interface ChunkScanner<T> {
+    /**
+     * Handles a line.
+     *
+     * @param line
+     *          the reader positioned on the line to handle
+     */
+    public void handleLine(ByteLineReader line) throws Exception;
+
+    /**
+     * Returns the result of the scan. Called once all lines have been handled
+     * or when handleLine raised an exception.
+     */
+    public T getResult();
+  }
+
+  /**
+   * Consumes the results of chunk scanners.
+   */
+  public interface ChunkConsumer<T> {
+    /**
+     * Consumes the result of a chunk scan. Chunks are consumed in file order.
+     *
+     * @param result
+     *          result returned by a ChunkScanner
+     */
+    public void consume(T result) throws Exception;
+  }
+
+  /**
+   * A ChunkScanner collecting lines starting with some prefixes.
+   */
+  public static class PrefixLineScanner implements
+      ChunkScanner<List<ScannedLine>> {
+    private byte[][]               _prefixes;
+    private ArrayList<ScannedLine> _lines = new ArrayList<ScannedLine>();
+
+    public PrefixLineScanner(byte[]... prefixes) {
+      _prefixes = prefixes;
+    }
+
+    public void handleLine(ByteLineReader line) {
+      for (byte[] prefix : _prefixes) {
+        if (line.startsWith(prefix)) {
+          _lines.add(new ScannedLine(line.getLine(), line.getLinePos(), 0));
+          break;
+        }
+      }
+    }
+
+    public List<ScannedLine> getResult() {
+      return _lines;
+    }
+  }
+
+  /**
+   * A line reported by a ChunkScanner.
+   */
+  public static class ScannedLine {
+    private String _line;
+    private long   _pos;
+    private int    _value;
+
+    public ScannedLine(String line, long pos, int value) {
+      _line = line;
+      _pos = pos;
+      _value = value;
+    }
+
+    public String getLine() {
+      return _line;
+    }
+
+    public long getPos() {
+      return _pos;
+    }
+
+    /**
+     * Returns a value computed by a ChunkScanner, if any.
+     */
+    public int getValue() {
+      return _value;
+    }
+
+    public void setValue(int value) {
+      _value = value;
+    }
+  }
+
+  private static class Chunk<T> {
+    private T         result;
+    private Exception error;
+  }
+
+  /**
+   * Figures out whether or not a file is worth scanning in parallel.
+   */
+  public static boolean useParallelScan(String file, int workers, long chunkSize) {
+    return workers > 1 && new File(file).length() > chunkSize;
+  }
+
+  /**
+   * Splits a file into chunks. Each chunk, except the first one, starts at
+   * the beginning of a line starting with recordStart.
+   *
+   * @return an array of chunk positions; last value is the file size.
+   */
+  public static long[] getChunks(String file, String recordStart,
+      long chunkSize) throws IOException {
+    ArrayList<Long> bounds;
+    RandomAccessFile raf = null;
+    FileChannel fc;
+    ByteBuffer buf, prefixBuf;
+    byte[] prefix;
+    long size, pos, bufPos;
+    byte prev, cur;
+    long[] result;
+    int i;
+
+    prefix = recordStart.getBytes(StandardCharsets.UTF_8);
+    bounds = new ArrayList<Long>();
+    bounds.add(0l);
+    try {
+      raf = new RandomAccessFile(file, "r");
+      fc = raf.getChannel();
+      size = fc.size();
+      buf = ByteBuffer.allocate(BUF_SIZE);
+      prefixBuf = ByteBuffer.allocate(prefix.length);
+      pos = chunkSize;
+      while (pos < size) {
+        // look for a line start matching recordStart from pos
+        bufPos = pos - 1;
+        buf.clear();
+        buf.limit(0);
+        prev = 0;
+        while (true) {
+          if (!buf.hasRemaining()) {
+            bufPos += buf.limit();
+            buf.clear();
+            if (fc.read(buf, bufPos) <= 0) {
+              pos = size;
+              break;
+            }
+            buf.flip();
+          }
+          cur = buf.get();
+          if ((prev == '\n' || prev == '\r') && cur == prefix[0]) {
+            pos = bufPos + buf.position() - 1;
+            prefixBuf.clear();
+            fc.read(prefixBuf, pos);
+            for (i = 0; i < prefix.length; i++) {
+              if (i >= prefixBuf.position() || prefixBuf.get(i) != prefix[i])
+                break;
+            }
+            if (i == prefix.length)
+              break;
+          }
+          prev = cur;
+        }
+        if (pos >= size)
+          break;
+        bounds.add(pos);
+        pos += chunkSize;
+      }
+      bounds.add(size);
+    } finally {
+      if (raf != null) {
+        try {
+          raf.close();
+        } catch (IOException e) {
+        }
+      }
+    }
+    result = new long[bounds.size()];
+    for (i = 0; i < result.length; i++) {
+      result[i] = bounds.get(i);
+    }
+    return result;
+  }
+
+  private static <T> Chunk<T> scanChunk(String file, long from, long to,
+      ChunkScanner<T> scanner) throws IOException {
+    ByteLineReader reader = null;
+    Chunk<T> chunk;
+
+    chunk = new Chunk<T>();
+    try {
+      reader = new ByteLineReader(file, from, to);
+      while (reader.nextLine()) {
+        try {
+          scanner.handleLine(reader);
+        } catch (Exception e) {
+          chunk.error = e;
+          break;
+        }
+      }
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+        }
+      }
+    }
+    chunk.result = scanner.getResult();
+    return chunk;
+  }
+
+  /**
+   * Scans a file in parallel.
+   *
+   * @param file
+   *          the file to scan
+   * @param recordStart
+   *          the beginning of the first line of a record
+   * @param workers
+   *          number of threads to use
+   * @param chunkSize
+   *          approximate size of chunks. Unit is bytes.
+   * @param factory
+   *          creates a ChunkScanner for each chunk
+   * @param consumer
+   *          receives the results of chunk scanners in file order
+   *
+   * @return the size of the file
+   *
+   * @throws Exception
+   *           exception raised by a ChunkScanner, once the results of all
+   *           previous lines have been consumed, or by the consumer.
+   */
+  public static <T> long scan(String file, String recordStart, int workers,
+      long chunkSize, Supplier<ChunkScanner<T>> factory,
+      ChunkConsumer<T> consumer)
+      throws Exception {
+    ArrayDeque<Future<Chunk<T>>> pending;
+    ExecutorService executor;
+    Chunk<T> chunk;
+    long[] chunks;
+    int next = 0;
+
+    chunks = getChunks(file, recordStart, chunkSize);
+    LoggerCentral.info(LOGGER, "scan " + file + " using " + workers
+        + " workers: " + (chunks.length - 1) + " chunks");
+    executor = Executors.newFixedThreadPool(workers);
+    pending = new ArrayDeque<Future<Chunk<T>>>();
+    try {
+      while (next < chunks.length - 1 || !pending.isEmpty()) {
+        // keep a bounded number of chunks in memory
+        while (next < chunks.length - 1 && pending.size() < 2 * workers) {
+          final long from = chunks[next], to = chunks[next + 1];
+          pending.add(executor.submit(() -> scanChunk(file, from, to,
+              factory.get())));
+          next++;
+        }
+        try {
+          chunk = pending.poll().get();
+        } catch (ExecutionException e) {
+          throw (e.getCause() instanceof Exception) ? (Exception) e.getCause()
+              : e;
+        }
+        consumer.consume(chunk.result);
+        if (chunk.error != null) {
+          throw chunk.error;
+        }
+      }
+    } finally {
+      for (Future<Chunk<T>> f : pending) {
+        f.cancel(true);
+      }
+      executor.shutdownNow();
+    }
+    return chunks[chunks.length - 1];
+  }
+}
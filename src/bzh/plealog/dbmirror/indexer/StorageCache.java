@@ -0,0 +1,197 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.indexer;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * This class keeps opened storages so that they can be queried by several
+ * threads at once. Looking up an opened storage does not lock anything.<br>
+ * <br>
+ * A storage is used between calls to acquire() and release(). When there are
+ * more opened storages than the cache size, the least recently used ones
+ * which are not in use are closed. As a consequence, the cache may
+ * temporarily contain more storages than its size when all of them are in
+ * use.
+ *
+ * @author Patrick G. Durand
+ */
+public class StorageCache<T> {
+
+  private ConcurrentHashMap<String, Slot<T>> _slots     = new ConcurrentHashMap<String, Slot<T>>();
+  private AtomicLong                         _clock     = new AtomicLong();
+  private ReentrantLock                      _evictLock = new ReentrantLock();
+  private Function<String, T>                _opener;
+  private Consumer<T>                        _closer;
+  private int                                _maxSize;
+
+  private static class Slot<T> {
+    private T             storage;
+    // number of users ; -1 when the storage is closed
+    private AtomicInteger users = new AtomicInteger();
+    private volatile long lastAccess;
+
+    private boolean acquire() {
+      int n;
+
+      while (true) {
+        n = users.get();
+        if (n < 0) {
+          return false;
+        }
+        if (users.compareAndSet(n, n + 1)) {
+          return true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param opener
+   *          opens a storage given its name. Returns null if the storage cannot
+   *          be opened.
+   * @param closer
+   *          closes a storage
+   * @param maxSize
+   *          number of storages above which idle ones are closed
+   */
+  public StorageCache(Function<String, T> opener, Consumer<T> closer,
+      int maxSize) {
+    _opener = opener;
+    _closer = closer;
+    _maxSize = Math.max(1, maxSize);
+  }
+
+  private Slot<T> openSlot(String name) {
+    Slot<T> slot;
+    T storage;
+
+    storage = _opener.apply(name);
+    if (storage == null) {
+      return null;
+    }
+    slot = new Slot<T>();
+    slot.storage = storage;
+    return slot;
+  }
+
+  /**
+   * Returns an opened storage. The storage is opened if needed. Each call to
+   * this method has to be followed by a call to release() once the storage is
+   * no longer used.
+   *
+   * @param name
+   *          the storage name
+   *
+   * @return the storage or null if it cannot be opened
+   */
+  public T acquire(String name) {
+    Slot<T> slot;
+
+    while (true) {
+      slot = _slots.get(name);
+      if (slot == null) {
+        slot = _slots.computeIfAbsent(name, this::openSlot);
+        if (slot == null) {
+          return null;
+        }
+      }
+      if (slot.acquire()) {
+        break;
+      }
+      // storage has just been closed by another thread
+      _slots.remove(name, slot);
+    }
+    slot.lastAccess = _clock.incrementAndGet();
+    if (_slots.size() > _maxSize) {
+      evict();
+    }
+    return slot.storage;
+  }
+
+  /**
+   * Tells the cache that a storage returned by acquire() is no longer used.
+   */
+  public void release(String name, T storage) {
+    Slot<T> slot;
+
+    slot = _slots.get(name);
+    if (slot != null && slot.storage == storage) {
+      slot.users.decrementAndGet();
+    }
+  }
+
+  /**
+   * Closes least recently used storages which are not in use.
+   */
+  private void evict() {
+    TreeMap<Long, Map.Entry<String, Slot<T>>> slots;
+
+    // a single thread does the job: others carry on with their own query
+    if (!_evictLock.tryLock()) {
+      return;
+    }
+    try {
+      // access times are unique: sort idle storages using them
+      slots = new TreeMap<Long, Map.Entry<String, Slot<T>>>();
+      for (Map.Entry<String, Slot<T>> entry : _slots.entrySet()) {
+        if (entry.getValue().users.get() == 0) {
+          slots.put(entry.getValue().lastAccess, entry);
+        }
+      }
+      for (Map.Entry<String, Slot<T>> entry : slots.values()) {
+        if (_slots.size() <= _maxSize) {
+          break;
+        }
+        if (entry.getValue().users.compareAndSet(0, -1)) {
+          _slots.remove(entry.getKey(), entry.getValue());
+          _closer.accept(entry.getValue().storage);
+        }
+      }
+    } finally {
+      _evictLock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of opened storages.
+   */
+  public int size() {
+    return _slots.size();
+  }
+
+  /**
+   * Closes all storages, including the ones which are in use.
+   */
+  public void closeAll() {
+    for (Map.Entry<String, Slot<T>> entry : _slots.entrySet()) {
+      if (_slots.remove(entry.getKey(), entry.getValue())) {
+        entry.getValue().users.set(-1);
+        _closer.accept(entry.getValue().storage);
+      }
+    }
+  }
+}
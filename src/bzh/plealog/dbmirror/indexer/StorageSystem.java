@@ -16,6 +16,10 @@
  */
 package bzh.plealog.dbmirror.indexer;
 
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.lucene.search.Query;
 
 /**
@@ -89,4 +93,27 @@ public interface StorageSystem {
   public DBEntry[] getEntry(String id) throws StorageSystemException;
 
   public DBEntry[] getEntry(String id, Query q) throws StorageSystemException;
+
+  /**
+   * Returns database entries given a set of sequence IDs.
+   * 
+   * @param queries
+   *          map of sequence IDs to resolve. Values are the terms of each ID
+   *          token, as returned by LuceneUtils.getQueryTerms(). Implementations
+   *          may only rely on the IDs.
+   * 
+   * @return a map of entries indexed by queried IDs. IDs that cannot be found
+   *         are not reported in the map.
+   * 
+   * @throws StorageSystemException
+   *           if the storage system cannot be queried.
+   */
+  public Map<String, DBEntry> getEntries(Map<String, List<String[]>> queries)
+      throws StorageSystemException;
+
+  /**
+   * Returns an enumeration over all entries contained in the storage system.
+   * Storage system has to be opened in READ mode.
+   */
+  public Enumeration<DBEntry> entries();
 }
@@ -16,16 +16,13 @@
  */
 package bzh.plealog.dbmirror.indexer;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import bzh.plealog.dbmirror.util.Utils;
+import bzh.plealog.dbmirror.indexer.ParallelRecordScanner.ScannedLine;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
 import bzh.plealog.dbmirror.util.runner.DBMSUniqueSeqIdRedundantException;
@@ -53,6 +50,17 @@ public class SwissProtParser extends TaxonMatcherHelper implements DBParsable {
   private boolean            _verbose;
   private ParserMonitor      _pMonitor;
   private boolean            _checkNR               = false;
+  private int                _workers               = 0;
+  private long               _chunkSize             = ParallelRecordScanner.DEFAULT_CHUNK_SIZE;
+
+  private static final byte[] ID_LINE   = ByteLineReader.toBytes(KEYWORD_ID
+                                            + " ");
+  private static final byte[] AC_LINE   = ByteLineReader
+                                            .toBytes(KEYWORD_ACCESSION);
+  private static final byte[] SQ_LINE   = ByteLineReader
+                                            .toBytes(KEYWORD_START_SEQUENCE);
+  private static final byte[] END_LINE  = ByteLineReader
+                                            .toBytes(KEYWORD_END_ENTRY);
 
   private static final Log   LOGGER                 = LogFactory
                                                         .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
@@ -119,15 +127,112 @@ public class SwissProtParser extends TaxonMatcherHelper implements DBParsable {
     _pMonitor = pm;
   }
 
+  /**
+   * Sets the parameters of the parallel scan of files. By default, the number
+   * of workers comes from the main configuration (see
+   * DBMSAbstractConfig.getIndexWorkers()). Parallel scan is not used with
+   * taxonomy constraints.
+   * 
+   * @param workers
+   *          number of threads. Use 1 to force sequential parsing.
+   * @param chunkSize
+   *          files smaller than that are parsed sequentially. Unit is bytes.
+   */
+  public void setParallelScan(int workers, long chunkSize) {
+    _workers = workers;
+    _chunkSize = chunkSize;
+  }
+
+  private int getWorkers() {
+    return _workers > 0 ? _workers : DBMSAbstractConfig.getIndexWorkers();
+  }
+
+  /**
+   * Handles the end of an entry, i.e. the '//' line located at curPos.
+   * 
+   * @return the value of ac to use for next entries
+   */
+  private String handleEntry(StorageSystem ss, String fName, String ac,
+      String id, long start, long curPos, boolean seqOk) {
+    _total++;
+    if (seqOk) {
+      try {
+        if (ac == null) {
+          ac = id;
+        }
+        if (_pMonitor != null) {
+          _pMonitor.seqFound(ac, id, fName, start, curPos + 2l, _checkNR);
+        }
+        if (ss != null) {
+          if (id == null)
+            throw new StorageSystemException("field ID is missing");
+          ss.addEntry(ac, id, fName, start, curPos + 2l);
+        }
+        if (_verbose)
+          System.out.println(id + "," + ac + "," + start + ","
+              + (curPos + 2l));
+        _kept++;
+        if (_verbose && (_kept % 10000) == 0) {
+          System.out.println(_kept + ", start: " + start);
+        }
+      } catch (DBMSUniqueSeqIdRedundantException ex) {
+        // JIRA KDMS-22 accept a redundant sequence, just add a log
+        LoggerCentral.warn(LOGGER, "Redundant sequence id " + ac);
+        _dicarded++;
+        if (_verbose)
+          System.out.println("discarded: " + id + "," + ac + "," + start
+              + "," + (curPos + 2l));
+      }
+      ac = null;
+    } else {
+      _dicarded++;
+      if (_verbose)
+        System.out.println("discarded: " + id + "," + ac + "," + start + ","
+            + (curPos + 2l));
+    }
+    return ac;
+  }
+
+  /**
+   * Parses a file using several threads. Entries are reported in file order
+   * with the same locations than the sequential parsing. Workers only collect
+   * ID, AC and '//' lines which are then handled in order.
+   */
+  private void parseParallel(String file, StorageSystem ss, String fName)
+      throws Exception {
+    final StringBuffer locusBuf = new StringBuffer();
+    // id, ac
+    final String[] state = new String[2];
+    final long[] start = new long[1];
+
+    ParallelRecordScanner.scan(file, KEYWORD_ID + " ", getWorkers(),
+        _chunkSize, () -> new ParallelRecordScanner.PrefixLineScanner(ID_LINE,
+            AC_LINE, END_LINE), (lines) -> {
+          for (ScannedLine l : lines) {
+            String line = l.getLine();
+            if (line.startsWith(KEYWORD_ID + " ")) {
+              start[0] = l.getPos();
+              state[0] = getID(2, line, locusBuf);
+            } else if (state[1] == null
+                && line.startsWith(KEYWORD_ACCESSION)) {
+              state[1] = getAC(line, locusBuf);
+            }
+            if (line.startsWith(KEYWORD_END_ENTRY)) {
+              state[1] = handleEntry(ss, fName, state[1], state[0], start[0],
+                  l.getPos(), true);
+            }
+          }
+        });
+  }
+
   /**
    * Implementation of DBParsable interface.
    */
   public void parse(String file, StorageSystem ss) throws DBParserException {
-    BufferedReader reader = null;
-    String line, id = null, ac = null, fName;
+    ByteLineReader reader = null;
+    String id = null, ac = null, fName;
     long curPos = 0, start = 0;
     StringBuffer locusBuf;
-    int endOfLineSize;
     boolean handleTaxon = true, seqOk = true, hasTaxoConstraints;
     boolean[] values = new boolean[3];
 
@@ -140,89 +245,56 @@ public class SwissProtParser extends TaxonMatcherHelper implements DBParsable {
           throw new Exception(TaxonMatcherHelper.ERR1);
         }
       }
-      endOfLineSize = Utils.getLineTerminatorSize(file);
       _kept = _dicarded = _total = 0;
-      reader = new BufferedReader(new InputStreamReader(new FileInputStream(
-          file), "UTF-8"));
-      locusBuf = new StringBuffer();
       fName = file;// new File(file).getName();
       if (_pMonitor != null) {
         _pMonitor.startProcessingFile(fName, new File(file).length());
       }
-      while ((line = reader.readLine()) != null) {
-        /*
-         * if (counter>5) break;
-         */
-        if (line.startsWith(KEYWORD_ID + " ")) {
-          start = curPos;
-          id = getID(2, line, locusBuf);
-          handleTaxon = true;
-          seqOk = true;
-        } else if (ac == null && line.startsWith(KEYWORD_ACCESSION)) {
-          ac = getAC(line, locusBuf);
-        }
-        // EMBL ENA: PA instead of AC !
-        // not documented anywhere even in official doc:
-        // ftp://ftp.ebi.ac.uk/pub/databases/ena/sequence/release/doc/usrman.txt
-
-        // keep for history : DO NOT USE since PA can be redundant !!!!
-
-        /*
-         * else if (ac == null && line.startsWith("PA")) { ac = getAC(line,
-         * locusBuf); }
-         */
-        else if (line.startsWith(KEYWORD_START_SEQUENCE)) {
-          handleTaxon = false;
-        }
-        if (hasTaxoConstraints && handleTaxon) {
-          isSeqTaxonvalid(line, values);
-          seqOk = values[1];
-          if (values[0] == true) {
-            handleTaxon = false;
+      if (!hasTaxoConstraints
+          && ParallelRecordScanner.useParallelScan(file, getWorkers(),
+              _chunkSize)) {
+        parseParallel(file, ss, fName);
+      } else {
+        reader = new ByteLineReader(file);
+        locusBuf = new StringBuffer();
+        while (reader.nextLine()) {
+          /*
+           * if (counter>5) break;
+           */
+          curPos = reader.getLinePos();
+          if (reader.startsWith(ID_LINE)) {
+            start = curPos;
+            id = getID(2, reader.getLine(), locusBuf);
+            handleTaxon = true;
+            seqOk = true;
+          } else if (ac == null && reader.startsWith(AC_LINE)) {
+            ac = getAC(reader.getLine(), locusBuf);
           }
-        }
+          // EMBL ENA: PA instead of AC !
+          // not documented anywhere even in official doc:
+          // ftp://ftp.ebi.ac.uk/pub/databases/ena/sequence/release/doc/usrman.txt
+
+          // keep for history : DO NOT USE since PA can be redundant !!!!
 
-        if (line.startsWith(KEYWORD_END_ENTRY)) {
-          _total++;
-          if (seqOk) {
-            try {
-              if (ac == null) {
-                ac = id;
-              }
-              if (_pMonitor != null) {
-                _pMonitor.seqFound(ac, id, fName, start, curPos + 2l, _checkNR);
-              }
-              if (ss != null) {
-                if (id == null)
-                  throw new StorageSystemException("field ID is missing");
-                ss.addEntry(ac, id, fName, start, curPos + 2l);
-              }
-              if (_verbose)
-                System.out.println(id + "," + ac + "," + start + ","
-                    + (curPos + 2l));
-              _kept++;
-              if (_verbose && (_kept % 10000) == 0) {
-                System.out.println(_kept + ", start: " + start);
-              }
-            } catch (DBMSUniqueSeqIdRedundantException ex) {
-              // JIRA KDMS-22 accept a redundant sequence, just add a log
-              LoggerCentral.warn(LOGGER, "Redundant sequence id " + ac);
-              _dicarded++;
-              if (_verbose)
-                System.out.println("discarded: " + id + "," + ac + "," + start
-                    + "," + (curPos + 2l));
+          /*
+           * else if (ac == null && line.startsWith("PA")) { ac = getAC(line,
+           * locusBuf); }
+           */
+          else if (reader.startsWith(SQ_LINE)) {
+            handleTaxon = false;
+          }
+          if (hasTaxoConstraints && handleTaxon) {
+            isSeqTaxonvalid(reader.getLine(), values);
+            seqOk = values[1];
+            if (values[0] == true) {
+              handleTaxon = false;
             }
-            ac = null;
-          } else {
-            _dicarded++;
-            if (_verbose)
-              System.out.println("discarded: " + id + "," + ac + "," + start
-                  + "," + (curPos + 2l));
           }
 
+          if (reader.startsWith(END_LINE)) {
+            ac = handleEntry(ss, fName, ac, id, start, curPos, seqOk);
+          }
         }
-
-        curPos += (long) (line.length() + endOfLineSize);
       }
       this.dumpTaxonNotFound(LOGGER);
     } catch (Exception e) {
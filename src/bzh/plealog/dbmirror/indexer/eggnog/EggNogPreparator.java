@@ -19,6 +19,7 @@ package bzh.plealog.dbmirror.indexer.eggnog;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 
 import javax.swing.JProgressBar;
@@ -32,9 +33,10 @@ import bzh.plealog.dbmirror.fetcher.DBServerConfig;
 import bzh.plealog.dbmirror.fetcher.UserProcessingMonitor;
 import bzh.plealog.dbmirror.task.PTaskEngine;
 
-import bzh.plealog.dbmirror.util.ant.PAntTasks;
+import bzh.plealog.dbmirror.util.ArchiveExtractor;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 import bzh.plealog.dbmirror.util.descriptor.DatabankFormat;
+import bzh.plealog.dbmirror.util.log.JobContext;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
 import bzh.plealog.dbmirror.util.sequence.SequenceFileManager;
 import bzh.plealog.dbmirror.util.sequence.SequenceValidatorEggNog;
@@ -121,10 +123,13 @@ public class EggNogPreparator {
     }
     LoggerCentral.info(LOGGER, "Untar " + tarFile.getAbsolutePath() + " to "
         + directory.getAbsolutePath());
-    if (!PAntTasks.untar(tarFile.getAbsolutePath(),
-        directory.getAbsolutePath())) {
+    ArchiveExtractor extractor = new ArchiveExtractor();
+    extractor.setUserProcessingMonitor(this.monitor, this.config.getName());
+    try {
+      extractor.untar(tarFile, directory, false);
+    } catch (IOException e) {
       throw new Exception("Unable to untar '" + tarFile.getAbsolutePath()
-          + "' in '" + directory.getAbsolutePath() + "'");
+          + "' in '" + directory.getAbsolutePath() + "': " + e.getMessage());
     }
   }
 
@@ -132,6 +137,7 @@ public class EggNogPreparator {
    * Create the lucene index used to convert sequences into UniProt format
    */
   private void createLuceneIndex() throws Exception {
+    JobContext job = LoggerCentral.getJobContext();
     BufferedReader reader = null;
     String line = null;
 
@@ -167,7 +173,7 @@ public class EggNogPreparator {
               reverseIndex.add(new EggNogEntry(line).getProteinId(), line);
 
               // process aborted ?
-              if (LoggerCentral.processAborted()) {
+              if (job.isAborted()) {
                 break;
               }
             } catch (Exception ex) {
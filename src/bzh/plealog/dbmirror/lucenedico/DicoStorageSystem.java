@@ -17,6 +17,7 @@
 package bzh.plealog.dbmirror.lucenedico;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * This interface defines a storage system aims at storing required data to
@@ -113,6 +114,16 @@ public interface DicoStorageSystem {
   public DicoTerm[] getTerms(String idFrom, String idTo)
       throws DicoStorageSystemException;
 
+  /**
+   * Passes all the terms contained in the storage system to a consumer. This
+   * method is intended to load a whole dictionary in memory.
+   * 
+   * @throws DicoStorageSystemException
+   *           if the storage system cannot be read.
+   */
+  public void forEachTerm(Consumer<DicoTerm> consumer)
+      throws DicoStorageSystemException;
+
   /**
    * Returns a id given a sequence name. Returns null if not found.
    * 
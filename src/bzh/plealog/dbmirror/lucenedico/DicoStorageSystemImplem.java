@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
@@ -28,6 +29,9 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriter.MaxFieldLength;
 import org.apache.lucene.index.Term;
@@ -42,9 +46,10 @@ import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
 import bzh.plealog.dbmirror.indexer.LuceneUtils;
-import bzh.plealog.dbmirror.lucenedico.go.Serialization_GeneOntologyTerm;
+import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyTermSerializer;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
+import bzh.plealog.dbmirror.util.lucene.IObjectSerializer;
 
 /**
  * This class represents a Lucene-based index aims at storing required data to
@@ -87,6 +92,9 @@ public class DicoStorageSystemImplem implements DicoStorageSystem,
 
   private StandardAnalyzer      analyzer                  = null;
 
+  // used to store objects, i.e. GeneOntologyTerm
+  private IObjectSerializer     serializer                = new GeneOntologyTermSerializer();
+
   // used to search in lucene indexes
   private Term                  termId                    = null;
   @SuppressWarnings("unused")
@@ -121,6 +129,15 @@ public class DicoStorageSystemImplem implements DicoStorageSystem,
 
   }
 
+  /**
+   * Sets the serializer used to store and read objects. Default is a
+   * GeneOntologyTermSerializer, which is also able to read objects written
+   * using the standard Java serialization.
+   */
+  public void setObjectSerializer(IObjectSerializer serializer) {
+    this.serializer = serializer;
+  }
+
   private void checkRamUsage() throws IOException {
     long totMem, freeMem;
 
@@ -160,7 +177,7 @@ public class DicoStorageSystemImplem implements DicoStorageSystem,
     if (_writerOk == false)
       throw new DicoStorageSystemException("DicoStorageSystem not initialised.");
     try {
-      byte[] data = Serialization_GeneOntologyTerm.serialize(dataField);
+      byte[] data = this.serializer.writeObject(dataField, Object.class);
       this.fieldObjectId.setValue(id);
       this.fieldObjectValue.setValue(data);
       checkRamUsage();
@@ -192,7 +209,7 @@ public class DicoStorageSystemImplem implements DicoStorageSystem,
 
         if (data != null) {
           term = new DicoTerm(id, doc.get(DATA_FIELD),
-              Serialization_GeneOntologyTerm.deserialize(data));
+              this.serializer.readObject(data, Object.class));
         } else {
           term = new DicoTerm(id, doc.get(DATA_FIELD));
         }
@@ -270,6 +287,52 @@ public class DicoStorageSystemImplem implements DicoStorageSystem,
     return terms;
   }
 
+  /**
+   * Implementation of DicoStorageSystem interface.
+   */
+  public void forEachTerm(Consumer<DicoTerm> consumer)
+      throws DicoStorageSystemException {
+    FieldSelector selector;
+    IndexReader reader;
+    Document doc;
+    String id, data;
+    byte[] object;
+    int i, max;
+
+    if (_readerOk == false)
+      throw new DicoStorageSystemException("DicoStorageSystem not initialised.");
+
+    // not analyzed names are not needed
+    selector = new MapFieldSelector(new String[] { ID_FIELD, DATA_FIELD,
+        OBJECT_FIELD });
+    reader = _searcher.getIndexReader();
+    max = reader.maxDoc();
+    try {
+      for (i = 0; i < max; i++) {
+        if (reader.isDeleted(i)) {
+          continue;
+        }
+        doc = reader.document(i, selector);
+        id = doc.get(ID_FIELD);
+        data = doc.get(DATA_FIELD);
+        object = doc.getBinaryValue(OBJECT_FIELD);
+        if (id == null) {
+          continue;
+        }
+        if (object != null) {
+          consumer.accept(new DicoTerm(id, data,
+              this.serializer.readObject(object, Object.class)));
+        } else if (data != null) {
+          consumer.accept(new DicoTerm(id, data));
+        }
+      }
+    } catch (DicoStorageSystemException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new DicoStorageSystemException("Unable to read index: " + e);
+    }
+  }
+
   private void findTerm(ArrayList<DicoTerm> path, String idFrom, String idTo)
       throws Exception {
     String data_field, fatherID;
@@ -337,7 +400,7 @@ public class DicoStorageSystemImplem implements DicoStorageSystem,
       return true;
     try {
       _writer.commit();
-      _writer.optimize();
+      LuceneUtils.optimize(_writer, true);
       _writer.close();
     } catch (IOException e) {
       LoggerCentral.error(LOGGER, "Unable to close index (write mode): " + e);
@@ -22,18 +22,19 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.collections.OrderedMap;
-import org.apache.commons.collections.map.LinkedMap;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyDag;
 import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyGenerateTree;
 import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyGenerateTree.Path;
 import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyTerm;
 import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyTermRelationship;
 import bzh.plealog.dbmirror.lucenedico.tax.TaxonomyRank;
+import bzh.plealog.dbmirror.lucenedico.tax.TaxonomyTree;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 import bzh.plealog.dbmirror.util.conf.DBMirrorConfig;
 import bzh.plealog.dbmirror.util.descriptor.DBDescriptor;
@@ -50,6 +51,12 @@ import bzh.plealog.dbmirror.util.log.LoggerCentral;
 public class DicoTermQuerySystem {
   private GeneOntologyGenerateTree          _goTree;
   private boolean                           isClosed = false;
+  private volatile TaxonomyTree             _taxTree;
+  private boolean                           _taxTreeLoaded;
+  private final Object                      _taxTreeLock = new Object();
+  private volatile GeneOntologyDag          _goDag;
+  private boolean                           _goDagLoaded;
+  private final Object                      _goDagLock   = new Object();
 
   private HashMap<Dicos, DicoStorageSystem> storages = new HashMap<Dicos, DicoStorageSystem>();
 
@@ -58,6 +65,25 @@ public class DicoTermQuerySystem {
   private static final Log                  LOGGER   = LogFactory
                                                          .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
                                                              + ".DicoStorageSystemImplem");
+  private static final ConcurrentHashMap<String, TaxonomyRank[]> TAX_RANKS = new ConcurrentHashMap<String, TaxonomyRank[]>();
+
+  /**
+   * Path of taxon IDs with their ranks, from the root to a taxon.
+   */
+  private static class TaxPath {
+    private int[]          ids;
+    private TaxonomyRank[] ranks;
+    private int            size;
+
+    private boolean contains(TaxonomyRank rank) {
+      for (TaxonomyRank r : ranks) {
+        if (rank.equals(r)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
 
   private DicoTermQuerySystem() {
   }
@@ -151,6 +177,8 @@ public class DicoTermQuerySystem {
     }
     storages = new HashMap<Dicos, DicoStorageSystem>();
     _goTree = null;
+    _taxTree = null;
+    _goDag = null;
     // needed since we use a RAMDirectory: ask JRE to free the data loaded by
     // Lucene
     System.gc();
@@ -192,7 +220,19 @@ public class DicoTermQuerySystem {
    */
   public DicoTerm getTerm(Dicos dico, String id) {
     if (dico.equals(Dicos.NCBI_TAXONOMY)) {
+      // use the in-memory tree only once it has been loaded by a path query
+      TaxonomyTree tree = _taxTree;
+      if (tree != null) {
+        return getTaxonTerm(tree, id);
+      }
       id = DicoUtils.TAX_ID_NAME_PREFIX + id;
+    } else if (dico.equals(Dicos.GENE_ONTOLOGY)) {
+      // same as above: loaded by a path query
+      GeneOntologyDag dag = _goDag;
+      if (dag != null) {
+        GeneOntologyTerm goTerm = dag.getTerm(id);
+        return goTerm != null ? new DicoTerm(id, null, goTerm) : null;
+      }
     }
 
     try {
@@ -206,6 +246,11 @@ public class DicoTermQuerySystem {
   }
 
   public ArrayList<String> getGoPath(String id) {
+    GeneOntologyDag dag = getGeneOntologyDag();
+    if (dag != null) {
+      return formatGoPaths(dag, id, true);
+    }
+
     ArrayList<Path> tree = new ArrayList<Path>();
     ArrayList<String> pathsFormated = new ArrayList<String>();
     Vector<GeneOntologyTermRelationship> pathsList = new Vector<GeneOntologyTermRelationship>();
@@ -247,6 +292,11 @@ public class DicoTermQuerySystem {
   }
 
   public ArrayList<String> getGoPathId(String id) {
+    GeneOntologyDag dag = getGeneOntologyDag();
+    if (dag != null) {
+      return formatGoPaths(dag, id, false);
+    }
+
     ArrayList<Path> tree = new ArrayList<Path>();
     ArrayList<String> pathsFormated = new ArrayList<String>();
     Vector<GeneOntologyTermRelationship> paths = new Vector<GeneOntologyTermRelationship>();
@@ -271,6 +321,88 @@ public class DicoTermQuerySystem {
     return pathsFormated;
   }
 
+  /**
+   * Formats the paths of a GO term the same way getGoPath() and getGoPathId()
+   * do using the index: an empty list is returned if the term, or one of its
+   * ancestors, is unknown.
+   */
+  private ArrayList<String> formatGoPaths(GeneOntologyDag dag, String id,
+      boolean withNames) {
+    ArrayList<String> pathsFormated = new ArrayList<String>();
+    StringBuilder pathFormated;
+    int[][] paths;
+    int node;
+
+    paths = dag.getPaths(id);
+    if (paths == null) {
+      return pathsFormated;
+    }
+    pathFormated = new StringBuilder();
+    for (int[] path : paths) {
+      pathFormated.setLength(0);
+      for (int element : path) {
+        if (pathFormated.length() != 0) {
+          pathFormated.append(";");
+        }
+        node = GeneOntologyDag.getNode(element);
+        if (withNames) {
+          pathFormated.append("[");
+          pathFormated.append(GeneOntologyDag.getType(element));
+          pathFormated.append("] ");
+          pathFormated.append(dag.getId(node));
+          pathFormated.append(" ");
+          pathFormated.append(dag.getName(node));
+        } else {
+          pathFormated.append(dag.getId(node));
+        }
+      }
+      pathsFormated.add(pathFormated.toString());
+    }
+    return pathsFormated;
+  }
+
+  /**
+   * Returns the Gene Ontology graph loaded in memory. The graph is loaded from
+   * the GO dictionary the first time this method is called. Returns null if
+   * the dictionary is not available, or if it does not contain any term
+   * objects: in such a case, GO paths are computed by querying the index.
+   */
+  public GeneOntologyDag getGeneOntologyDag() {
+    DicoStorageSystem storage;
+    GeneOntologyDag dag;
+    long time;
+
+    if (_goDag != null) {
+      return _goDag;
+    }
+    synchronized (_goDagLock) {
+      if (_goDagLoaded) {
+        return _goDag;
+      }
+      _goDagLoaded = true;
+      storage = storages.get(Dicos.GENE_ONTOLOGY);
+      if (storage == null) {
+        return null;
+      }
+      time = System.currentTimeMillis();
+      try {
+        dag = GeneOntologyDag.load(storage);
+      } catch (DicoStorageSystemException ex) {
+        LoggerCentral.warn(LOGGER, "Unable to load Gene Ontology in memory: "
+            + ex.getMessage());
+        return null;
+      }
+      if (dag.size() == 0) {
+        return null;
+      }
+      LoggerCentral.info(LOGGER, "Gene Ontology loaded in memory: "
+          + dag.size() + " terms in "
+          + (System.currentTimeMillis() - time) + " ms");
+      _goDag = dag;
+    }
+    return _goDag;
+  }
+
   public String getEnzymePathIds(String id, boolean includeId) {
     DicoTerm term = null;
     try {
@@ -372,24 +504,21 @@ public class DicoTermQuerySystem {
   public String getTaxPath(String id, boolean simplified, boolean includeOrganism, boolean tagMissingRank) {
     StringBuffer ids = new StringBuffer();
 
-    OrderedMap taxonPath = getTaxPath(id, simplified, null);
+    TaxPath taxonPath = getTaxonPath(id, simplified);
 
     if (taxonPath != null) {
       TaxonomyRank[] taxRanks = TaxonomyRank.values();
       if (tagMissingRank) {
-        DicoTerm term;
-        term = (DicoTerm) taxonPath.firstKey();
-        TaxonomyRank rank = (TaxonomyRank) taxonPath.get(term);
+        int i = 0;
         for(TaxonomyRank taxRank : taxRanks) {
+          TaxonomyRank rank = i < taxonPath.size ? taxonPath.ranks[i] : null;
           if (rank != null && rank.getLevel()==taxRank.getLevel()) {
-            String termId = term.getId().substring(1);
+            String termId = String.valueOf(taxonPath.ids[i]);
             if (termId.equals(id) && !includeOrganism)
               break; // skip this id: the organism
             ids.append(rank.getLevelCode());
-            ids.append(this.storages.get(Dicos.NCBI_TAXONOMY)
-                .getTerm(DicoUtils.TAX_ID_NAME_PREFIX + termId).getDataField());
-            term = (DicoTerm) taxonPath.nextKey(term);
-            rank = (TaxonomyRank) taxonPath.get(term);
+            ids.append(getTaxName(taxonPath.ids[i]));
+            i++;
           }
           else {
             ids.append(taxRank.getLevelCode());
@@ -399,17 +528,13 @@ public class DicoTermQuerySystem {
         }
       }
       else {
-        for (Object o : taxonPath.keySet()) {
-          if (o instanceof DicoTerm) {
-            DicoTerm term = (DicoTerm) o;
-            String termId = term.getId().substring(1);
-            if (termId.equals(id) && !includeOrganism)
-              break; // skip this id: the organism
-            ids.append(((TaxonomyRank) taxonPath.get(term)).getLevelCode());
-            ids.append(this.storages.get(Dicos.NCBI_TAXONOMY)
-                .getTerm(DicoUtils.TAX_ID_NAME_PREFIX + termId).getDataField());
-            ids.append(";");
-          }
+        for (int i = 0; i < taxonPath.size; i++) {
+          String termId = String.valueOf(taxonPath.ids[i]);
+          if (termId.equals(id) && !includeOrganism)
+            break; // skip this id: the organism
+          ids.append(taxonPath.ranks[i].getLevelCode());
+          ids.append(getTaxName(taxonPath.ids[i]));
+          ids.append(";");
         }
       }
     }
@@ -437,19 +562,17 @@ public class DicoTermQuerySystem {
   public String getTaxPathIds(String id, boolean simplified, boolean includeOrganism) {
     StringBuffer ids = new StringBuffer();
 
-    OrderedMap taxonPath = getTaxPath(id, simplified, null);
+    TaxPath taxonPath = getTaxonPath(id, simplified);
 
     if (taxonPath != null) {
-      for (Object o : taxonPath.keySet()) {
-        if (o instanceof DicoTerm) {
-          DicoTerm term = (DicoTerm) o;
-          String termId = term.getId().substring(1);
-          if (termId.equals(id) && !includeOrganism)
-            break; // skip this id: the organism
-
-          ids.append(DicoUtils.TAX_ID_NAME_PREFIX + termId);
-          ids.append(";");
-        }
+      for (int i = 0; i < taxonPath.size; i++) {
+        String termId = String.valueOf(taxonPath.ids[i]);
+        if (termId.equals(id) && !includeOrganism)
+          break; // skip this id: the organism
+
+        ids.append(DicoUtils.TAX_ID_NAME_PREFIX);
+        ids.append(termId);
+        ids.append(";");
       }
     }
 
@@ -464,15 +587,12 @@ public class DicoTermQuerySystem {
    * Given a tax id we search its parent as given rank
    */
   public String getTaxIdForRank(String id, TaxonomyRank taxRank) {
-    OrderedMap taxonPath = getTaxPath(id, true, taxRank);
+    TaxPath taxonPath = getTaxonPath(id, true);
 
     if (taxonPath != null) {
-      for (Object o : taxonPath.keySet()) {
-        if (o instanceof DicoTerm) {
-          DicoTerm term = (DicoTerm) o;
-          if (taxonPath.get(term).equals(taxRank)) {
-            return term.getId().substring(1);
-          }
+      for (int i = 0; i < taxonPath.size; i++) {
+        if (taxonPath.ranks[i].equals(taxRank)) {
+          return String.valueOf(taxonPath.ids[i]);
         }
       }
     }
@@ -481,57 +601,171 @@ public class DicoTermQuerySystem {
   }
 
   /**
-   * Get a map of taxonomy DicoTerms associated with her TaxonomyRank
+   * Returns the NCBI Taxonomy tree loaded in memory. The tree is loaded from
+   * the taxonomy dictionary the first time this method is called. Returns null
+   * if the taxonomy is not available or cannot be loaded: in such a case,
+   * taxonomy queries are done using the dictionary index.
    */
-  @SuppressWarnings("unchecked")
-  private OrderedMap getTaxPath(String id, boolean simplified,
-      TaxonomyRank taxRank) {
-    OrderedMap taxonPath = new LinkedMap();
-    TaxonomyRank taxRankFound;
-    DicoTerm[] terms;
-    DicoTerm taxonTerm;
-    String dicoRankName;
+  public TaxonomyTree getTaxonomyTree() {
+    DicoStorageSystem storage;
+    TaxonomyTree tree;
+    long time;
 
-    // 1: get taxon term : keep ??????
-    taxonTerm = getTerm(Dicos.NCBI_TAXONOMY, id);
-    if (taxonTerm == null)
-      return null;
+    if (_taxTree != null) {
+      return _taxTree;
+    }
+    synchronized (_taxTreeLock) {
+      if (_taxTreeLoaded) {
+        return _taxTree;
+      }
+      _taxTreeLoaded = true;
+      storage = storages.get(Dicos.NCBI_TAXONOMY);
+      if (storage == null) {
+        return null;
+      }
+      time = System.currentTimeMillis();
+      try {
+        tree = TaxonomyTree.load(storage);
+      } catch (DicoStorageSystemException ex) {
+        LoggerCentral.warn(LOGGER, "Unable to load NCBI Taxonomy in memory: "
+            + ex.getMessage());
+        return null;
+      }
+      // index without any nodes, e.g. names only: keep querying it
+      if (tree.size() == 0) {
+        return null;
+      }
+      LoggerCentral.info(LOGGER, "NCBI Taxonomy loaded in memory: "
+          + tree.size() + " nodes in "
+          + (System.currentTimeMillis() - time) + " ms");
+      _taxTree = tree;
+    }
+    return _taxTree;
+  }
+
+  private DicoTerm getTaxonTerm(TaxonomyTree tree, String id) {
+    int taxId = tree.resolve(TaxonomyTree.parseTaxId(id));
 
-    // 2: get taxon term path; note we reuse taxonTerm instead of id (synonyms case)
-    terms = this.storages.get(Dicos.NCBI_TAXONOMY).getTerms(
-        DicoUtils.TAX_ID_NODE_PREFIX + taxonTerm.getId().substring(1), "o1");
-    if (terms == null || terms.length <= 1)// no result
+    if (taxId < 0) {
       return null;
+    }
+    return new DicoTerm(DicoUtils.TAX_ID_NAME_PREFIX + taxId,
+        tree.getName(taxId));
+  }
+
+  private String getTaxName(int taxId) {
+    TaxonomyTree tree = _taxTree;
+
+    if (tree != null) {
+      return tree.getName(taxId);
+    }
+    return this.storages.get(Dicos.NCBI_TAXONOMY)
+        .getTerm(DicoUtils.TAX_ID_NAME_PREFIX + taxId).getDataField();
+  }
+
+  /**
+   * Returns the TaxonomyRank matching a rank name, either using level names
+   * only or using synonyms too.
+   */
+  private static TaxonomyRank getTaxonomyRank(String rankName,
+      boolean onlyLevelName) {
+    TaxonomyRank[] ranks;
+
+    // rank names are few: avoid comparing them again and again
+    ranks = TAX_RANKS.get(rankName);
+    if (ranks == null) {
+      ranks = new TaxonomyRank[] {
+          TaxonomyRank.getTaxonomyRank(rankName, true),
+          TaxonomyRank.getTaxonomyRank(rankName, false) };
+      TAX_RANKS.put(rankName, ranks);
+    }
+    return ranks[onlyLevelName ? 0 : 1];
+  }
+
+  /**
+   * Get the taxonomic path of a taxon ID, from the root to the taxon, with
+   * the TaxonomyRank of each node.
+   */
+  private TaxPath getTaxonPath(String id, boolean simplified) {
+    TaxonomyTree tree;
+    TaxPath taxonPath;
+    TaxonomyRank taxRankFound;
+    String[] rankNames;
+    boolean[] removed;
+    int i, j, n;
+
+    tree = getTaxonomyTree();
+    taxonPath = new TaxPath();
+    if (tree != null) {
+      int taxId = tree.resolve(TaxonomyTree.parseTaxId(id));
+      if (taxId < 0)
+        return null;
+      taxonPath.ids = tree.getLineage(taxId);
+      if (taxonPath.ids == null || taxonPath.ids.length <= 1)// no result
+        return null;
+      rankNames = new String[taxonPath.ids.length];
+      for (i = 0; i < rankNames.length; i++) {
+        rankNames[i] = tree.getRank(taxonPath.ids[i]);
+      }
+    } else {
+      DicoTerm[] terms;
+      DicoTerm taxonTerm;
+
+      // 1: get taxon term : keep ??????
+      taxonTerm = getTerm(Dicos.NCBI_TAXONOMY, id);
+      if (taxonTerm == null)
+        return null;
+
+      // 2: get taxon term path; note we reuse taxonTerm instead of id (synonyms case)
+      terms = this.storages.get(Dicos.NCBI_TAXONOMY).getTerms(
+          DicoUtils.TAX_ID_NODE_PREFIX + taxonTerm.getId().substring(1), "o1");
+      if (terms == null || terms.length <= 1)// no result
+        return null;
+      taxonPath.ids = new int[terms.length];
+      rankNames = new String[terms.length];
+      for (i = 0; i < terms.length; i++) {
+        taxonPath.ids[i] = Integer.parseInt(terms[i].getId().substring(1));
+        rankNames[i] = getTaxRankFromDataField(terms[i].getDataField());
+      }
+    }
+    n = taxonPath.ids.length;
 
     // First pass : we search one term by taxonomy rank (level name)
-    for (DicoTerm term : terms) {
-      dicoRankName = getTaxRankFromDataField(term.getDataField());
-      taxRankFound = TaxonomyRank.getTaxonomyRank(dicoRankName, true);
-      taxonPath.put(term, taxRankFound);
+    taxonPath.ranks = new TaxonomyRank[n];
+    for (i = 0; i < n; i++) {
+      taxonPath.ranks[i] = getTaxonomyRank(rankNames[i], true);
     }
 
     // Second pass (only for simplified)
     if (simplified) {
-      for (DicoTerm term : terms) {
+      removed = new boolean[n];
+      for (i = 0; i < n; i++) {
 
         // already treated ?
-        if (taxonPath.get(term) != null)
+        if (taxonPath.ranks[i] != null)
           continue;
 
         // if simplified we search one term by taxonomy rank (synonym names)
-        dicoRankName = getTaxRankFromDataField(term.getDataField());
-        taxRankFound = TaxonomyRank.getTaxonomyRank(dicoRankName, false);
+        taxRankFound = getTaxonomyRank(rankNames[i], false);
 
-        if (taxRankFound != null && !taxonPath.containsValue(taxRankFound)) {
+        if (taxRankFound != null && !taxonPath.contains(taxRankFound)) {
           // added only if this taxonomic rank is not already present
-          taxonPath.put(term, taxRankFound);
+          taxonPath.ranks[i] = taxRankFound;
         } else {
           // if no taxonomic rank founded, we remove this term
-          taxonPath.remove(term);
+          removed[i] = true;
         }
-
       }
+      for (i = 0, j = 0; i < n; i++) {
+        if (!removed[i]) {
+          taxonPath.ids[j] = taxonPath.ids[i];
+          taxonPath.ranks[j] = taxonPath.ranks[i];
+          j++;
+        }
+      }
+      n = j;
     }
+    taxonPath.size = n;
 
     return taxonPath;
   }
@@ -577,7 +811,11 @@ public class DicoTermQuerySystem {
    * @return rank
    */
   public String getRealTaxRank(String id) {
+    TaxonomyTree tree = getTaxonomyTree();
     DicoTerm term;
+    if (tree != null) {
+      return tree.getRank(TaxonomyTree.parseTaxId(id));
+    }
     id = "o" + id;
     term = this.storages.get(Dicos.NCBI_TAXONOMY).getTerm(id);
     if (term == null) {
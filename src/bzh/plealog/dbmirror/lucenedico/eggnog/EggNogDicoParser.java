@@ -35,6 +35,7 @@ import bzh.plealog.dbmirror.lucenedico.DicoParsable;
 import bzh.plealog.dbmirror.lucenedico.DicoParserException;
 import bzh.plealog.dbmirror.lucenedico.DicoStorageSystem;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
+import bzh.plealog.dbmirror.util.log.JobContext;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
 
 /**
@@ -92,6 +93,7 @@ public class EggNogDicoParser implements DicoParsable {
       throw new DicoParserException("Unable to read members files");
     }
 
+    JobContext job = LoggerCentral.getJobContext();
     BufferedReader reader = null;
     String line = null;
     EggNogEntry currentEntry = null;
@@ -209,7 +211,7 @@ public class EggNogDicoParser implements DicoParsable {
               break;
             }
             // process aborted ?
-            if (LoggerCentral.processAborted()) {
+            if (job.isAborted()) {
               break;
             }
             previousEntry = currentEntry;
@@ -0,0 +1,397 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.lucenedico.go;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import bzh.plealog.dbmirror.lucenedico.DicoStorageSystem;
+import bzh.plealog.dbmirror.lucenedico.DicoStorageSystemException;
+import bzh.plealog.dbmirror.lucenedico.DicoTerm;
+
+/**
+ * This class is an in-memory copy of the Gene Ontology graph. It is loaded
+ * once from the Lucene dictionary index created by GeneOntologyOBONodeParser.
+ * Terms are identified by an integer index and their relationships are stored
+ * in arrays, so that walking through the graph does not require any query or
+ * deserialization.<br>
+ * <br>
+ * Paths from the roots of the graph to a term are the ones computed by
+ * GeneOntologyGenerateTree.createTree(id, storage, false). They are kept in a
+ * bounded cache, since the paths of a term are made of the ones of its
+ * fathers.<br>
+ * <br>
+ * This class is thread-safe.
+ *
+ * @author Patrick G. Durand
+ */
+public class GeneOntologyDag {
+
+  // ID of each node as stored in the index: GO ID or alternative GO ID
+  private String[]                        _keys;
+  // whether or not a node has been found in the index
+  private boolean[]                       _present;
+  // data of the term associated to a node
+  private String[]                        _termIds;
+  private String[]                        _names;
+  private String[]                        _ontologies;
+  private String[]                        _namesAndOntologies;
+  // relationships of node i are in [start[i], start[i+1]) ; each value is
+  // a node index and an edge type encoded as in paths
+  private int[]                           _fatherStart;
+  private int[]                           _fathers;
+  private int[]                           _sonStart;
+  private int[]                           _sons;
+  private HashMap<String, Integer>        _index;
+  private int                             _terms;
+
+  // paths of nodes, in access order
+  private LinkedHashMap<Integer, int[][]> _paths      = new LinkedHashMap<Integer, int[][]>(
+                                                          1024, 0.75f, true);
+  private long                            _pathsWeight;
+
+  // each path element is: node index << TYPE_BITS | edge type
+  private static final int                TYPE_BITS   = 3;
+  private static final int                TYPE_MASK   = (1 << TYPE_BITS) - 1;
+  private static final int                NO_TYPE     = TYPE_MASK;
+  private static final GeneOntologyTermRelationship.TYPE_EDGE[] TYPES
+                                                      = GeneOntologyTermRelationship.TYPE_EDGE.values();
+
+  // a valid path is never deeper than this value: used to detect cycles
+  private static final int                MAX_DEPTH   = 256;
+  // maximum number of path elements kept in the cache
+  private static final long               MAX_WEIGHT  = 4 * 1024 * 1024;
+  // cached value of nodes without any path
+  private static final int[][]            NO_PATH     = new int[0][];
+
+  private GeneOntologyDag() {
+  }
+
+  /**
+   * Loads the Gene Ontology graph from a dictionary storage system.
+   *
+   * @param storage
+   *          a storage system opened in read mode containing the Gene Ontology
+   *          terms
+   *
+   * @throws DicoStorageSystemException
+   *           if the storage system cannot be read
+   */
+  public static GeneOntologyDag load(DicoStorageSystem storage)
+      throws DicoStorageSystemException {
+    Loader loader = new Loader();
+
+    storage.forEachTerm(loader::addTerm);
+    return loader.getDag();
+  }
+
+  /**
+   * Returns the number of terms of this graph.
+   */
+  public int size() {
+    return _terms;
+  }
+
+  /**
+   * Returns the index of a node given its ID. Returns -1 if the ID is not a
+   * term of this graph.
+   */
+  public int getNodeIndex(String id) {
+    Integer idx = _index.get(id);
+
+    return idx != null && _present[idx] ? idx : -1;
+  }
+
+  /**
+   * Returns the ID of a node, i.e. the one used to query the dictionary.
+   */
+  public String getId(int node) {
+    return _keys[node];
+  }
+
+  /**
+   * Returns the name of the term associated to a node.
+   */
+  public String getName(int node) {
+    return _names[node];
+  }
+
+  /**
+   * Returns a term given its ID. Each call to this method returns a new
+   * object. Returns null if the ID is not a term of this graph.
+   */
+  public GeneOntologyTerm getTerm(String id) {
+    GeneOntologyTerm term;
+    int node;
+
+    node = getNodeIndex(id);
+    if (node == -1) {
+      return null;
+    }
+    term = new GeneOntologyTerm(_termIds[node], _names[node],
+        _ontologies[node]);
+    term.set_node_nameAndOntology(_namesAndOntologies[node]);
+    addRelationships(term.get_node_father(), _fathers, _fatherStart[node],
+        _fatherStart[node + 1]);
+    addRelationships(term.get_node_sons(), _sons, _sonStart[node],
+        _sonStart[node + 1]);
+    return term;
+  }
+
+  private void addRelationships(List<GeneOntologyTermRelationship> list,
+      int[] values, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (getType(values[i]) != null) {
+        list.add(new GeneOntologyTermRelationship(_keys[getNode(values[i])],
+            getType(values[i])));
+      } else {
+        list.add(new GeneOntologyTermRelationship(_keys[getNode(values[i])]));
+      }
+    }
+  }
+
+  /**
+   * Returns the node index of a path element.
+   */
+  public static int getNode(int element) {
+    return element >>> TYPE_BITS;
+  }
+
+  /**
+   * Returns the edge type of a path element, i.e. the type of the relationship
+   * between a term and the previous one within the path. The first element of
+   * a path is always of type K.
+   */
+  public static GeneOntologyTermRelationship.TYPE_EDGE getType(int element) {
+    int type = element & TYPE_MASK;
+
+    return type != NO_TYPE ? TYPES[type] : null;
+  }
+
+  private static int encode(int node, GeneOntologyTermRelationship.TYPE_EDGE type) {
+    return (node << TYPE_BITS) | (type != null ? type.ordinal() : NO_TYPE);
+  }
+
+  /**
+   * Returns all the paths going from a root of the graph to a term. Each path
+   * starts with a root and ends with the term; see getNode() and getType() to
+   * decode the path elements. Returned arrays are shared and must not be
+   * modified.<br>
+   * <br>
+   * Returns null if the term is unknown, or if one of its ancestors is not
+   * contained in the graph.
+   */
+  public int[][] getPaths(String id) {
+    int node = getNodeIndex(id);
+
+    return node != -1 ? getPaths(node, 0) : null;
+  }
+
+  private int[][] getPaths(int node, int depth) {
+    ArrayList<int[]> paths;
+    int[][] cached, fatherPaths;
+    int[] path;
+    int i;
+
+    synchronized (_paths) {
+      cached = _paths.get(node);
+    }
+    if (cached != null) {
+      return cached != NO_PATH ? cached : null;
+    }
+    if (depth == MAX_DEPTH) {
+      return null;
+    }
+    paths = new ArrayList<int[]>();
+    if (!_present[node]) {
+      paths = null;
+    } else if (_fatherStart[node] == _fatherStart[node + 1]) {
+      paths.add(new int[] { encode(node,
+          GeneOntologyTermRelationship.TYPE_EDGE.K) });
+    } else {
+      for (i = _fatherStart[node]; i < _fatherStart[node + 1]; i++) {
+        // see GeneOntologyGenerateTree: an edge without type is an error
+        fatherPaths = getType(_fathers[i]) != null ? getPaths(
+            getNode(_fathers[i]), depth + 1) : null;
+        if (fatherPaths == null) {
+          paths = null;
+          break;
+        }
+        for (int[] fatherPath : fatherPaths) {
+          path = Arrays.copyOf(fatherPath, fatherPath.length + 1);
+          path[fatherPath.length] = (node << TYPE_BITS)
+              | (_fathers[i] & TYPE_MASK);
+          paths.add(path);
+        }
+      }
+    }
+    cached = paths != null ? paths.toArray(new int[0][]) : NO_PATH;
+    putPaths(node, cached);
+    return paths != null ? cached : null;
+  }
+
+  private void putPaths(int node, int[][] paths) {
+    Iterator<Map.Entry<Integer, int[][]>> iter;
+    int[][] old;
+    long weight;
+
+    weight = getWeight(paths);
+    if (weight > MAX_WEIGHT) {
+      return;
+    }
+    synchronized (_paths) {
+      old = _paths.put(node, paths);
+      if (old != null) {
+        _pathsWeight -= getWeight(old);
+      }
+      _pathsWeight += weight;
+      iter = _paths.entrySet().iterator();
+      while (_pathsWeight > MAX_WEIGHT && iter.hasNext()) {
+        _pathsWeight -= getWeight(iter.next().getValue());
+        iter.remove();
+      }
+    }
+  }
+
+  private static long getWeight(int[][] paths) {
+    long weight = 1;
+
+    for (int[] path : paths) {
+      weight += path.length + 1;
+    }
+    return weight;
+  }
+
+  /**
+   * Builds a GeneOntologyDag from the terms of a dictionary.
+   */
+  private static class Loader {
+    private HashMap<String, Integer>    index   = new HashMap<String, Integer>();
+    private ArrayList<String>           keys    = new ArrayList<String>();
+    private ArrayList<GeneOntologyTerm> terms   = new ArrayList<GeneOntologyTerm>();
+    private int                         present = 0;
+
+    private int getIndex(String id) {
+      Integer idx = index.get(id);
+
+      if (idx == null) {
+        idx = keys.size();
+        index.put(id, idx);
+        keys.add(id);
+        terms.add(null);
+      }
+      return idx;
+    }
+
+    private void addTerm(DicoTerm term) {
+      int idx;
+
+      if (!(term.get_dataObject() instanceof GeneOntologyTerm)) {
+        return;
+      }
+      idx = getIndex(term.getId());
+      // same as querying the index: first term wins
+      if (terms.get(idx) == null) {
+        terms.set(idx, (GeneOntologyTerm) term.get_dataObject());
+        present++;
+      }
+    }
+
+    private int[] addRelationships(List<GeneOntologyTermRelationship> list,
+        int[] values, int[] size) {
+      if (list == null) {
+        return values;
+      }
+      for (GeneOntologyTermRelationship rel : list) {
+        if (size[0] == values.length) {
+          values = Arrays.copyOf(values, 2 * values.length);
+        }
+        values[size[0]++] = encode(getIndex(rel.get_id()),
+            rel.get_type_relation());
+      }
+      return values;
+    }
+
+    private GeneOntologyDag getDag() {
+      GeneOntologyDag dag;
+      GeneOntologyTerm term;
+      int[] fathers, sons, nFathers, nSons;
+      int i, n;
+
+      fathers = new int[1024];
+      sons = new int[1024];
+      nFathers = new int[1];
+      nSons = new int[1];
+      n = keys.size();
+      dag = new GeneOntologyDag();
+      dag._fatherStart = new int[n + 1];
+      dag._sonStart = new int[n + 1];
+      // relationships may add new nodes: arrays are resized afterwards
+      for (i = 0; i < n; i++) {
+        term = terms.get(i);
+        dag._fatherStart[i] = nFathers[0];
+        dag._sonStart[i] = nSons[0];
+        if (term != null) {
+          fathers = addRelationships(term.get_node_father(), fathers, nFathers);
+          sons = addRelationships(term.get_node_sons(), sons, nSons);
+        }
+      }
+      dag._fatherStart[n] = nFathers[0];
+      dag._sonStart[n] = nSons[0];
+      // nodes only known as relationships have none
+      n = keys.size();
+      dag._fatherStart = fill(dag._fatherStart, n + 1, nFathers[0]);
+      dag._sonStart = fill(dag._sonStart, n + 1, nSons[0]);
+      dag._fathers = Arrays.copyOf(fathers, nFathers[0]);
+      dag._sons = Arrays.copyOf(sons, nSons[0]);
+
+      dag._keys = keys.toArray(new String[0]);
+      dag._present = new boolean[n];
+      dag._termIds = new String[n];
+      dag._names = new String[n];
+      dag._ontologies = new String[n];
+      dag._namesAndOntologies = new String[n];
+      for (i = 0; i < n; i++) {
+        term = terms.get(i);
+        if (term == null) {
+          continue;
+        }
+        dag._present[i] = true;
+        dag._termIds[i] = term.get_node_id();
+        dag._names[i] = term.get_node_name();
+        dag._ontologies[i] = term.get_node_ontology();
+        dag._namesAndOntologies[i] = term.getFormatedNameAndOntology();
+      }
+      dag._index = index;
+      dag._terms = present;
+      return dag;
+    }
+
+    private static int[] fill(int[] start, int size, int value) {
+      int from = start.length;
+
+      start = Arrays.copyOf(start, size);
+      Arrays.fill(start, from, size, value);
+      return start;
+    }
+  }
+}
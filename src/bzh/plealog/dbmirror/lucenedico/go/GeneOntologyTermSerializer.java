@@ -0,0 +1,300 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.lucenedico.go;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import bzh.plealog.dbmirror.util.lucene.DefaultSerializer;
+import bzh.plealog.dbmirror.util.lucene.IObjectSerializer;
+
+/**
+ * Implementation of IObjectSerializer storing GeneOntologyTerm objects using
+ * a compact binary format. Any other object, as well as data written using
+ * the standard Java serialization (indexes created by previous releases), is
+ * handled by a DefaultSerializer.<br>
+ * <br>
+ * Format (version 1) is: magic byte, version byte, flags byte, term ID, name,
+ * ontology, name and ontology (only when it cannot be computed from name and
+ * ontology), then the fathers and the sons. A list of relationships is a
+ * number of relationships followed by, for each of them, an edge type and a
+ * term ID. Numbers are stored as variable-length integers. Term IDs formatted
+ * as GO:NNNNNNN are stored as numbers, other strings are stored as UTF-8 bytes.
+ *
+ * @author Patrick G. Durand
+ */
+public class GeneOntologyTermSerializer implements IObjectSerializer {
+
+  private IObjectSerializer   _fallback          = new DefaultSerializer();
+
+  // a Java serialization stream starts with 0xACED
+  private static final int    MAGIC              = 0x47;
+  private static final int    VERSION            = 1;
+
+  // name and ontology field is stored
+  private static final int    FLAG_NAME_AND_ONTO = 1;
+
+  // tags of strings
+  private static final int    TAG_NULL           = 0;
+  private static final int    TAG_GO_ID          = 1;
+  private static final int    TAG_STRING         = 2;
+
+  private static final String GO_PREFIX          = "GO:";
+  private static final int    GO_DIGITS          = 7;
+
+  private static final GeneOntologyTermRelationship.TYPE_EDGE[] TYPES
+                                                 = GeneOntologyTermRelationship.TYPE_EDGE.values();
+
+  /**
+   * Figures out whether or not some data have been written using the compact
+   * format.
+   */
+  public static boolean isCompact(byte[] data) {
+    return data != null && data.length > 2 && (data[0] & 0xFF) == MAGIC;
+  }
+
+  @Override
+  public <T> T readObject(byte[] result, Class<T> objectClass) throws Exception {
+    if (!isCompact(result)) {
+      return _fallback.readObject(result, objectClass);
+    }
+    return objectClass.cast(decode(result));
+  }
+
+  @Override
+  public <T> byte[] writeObject(Object result, Class<T> objectClass)
+      throws IOException {
+    GeneOntologyTerm term;
+
+    if (!(result instanceof GeneOntologyTerm)) {
+      return _fallback.writeObject(result, objectClass);
+    }
+    term = (GeneOntologyTerm) result;
+    // terms created without lists cannot be restored by decode()
+    if (term.get_node_father() == null || term.get_node_sons() == null) {
+      return _fallback.writeObject(result, objectClass);
+    }
+    return encode(term);
+  }
+
+  private byte[] encode(GeneOntologyTerm term) {
+    Writer out = new Writer();
+    String nameAndOnto;
+    int flags = 0;
+
+    nameAndOnto = term.getFormatedNameAndOntology();
+    if (nameAndOnto == null
+        || !nameAndOnto.equals(GeneOntologyOBONodeParser.prepareTerm(
+            term.get_node_name(), term.get_node_ontology()))) {
+      flags |= FLAG_NAME_AND_ONTO;
+    }
+    out.write(MAGIC);
+    out.write(VERSION);
+    out.write(flags);
+    out.writeId(term.get_node_id());
+    out.writeString(term.get_node_name());
+    out.writeString(term.get_node_ontology());
+    if ((flags & FLAG_NAME_AND_ONTO) != 0) {
+      out.writeString(nameAndOnto);
+    }
+    out.writeRelationships(term.get_node_father());
+    out.writeRelationships(term.get_node_sons());
+    return out.toByteArray();
+  }
+
+  private GeneOntologyTerm decode(byte[] data) throws IOException {
+    GeneOntologyTerm term;
+    Reader in;
+    String id, name, ontology;
+    int version, flags;
+
+    in = new Reader(data);
+    in.read();
+    version = in.read();
+    if (version != VERSION) {
+      throw new IOException("unsupported GO term format: " + version);
+    }
+    flags = in.read();
+    id = in.readId();
+    name = in.readString();
+    ontology = in.readString();
+    // constructor computes name and ontology field
+    term = new GeneOntologyTerm(id, name, ontology);
+    if ((flags & FLAG_NAME_AND_ONTO) != 0) {
+      term.set_node_nameAndOntology(in.readString());
+    }
+    in.readRelationships(term.get_node_father());
+    in.readRelationships(term.get_node_sons());
+    return term;
+  }
+
+  /**
+   * Returns the number of a GO:NNNNNNN ID or -1 if the ID is not formatted
+   * that way.
+   */
+  private static int getGoNumber(String id) {
+    int i, value = 0;
+    char ch;
+
+    if (id.length() != GO_PREFIX.length() + GO_DIGITS
+        || !id.startsWith(GO_PREFIX)) {
+      return -1;
+    }
+    for (i = GO_PREFIX.length(); i < id.length(); i++) {
+      ch = id.charAt(i);
+      if (ch < '0' || ch > '9') {
+        return -1;
+      }
+      value = 10 * value + (ch - '0');
+    }
+    return value;
+  }
+
+  private static class Writer extends ByteArrayOutputStream {
+    private Writer() {
+      super(128);
+    }
+
+    private void writeVarInt(int value) {
+      while ((value & ~0x7F) != 0) {
+        write((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      write(value);
+    }
+
+    private void writeString(String str) {
+      byte[] bytes;
+
+      if (str == null) {
+        writeVarInt(TAG_NULL);
+        return;
+      }
+      bytes = str.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(TAG_STRING + bytes.length);
+      write(bytes, 0, bytes.length);
+    }
+
+    private void writeId(String id) {
+      int number = id != null ? getGoNumber(id) : -1;
+
+      if (number == -1) {
+        writeString(id);
+      } else {
+        writeVarInt(TAG_GO_ID);
+        writeVarInt(number);
+      }
+    }
+
+    private void writeRelationships(List<GeneOntologyTermRelationship> list) {
+      writeVarInt(list.size());
+      for (GeneOntologyTermRelationship rel : list) {
+        // 0 when the relationship has no type
+        write(rel.get_type_relation() != null ? rel.get_type_relation()
+            .ordinal() + 1 : 0);
+        writeId(rel.get_id());
+      }
+    }
+  }
+
+  private static class Reader {
+    private byte[] buf;
+    private int    pos;
+
+    private Reader(byte[] buf) {
+      this.buf = buf;
+    }
+
+    private int read() throws IOException {
+      if (pos == buf.length) {
+        throw new IOException("truncated GO term");
+      }
+      return buf[pos++] & 0xFF;
+    }
+
+    private int readVarInt() throws IOException {
+      int b, shift = 0, value = 0;
+
+      do {
+        b = read();
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+
+    private String readString() throws IOException {
+      return readString(readVarInt());
+    }
+
+    private String readString(int tag) throws IOException {
+      String str;
+      int len;
+
+      if (tag == TAG_NULL) {
+        return null;
+      }
+      len = tag - TAG_STRING;
+      if (len < 0 || len > buf.length - pos) {
+        throw new IOException("truncated GO term");
+      }
+      str = new String(buf, pos, len, StandardCharsets.UTF_8);
+      pos += len;
+      return str;
+    }
+
+    private String readId() throws IOException {
+      StringBuilder id;
+      String number;
+      int tag;
+
+      tag = readVarInt();
+      if (tag != TAG_GO_ID) {
+        return readString(tag);
+      }
+      number = String.valueOf(readVarInt());
+      id = new StringBuilder(GO_PREFIX.length() + GO_DIGITS);
+      id.append(GO_PREFIX);
+      for (int i = number.length(); i < GO_DIGITS; i++) {
+        id.append('0');
+      }
+      id.append(number);
+      return id.toString();
+    }
+
+    private void readRelationships(List<GeneOntologyTermRelationship> list)
+        throws IOException {
+      int i, size, type;
+      String id;
+
+      size = readVarInt();
+      for (i = 0; i < size; i++) {
+        type = read();
+        id = readId();
+        if (type == 0) {
+          list.add(new GeneOntologyTermRelationship(id));
+        } else if (type <= TYPES.length) {
+          list.add(new GeneOntologyTermRelationship(id, TYPES[type - 1]));
+        } else {
+          throw new IOException("unknown GO edge type: " + type);
+        }
+      }
+    }
+  }
+}
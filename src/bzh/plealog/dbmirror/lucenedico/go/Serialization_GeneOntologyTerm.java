@@ -16,22 +16,20 @@
  */
 package bzh.plealog.dbmirror.lucenedico.go;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-
-import org.apache.commons.io.IOUtils;
 
 /**
- * Serialize/Deserialize an object to/from a byte array
+ * Serialize/Deserialize an object to/from a byte array. GeneOntologyTerm
+ * objects are written using the format of GeneOntologyTermSerializer; other
+ * objects and data written by previous releases use the standard Java
+ * serialization.
  * 
  * @author Patrick G. Durand
  */
 public class Serialization_GeneOntologyTerm {
 
+  private static final GeneOntologyTermSerializer SERIALIZER = new GeneOntologyTermSerializer();
+
   /**
    * Create a byte array from an object which implement the class Serializable
    * 
@@ -41,21 +39,10 @@ public class Serialization_GeneOntologyTerm {
    * @return the object contained in a byte array
    */
   public static byte[] serialize(Object ob) {
-    ByteArrayOutputStream out = null;
-    ObjectOutputStream oos = null;
-    byte[] data;
     try {
-      out = new ByteArrayOutputStream();
-      oos = new ObjectOutputStream(out);
-      oos.writeObject(ob);
-      data = out.toByteArray();
-      out.flush();
-      return data;
+      return SERIALIZER.writeObject(ob, Object.class);
     } catch (IOException ioe) {
       ioe.printStackTrace();
-    } finally {
-      IOUtils.closeQuietly(oos);
-      IOUtils.closeQuietly(out);
     }
     return null;
   }
@@ -69,23 +56,11 @@ public class Serialization_GeneOntologyTerm {
    * @return the object rebuilt
    */
   public static Object deserialize(byte[] ob) {
-    InputStream in = null;
-    ObjectInputStream ois = null;
     try {
-      in = new ByteArrayInputStream(ob);
-      ois = new ObjectInputStream(in);
-      Object o = ois.readObject();
-      return o;
-    } catch (IOException ioe) {
-      ioe.printStackTrace();
-    } catch (ClassNotFoundException e) {
+      return SERIALIZER.readObject(ob, Object.class);
+    } catch (Exception e) {
       e.printStackTrace();
-    } finally {
-      IOUtils.closeQuietly(in);
-      IOUtils.closeQuietly(ois);
     }
-
     return null;
-
   }
 }
@@ -16,15 +16,13 @@
  */
 package bzh.plealog.dbmirror.lucenedico.tax;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import bzh.plealog.dbmirror.indexer.ByteLineReader;
 import bzh.plealog.dbmirror.indexer.ParserMonitor;
 import bzh.plealog.dbmirror.lucenedico.DicoParsable;
 import bzh.plealog.dbmirror.lucenedico.DicoParserException;
@@ -52,6 +50,10 @@ public class NcbiTaxonomyTaxNamesParser implements DicoParsable {
   private boolean          _verbose;
   private ParserMonitor    _pMonitor;
 
+  // names.dmp lines not containing this are not decoded
+  private static final byte[] SCIENTIFIC_NAME = ByteLineReader
+                                                  .toBytes("scientific name");
+
   private static final Log LOGGER = LogFactory
                                       .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
                                           + ".NcbiTaxonomyTaxNamesParser");
@@ -115,25 +117,23 @@ public class NcbiTaxonomyTaxNamesParser implements DicoParsable {
 
   private void parseMerged(String file, DicoStorageSystem ss)
       throws DicoParserException {
-    BufferedReader reader = null;
-    String line;
+    ByteLineReader reader = null;
     String[] data;
     long curPos = 0;
-    int endOfLineSize, entries=0;
+    int entries=0;
 
     try {
-      endOfLineSize = Utils.getLineTerminatorSize(file);
-      reader = new BufferedReader(new InputStreamReader(new FileInputStream(
-          file), "UTF-8"));
+      reader = new ByteLineReader(file);
       data = new String[2];
       if (_pMonitor != null) {
         _pMonitor.startProcessingFile(file, new File(file).length());
       }
-      while ((line = reader.readLine()) != null) {
+      while (reader.nextLine()) {
         /*
          * if (_entries>5) break;
          */
-        splitMergedDataLine(line, data);
+        curPos = reader.getLinePos();
+        splitMergedDataLine(reader.getLine(), data);
         if (_pMonitor != null) {
           _pMonitor.seqFound(data[0], data[1], file, curPos, curPos, false);
         }
@@ -145,7 +145,6 @@ public class NcbiTaxonomyTaxNamesParser implements DicoParsable {
           ss.addEntry(data[0], data[1]);
           entries++;
         }
-        curPos += (long) (line.length() + endOfLineSize);
       }
 
     } catch (Exception e) {
@@ -169,26 +168,26 @@ public class NcbiTaxonomyTaxNamesParser implements DicoParsable {
   }
   private void parseNames(String file, DicoStorageSystem ss)
       throws DicoParserException {
-    BufferedReader reader = null;
-    String line;
+    ByteLineReader reader = null;
     String[] data;
     long curPos = 0;
-    int endOfLineSize;
 
     try {
-      endOfLineSize = Utils.getLineTerminatorSize(file);
       _entries = 0;
-      reader = new BufferedReader(new InputStreamReader(new FileInputStream(
-          file), "UTF-8"));
+      reader = new ByteLineReader(file);
       data = new String[4];
       if (_pMonitor != null) {
         _pMonitor.startProcessingFile(file, new File(file).length());
       }
-      while ((line = reader.readLine()) != null) {
+      while (reader.nextLine()) {
         /*
          * if (_entries>5) break;
          */
-        splitNamesDataLine(line, data);
+        if (!reader.contains(SCIENTIFIC_NAME)) {
+          continue;
+        }
+        curPos = reader.getLinePos();
+        splitNamesDataLine(reader.getLine(), data);
         if ("scientific name".equals(data[3])) {
           if (_pMonitor != null) {
             _pMonitor.seqFound(data[0], data[1], file, curPos, curPos, false);
@@ -209,7 +208,6 @@ public class NcbiTaxonomyTaxNamesParser implements DicoParsable {
                 + data[1]);
           }
         }
-        curPos += (long) (line.length() + endOfLineSize);
       }
 
     } catch (Exception e) {
@@ -16,22 +16,19 @@
  */
 package bzh.plealog.dbmirror.lucenedico.tax;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import bzh.plealog.dbmirror.indexer.ByteLineReader;
 import bzh.plealog.dbmirror.indexer.ParserMonitor;
 import bzh.plealog.dbmirror.lucenedico.DicoParsable;
 import bzh.plealog.dbmirror.lucenedico.DicoParserException;
 import bzh.plealog.dbmirror.lucenedico.DicoStorageSystem;
 import bzh.plealog.dbmirror.lucenedico.DicoStorageSystemException;
 import bzh.plealog.dbmirror.lucenedico.DicoUtils;
-import bzh.plealog.dbmirror.util.Utils;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
 
@@ -107,26 +104,23 @@ public class NcbiTaxonomyTaxNodesParser implements DicoParsable {
    */
   public void parse(String file, DicoStorageSystem ss)
       throws DicoParserException {
-    BufferedReader reader = null;
-    String line;
+    ByteLineReader reader = null;
     String[] data;
     long curPos = 0;
-    int endOfLineSize;
 
     try {
-      endOfLineSize = Utils.getLineTerminatorSize(file);
       _entries = 0;
-      reader = new BufferedReader(new InputStreamReader(new FileInputStream(
-          file), "UTF-8"));
+      reader = new ByteLineReader(file);
       data = new String[4];
       if (_pMonitor != null) {
         _pMonitor.startProcessingFile(file, new File(file).length());
       }
-      while ((line = reader.readLine()) != null) {
+      while (reader.nextLine()) {
         /*
          * if (_entries>5) break;
          */
-        splitDataLine(line, data);
+        curPos = reader.getLinePos();
+        splitDataLine(reader.getLine(), data);
         if (_pMonitor != null) {
           _pMonitor.seqFound(data[0], data[1], file, curPos, curPos, false);
         }
@@ -146,7 +140,6 @@ public class NcbiTaxonomyTaxNodesParser implements DicoParsable {
           System.out.println(_entries + ", current node: " + data[0] + ","
               + data[1]);
         }
-        curPos += (long) (line.length() + endOfLineSize);
       }
 
     } catch (Exception e) {
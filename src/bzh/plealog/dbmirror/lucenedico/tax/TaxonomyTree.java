@@ -0,0 +1,373 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.lucenedico.tax;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import bzh.plealog.dbmirror.lucenedico.DicoStorageSystem;
+import bzh.plealog.dbmirror.lucenedico.DicoStorageSystemException;
+import bzh.plealog.dbmirror.lucenedico.DicoTerm;
+import bzh.plealog.dbmirror.lucenedico.DicoUtils;
+
+/**
+ * This class is an in-memory copy of the NCBI Taxonomy tree. It is loaded
+ * once from the Lucene dictionary index created by NcbiTaxonomyTaxNamesParser
+ * and NcbiTaxonomyTaxNodesParser. All data are stored in arrays indexed by
+ * taxon ID: parent IDs, ranks and positions of scientific names within a
+ * single block of bytes. As a consequence, lineage and name queries do not
+ * create any objects but the returned ones.<br>
+ * <br>
+ * This class is immutable once loaded, so it can be queried by several
+ * threads at once.
+ *
+ * @author Patrick G. Durand
+ */
+public class TaxonomyTree {
+
+  // parent ID of each node ; 0 when the node does not exist
+  private int[]    _parents;
+  // rank of each node: index within _rankNames plus one ; 0 when unknown
+  private byte[]   _ranks;
+  private String[] _rankNames;
+  // position of each name within _names plus one ; 0 when no name
+  private int[]    _nameOffsets;
+  // names: length (two bytes) followed by UTF-8 bytes
+  private byte[]   _names;
+  // merged taxon IDs, sorted, and their replacement
+  private int[]    _mergedIds;
+  private int[]    _mergedTargets;
+  private int      _nodes;
+
+  /** ID of the root node of the NCBI Taxonomy */
+  public static final int ROOT_ID   = 1;
+
+  // a valid lineage is never deeper than this value: used to detect cycles
+  private static final int MAX_DEPTH = 1024;
+
+  private TaxonomyTree() {
+  }
+
+  /**
+   * Loads the taxonomy tree from a dictionary storage system.
+   *
+   * @param storage
+   *          a storage system opened in read mode containing both the names
+   *          and the nodes of the NCBI Taxonomy
+   *
+   * @throws DicoStorageSystemException
+   *           if the storage system cannot be read
+   */
+  public static TaxonomyTree load(DicoStorageSystem storage)
+      throws DicoStorageSystemException {
+    Loader loader = new Loader();
+
+    storage.forEachTerm(loader::addTerm);
+    return loader.getTree();
+  }
+
+  /**
+   * Returns the number of nodes of this tree.
+   */
+  public int size() {
+    return _nodes;
+  }
+
+  /**
+   * Returns the highest taxon ID known by this tree, either as a node or as a
+   * name.
+   */
+  public int getMaxTaxId() {
+    return _parents.length - 1;
+  }
+
+  /**
+   * Figures out whether or not a taxon ID is a node of this tree.
+   */
+  public boolean hasNode(int taxId) {
+    return taxId > 0 && taxId < _parents.length && _parents[taxId] != 0;
+  }
+
+  /**
+   * Returns the parent ID of a node. The root node is its own parent. Returns
+   * 0 if the node does not exist.
+   */
+  public int getParent(int taxId) {
+    return taxId > 0 && taxId < _parents.length ? _parents[taxId] : 0;
+  }
+
+  /**
+   * Returns the rank of a node as stored in NCBI Taxonomy, e.g. 'species' or
+   * 'no rank'. Returns null if the node does not exist.
+   */
+  public String getRank(int taxId) {
+    if (taxId <= 0 || taxId >= _ranks.length || _ranks[taxId] == 0) {
+      return null;
+    }
+    return _rankNames[(_ranks[taxId] & 0xFF) - 1];
+  }
+
+  /**
+   * Returns the scientific name of a taxon. Returns null if the taxon does not
+   * have any name. Merged taxon IDs are not resolved by this method: see
+   * resolve().
+   */
+  public String getName(int taxId) {
+    int pos, len;
+
+    if (taxId <= 0 || taxId >= _nameOffsets.length
+        || _nameOffsets[taxId] == 0) {
+      return null;
+    }
+    pos = _nameOffsets[taxId] - 1;
+    len = ((_names[pos] & 0xFF) << 8) | (_names[pos + 1] & 0xFF);
+    return new String(_names, pos + 2, len, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the taxon ID to use in place of a given one. This is the ID itself
+   * if it has a scientific name, the new ID if it has been merged within
+   * another taxon (see merged.dmp from NCBI Taxonomy) or -1 if the ID is
+   * unknown.
+   */
+  public int resolve(int taxId) {
+    int idx, target;
+
+    if (taxId <= 0) {
+      return -1;
+    }
+    if (taxId < _nameOffsets.length && _nameOffsets[taxId] != 0) {
+      return taxId;
+    }
+    idx = Arrays.binarySearch(_mergedIds, taxId);
+    if (idx < 0) {
+      return -1;
+    }
+    target = _mergedTargets[idx];
+    return target < _nameOffsets.length && _nameOffsets[target] != 0 ? target
+        : -1;
+  }
+
+  /**
+   * Returns the lineage of a node, from the root node to the node itself.
+   * Returns null if the node, or any of its ancestors, does not exist.
+   */
+  public int[] getLineage(int taxId) {
+    int[] path = new int[64];
+    int[] lineage;
+    int i, n = 0;
+
+    while (true) {
+      if (!hasNode(taxId) || n == MAX_DEPTH) {
+        return null;
+      }
+      if (n == path.length) {
+        path = Arrays.copyOf(path, 2 * n);
+      }
+      path[n++] = taxId;
+      if (taxId == ROOT_ID) {
+        break;
+      }
+      taxId = _parents[taxId];
+    }
+    lineage = new int[n];
+    for (i = 0; i < n; i++) {
+      lineage[i] = path[n - 1 - i];
+    }
+    return lineage;
+  }
+
+  /**
+   * Parses a taxon ID. Returns -1 if the string is not a taxon ID. As IDs are
+   * stored as strings in dictionaries, only plain numbers are accepted: no
+   * sign, no leading zero and no white space.
+   */
+  public static int parseTaxId(String id) {
+    long value = 0;
+    int i, size;
+    char ch;
+
+    size = id != null ? id.length() : 0;
+    if (size == 0 || size > 10 || (size > 1 && id.charAt(0) == '0')) {
+      return -1;
+    }
+    for (i = 0; i < size; i++) {
+      ch = id.charAt(i);
+      if (ch < '0' || ch > '9') {
+        return -1;
+      }
+      value = 10 * value + (ch - '0');
+    }
+    return value > Integer.MAX_VALUE ? -1 : (int) value;
+  }
+
+  /**
+   * Builds a TaxonomyTree from the terms of a dictionary.
+   */
+  private static class Loader {
+    private int[]                    parents     = new int[1 << 16];
+    private byte[]                   ranks       = new byte[1 << 16];
+    private int[]                    nameOffsets = new int[1 << 16];
+    private byte[]                   names       = new byte[1 << 20];
+    private int                      namesSize   = 0;
+    private long[]                   merged      = new long[1024];
+    private int                      mergedSize  = 0;
+    private int                      maxId       = 0;
+    private int                      nodes       = 0;
+    private ArrayList<String>        rankNames   = new ArrayList<String>();
+    private HashMap<String, Integer> rankIndex   = new HashMap<String, Integer>();
+
+    private void ensureCapacity(int taxId) {
+      int size;
+
+      maxId = Math.max(maxId, taxId);
+      if (taxId < parents.length) {
+        return;
+      }
+      size = parents.length;
+      while (size <= taxId) {
+        size += size >> 1;
+      }
+      parents = Arrays.copyOf(parents, size);
+      ranks = Arrays.copyOf(ranks, size);
+      nameOffsets = Arrays.copyOf(nameOffsets, size);
+    }
+
+    private int getRankIndex(String rank) {
+      Integer idx = rankIndex.get(rank);
+
+      if (idx == null) {
+        if (rankNames.size() == 255) {
+          throw new DicoStorageSystemException("too many taxonomic ranks");
+        }
+        rankNames.add(rank);
+        idx = rankNames.size();
+        rankIndex.put(rank, idx);
+      }
+      return idx;
+    }
+
+    private void addNode(int taxId, String data) {
+      String parent;
+      int idx, parentId;
+
+      // see NcbiTaxonomyTaxNodesParser: data is 'oParentID | rank'
+      idx = data.indexOf('|');
+      if (idx == -1) {
+        return;
+      }
+      parent = data.substring(0, idx).trim();
+      if (parent.startsWith(DicoUtils.TAX_ID_NODE_PREFIX)) {
+        parent = parent.substring(DicoUtils.TAX_ID_NODE_PREFIX.length());
+      }
+      parentId = parseTaxId(parent);
+      if (parentId <= 0) {
+        return;
+      }
+      ensureCapacity(taxId);
+      if (parents[taxId] == 0) {
+        nodes++;
+      }
+      parents[taxId] = parentId;
+      ranks[taxId] = (byte) getRankIndex(data.substring(idx + 1).trim());
+    }
+
+    private void addName(int taxId, String name) {
+      byte[] bytes;
+      int size;
+
+      if (name.startsWith(DicoTerm.SYNONYM)) {
+        addMerged(taxId,
+            parseTaxId(name.substring(DicoTerm.SYNONYM.length()
+                + DicoUtils.TAX_ID_NAME_PREFIX.length())));
+        return;
+      }
+      bytes = name.getBytes(StandardCharsets.UTF_8);
+      if (bytes.length > 0xFFFF) {
+        throw new DicoStorageSystemException("taxon name is too long: "
+            + taxId);
+      }
+      ensureCapacity(taxId);
+      if (namesSize + bytes.length + 2 > names.length) {
+        size = names.length;
+        while (size < namesSize + bytes.length + 2) {
+          size += size >> 1;
+        }
+        names = Arrays.copyOf(names, size);
+      }
+      nameOffsets[taxId] = namesSize + 1;
+      names[namesSize++] = (byte) (bytes.length >> 8);
+      names[namesSize++] = (byte) bytes.length;
+      System.arraycopy(bytes, 0, names, namesSize, bytes.length);
+      namesSize += bytes.length;
+    }
+
+    private void addMerged(int taxId, int targetId) {
+      if (targetId <= 0) {
+        return;
+      }
+      if (mergedSize == merged.length) {
+        merged = Arrays.copyOf(merged, 2 * mergedSize);
+      }
+      // IDs are positive: sorting packed values sorts by merged ID
+      merged[mergedSize++] = ((long) taxId << 32) | targetId;
+    }
+
+    private void addTerm(DicoTerm term) {
+      String id = term.getId(), data = term.getDataField();
+      int taxId;
+
+      if (data == null) {
+        return;
+      }
+      if (id.startsWith(DicoUtils.TAX_ID_NODE_PREFIX)) {
+        taxId = parseTaxId(id.substring(DicoUtils.TAX_ID_NODE_PREFIX.length()));
+        if (taxId > 0) {
+          addNode(taxId, data);
+        }
+      } else if (id.startsWith(DicoUtils.TAX_ID_NAME_PREFIX)) {
+        taxId = parseTaxId(id.substring(DicoUtils.TAX_ID_NAME_PREFIX.length()));
+        if (taxId > 0) {
+          addName(taxId, data);
+        }
+      }
+    }
+
+    private TaxonomyTree getTree() {
+      TaxonomyTree tree;
+      int i;
+
+      tree = new TaxonomyTree();
+      tree._parents = Arrays.copyOf(parents, maxId + 1);
+      tree._ranks = Arrays.copyOf(ranks, maxId + 1);
+      tree._nameOffsets = Arrays.copyOf(nameOffsets, maxId + 1);
+      tree._names = Arrays.copyOf(names, namesSize);
+      tree._rankNames = rankNames.toArray(new String[0]);
+      tree._nodes = nodes;
+      Arrays.sort(merged, 0, mergedSize);
+      tree._mergedIds = new int[mergedSize];
+      tree._mergedTargets = new int[mergedSize];
+      for (i = 0; i < mergedSize; i++) {
+        tree._mergedIds[i] = (int) (merged[i] >>> 32);
+        tree._mergedTargets[i] = (int) merged[i];
+      }
+      return tree;
+    }
+  }
+}
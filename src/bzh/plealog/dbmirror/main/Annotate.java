@@ -34,7 +34,11 @@ import bzh.plealog.dbmirror.ui.resources.DBMSMessages;
  * suitable to store full feature tables). Use zml to store BlastViewer native data format (suitable
  * to store feature tables data and Biological Classification data, see -incbc argument).
  * -incbc     figure out whether or not full Biological Classification data has to be included 
- * in resulting file. Use either true or false (default).
+ * in resulting file. Use either true or false (default).<br>
+ * -workers   number of threads used to annotate the queries contained in the Blast file. Use 0 to
+ * use all available processors. Default is 1.<br>
+ * -stream    figure out whether or not the Blast file is read and annotated by chunks of queries
+ * instead of being loaded entirely in memory. Use either true or false (default).
  * <br><br>
  * In addition, some parameters can be passed to the JVM for special configuration purposes:<br>
  * -DKL_HOME=an_absolute_path ; the absolute path to the DBMS installation home dir. If not set, use user.dir java property.
@@ -85,6 +89,16 @@ public class Annotate implements BdmToolApi {
         .hasArg()
         .withDescription( DBMSMessages.getString("Tool.Annotate.arg5.desc") )
         .create(PAnnotateBlastResult.include_bco);
+    Option workers = OptionBuilder
+        .withArgName( DBMSMessages.getString("Tool.Annotate.arg6.lbl") )
+        .hasArg()
+        .withDescription( DBMSMessages.getString("Tool.Annotate.arg6.desc") )
+        .create(PAnnotateBlastResult.workers);
+    Option stream = OptionBuilder
+        .withArgName( DBMSMessages.getString("Tool.Annotate.arg7.lbl") )
+        .hasArg()
+        .withDescription( DBMSMessages.getString("Tool.Annotate.arg7.desc") )
+        .create(PAnnotateBlastResult.stream);
 
     opts = new Options();
     opts.addOption(type);
@@ -92,6 +106,8 @@ public class Annotate implements BdmToolApi {
     opts.addOption(out);
     opts.addOption(format);
     opts.addOption(includeBC);
+    opts.addOption(workers);
+    opts.addOption(stream);
     CmdLineUtils.setConfDirOption(opts);
     return opts;
   }
@@ -101,7 +117,8 @@ public class Annotate implements BdmToolApi {
     PAnnotateBlastResult annotator;
     CommandLine cmdLine;
     String input, output, writer, type;
-    boolean includeBC=false;
+    boolean includeBC=false, streaming=false;
+    int workers=1;
     Options options;
     String toolName = DBMSMessages.getString("Tool.Annotate.name");
 
@@ -118,9 +135,18 @@ public class Annotate implements BdmToolApi {
     writer = cmdLine.getOptionValue(PAnnotateBlastResult.writer_type);
     type = cmdLine.getOptionValue(PAnnotateBlastResult.annot_type);
     includeBC = "true".equalsIgnoreCase(cmdLine.getOptionValue(PAnnotateBlastResult.include_bco));
+    streaming = "true".equalsIgnoreCase(cmdLine.getOptionValue(PAnnotateBlastResult.stream));
+    if (cmdLine.hasOption(PAnnotateBlastResult.workers)) {
+      try {
+        workers = Integer.valueOf(cmdLine.getOptionValue(PAnnotateBlastResult.workers).trim());
+      } catch (NumberFormatException e) {
+        System.err.println(DBMSMessages.getString("Tool.Annotate.err.msg1"));
+        return false;
+      }
+    }
 
     annotator = new PAnnotateBlastResult();
     
-    return annotator.annotate(input, output, writer, type, includeBC);
+    return annotator.annotate(input, output, writer, type, includeBC, workers, streaming);
   }
 }
@@ -0,0 +1,138 @@
+/*  Copyright (C) 2007-2023 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.main;
+
+import java.text.MessageFormat;
+import java.util.List;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+import bzh.plealog.dbmirror.indexer.LuceneUtils;
+import bzh.plealog.dbmirror.ui.resources.DBMSMessages;
+
+/**
+ * A utility tool to convert sequence bank indexes from the command-line.
+ * Command-line arguments are:<br>
+ *
+ * -i <index-path>: path to a sequence bank index (.ldx directory) or to a
+ * directory containing such indexes.<br>
+ * -t <type>: type of index to create: compact (default) or lucene.<br>
+ *
+ * In addition, some parameters can be passed to the JVM for special
+ * configuration purposes:<br>
+ * -DKL_HOME=an_absolute_path ; the absolute path to the KDMS installation home
+ * dir. If not set, use user.dir java property. -DKL_DEBUG=true ; if true, if
+ * set, log will be in debug mode<br>
+ * -DKL_WORKING_DIR=an_absolute_path ; if not set, log and working directories
+ * are set to java.io.tmp<br>
+ * -DKL_CONF_DIR=an_absolute_path ; the absolute path to a home-made conf directory.
+ * If not set, use ${user.dir}/conf.
+ * -DKL_LOG_FILE=a_file_name ; if set, creates a log file with that name within
+ * KL_WORKING_DIR<br>
+ * -DKL_LOG_TYPE=none|console|file(default)<br><br>
+ * <br>
+ *
+ * @author Patrick G. Durand
+ * */
+@BdmTool(command="convidx", description="convert sequence bank index(es) to compact or Lucene format")
+public class ConvertIndex implements BdmToolApi{
+
+  private static final String INDEX_ARG = "i";
+  private static final String TYPE_ARG = "t";
+
+  /**
+   * Setup the valid command-line of the application.
+   */
+  @SuppressWarnings("static-access")
+  private Options getCmdLineOptions() {
+    Options opts;
+
+    Option idx = OptionBuilder
+        .withArgName(DBMSMessages.getString("Tool.ConvertIndex.arg1.lbl"))
+        .hasArg()
+        .isRequired()
+        .withDescription(DBMSMessages.getString("Tool.ConvertIndex.arg1.desc"))
+        .create( INDEX_ARG );
+    Option type = OptionBuilder
+        .withArgName(DBMSMessages.getString("Tool.ConvertIndex.arg2.lbl"))
+        .hasArg()
+        .withDescription(DBMSMessages.getString("Tool.ConvertIndex.arg2.desc"))
+        .create( TYPE_ARG );
+
+    opts = new Options();
+    opts.addOption(idx);
+    opts.addOption(type);
+    CmdLineUtils.setConfDirOption(opts);
+    CmdLineUtils.setHelpOption(opts);
+    return opts;
+  }
+
+  @Override
+  public boolean execute(String[] args) {
+    CommandLine cmdLine;
+    List<String> indexes;
+    String type;
+    boolean bRet = true;
+
+    // Configure software
+    StarterUtils.configureApplication(
+        null,
+        DBMSMessages.getString("Tool.ConvertIndex.name"),
+        true, false, false);
+
+    // Handle command-line
+    cmdLine = CmdLineUtils.handleArguments(
+        args,
+        getCmdLineOptions(),
+        DBMSMessages.getString("Tool.ConvertIndex.name"));
+    if (cmdLine==null){
+      return false;
+    }
+
+    type = cmdLine.getOptionValue(TYPE_ARG, LuceneUtils.STORAGE_COMPACT);
+    if (!LuceneUtils.STORAGE_COMPACT.equalsIgnoreCase(type)
+        && !LuceneUtils.STORAGE_LUCENE.equalsIgnoreCase(type)){
+      String msg = new MessageFormat(DBMSMessages.getString("Tool.ConvertIndex.err.msg2")).format(
+          new Object[]{type});
+      System.err.println(msg);
+      return false;
+    }
+
+    // collectIndex() returns the path itself when it does not contain indexes
+    indexes = LuceneUtils.collectIndex(cmdLine.getOptionValue(INDEX_ARG));
+    for (String index : indexes){
+      if (LuceneUtils.getStorageType(index).equalsIgnoreCase(type)){
+        continue;
+      }
+      if (LuceneUtils.convertIndex(index, type)){
+        String msg = new MessageFormat(DBMSMessages.getString("Tool.ConvertIndex.info.msg1")).format(
+            new Object[]{index});
+        System.out.println(msg);
+      }
+      else{
+        String msg = new MessageFormat(DBMSMessages.getString("Tool.ConvertIndex.err.msg1")).format(
+            new Object[]{index});
+        System.err.println(msg);
+        bRet = false;
+      }
+    }
+    return bRet;
+  }
+}
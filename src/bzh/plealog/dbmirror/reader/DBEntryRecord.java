@@ -0,0 +1,115 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.reader;
+
+import org.biojava.bio.seq.Sequence;
+
+import bzh.plealog.bioinfo.data.sequence.IBankSequenceInfo;
+
+/**
+ * This class represents a database entry parsed once. It can then be used to
+ * retrieve the features located within several ranges of the sequence without
+ * reading the entry again. Use DBUtils.parseEntry() to create such an object.
+ *
+ * @author Patrick G. Durand
+ */
+public class DBEntryRecord {
+  private Sequence          _seq;
+  private IBankSequenceInfo _seqInfo;
+  private int               _format;
+  private boolean           _isProt;
+  private int               _size;
+  private volatile String   _residues;
+
+  /** Genbank, Genpept and EMBL entries */
+  public static final int   GENBANK_FORMAT = 0;
+  /** UniProt entries */
+  public static final int   UNIPROT_FORMAT = 1;
+  /** Fasta entries */
+  public static final int   FASTA_FORMAT   = 2;
+
+  DBEntryRecord(Sequence seq, IBankSequenceInfo seqInfo, int format,
+      boolean isProt) {
+    _seq = seq;
+    _seqInfo = seqInfo;
+    _format = format;
+    _isProt = isProt;
+  }
+
+  Sequence getBioSequence() {
+    return _seq;
+  }
+
+  String getResidues() {
+    // not synchronized: at worst, computed several times
+    if (_residues == null) {
+      _residues = _seq.seqString();
+    }
+    return _residues;
+  }
+
+  /**
+   * Returns the sequence information of this entry. The same object is
+   * returned by all sequences retrieved from this entry.
+   */
+  public IBankSequenceInfo getSeqInfo() {
+    return _seqInfo;
+  }
+
+  /**
+   * Returns one of the XXX_FORMAT constants.
+   */
+  public int getFormat() {
+    return _format;
+  }
+
+  /**
+   * Figures out whether or not this entry is a protein one.
+   */
+  public boolean isProteic() {
+    return _isProt;
+  }
+
+  /**
+   * Returns the size of the entry data, i.e. number of characters.
+   */
+  public int getSize() {
+    return _size;
+  }
+
+  void setSize(int size) {
+    _size = size;
+  }
+
+  /**
+   * Returns the sequence and the features located within a range. The result
+   * is the same as the one of the DBUtils.readXXXEntry() methods. Parameters
+   * start and stop are one-based sequence coordinates; when both equal zero,
+   * the entire feature table is returned.
+   *
+   * @param start
+   *          start coordinate. One-based value.
+   * @param stop
+   *          stop coordinate. One-based value.
+   * @param remap
+   *          if true then all original sequence coordinates will be transformed
+   *          by removing &apos;start-1&apos;.
+   */
+  public PSequence getSequence(int start, int stop, boolean remap) {
+    return DBUtils.getSequence(this, start, stop, remap);
+  }
+}
@@ -21,8 +21,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -60,6 +64,7 @@ import bzh.plealog.bioinfo.data.feature.IFeatureTable;
 import bzh.plealog.bioinfo.data.sequence.IBankSequenceInfo;
 import bzh.plealog.dbmirror.indexer.SwissProtParser;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
+import bzh.plealog.dbmirror.util.conf.DBMirrorConfig;
 import bzh.plealog.dbmirror.util.sequence.SeqIOUtils;
 
 /**
@@ -161,6 +166,116 @@ public class DBUtils {
     return output;
   }
 
+  /**
+   * Reads the content of a sequence database file and returns the corresponding
+   * entry as raw bytes. Unlike readDBEntry, this method relies on a positional
+   * read of the file channel and does not create any temporary file.
+   * 
+   * @param from
+   *          starting byte to start reading in the file
+   * @param to
+   *          ending byte to stop reading the file
+   * 
+   * @return a buffer ready to be read (position is zero, limit is the entry
+   *         size) or null if something wrong occured during file processing.
+   */
+  public static ByteBuffer readDBEntryBytes(String file, long from, long to) {
+    RandomAccessFile raf = null;
+    ByteBuffer buf;
+
+    try {
+      raf = new RandomAccessFile(file, "r");
+      buf = readDBEntryBytes(raf.getChannel(), from, to);
+    } catch (Exception e) {
+      LOGGER.warn("Unable to read DB entry: " + e + "(from=" + from + ", to="
+          + to + ", file=" + file + ")");
+      buf = null;
+    } finally {
+      IOUtils.closeQuietly(raf);
+    }
+    return buf;
+  }
+
+  /**
+   * Reads the content of an opened sequence database file and returns the
+   * corresponding entry as raw bytes. This method does not change the position
+   * of the channel, so it can be called to read several entries from the same
+   * file without closing it.
+   * 
+   * @param from
+   *          starting byte to start reading in the file
+   * @param to
+   *          ending byte to stop reading the file
+   * 
+   * @return a buffer ready to be read (position is zero, limit is the entry
+   *         size).
+   */
+  public static ByteBuffer readDBEntryBytes(FileChannel fc, long from, long to)
+      throws IOException {
+    ByteBuffer buf;
+    long size;
+
+    // last entry of a file may have its stop position set to the file size
+    size = Math.min(to, fc.size() - 1) - from + 1;
+    if (from < 0 || size <= 0 || size > Integer.MAX_VALUE) {
+      throw new IOException("invalid entry size: " + size);
+    }
+    buf = ByteBuffer.allocate((int) size);
+    while (buf.hasRemaining()) {
+      if (fc.read(buf, from + buf.position()) < 0) {
+        break;
+      }
+    }
+    buf.flip();
+    return buf;
+  }
+
+  /**
+   * Reads the content of a sequence database file and returns the corresponding
+   * entry as a UTF-8 decoded string. No temporary file is created.
+   * 
+   * @param from
+   *          starting byte to start reading in the file
+   * @param to
+   *          ending byte to stop reading the file
+   * 
+   * @return the entry or null if something wrong occured during file
+   *         processing.
+   */
+  public static String readDBEntryData(String file, long from, long to) {
+    return toEntryData(readDBEntryBytes(file, from, to));
+  }
+
+  /**
+   * Reads the content of an opened sequence database file and returns the
+   * corresponding entry as a UTF-8 decoded string.
+   * 
+   * @param from
+   *          starting byte to start reading in the file
+   * @param to
+   *          ending byte to stop reading the file
+   * 
+   * @return the entry or null if something wrong occured during file
+   *         processing.
+   */
+  public static String readDBEntryData(FileChannel fc, long from, long to) {
+    try {
+      return toEntryData(readDBEntryBytes(fc, from, to));
+    } catch (Exception e) {
+      LOGGER.warn("Unable to read DB entry: " + e + "(from=" + from + ", to="
+          + to + ")");
+      return null;
+    }
+  }
+
+  private static String toEntryData(ByteBuffer buf) {
+    if (buf == null) {
+      return null;
+    }
+    return new String(buf.array(), buf.position(), buf.remaining(),
+        StandardCharsets.UTF_8);
+  }
+
   /**
    * Utility method used by analyseFeatureLocation.
    */
@@ -1158,71 +1273,60 @@ public class DBUtils {
     return ft;
   }
 
-  private static PSequence readGenbankLikeEntry(BufferedReader reader,
-      int start, int stop, boolean remap, boolean isProt) throws Exception {
+  private static DBEntryRecord parseGenbankLikeEntry(BufferedReader reader,
+      boolean isProt) throws Exception {
     Sequence seq;
-    IBankSequenceInfo si;
-    FeatureTable ft;
 
     // read the Genbank/Genpept File
     if (isProt)
       seq = SeqIOTools.readGenpept(reader).nextSequence();
     else
       seq = SeqIOTools.readGenbank(reader).nextSequence();
-    // get sequence info
-    si = returnGBSeqInfo(seq, isProt);
-    // get feature table
-    ft = returnGBFeatureTable(seq, si.getId(), start, stop, remap);
-    return new PSequence(si, ft, cutSequence(seq.seqString(), start - 1,
-        stop - 1), isProt ? PSequence.PROTEIC_TYPE : PSequence.NUCLEIC_TYPE);
+    return new DBEntryRecord(seq, returnGBSeqInfo(seq, isProt),
+        DBEntryRecord.GENBANK_FORMAT, isProt);
   }
 
-  private static PSequence readEmblEntry(BufferedReader reader, int start,
-      int stop, boolean remap) throws Exception {
+  private static DBEntryRecord parseEmblEntry(BufferedReader reader)
+      throws Exception {
     Sequence seq;
-    IBankSequenceInfo si;
-    FeatureTable ft;
 
     // read the Embl File
     seq = SeqIOTools.readEmbl(reader).nextSequence();
-    // get sequence info
-    si = returnUPSeqInfo(seq, true);
-    // get feature table
-    ft = returnGBFeatureTable(seq, si.getId(), start, stop, remap);
-    return new PSequence(si, ft, cutSequence(seq.seqString(), start - 1,
-        stop - 1), PSequence.NUCLEIC_TYPE);
+    return new DBEntryRecord(seq, returnUPSeqInfo(seq, true),
+        DBEntryRecord.GENBANK_FORMAT, false);
   }
 
-  private static PSequence loadFastaEntry(File file, int fType, int start,
-      int stop, boolean remap) throws Exception {
+  private static DBEntryRecord parseUniProtEntry(BufferedReader reader)
+      throws Exception {
+    Sequence seq;
+
+    // read the Uniprot File
+    seq = SeqIOTools.readSwissprot(reader).nextSequence();
+    return new DBEntryRecord(seq, returnUPSeqInfo(seq, false),
+        DBEntryRecord.UNIPROT_FORMAT, true);
+  }
+
+  private static DBEntryRecord parseFastaEntry(BufferedReader reader, int fType)
+      throws Exception {
     Sequence seq = null;
     IBankSequenceInfo si;
-    PSequence kls;
     boolean isProt = false;
-    BufferedReader reader = null;
     String date;
     int iDate;
 
-    try {
-      reader = new BufferedReader(new FileReader(file));
-      switch (fType) {
-        case SeqIOUtils.FASTADNA:
-          seq = SeqIOTools.readFastaDNA(reader).nextSequence();
-          break;
-        case SeqIOUtils.FASTARNA:
-          seq = SeqIOTools.readFastaRNA(reader).nextSequence();
-          break;
-        case SeqIOUtils.FASTAPROT:
-          seq = SeqIOTools.readFastaProtein(reader).nextSequence();
-          isProt = true;
-          break;
-      }
-    } catch (Exception e1) {
-      LOGGER.warn("Unable to open fasta file: " + file.getAbsolutePath() + ": "
-          + e1.getMessage());
-      return null;
-    } finally {
-      IOUtils.closeQuietly(reader);
+    switch (fType) {
+      case SeqIOUtils.FASTADNA:
+        seq = SeqIOTools.readFastaDNA(reader).nextSequence();
+        break;
+      case SeqIOUtils.FASTARNA:
+        seq = SeqIOTools.readFastaRNA(reader).nextSequence();
+        break;
+      case SeqIOUtils.FASTAPROT:
+        seq = SeqIOTools.readFastaProtein(reader).nextSequence();
+        isProt = true;
+        break;
+      default:
+        throw new Exception("not a Fasta file");
     }
     date = getDateFormatter().format(new Date());
     iDate = Integer.valueOf(date);
@@ -1239,28 +1343,124 @@ public class DBUtils {
     si.setOrganism("?");
     si.setTaxonomy("?");
     si.setSequenceSize(seq.length());
-    kls = new PSequence(cutSequence(seq.seqString(), start - 1, stop - 1),
-        isProt ? PSequence.PROTEIC_TYPE : PSequence.NUCLEIC_TYPE);
-    kls.setFeatTable(new IFeatureTable());// added to avoid problem when dumping
-                                          // XML Data
-    kls.setSeqInfo(si);
-    return kls;
+    return new DBEntryRecord(seq, si, DBEntryRecord.FASTA_FORMAT, isProt);
   }
 
-  public static PSequence readUniProtEntry(BufferedReader reader, int start,
-      int stop, boolean remap) throws Exception {
-    Sequence seq;
+  /**
+   * Implementation of DBEntryRecord.getSequence().
+   */
+  static PSequence getSequence(DBEntryRecord record, int start, int stop,
+      boolean remap) {
     IBankSequenceInfo si;
     FeatureTable ft;
+    PSequence kls;
+    String residues;
+    int type;
+
+    si = record.getSeqInfo();
+    residues = cutSequence(record.getResidues(), start - 1, stop - 1);
+    type = record.isProteic() ? PSequence.PROTEIC_TYPE : PSequence.NUCLEIC_TYPE;
+    switch (record.getFormat()) {
+      case DBEntryRecord.GENBANK_FORMAT:
+        ft = returnGBFeatureTable(record.getBioSequence(), si.getId(), start,
+            stop, remap);
+        break;
+      case DBEntryRecord.UNIPROT_FORMAT:
+        ft = returnUPFeatureTable(record.getBioSequence(), si.getId(), start,
+            stop, remap);
+        break;
+      default:
+        kls = new PSequence(residues, type);
+        kls.setFeatTable(new IFeatureTable());// added to avoid problem when
+                                              // dumping XML Data
+        kls.setSeqInfo(si);
+        return kls;
+    }
+    return new PSequence(si, ft, residues, type);
+  }
 
-    // read the Uniprot File
-    seq = SeqIOTools.readSwissprot(reader).nextSequence();
-    // get sequence info
-    si = returnUPSeqInfo(seq, false);
-    // get feature table
-    ft = returnUPFeatureTable(seq, si.getId(), start, stop, remap);
-    return new PSequence(si, ft, cutSequence(seq.seqString(), start - 1,
-        stop - 1), PSequence.PROTEIC_TYPE);
+  private static PSequence readGenbankLikeEntry(BufferedReader reader,
+      int start, int stop, boolean remap, boolean isProt) throws Exception {
+    return parseGenbankLikeEntry(reader, isProt).getSequence(start, stop,
+        remap);
+  }
+
+  private static PSequence readEmblEntry(BufferedReader reader, int start,
+      int stop, boolean remap) throws Exception {
+    return parseEmblEntry(reader).getSequence(start, stop, remap);
+  }
+
+  private static PSequence loadFastaEntry(BufferedReader reader, int fType,
+      int start, int stop, boolean remap) throws Exception {
+    return parseFastaEntry(reader, fType).getSequence(start, stop, remap);
+  }
+
+  public static PSequence readUniProtEntry(BufferedReader reader, int start,
+      int stop, boolean remap) throws Exception {
+    return parseUniProtEntry(reader).getSequence(start, stop, remap);
+  }
+
+  /**
+   * Parses a database entry once so that features located within several
+   * ranges can be retrieved using DBEntryRecord.getSequence().
+   * 
+   * @param data
+   *          a string containing a full entry.
+   * @param reader
+   *          one of the DBMirrorConfig.XXX_READER constants identifying the
+   *          format of the entry.
+   * 
+   * @return a record or null if the entry cannot be read.
+   */
+  public static DBEntryRecord parseEntry(String data, String reader) {
+    EntryParser parser = getEntryParser(reader);
+    DBEntryRecord record;
+    BufferedReader br = null;
+
+    if (parser == null)
+      return null;
+    try {
+      br = new BufferedReader(new StringReader(data));
+      record = parser.parse(br, data);
+      record.setSize(data.length());
+    } catch (Exception ex) {
+      LOGGER.warn("unable to read " + reader + " data: " + ex);
+      record = null;
+    } finally {
+      IOUtils.closeQuietly(br);
+    }
+    return record;
+  }
+
+  /**
+   * Parser of a database entry.
+   */
+  private interface EntryParser {
+    DBEntryRecord parse(BufferedReader reader, String data) throws Exception;
+  }
+
+  /**
+   * Returns the parser of the entries of a given format, or null if that
+   * format is not supported.
+   * 
+   * @param reader
+   *          one of the DBMirrorConfig.XXX_READER constants.
+   */
+  private static EntryParser getEntryParser(String reader) {
+    if (DBMirrorConfig.GB_READER.equals(reader))
+      return (br, data) -> parseGenbankLikeEntry(br, false);
+    else if (DBMirrorConfig.GP_READER.equals(reader))
+      return (br, data) -> parseGenbankLikeEntry(br, true);
+    else if (DBMirrorConfig.EM_READER.equals(reader))
+      return (br, data) -> parseEmblEntry(br);
+    else if (DBMirrorConfig.UP_READER.equals(reader))
+      return (br, data) -> parseUniProtEntry(br);
+    else if (DBMirrorConfig.BLASTP_READER.equals(reader)
+        || DBMirrorConfig.BLASTN_READER.equals(reader))
+      return (br, data) -> parseFastaEntry(br,
+          SeqIOUtils.guessFastaDataFormat(data));
+    else
+      return null;
   }
 
   /**
@@ -1560,26 +1760,52 @@ public class DBUtils {
   public static PSequence readFastaEntry(File file, int start, int stop,
       boolean remap) {
     PSequence seq;
-    int fType;
+    BufferedReader reader = null;
     try {
-      fType = SeqIOUtils.guessFileFormat(file.getAbsolutePath());
-      switch (fType) {
-        case SeqIOUtils.FASTADNA:
-          seq = loadFastaEntry(file, fType, start, stop, remap);
-          break;
-        case SeqIOUtils.FASTARNA:
-          seq = loadFastaEntry(file, fType, start, stop, remap);
-          break;
-        case SeqIOUtils.FASTAPROT:
-          seq = loadFastaEntry(file, fType, start, stop, remap);
-          break;
-        default:
-          throw new Exception("not a Fasta file");
-      }
+      reader = new BufferedReader(new FileReader(file));
+      seq = loadFastaEntry(reader,
+          SeqIOUtils.guessFileFormat(file.getAbsolutePath()), start, stop,
+          remap);
     } catch (Exception ex) {
       LOGGER.warn("unable to read Fasta file: " + file.getAbsolutePath() + ": "
           + ex);
       seq = null;
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+    return seq;
+  }
+
+  /**
+   * Reads a Fasta entry. Parameters start and stop are sequence coordinates
+   * (one- based values) defining the range from where to retrieve the features.
+   * When both start and stop equal zero, the entire feature table will be
+   * retrieved. If data contains more than one sequence, only the first one is
+   * returned.
+   * 
+   * @param data
+   *          a string containing a full Fasta entry.
+   * @param start
+   *          start coordinate. One-based value.
+   * @param stop
+   *          stop coordinate. One-based value.
+   * @param remap
+   *          if true then all original sequence coordinates will be transformed
+   *          by removing &apos;start-1&apos;.
+   */
+  public static PSequence readFastaEntry(String data, int start, int stop,
+      boolean remap) {
+    PSequence seq;
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new StringReader(data));
+      seq = loadFastaEntry(reader, SeqIOUtils.guessFastaDataFormat(data),
+          start, stop, remap);
+    } catch (Exception ex) {
+      LOGGER.warn("unable to read Fasta data: " + ex);
+      seq = null;
+    } finally {
+      IOUtils.closeQuietly(reader);
     }
     return seq;
   }
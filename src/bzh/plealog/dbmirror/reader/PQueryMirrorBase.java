@@ -21,15 +21,22 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URLDecoder;
-import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -37,6 +44,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -82,6 +90,14 @@ public class PQueryMirrorBase {
   public static final String       FOMRATKEY = "format";
 
   private static final String UNK = "unknown";
+
+  // max number of IDs resolved at once when reading a file of IDs
+  private static final int    ID_BATCH_SIZE = 50000;
+
+  // sort entries by data file, then by location within data file
+  private static final Comparator<Map.Entry<String, DBEntry>> ENTRY_LOCATION_COMPARATOR = 
+      Comparator.comparing((Map.Entry<String, DBEntry> e) -> e.getValue().getFName())
+        .thenComparingLong(e -> e.getValue().getStart());
   
   protected static HashSet<String> KEYS      = new HashSet<String>();
 
@@ -171,27 +187,18 @@ public class PQueryMirrorBase {
     return getValuesFromString(getVar);
   }
 
-  private String loadEntry(File fEntry) {
-    StringBuffer buf;
-    BufferedReader reader = null;
-    String line;
-    buf = new StringBuffer();
-
-    try {
-      reader = new BufferedReader(new InputStreamReader(new FileInputStream(
-          fEntry), "UTF-8"));
-      while ((line = reader.readLine()) != null) {
-        buf.append(line);
-        buf.append("\n");
-      }
-      line = buf.toString();
-    } catch (Exception ex) {
-      LOGGER.debug("unable to read file: " + fEntry);
-      line = null;
-    } finally {
-      IOUtils.closeQuietly(reader);
+  /**
+   * Prepares an entry to be dumped as text: line terminators are normalized to
+   * '\n' and the entry always ends with a line terminator.
+   */
+  private String prepareTextEntry(String entry) {
+    if (entry.indexOf('\r') != -1) {
+      entry = entry.replace("\r\n", "\n").replace('\r', '\n');
+    }
+    if (!entry.endsWith("\n")) {
+      entry += "\n";
     }
-    return line;
+    return entry;
   }
 
   private void dumpDicoData(Dicos dico, StringTokenizer tokenizer, DicoTermQuerySystem dicoConnector, 
@@ -299,20 +306,37 @@ public class PQueryMirrorBase {
     return reader;
   }
 
+  /**
+   * Resolves a set of IDs using a single pass over each index.
+   */
+  private Map<String, DBEntry> getEntries(String mirrorPath,
+      List<String> idxNames, Collection<String> ids) {
+    if (mirrorPath != null)
+      return LuceneUtils.getEntries(mirrorPath, ids);
+    else
+      return LuceneUtils.getEntries(idxNames, ids);
+  }
+
   private PSequence[] handleMultipleID(PFormatter formatter,
       String mirrorPath, List<String> idxNames, String ids,
       String dbName, String dbKey) {
     StringTokenizer tokenizer;
-    String id;
+    ArrayList<String> idList;
     ArrayList<PSequence> results;
+    Map<String, DBEntry> entries;
     PSequence res;
 
-    results = new ArrayList<PSequence>();
+    idList = new ArrayList<String>();
     tokenizer = new StringTokenizer(ids, ",");
     while (tokenizer.hasMoreTokens()) {
-      id = tokenizer.nextToken().trim();
-      res = handleSingleID(formatter, mirrorPath, idxNames, id,
-          dbName, dbKey, 0, 0, false);
+      idList.add(tokenizer.nextToken().trim());
+    }
+    entries = getEntries(mirrorPath, idxNames, idList);
+    // results are reported using the order of the provided IDs
+    results = new ArrayList<PSequence>();
+    for (String id : idList) {
+      res = handleEntry(formatter, entries.get(id), null, id, dbName, dbKey,
+          0, 0, false);
       if (res != null)
         results.add(res);
       else
@@ -321,101 +345,199 @@ public class PQueryMirrorBase {
     return results.toArray(new PSequence[0]);
   }
 
+  /**
+   * Handles a batch of IDs. Entries are read grouped by data file, in file
+   * offset order, and formatted in a temporary file. Results are then reported
+   * using the order of the IDs, duplicates included.
+   */
+  private void handleIDBatch(PFormatter formatter, String mirrorPath,
+      List<String> idxNames, List<String> ids, String dbName,
+      String dbKey) {
+    ArrayList<Map.Entry<String, DBEntry>> sortedEntries;
+    HashMap<String, FormattedEntry> formatted;
+    Map<String, DBEntry> entries;
+    Writer outWriter, errWriter;
+    StringWriter out, err;
+    RandomAccessFile raf = null, tmp = null;
+    File tmpFile = null;
+    String curFile = null;
+    FormattedEntry fEntry;
+    byte[] data;
+
+    entries = getEntries(mirrorPath, idxNames, ids);
+    sortedEntries = new ArrayList<Map.Entry<String, DBEntry>>(
+        entries.entrySet());
+    sortedEntries.sort(ENTRY_LOCATION_COMPARATOR);
+    formatted = new HashMap<String, FormattedEntry>();
+    outWriter = formatter.getOutWriter();
+    errWriter = formatter.getErrWriter();
+    try {
+      tmpFile = File.createTempFile("bdmquery", ".txt");
+      tmp = new RandomAccessFile(tmpFile, "rw");
+      // read and format each entry once, following data file order
+      for (Map.Entry<String, DBEntry> entry : sortedEntries) {
+        if (!entry.getValue().getFName().equals(curFile)) {
+          IOUtils.closeQuietly(raf);
+          curFile = entry.getValue().getFName();
+          try {
+            raf = new RandomAccessFile(curFile, "r");
+          } catch (FileNotFoundException e) {
+            LOGGER.warn("unable to open: " + curFile + ": " + e);
+            raf = null;
+          }
+        }
+        out = new StringWriter();
+        err = new StringWriter();
+        formatter.setOutWriter(outWriter != null ? out : null);
+        formatter.setErrWriter(errWriter != null ? err : null);
+        handleEntry(formatter, entry.getValue(),
+            raf != null ? raf.getChannel() : null, entry.getKey(), dbName,
+            dbKey, 0, 0, false);
+        data = out.toString().getBytes(StandardCharsets.UTF_8);
+        fEntry = new FormattedEntry(tmp.getFilePointer(), data.length,
+            err.toString());
+        tmp.write(data);
+        formatted.put(entry.getKey(), fEntry);
+      }
+      formatter.setOutWriter(outWriter);
+      formatter.setErrWriter(errWriter);
+      // report results using the order of the IDs
+      for (String id : ids) {
+        fEntry = formatted.get(id);
+        if (fEntry == null) {
+          handleEntry(formatter, null, null, id, dbName, dbKey, 0, 0, false);
+          continue;
+        }
+        if (outWriter != null && fEntry.length != 0) {
+          data = new byte[fEntry.length];
+          tmp.seek(fEntry.offset);
+          tmp.readFully(data);
+          outWriter.write(new String(data, StandardCharsets.UTF_8));
+        }
+        if (errWriter != null && fEntry.error.length() != 0) {
+          errWriter.write(fEntry.error);
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.warn("unable to handle IDs: " + e);
+    } finally {
+      formatter.setOutWriter(outWriter);
+      formatter.setErrWriter(errWriter);
+      IOUtils.closeQuietly(raf);
+      IOUtils.closeQuietly(tmp);
+      FileUtils.deleteQuietly(tmpFile);
+    }
+  }
+
+  /**
+   * Location of a formatted entry in the temporary file of a batch of IDs.
+   */
+  private static class FormattedEntry {
+    private long   offset;
+    private int    length;
+    private String error;
+
+    private FormattedEntry(long offset, int length, String error) {
+      this.offset = offset;
+      this.length = length;
+      this.error = error;
+    }
+  }
+
   private void handleMultipleID(PFormatter formatter,
       String mirrorPath, List<String> idxNames, File foIDs, 
       String dbName, String dbKey) {
+    ArrayList<String> ids;
+    BufferedReader reader = null;
+    String line;
+
+    // IDs are handled by batches to keep memory usage under control
+    // with very large lists of IDs
+    ids = new ArrayList<String>();
     try {
-      Files.lines(foIDs.toPath())
-        .forEach(a -> handleSingleID(formatter, mirrorPath, idxNames, a.trim(),
-            dbName, dbKey, 0, 0, false));
+      reader = new BufferedReader(new FileReader(foIDs));
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0)
+          continue;
+        ids.add(line);
+        if (ids.size() == ID_BATCH_SIZE) {
+          handleIDBatch(formatter, mirrorPath, idxNames, ids, dbName, dbKey);
+          ids.clear();
+        }
+      }
+      if (!ids.isEmpty()) {
+        handleIDBatch(formatter, mirrorPath, idxNames, ids, dbName, dbKey);
+      }
     } catch (IOException e) {
       LOGGER.warn("unable to read: " +foIDs+ ": " + e);
+    } finally {
+      IOUtils.closeQuietly(reader);
     }
-
   }
+
   private PSequence handleSingleID(PFormatter formatter,
       String mirrorPath, List<String> idxNames, String id,
       String dbName, String dbKey, int start, int stop, boolean adjust) {
-    PSequence seq = null;
     DBEntry entry;
-    File dbFile;
-    String strEntry, reader;
-    boolean bOk = false;
 
     if (mirrorPath != null)
       entry = LuceneUtils.getEntry(mirrorPath, id);
     else
       entry = LuceneUtils.getEntry(idxNames, id);
+    return handleEntry(formatter, entry, null, id, dbName, dbKey, start, stop,
+        adjust);
+  }
+
+  /**
+   * Reads and dumps a database entry.
+   * 
+   * @param entry
+   *          the entry to handle. If null, an error is reported.
+   * @param fc
+   *          the channel opened on the entry data file. If null, the data file
+   *          is opened to read the entry.
+   */
+  private PSequence handleEntry(PFormatter formatter, DBEntry entry,
+      FileChannel fc, String id, String dbName, String dbKey, int start,
+      int stop, boolean adjust) {
+    PSequence seq = null;
+    DBEntryRecord record;
+    String strEntry, reader;
+
     if (entry != null) {
-      // read the db entry
-      dbFile = DBUtils.readDBEntry(entry.getFName(), entry.getStart(),
-          entry.getStop());
+      // read the db entry directly from the data file
+      if (fc != null)
+        strEntry = DBUtils.readDBEntryData(fc, entry.getStart(),
+            entry.getStop());
+      else
+        strEntry = DBUtils.readDBEntryData(entry.getFName(), entry.getStart(),
+            entry.getStop());
       // prepare the output
-      if (dbFile == null) {
+      if (strEntry == null) {
         formatter.dumpError("Unable to retrieve " + id
             + " from database");
       } else {
-        // TXT_FORMAT
-        if (PFormatter.FORMAT.HTML_FORMAT.equals(formatter.getFormat())) {
-          strEntry = loadEntry(dbFile);
-          if (strEntry != null) {
-            formatter.dump(strEntry, dbName, id);
-            bOk = true;
-          } else {
-            formatter.dumpError("Unable to retrieve " + id
-                + " from database");
-          }
-        } else if (PFormatter.FORMAT.TXT_FORMAT.equals(formatter.getFormat())) {
-          strEntry = loadEntry(dbFile);
-          if (strEntry != null) {
-            formatter.dump(strEntry, dbName, id);
-            bOk = true;
-          } else {
-            formatter.dumpError("Unable to retrieve " + id
-                + " from database");
-          }
+        // TXT_FORMAT and HTML_FORMAT
+        if (PFormatter.FORMAT.HTML_FORMAT.equals(formatter.getFormat())
+            || PFormatter.FORMAT.TXT_FORMAT.equals(formatter.getFormat())) {
+          formatter.dump(prepareTextEntry(strEntry), dbName, id);
         } else {
-          /*
-           * int fileFormat =
-           * SeqIOUtils.guessFileFormat(dbFile.getAbsolutePath()); switch
-           * (fileFormat){ case SeqIOUtils.GENBANK: seq =
-           * DBUtils.readGenbankEntry(dbFile, start, stop, adjust); break; case
-           * SeqIOUtils.GENPEPT: seq = DBUtils.readGenpeptEntry(dbFile, start,
-           * stop, adjust); break; case SeqIOUtils.EMBL: seq =
-           * DBUtils.readEmblEntry(dbFile, start, stop, adjust); break; case
-           * SeqIOUtils.SWISSPROT: seq = DBUtils.readUniProtEntry(dbFile, start,
-           * stop, adjust); break; default: seq=null; }
-           */
           reader = findReader(entry.getIndexPath());
           // INSD_FORMAT and FASTA
-          if (reader.equals(DBMirrorConfig.GB_READER)) {
-            seq = DBUtils.readGenbankEntry(dbFile, start, stop, adjust);
-          } else if (reader.equals(DBMirrorConfig.GP_READER)) {
-            seq = DBUtils.readGenpeptEntry(dbFile, start, stop, adjust);
-          } else if (reader.equals(DBMirrorConfig.EM_READER)) {
-            seq = DBUtils.readEmblEntry(dbFile, start, stop, adjust);
-          } else if (reader.equals(DBMirrorConfig.UP_READER)) {
-            seq = DBUtils.readUniProtEntry(dbFile, start, stop, adjust);
-          } else if (reader.equals(DBMirrorConfig.BLASTP_READER)
-              || reader.equals(DBMirrorConfig.BLASTN_READER)) {
-            seq = DBUtils.readFastaEntry(dbFile, start, stop, adjust);
-          } else {
-            seq = null;
-          }
+          record = DBUtils.parseEntry(strEntry, reader);
+          seq = record != null ? record.getSequence(start, stop, adjust) : null;
           if (seq != null) {
             if (PFormatter.FORMAT.INSD_FORMAT.equals(formatter.getFormat()))
               formatter.dump(seq);
             else
               formatter.dump(seq.getFastaSequence(), dbName, id);
-            bOk = true;
           } else {
             _errMsg = "Unable to read sequence data for " + id;
             LOGGER.debug(_errMsg);
             formatter.dumpError(_errMsg);
           }
         }
-        if (bOk)
-          dbFile.delete();
       }
     } else {
       _errMsg = "entry " + id + " not found in index (" + dbKey + ")";
@@ -427,43 +549,25 @@ public class PQueryMirrorBase {
   }
 
   /**
-   * Execute the query.
+   * Paths to the Lucene indexes of a databank: either a single root path
+   * containing indexes or a list of paths pointing directly to indexes.
    */
-  private PSequence[] executeQuery(PFormatter formatter, Map<String, String> data) {
-    PSequence[] result = null;
-    PSequence seq;
-    String val, dbKey, mirrorPath = null, id, dbName, idxKey, path;
+  private static class IndexPaths {
+    private String       mirrorPath;
+    private List<String> idxNames;
+  }
+
+  /**
+   * Given a db key, get the paths to the db mirror. Returns null if the paths
+   * cannot be located; in such a case an error is reported.
+   */
+  private IndexPaths getIndexPaths(PFormatter formatter, String dbKey) {
+    IndexPaths idxPaths;
+    String mirrorPath = null, idxKey, path;
     ArrayList<String> idxNames;
     List<String> idxKeys, idxKeys2;
     Iterator<String> iter;
-    File foIDs;
-    int start, stop;
-    boolean adjust, hasfoIDs;
 
-    // get the db identifier (mandatory)
-    dbKey = data.get(DBKEY);
-    if (dbKey == null) {
-      _errMsg = "database not provided";
-      LOGGER.debug(_errMsg);
-      formatter.dumpError(_errMsg);
-      return result;
-    }
-    // get the sequence ID (mandatory)
-    id = data.get(IDKEY);
-    if (id == null) {
-      _errMsg = "sequence ID not provided";
-      LOGGER.debug(_errMsg);
-      formatter.dumpError(_errMsg);
-      return result;
-    }
-    // test used by client to detect this service
-    if ("a".equals(dbKey) && "b".equals(id)) {
-      return null;
-    }
-    //id can be a single ID, a list of IDs or a path to a file of IDs
-    foIDs = new File(id);
-    hasfoIDs = foIDs.exists();
-    // given the db key, get the path to the db mirror
     idxKeys = _dbMirrorConfig.getMirrorCodes(dbKey);
     // following line add since Fasta-based databanks (used with Plast) are
     // indexed to be queried by Id
@@ -480,7 +584,7 @@ public class PQueryMirrorBase {
       _errMsg = "unknown database mirror path for: " + dbKey;
       LOGGER.debug(_errMsg);
       formatter.dumpError(_errMsg);
-      return result;
+      return null;
     }
     if (idxKeys != null) {
       // a mirror refers to a list path pointing directly to Lucene indexes
@@ -493,7 +597,7 @@ public class PQueryMirrorBase {
           _errMsg = "unknown database mirror path for: " + idxKey;
           LOGGER.debug(_errMsg);
           formatter.dumpError(_errMsg);
-          return result;
+          return null;
         } else {
           // following line added since Fasta-based databanks (used with Plast)
           // are indexed to be queried by Id
@@ -525,6 +629,55 @@ public class PQueryMirrorBase {
       mirrorPath = Utils.terminatePath(mirrorPath);
       idxNames = null;
     }
+    idxPaths = new IndexPaths();
+    idxPaths.mirrorPath = mirrorPath;
+    idxPaths.idxNames = idxNames;
+    return idxPaths;
+  }
+
+  /**
+   * Execute the query.
+   */
+  private PSequence[] executeQuery(PFormatter formatter, Map<String, String> data) {
+    PSequence[] result = null;
+    PSequence seq;
+    IndexPaths idxPaths;
+    String val, dbKey, mirrorPath, id, dbName;
+    List<String> idxNames;
+    File foIDs;
+    int start, stop;
+    boolean adjust, hasfoIDs;
+
+    // get the db identifier (mandatory)
+    dbKey = data.get(DBKEY);
+    if (dbKey == null) {
+      _errMsg = "database not provided";
+      LOGGER.debug(_errMsg);
+      formatter.dumpError(_errMsg);
+      return result;
+    }
+    // get the sequence ID (mandatory)
+    id = data.get(IDKEY);
+    if (id == null) {
+      _errMsg = "sequence ID not provided";
+      LOGGER.debug(_errMsg);
+      formatter.dumpError(_errMsg);
+      return result;
+    }
+    // test used by client to detect this service
+    if ("a".equals(dbKey) && "b".equals(id)) {
+      return null;
+    }
+    //id can be a single ID, a list of IDs or a path to a file of IDs
+    foIDs = new File(id);
+    hasfoIDs = foIDs.exists();
+    // given the db key, get the path to the db mirror
+    idxPaths = getIndexPaths(formatter, dbKey);
+    if (idxPaths == null) {
+      return result;
+    }
+    mirrorPath = idxPaths.mirrorPath;
+    idxNames = idxPaths.idxNames;
     // given the db key, get the db name
     dbName = _dbMirrorConfig.getMirrorName(dbKey);
     if (dbName == null)
@@ -716,6 +869,84 @@ public class PQueryMirrorBase {
     return executeJob(getValuesFromString(getVar), os, null, dbMirrorConf);
   }
 
+  /**
+   * Reads and parses a single entry from a databank. The returned record can
+   * then be used to retrieve the features located within several ranges of
+   * the entry. Configuration related data are only prepared once when this
+   * method is called several times with the same configuration.
+   * 
+   * @param dbName
+   *          databank key, e.g. DBMirrorConfig.PROTEIC_IDX.
+   * @param id
+   *          a single sequence ID
+   * @param dbMirrorConf
+   *          BeeDeeM configuration
+   * 
+   * @return a record or null. In the latter case, call terminateWithError() to
+   *         figure out whether or not an error occurred.
+   */
+  public DBEntryRecord getEntryRecord(String dbName, String id,
+      DBMirrorConfig dbMirrorConf) {
+    PFormatter formatter;
+    Map<String, String> values;
+    IndexPaths idxPaths;
+    DBEntryRecord record;
+    DBEntry entry;
+    String getVar, dbKey, strEntry;
+
+    getVar = prepareQuery(dbName, id, null, null, null, null);
+    if (getVar == null)
+      return null;
+    values = getValuesFromString(getVar);
+    formatter = new PFormatter(PFormatter.FORMAT.INSD_FORMAT);
+    if (values == null) {
+      _errMsg = "Internal server error 2: unable to prepare databank list";
+      LOGGER.debug(_errMsg);
+      return null;
+    }
+    if (_dbMirrorConfig != dbMirrorConf || _descriptors == null) {
+      _dbMirrorConfig = dbMirrorConf;
+      _descriptors = DBDescriptorUtils.prepareIndexDBList(_dbMirrorConfig);
+    }
+    dbKey = values.get(DBKEY);
+    if (dbKey == null) {
+      _errMsg = "database not provided";
+      LOGGER.debug(_errMsg);
+      return null;
+    }
+    id = values.get(IDKEY);
+    if (id == null) {
+      _errMsg = "sequence ID not provided";
+      LOGGER.debug(_errMsg);
+      return null;
+    }
+    idxPaths = getIndexPaths(formatter, dbKey);
+    if (idxPaths == null) {
+      return null;
+    }
+    if (idxPaths.mirrorPath != null)
+      entry = LuceneUtils.getEntry(idxPaths.mirrorPath, id);
+    else
+      entry = LuceneUtils.getEntry(idxPaths.idxNames, id);
+    if (entry == null) {
+      _errMsg = "entry " + id + " not found in index (" + dbKey + ")";
+      LOGGER.debug(_errMsg);
+      return null;
+    }
+    strEntry = DBUtils.readDBEntryData(entry.getFName(), entry.getStart(),
+        entry.getStop());
+    if (strEntry == null) {
+      LOGGER.debug("Unable to retrieve " + id + " from database");
+      return null;
+    }
+    record = DBUtils.parseEntry(strEntry, findReader(entry.getIndexPath()));
+    if (record == null) {
+      _errMsg = "Unable to read sequence data for " + id;
+      LOGGER.debug(_errMsg);
+    }
+    return record;
+  }
+
   /**
    * Get FORMAT from user provided arguments. 
    * 
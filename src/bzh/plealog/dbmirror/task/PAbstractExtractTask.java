@@ -0,0 +1,47 @@
+/* Copyright (C) 2007-2022 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.task;
+
+import bzh.plealog.dbmirror.fetcher.UserProcessingMonitor;
+import bzh.plealog.dbmirror.util.ArchiveExtractor;
+
+/**
+ * Base class of the tasks extracting archives and compressed files.
+ *
+ * @author Patrick G. Durand
+ */
+public abstract class PAbstractExtractTask extends PAbstractTask {
+  private UserProcessingMonitor _userMonitor;
+
+  /**
+   * Set a user monitor reporting the extraction progress.
+   *
+   * @param userMonitor user monitor
+   * */
+  public void setUserProcessingMonitor(UserProcessingMonitor userMonitor) {
+    _userMonitor = userMonitor;
+  }
+
+  /**
+   * Returns a new extractor reporting its progress to the user monitor.
+   */
+  protected ArchiveExtractor createExtractor() {
+    ArchiveExtractor extractor = new ArchiveExtractor();
+    extractor.setUserProcessingMonitor(_userMonitor, getDbConfName());
+    return extractor;
+  }
+}
@@ -26,7 +26,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import bzh.plealog.dbmirror.indexer.DBParsable;
-import bzh.plealog.dbmirror.indexer.LuceneStorageSystem;
 import bzh.plealog.dbmirror.indexer.LuceneUtils;
 import bzh.plealog.dbmirror.indexer.ParserMonitor;
 import bzh.plealog.dbmirror.indexer.StorageSystem;
@@ -57,6 +56,7 @@ public abstract class PIndexerTask extends PAbstractTask implements
   // parameters section
   protected Map<String, String> _args;
   protected boolean             _checkNR                = false;
+  protected String              _storageType            = LuceneUtils.STORAGE_LUCENE;
   protected String              _filterSequenceSize;
   protected String              _filterDescription;
   protected boolean             _filterExactDescription = true;
@@ -115,6 +115,10 @@ public abstract class PIndexerTask extends PAbstractTask implements
     if (value != null)
       _checkNR = Boolean.TRUE.toString().equalsIgnoreCase(value);
 
+    value = _args.get(STORAGE_TYPE);
+    if (value != null)
+      _storageType = value;
+
     value = _args.get(SequenceValidatorSize.PARAMETER_TERM);
     if (value != null)
       _filterSequenceSize = value;
@@ -140,7 +144,7 @@ public abstract class PIndexerTask extends PAbstractTask implements
    * Implementation of KLTask interface.
    */
   public boolean execute() {
-    LuceneStorageSystem lss = null;
+    StorageSystem lss = null;
     String idxName;
     File srcFile = new File(_src);
     SequenceValidatorRenamer renamer = null;
@@ -254,7 +258,7 @@ public abstract class PIndexerTask extends PAbstractTask implements
         this.getMyParserMonitor().processingMessage(
             "Indexing file '" + srcFile.getName() + "'...");
       }
-      lss = new LuceneStorageSystem();
+      lss = LuceneUtils.createSequenceStorage(_storageType);
       this.getParser().setParserMonitor(_monitor);
       this.getParser().setCheckSeqIdRedundancy(_checkNR);
       lss.open(idxName, StorageSystem.WRITE_MODE);
@@ -56,6 +56,8 @@ public interface PTask {
   public static final String TAX_INCLUDE             = "taxinc";
   public static final String TAX_EXCLUDE             = "taxexc";
   public static final String CHECK_NR                = "nr";
+  // type of sequence index: lucene (default) or compact
+  public static final String STORAGE_TYPE            = "storage";
 
   // task done with success (to enable easiest resume of bank installation)
   public static final String TASK_OK_FEXT            = ".T_OK";
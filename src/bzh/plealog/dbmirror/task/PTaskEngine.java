@@ -20,9 +20,16 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
@@ -32,27 +39,52 @@ import org.apache.commons.net.io.Util;
 import bzh.plealog.dbmirror.fetcher.UserProcessingMonitor;
 import bzh.plealog.dbmirror.indexer.ParserMonitor;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
+import bzh.plealog.dbmirror.util.log.JobContext;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
 import bzh.plealog.dbmirror.util.runner.DBMSUniqueSeqIdDetector;
 import bzh.plealog.dbmirror.util.runner.DBMSUniqueSeqIdRedundantException;
 
 /**
- * This is the task execution engine. It stores a FIFO list of KLTasks that are
- * executed one at a time using a Timer.
+ * This is the task execution engine. Tasks are executed by a bounded pool of
+ * threads as soon as the tasks they depend on are done. A task added without
+ * dependencies runs once all previously added tasks are done, so that the
+ * engine behaves as a FIFO list of tasks when dependencies are not declared.
+ * <br>
+ * Parser tasks and external scripts are executed one at a time: parsers share
+ * the sequence ID redundancy detector, and scripts are not known to be
+ * reentrant.<br>
+ * Several engines may share a same pool of threads (see setExecutor()): this
+ * is how concurrent installations of databanks share a global budget of CPU
+ * task slots.
  * 
  * @author Patrick G. Durand
  */
 public class PTaskEngine {
-  private Timer                   _engine;
-  private LinkedList<PTask>      _tasks;
-  private boolean                 _exeInProgress;
+  private ExecutorService         _executor;
+  private boolean                 _sharedExecutor;
+  private JobContext              _job;
+  // tasks not done yet, i.e. waiting or running, in the order they were added
+  private LinkedList<TaskNode>    _nodes;
+  private IdentityHashMap<PTask, TaskNode> _nodeByTask;
+  // last task added without declared dependencies
+  private TaskNode                _barrier;
+  private int                     _running;
+  private boolean                 _serialTaskRunning;
+  private boolean                 _launchTasks;
+  private boolean                 _stopped;
   private UserProcessingMonitor   _userMonitor;
   private DBMSUniqueSeqIdDetector _seqIdDetector;
 
+  /** time interval (ms) used by callers polling the engine for termination */
   public static final long        ENGINE_SCHEDULING_TIMER = 2000;
 
   public static final String      WORKER_ID               = "TaskEngine";
 
+  // unzip, merge and formatdb tasks are mostly I/O bound: two of them can
+  // always run alongside an indexing task
+  private static final int        MAX_WORKERS             = Math.max(3,
+                                                              Math.min(4, Runtime.getRuntime().availableProcessors()));
+
   private static final Log        LOGGER                  = LogFactory
                                                               .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
                                                                   + ".PTaskEngine");
@@ -61,15 +93,15 @@ public class PTaskEngine {
    * Constructor.
    * 
    * @param launchTasks
-   *          false if the tasks should not be launched automatically by the
-   *          timer
+   *          false if the tasks should not be launched automatically. In such
+   *          a case, tasks are only stored by the engine.
    */
   public PTaskEngine(boolean launchTasks) {
-    _tasks = new LinkedList<PTask>();
-    _engine = new Timer();
-    if (launchTasks) {
-      _engine.schedule(new TaskStarter(), 1000, ENGINE_SCHEDULING_TIMER);
-    }
+    _nodes = new LinkedList<TaskNode>();
+    _nodeByTask = new IdentityHashMap<PTask, TaskNode>();
+    _launchTasks = launchTasks;
+    // tasks work for the job creating this engine
+    _job = LoggerCentral.getJobContext();
   }
 
   /**
@@ -83,13 +115,11 @@ public class PTaskEngine {
    * Constructor.
    * 
    * @param delay
-   *          time interval (ms) used to schedule tasks execution.
+   *          not used anymore: tasks are started as soon as they are ready.
+   *          Kept for compatibility with existing code.
    */
   public PTaskEngine(long delay) {
-    _tasks = new LinkedList<PTask>();
-    _engine = new Timer();
-    _engine.schedule(new TaskStarter(), 1000,
-        delay < 1000 ? ENGINE_SCHEDULING_TIMER : delay);
+    this(true);
   }
 
   public void setUserProcessingMonitor(UserProcessingMonitor userMonitor) {
@@ -97,40 +127,92 @@ public class PTaskEngine {
   }
 
   /**
-   * Adds a new task.
+   * Sets the pool of threads used to execute tasks. By default, each engine
+   * uses its own pool. A shared pool is not shut down when this engine
+   * terminates. Has to be called before adding tasks.
+   */
+  public synchronized void setExecutor(ExecutorService executor) {
+    _executor = executor;
+    _sharedExecutor = executor != null;
+  }
+
+  /**
+   * Adds a new task. It will be executed once all tasks previously added to
+   * this engine are done.
    */
   public synchronized void addTask(PTask task, String dbConfName) {
-    if (LoggerCentral.errorMsgEmitted() || LoggerCentral.processAborted())
+    if (_job.hasError() || _job.isAborted())
       return;
-    task.setDbConfName(dbConfName);
-    _tasks.add(task);
+    TaskNode node = addNode(task, dbConfName);
+    for (TaskNode n : _nodes) {
+      if (n != node) {
+        node.dependsOn(n);
+      }
+    }
+    _barrier = node;
+    dispatch();
   }
 
   /**
+   * Adds a new task. It will be executed once the given tasks are done. The
+   * task also waits for the last task added using addTask(PTask, String), if
+   * any.
    * 
-   * @return the tasks
+   * @param dependsOn
+   *          tasks that have to be done before executing this task. Tasks
+   *          already done or not handled by this engine are ignored.
    */
-  public LinkedList<PTask> getTasks() {
-    return this._tasks;
+  public synchronized void addTask(PTask task, String dbConfName,
+      Collection<PTask> dependsOn) {
+    if (_job.hasError() || _job.isAborted())
+      return;
+    TaskNode node = addNode(task, dbConfName);
+    TaskNode n;
+    for (PTask t : dependsOn) {
+      n = _nodeByTask.get(t);
+      if (n != null && n != node) {
+        node.dependsOn(n);
+      }
+    }
+    if (_barrier != null && _nodeByTask.containsKey(_barrier.task)) {
+      node.dependsOn(_barrier);
+    }
+    dispatch();
+  }
+
+  private TaskNode addNode(PTask task, String dbConfName) {
+    TaskNode node = new TaskNode(task);
+    task.setDbConfName(dbConfName);
+    _nodes.add(node);
+    _nodeByTask.put(task, node);
+    return node;
   }
 
   /**
-   * Gets the next task to execute. That tasks will be removed from this
-   * scheduler.
    * 
-   * @return a task or null if the scheduler does not contain any tasks.
+   * @return the tasks not started yet, in the order they were added. The
+   *         returned list is a copy.
    */
-  private synchronized PTask getTask() {
-    if (_tasks.size() == 0)
-      return null;
-    return _tasks.removeFirst();
+  public synchronized LinkedList<PTask> getTasks() {
+    LinkedList<PTask> tasks = new LinkedList<PTask>();
+    for (TaskNode n : _nodes) {
+      if (!n.started) {
+        tasks.add(n.task);
+      }
+    }
+    return tasks;
   }
 
   /**
-   * Checks whether this scheduler contains some tasks.
+   * Checks whether this scheduler contains some tasks not started yet.
    */
   public synchronized boolean hasTasks() {
-    return _tasks.size() != 0;
+    for (TaskNode n : _nodes) {
+      if (!n.started) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
@@ -139,61 +221,163 @@ public class PTaskEngine {
    * 
    * @return true if the scheduler has been terminated, false otherwise.
    */
-  public boolean terminate() {
-    if (LoggerCentral.processAborted() == false) {
+  public synchronized boolean terminate() {
+    if (_job.hasError() || _job.isAborted()) {
+      removeWaitingTasks();
+    }
+    if (_job.isAborted() == false) {
       if (isExeInProgress())
         return false;
       if (hasTasks())
         return false;
     }
-    if (hasTasks())
-      _tasks.clear();
-    _engine.cancel();
+    removeWaitingTasks();
+    _stopped = true;
+    if (_executor != null && !_sharedExecutor) {
+      _executor.shutdown();
+    }
     if (_seqIdDetector != null) {
       _seqIdDetector.reset();
       if (_seqIdDetector.hasBeenUsed()) {
         LoggerCentral.info(
             LOGGER,
             "TaskEngine/UniqueSeqId: total working time: "
-                + (_seqIdDetector.getWorkingTime() / 1000l) + " s.");
+                + (_seqIdDetector.getWorkingTime() / 1000l) + " s., filter hits: "
+                + _seqIdDetector.getFilterHits() + ", false positive rate: "
+                + String.format("%.4f", _seqIdDetector.getFalsePositiveRate()));
       }
     }
     return true;
   }
 
-  private synchronized void setExeInProgress(boolean val) {
-    _exeInProgress = val;
+  protected synchronized boolean isExeInProgress() {
+    return _running != 0;
   }
 
-  protected synchronized boolean isExeInProgress() {
-    return _exeInProgress;
+  /**
+   * Tasks that cannot run alongside each other.
+   */
+  private boolean isSerialTask(PTask task) {
+    return task instanceof PParserTask || task instanceof PTaskExecScript;
   }
 
-  private class TaskStarter extends TimerTask {
-    public void run() {
-      if (isExeInProgress())
-        return;
-      setExeInProgress(true);
-      PTask task = getTask();
-      if (task == null) {
-        setExeInProgress(false);
-        return;
+  /**
+   * Removes the tasks not started yet.
+   */
+  private void removeWaitingTasks() {
+    Iterator<TaskNode> iter = _nodes.iterator();
+    TaskNode node;
+
+    while (iter.hasNext()) {
+      node = iter.next();
+      if (!node.started) {
+        iter.remove();
+        _nodeByTask.remove(node.task);
       }
-      if (!(LoggerCentral.errorMsgEmitted() || LoggerCentral.processAborted())) {
-        TaskRunner taskRunner = new TaskRunner(task);
-        taskRunner.start();
+    }
+  }
+
+  /**
+   * Starts the tasks ready to be executed. Called each time a task is added or
+   * done.
+   */
+  private void dispatch() {
+    if (!_launchTasks || _stopped) {
+      return;
+    }
+    if (_job.hasError() || _job.isAborted()) {
+      removeWaitingTasks();
+      return;
+    }
+    for (TaskNode node : _nodes) {
+      if (_running == MAX_WORKERS) {
+        break;
       }
+      if (node.started || !node.waitFor.isEmpty()) {
+        continue;
+      }
+      if (isSerialTask(node.task)) {
+        if (_serialTaskRunning) {
+          continue;
+        }
+        _serialTaskRunning = true;
+      }
+      node.started = true;
+      _running++;
+      if (_executor == null) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_WORKERS,
+            MAX_WORKERS, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+        // do not keep the JVM alive once tasks are done
+        executor.allowCoreThreadTimeOut(true);
+        _executor = executor;
+      }
+      _executor.execute(new TaskRunner(node));
     }
   }
 
-  private class TaskRunner extends Thread {
-    private PTask _task;
+  private synchronized void taskDone(TaskNode node, boolean bOk) {
+    _running--;
+    if (isSerialTask(node.task)) {
+      _serialTaskRunning = false;
+    }
+    _nodes.remove(node);
+    _nodeByTask.remove(node.task);
+    for (TaskNode n : node.next) {
+      n.waitFor.remove(node);
+    }
+    if (!bOk) {// end all processing if error
+      removeWaitingTasks();
+      _stopped = true;
+    }
+    dispatch();
+  }
 
-    public TaskRunner(PTask task) {
-      _task = task;
+  /**
+   * A task and its dependencies.
+   */
+  private static class TaskNode {
+    private PTask               task;
+    // tasks to wait for before executing this one
+    private HashSet<TaskNode>   waitFor = new HashSet<TaskNode>();
+    // tasks waiting for this one
+    private ArrayList<TaskNode> next    = new ArrayList<TaskNode>();
+    private boolean             started;
+
+    private TaskNode(PTask task) {
+      this.task = task;
+    }
+
+    private void dependsOn(TaskNode node) {
+      if (waitFor.add(node)) {
+        node.next.add(this);
+      }
+    }
+  }
+
+  private class TaskRunner implements Runnable {
+    private TaskNode _node;
+    private PTask    _task;
+
+    public TaskRunner(TaskNode node) {
+      _node = node;
+      _task = node.task;
     }
 
     public void run() {
+      // pool threads may be shared by several engines
+      JobContext previous = LoggerCentral.getJobContext();
+      boolean bOk = false;
+      LoggerCentral.setJobContext(_job);
+      try {
+        bOk = execute();
+      } finally {
+        LoggerCentral.setJobContext(previous);
+        taskDone(_node, bOk);
+      }
+    }
+
+    private boolean execute() {
       if (_userMonitor != null) {
         _userMonitor.processingMessage(WORKER_ID, _task.getDbConfName(),
             UserProcessingMonitor.PROCESS_TYPE.TASK_EXECUTION,
@@ -211,6 +395,9 @@ public class PTaskEngine {
       else if (_task instanceof PTaskExecScript) {
         ((PTaskExecScript) _task).setUserProcessingMonitor(_userMonitor);
       }
+      else if (_task instanceof PAbstractExtractTask) {
+        ((PAbstractExtractTask) _task).setUserProcessingMonitor(_userMonitor);
+      }
       boolean bOk = true;
       try {
         // this has been added to secure code when running KDMS UI
@@ -225,10 +412,6 @@ public class PTaskEngine {
         LoggerCentral.error(LOGGER, "Unexpected error: " + e.toString());
         bOk = false;
       }
-      if (!bOk) {// end all processing if error
-        _tasks.clear();
-        _engine.cancel();
-      }
       // lan : do not do this anymore because the monitor is needed by the next
       // tasks (example : LuceneFastaIndexer => FastaRenamer)
       // if (_task instanceof KLParserTask)
@@ -238,7 +421,7 @@ public class PTaskEngine {
       if (_task instanceof PTaskEndProcessing && _userMonitor != null) {
         _userMonitor.endProcessing(_task.getDbConfName());
       }
-      setExeInProgress(false);
+      return bOk;
     }
   }
 
@@ -268,7 +451,7 @@ public class PTaskEngine {
       }
       // the following is used to cancel operations made by all parser (SW, GB,
       // Fasta and Bold2Gb)
-      if (LoggerCentral.processAborted()) {
+      if (_job.isAborted()) {
         throw new PTaskEngineAbortException();
       }
       if (upMonitor == null)
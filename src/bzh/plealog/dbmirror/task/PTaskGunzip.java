@@ -17,11 +17,11 @@
 package bzh.plealog.dbmirror.task;
 
 import java.io.File;
+import java.io.IOException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import bzh.plealog.dbmirror.util.Utils;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
 
@@ -30,7 +30,7 @@ import bzh.plealog.dbmirror.util.log.LoggerCentral;
  * 
  * @author Patrick G. Durand
  */
-public class PTaskGunzip extends PAbstractTask {
+public class PTaskGunzip extends PAbstractExtractTask {
 
   private String           _src;
   private String           _dest;
@@ -101,8 +101,10 @@ public class PTaskGunzip extends PAbstractTask {
     }
     LoggerCentral.info(LOGGER, getName() + " " + _src + " to " + _dest);
 
-    if (Utils.gunzipFile(_src) == null) {
-      _errMsg = "unable to gunzip " + _src;
+    try {
+      createExtractor().gunzip(new File(_src), f);
+    } catch (IOException e) {
+      _errMsg = "unable to gunzip " + _src + ": " + e.getMessage();
       return false;
     }
     PAbstractTask.setTaskOkForFile(_src);
@@ -522,7 +522,10 @@ public class PTaskInstallInProduction extends PAbstractTask {
         
         PAntTasks.deleteFiles(dbPathInstalled, "*"+PTask.TASK_OK_FEXT);
         PAntTasks.deleteFiles(dbPathInstalled, "*"+LoaderEngine.LOAD_OK_FEXT);
-        PAntTasks.deleteFiles(dbPathInstalled, "*"+DBMSAbstractConfig.FEXT_NUM);
+        // the number of entries of the files is reused by delta updates
+        if (!DBMSAbstractConfig.isDeltaUpdate()) {
+          PAntTasks.deleteFiles(dbPathInstalled, "*"+DBMSAbstractConfig.FEXT_NUM);
+        }
         LoggerCentral.info(LOGGER, dbPathDStamp
             + " has been installed in production");
       }
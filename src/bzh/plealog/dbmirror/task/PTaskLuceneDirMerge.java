@@ -103,8 +103,12 @@ public class PTaskLuceneDirMerge extends PAbstractTask {
           throw new Exception("unable to delete old index: " + idxName);
         }
       }
-      // merge index
-      if (!LuceneUtils.mergeIndex(idxName, _indexPaths, this._monitor)) {
+      // merge index, or only link individual indexes
+      if (DBMSAbstractConfig.isLuceneMultiIndex()) {
+        if (!LuceneUtils.linkIndex(idxName, _indexPaths, this._monitor)) {
+          throw new Exception("unable to link all indexes within: " + idxName);
+        }
+      } else if (!LuceneUtils.mergeIndex(idxName, _indexPaths, this._monitor)) {
         throw new Exception("unable to merge all indexes within: " + idxName);
       }
       // rename index to final name
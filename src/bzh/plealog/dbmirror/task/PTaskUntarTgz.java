@@ -16,10 +16,12 @@
  */
 package bzh.plealog.dbmirror.task;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import bzh.plealog.dbmirror.util.ant.PAntTasks;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
 
@@ -28,7 +30,7 @@ import bzh.plealog.dbmirror.util.log.LoggerCentral;
  * 
  * @author Patrick G. Durand
  */
-public class PTaskUntarTgz extends PAbstractTask {
+public class PTaskUntarTgz extends PAbstractExtractTask {
 
   private String           _src;
   private String           _dest;
@@ -81,8 +83,10 @@ public class PTaskUntarTgz extends PAbstractTask {
       return false;
     }
     LoggerCentral.info(LOGGER, getName() + " " + _src + " to " + _dest);
-    if (!PAntTasks.untartgz(_src, _dest)) {
-      _errMsg = "unable to untar " + _src;
+    try {
+      createExtractor().untar(new File(_src), new File(_dest), true);
+    } catch (IOException e) {
+      _errMsg = "unable to untar " + _src + ": " + e.getMessage();
       return false;
     }
     PAbstractTask.setTaskOkForFile(_src);
@@ -0,0 +1,722 @@
+/* Copyright (C) 2007-2022 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.tools.tar.TarEntry;
+import org.apache.tools.tar.TarInputStream;
+
+import bzh.plealog.dbmirror.fetcher.UserProcessingMonitor;
+import bzh.plealog.dbmirror.task.PTaskEngine;
+import bzh.plealog.dbmirror.task.PTaskEngineAbortException;
+import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
+import bzh.plealog.dbmirror.util.log.JobContext;
+import bzh.plealog.dbmirror.util.log.LoggerCentral;
+
+/**
+ * This class extracts Tar, gzipped Tar and gzipped files without relying on
+ * Ant. Tar entries are streamed straight from the (gzipped) archive to the
+ * destination directory.<br>
+ * Gzipped files made of several members, as the ones built by concatenation or
+ * by parallel compressors, are uncompressed using several threads: the file is
+ * cut into ranges, each range is uncompressed by a thread starting at the
+ * first gzip header found in it, then ranges are written in their original
+ * order. A range is only written if it starts exactly where the previous one
+ * ended; otherwise (false header, member too large to be kept in memory), it
+ * is uncompressed again by the writing thread. The first member is always
+ * uncompressed by the writing thread, and ranges are only scheduled if data
+ * follow it: files made of a single member are thus read once.<br>
+ * Progress (bytes read from the archive and throughput) is reported through a
+ * UserProcessingMonitor.
+ *
+ * @author Patrick G. Durand
+ */
+public class ArchiveExtractor {
+  private UserProcessingMonitor _monitor;
+  private String                _dbConfName;
+  private int                   _workers;
+
+  private static final Log      LOGGER          = LogFactory
+                                                    .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
+                                                        + ".ArchiveExtractor");
+
+  /** extension of a file under construction */
+  public static final String    PART_FEXT       = ".part";
+
+  private static final int      BUF_SIZE        = 256 * 1024;
+  // compressed data uncompressed by a single thread
+  private static final int      RANGE_SIZE      = 2 * 1024 * 1024;
+  // uncompressed data of a range kept in memory
+  private static final int      MAX_RANGE_DATA  = 8 * RANGE_SIZE;
+  private static final long     REPORT_DELAY    = 1000;
+
+  private static final int      FHCRC           = 2;
+  private static final int      FEXTRA          = 4;
+  private static final int      FNAME           = 8;
+  private static final int      FCOMMENT        = 16;
+  private static final int      FRESERVED       = 0xe0;
+
+  /**
+   * Constructor. Uses the number of threads defined in the configuration to
+   * uncompress gzipped files.
+   */
+  public ArchiveExtractor() {
+    this(DBMSAbstractConfig.getUnpackWorkers());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param workers
+   *          number of threads used to uncompress a multi-member gzipped file.
+   *          One means sequential decompression.
+   */
+  public ArchiveExtractor(int workers) {
+    _workers = Math.max(1, workers);
+  }
+
+  /**
+   * Sets a monitor reporting the progress of extractions. Can be null.
+   */
+  public void setUserProcessingMonitor(UserProcessingMonitor monitor,
+      String dbConfName) {
+    _monitor = monitor;
+    _dbConfName = dbConfName;
+  }
+
+  /**
+   * Extracts a Tar file.
+   *
+   * @param tarFile
+   *          the Tar file
+   * @param destDir
+   *          the directory where to extract the content of the Tar file
+   * @param gzipped
+   *          true if the Tar file is gzipped (.tar.gz or .tgz file)
+   *
+   * @throws IOException
+   *           if the archive cannot be extracted
+   */
+  public void untar(File tarFile, File destDir, boolean gzipped)
+      throws IOException {
+    Progress progress = new Progress(tarFile);
+    String destPath, path;
+    InputStream in;
+    TarEntry entry;
+    File f;
+
+    if (!destDir.exists() && !destDir.mkdirs()) {
+      throw new IOException("unable to create " + destDir.getAbsolutePath());
+    }
+    destPath = destDir.getCanonicalPath() + File.separator;
+    in = new BufferedInputStream(new ProgressInputStream(new FileInputStream(
+        tarFile), progress), BUF_SIZE);
+    try (TarInputStream tis = new TarInputStream(
+        gzipped ? new GZIPInputStream(in, BUF_SIZE) : in)) {
+      byte[] buffer = new byte[BUF_SIZE];
+      while ((entry = tis.getNextEntry()) != null) {
+        f = new File(destDir, entry.getName());
+        // an entry cannot be written outside of the destination directory
+        path = f.getCanonicalPath() + File.separator;
+        if (!path.startsWith(destPath)) {
+          throw new IOException("entry outside of destination directory: "
+              + entry.getName());
+        }
+        if (entry.isDirectory()) {
+          f.mkdirs();
+        } else if (entry.isFile()) {
+          f.getParentFile().mkdirs();
+          try (OutputStream out = new FileOutputStream(f)) {
+            IOUtils.copyLarge(tis, out, buffer);
+          }
+          f.setLastModified(entry.getModTime().getTime());
+        } else {
+          LOGGER.debug("skip entry: " + entry.getName());
+        }
+      }
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+    progress.done();
+  }
+
+  /**
+   * Uncompresses a gzipped file. The uncompressed file is written in a
+   * temporary file renamed at the end, so that it exists only if it is
+   * complete.
+   *
+   * @param gzFile
+   *          the gzipped file
+   * @param target
+   *          the uncompressed file
+   *
+   * @throws IOException
+   *           if the file cannot be uncompressed
+   */
+  public void gunzip(File gzFile, File target) throws IOException {
+    Progress progress = new Progress(gzFile);
+    File tmpFile = new File(target.getAbsolutePath() + PART_FEXT);
+    boolean bOk = false;
+
+    try {
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(
+          tmpFile), BUF_SIZE)) {
+        if (_workers == 1 || gzFile.length() < 2 * RANGE_SIZE) {
+          try (InputStream in = new GZIPInputStream(new ProgressInputStream(
+              new FileInputStream(gzFile), progress), BUF_SIZE)) {
+            IOUtils.copyLarge(in, out, new byte[BUF_SIZE]);
+          }
+        } else {
+          parallelGunzip(gzFile, out, progress);
+        }
+      }
+      if (target.exists() && !target.delete()) {
+        throw new IOException("unable to delete " + target.getAbsolutePath());
+      }
+      if (!tmpFile.renameTo(target)) {
+        throw new IOException("unable to rename " + tmpFile.getAbsolutePath());
+      }
+      bOk = true;
+    } finally {
+      if (!bOk) {
+        FileUtils.deleteQuietly(tmpFile);
+      }
+    }
+    progress.done();
+  }
+
+  private void parallelGunzip(File gzFile, OutputStream out, Progress progress)
+      throws IOException {
+    ArrayDeque<Future<Range>> pending = new ArrayDeque<Future<Range>>();
+    ArrayDeque<Long> pendingEnds = new ArrayDeque<Long>();
+    JobContext job = LoggerCentral.getJobContext();
+    ExecutorService executor;
+    long fileSize, nextRange, expected;
+    MemberReader reader;
+    Range range;
+
+    try (FileChannel channel = FileChannel.open(gzFile.toPath(),
+        StandardOpenOption.READ)) {
+      fileSize = channel.size();
+      // the first member is uncompressed by this thread: ranges are only used
+      // if other data follow it, so that a file made of a single member is
+      // read once
+      reader = new MemberReader(channel, job, 0);
+      expected = reader.inflateMembers(1, out, -1, false);
+      if (expected == -1 || expected >= fileSize) {
+        return;
+      }
+      progress.set(expected);
+      progress.report();
+      nextRange = expected;
+      executor = Executors.newFixedThreadPool(_workers);
+      try {
+        while (nextRange < fileSize || !pending.isEmpty()) {
+          // ranges entirely made of members already uncompressed
+          while (!pendingEnds.isEmpty() && pendingEnds.peek() <= expected) {
+            pending.poll().cancel(true);
+            pendingEnds.poll();
+          }
+          nextRange = Math.max(nextRange, expected);
+          // bounded number of ranges in memory
+          while (nextRange < fileSize && pending.size() < 2 * _workers) {
+            final long start = nextRange;
+            final long end = Math.min(fileSize, start + RANGE_SIZE);
+            pending.add(executor.submit(() -> inflateRange(channel, job,
+                start, end)));
+            pendingEnds.add(end);
+            nextRange = end;
+          }
+          if (pending.isEmpty()) {
+            break;
+          }
+          pendingEnds.poll();
+          try {
+            range = pending.poll().get();
+          } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+              throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+          } catch (InterruptedException e) {
+            throw new PTaskEngineAbortException();
+          }
+          if (range.data != null && range.first == expected) {
+            range.data.writeTo(out);
+            expected = range.last;
+          } else {
+            reader = new MemberReader(channel, job, expected);
+            expected = reader.inflateMembers(range.end, out, -1, true);
+          }
+          // end of gzipped data
+          if (expected == -1) {
+            break;
+          }
+          progress.set(expected);
+          progress.report();
+        }
+      } finally {
+        for (Future<Range> f : pending) {
+          f.cancel(true);
+        }
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Uncompresses the members starting in a range of a gzipped file. Returns a
+   * range without data if no member can be uncompressed.
+   */
+  private Range inflateRange(FileChannel channel, JobContext job, long start,
+      long end) throws IOException {
+    Range range = new Range(end);
+    MemberReader reader;
+    BlockOutputStream data;
+
+    range.first = findHeader(channel, start, end);
+    if (range.first == -1) {
+      return range;
+    }
+    reader = new MemberReader(channel, job, range.first);
+    data = new BlockOutputStream();
+    try {
+      range.last = reader.inflateMembers(end, data, MAX_RANGE_DATA, false);
+      range.data = data;
+    } catch (IOException e) {
+      // false header, corrupted data or too much data: the range will be
+      // handled by the writing thread
+    }
+    return range;
+  }
+
+  /**
+   * Returns the position of the first gzip header found in a range, or -1.
+   */
+  private static long findHeader(FileChannel channel, long start, long end)
+      throws IOException {
+    // a header is at least 10 bytes long
+    ByteBuffer bb = ByteBuffer.allocate((int) (end - start) + 9);
+    byte[] buf;
+    int size;
+
+    while (bb.hasRemaining()) {
+      if (channel.read(bb, start + bb.position()) < 0) {
+        break;
+      }
+    }
+    buf = bb.array();
+    size = bb.position();
+    for (int i = 0; i + 10 <= size; i++) {
+      if (buf[i] == (byte) 0x1f && buf[i + 1] == (byte) 0x8b
+          && buf[i + 2] == 8 && (buf[i + 3] & FRESERVED) == 0) {
+        return start + i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Members of a gzipped file uncompressed by a single thread.
+   */
+  private static class Range {
+    private long              first = -1;
+    private long              last  = -1;
+    private long              end;
+    private BlockOutputStream data;
+
+    private Range(long end) {
+      this.end = end;
+    }
+  }
+
+  /**
+   * Reads gzip members from a given position of a file.
+   */
+  private static class MemberReader {
+    private FileChannel _channel;
+    private JobContext  _job;
+    private byte[]      _buf      = new byte[BUF_SIZE];
+    private long        _bufStart;
+    private int         _pos;
+    private int         _len;
+    private Inflater    _inflater = new Inflater(true);
+    private CRC32       _crc      = new CRC32();
+
+    private MemberReader(FileChannel channel, JobContext job, long start) {
+      _channel = channel;
+      _job = job;
+      _bufStart = start;
+    }
+
+    private long position() {
+      return _bufStart + _pos;
+    }
+
+    private boolean fill() throws IOException {
+      ByteBuffer bb;
+      int n;
+
+      if (_job.isAborted()) {
+        throw new PTaskEngineAbortException();
+      }
+      _bufStart += _len;
+      _pos = 0;
+      _len = 0;
+      bb = ByteBuffer.wrap(_buf);
+      while (bb.hasRemaining()) {
+        n = _channel.read(bb, _bufStart + bb.position());
+        if (n < 0) {
+          break;
+        }
+      }
+      _len = bb.position();
+      return _len != 0;
+    }
+
+    private int read() throws IOException {
+      if (_pos == _len && !fill()) {
+        return -1;
+      }
+      return _buf[_pos++] & 0xff;
+    }
+
+    private int readUShort() throws IOException {
+      return read() | (read() << 8);
+    }
+
+    private long readUInt() throws IOException {
+      return ((long) readUShort()) | (((long) readUShort()) << 16);
+    }
+
+    private void skipString() throws IOException {
+      int b;
+      while ((b = read()) > 0) {
+      }
+      if (b == -1) {
+        throw new EOFException();
+      }
+    }
+
+    /**
+     * Reads a gzip header. Returns false if there are no more data.
+     */
+    private boolean readHeader() throws IOException {
+      int b, flags;
+
+      if ((b = read()) == -1) {
+        return false;
+      }
+      if (b != 0x1f || read() != 0x8b || read() != 8) {
+        throw new ZipException("Not in GZIP format");
+      }
+      flags = read();
+      if (flags == -1 || (flags & FRESERVED) != 0) {
+        throw new ZipException("Not in GZIP format");
+      }
+      // modification time, extra flags and OS
+      for (int i = 0; i < 6; i++) {
+        if (read() == -1) {
+          throw new EOFException();
+        }
+      }
+      if ((flags & FEXTRA) != 0) {
+        for (int i = readUShort(); i > 0; i--) {
+          if (read() == -1) {
+            throw new EOFException();
+          }
+        }
+      }
+      if ((flags & FNAME) != 0) {
+        skipString();
+      }
+      if ((flags & FCOMMENT) != 0) {
+        skipString();
+      }
+      if ((flags & FHCRC) != 0) {
+        readUShort();
+      }
+      return true;
+    }
+
+    private void inflateMember(OutputStream out) throws IOException {
+      byte[] data = new byte[BUF_SIZE];
+      long size = 0;
+      int n;
+
+      _inflater.reset();
+      _crc.reset();
+      while (!_inflater.finished()) {
+        if (_inflater.needsInput()) {
+          if (_pos == _len && !fill()) {
+            throw new EOFException("Unexpected end of ZLIB input stream");
+          }
+          _inflater.setInput(_buf, _pos, _len - _pos);
+          _pos = _len;
+        }
+        try {
+          n = _inflater.inflate(data);
+        } catch (DataFormatException e) {
+          throw new ZipException(e.getMessage());
+        }
+        if (n > 0) {
+          _crc.update(data, 0, n);
+          out.write(data, 0, n);
+          size += n;
+        } else if (_inflater.needsDictionary()) {
+          throw new ZipException("Unexpected preset dictionary");
+        }
+      }
+      // gives back the data following the member
+      _pos -= _inflater.getRemaining();
+      if (readUInt() != _crc.getValue()
+          || readUInt() != (size & 0xffffffffL)) {
+        throw new ZipException("Corrupt GZIP trailer");
+      }
+    }
+
+    /**
+     * Uncompresses the members starting before a given position.
+     *
+     * @param end
+     *          members starting at or after this position are not read
+     * @param out
+     *          where to write uncompressed data
+     * @param maxData
+     *          maximum number of bytes to write, -1 if unlimited
+     * @param allowTrailing
+     *          if true, data that are not gzipped following the members are
+     *          ignored, as GZIPInputStream does
+     *
+     * @return the position following the last member read, or -1 if the end
+     *         of the gzipped data has been reached
+     */
+    private long inflateMembers(long end, OutputStream out, long maxData,
+        boolean allowTrailing) throws IOException {
+      OutputStream target = maxData == -1 ? out : new LimitedOutputStream(out,
+          maxData);
+      long start;
+
+      try {
+        while ((start = position()) < end) {
+          try {
+            if (!readHeader()) {
+              return -1;
+            }
+          } catch (IOException e) {
+            if (allowTrailing) {
+              return -1;
+            }
+            throw e;
+          }
+          inflateMember(target);
+          allowTrailing = true;
+        }
+        return start;
+      } finally {
+        _inflater.end();
+      }
+    }
+  }
+
+  /**
+   * Keeps uncompressed data in memory.
+   */
+  private static class BlockOutputStream extends OutputStream {
+    private List<byte[]> _blocks = new ArrayList<byte[]>();
+    private byte[]       _current;
+    private int          _pos;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      int n;
+
+      while (len > 0) {
+        if (_current == null || _pos == _current.length) {
+          _current = new byte[BUF_SIZE];
+          _blocks.add(_current);
+          _pos = 0;
+        }
+        n = Math.min(len, _current.length - _pos);
+        System.arraycopy(b, off, _current, _pos, n);
+        _pos += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    private void writeTo(OutputStream out) throws IOException {
+      for (byte[] block : _blocks) {
+        out.write(block, 0, block == _current ? _pos : block.length);
+      }
+    }
+  }
+
+  private static class LimitedOutputStream extends OutputStream {
+    private OutputStream _out;
+    private long         _remaining;
+
+    private LimitedOutputStream(OutputStream out, long max) {
+      _out = out;
+      _remaining = max;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      _remaining -= len;
+      if (_remaining < 0) {
+        throw new IOException("too much data");
+      }
+      _out.write(b, off, len);
+    }
+  }
+
+  /**
+   * Counts the bytes read from an archive.
+   */
+  private static class ProgressInputStream extends FilterInputStream {
+    private Progress   _progress;
+    private JobContext _job;
+
+    private ProgressInputStream(InputStream in, Progress progress) {
+      super(in);
+      _progress = progress;
+      _job = LoggerCentral.getJobContext();
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+
+      if (_job.isAborted()) {
+        throw new PTaskEngineAbortException();
+      }
+      if (n > 0) {
+        _progress.add(n);
+        _progress.report();
+      }
+      return n;
+    }
+  }
+
+  /**
+   * Reports the progress of an extraction.
+   */
+  private class Progress {
+    private String     _fName;
+    private long       _total;
+    private long       _start;
+    private long       _nextReport;
+    private AtomicLong _done = new AtomicLong();
+
+    private Progress(File f) {
+      _fName = f.getName();
+      _total = f.length();
+      _start = System.currentTimeMillis();
+      _nextReport = _start + REPORT_DELAY;
+    }
+
+    private void add(long n) {
+      _done.addAndGet(n);
+    }
+
+    private void set(long n) {
+      _done.set(n);
+    }
+
+    private long getRate(long now) {
+      return _done.get() * 1000 / Math.max(1, now - _start);
+    }
+
+    private void report() {
+      long now = System.currentTimeMillis(), done;
+
+      if (_monitor == null || now < _nextReport) {
+        return;
+      }
+      _nextReport = now + REPORT_DELAY;
+      done = _done.get();
+      _monitor.processingFile(PTaskEngine.WORKER_ID, _dbConfName,
+          UserProcessingMonitor.PROCESS_TYPE.TASK_EXECUTION, _fName, done,
+          _total);
+      _monitor.processingFileMessage(PTaskEngine.WORKER_ID,
+          UserProcessingMonitor.PROCESS_TYPE.TASK_EXECUTION, Utils.getBytes(done)
+              + "/" + Utils.getBytes(_total) + " - "
+              + Utils.getBytes(getRate(now)) + "/s");
+    }
+
+    private void done() {
+      long now = System.currentTimeMillis();
+
+      if (_monitor != null) {
+        _monitor.processingFile(PTaskEngine.WORKER_ID, _dbConfName,
+            UserProcessingMonitor.PROCESS_TYPE.TASK_EXECUTION, _fName, _total,
+            _total);
+      }
+      _done.set(_total);
+      LoggerCentral.info(LOGGER, _fName + ": " + Utils.getBytes(_total)
+          + " extracted in " + (now - _start) + " ms ("
+          + Utils.getBytes(getRate(now)) + "/s)");
+    }
+  }
+}
@@ -51,9 +51,11 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import bzh.plealog.dbmirror.indexer.IndexFileTable;
 import bzh.plealog.dbmirror.indexer.LuceneStorageSystem;
 import bzh.plealog.dbmirror.task.PTaskEngineAbortException;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
+import bzh.plealog.dbmirror.util.log.JobContext;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
 
 /**
@@ -305,6 +307,7 @@ public class Utils {
     FileOutputStream fos = null;
     FileInputStream fis = null;
     BufferedInputStream bis = null;
+    JobContext job = LoggerCentral.getJobContext();
     int n;
     byte[] buf = new byte[8192];
 
@@ -314,7 +317,7 @@ public class Utils {
       bis = new BufferedInputStream(fis);
       while ((n = bis.read(buf)) != -1) {
         fos.write(buf, 0, n);
-        if (LoggerCentral.processAborted()) {
+        if (job.isAborted()) {
           break;
         }
       }
@@ -324,7 +327,7 @@ public class Utils {
       IOUtils.closeQuietly(bis);
     }
 
-    if (LoggerCentral.processAborted()) {
+    if (job.isAborted()) {
       throw new PTaskEngineAbortException();
     }
   }
@@ -356,6 +359,7 @@ public class Utils {
     FileOutputStream fos = null;
     FileInputStream fis = null;
     BufferedInputStream bis = null;
+    JobContext job = LoggerCentral.getJobContext();
     ArrayList<String> volumes;
     int n, curVolume, readBytes, flushBytes;
     byte[] buf = new byte[8192];
@@ -406,7 +410,7 @@ public class Utils {
           if (readBytes > flushBytes) {
             fos.flush();
           }
-          if (LoggerCentral.processAborted()) {
+          if (job.isAborted()) {
             IOUtils.closeQuietly(fis);
             IOUtils.closeQuietly(bis);
             IOUtils.closeQuietly(fos);
@@ -492,27 +496,43 @@ public class Utils {
   }
 
   /**
-   * Get the original file paths regarding the 'd' files
+   * Get the original file paths regarding the 'd' files and the file tables
+   * of the indexes located in a directory
    * 
    * @param targetPath
    * @return a list of files or an empty list if no 'd' files where found
    * 
-   * @see LuceneStorageSystem.getIdxKeyName to learn more about 'd' files
+   * @see IndexFileTable to learn more about 'd' files
    */
   public static List<File> getOriginalFiles(File directory) {
     List<File> result = new ArrayList<File>();
     HashSet<String> paths = new HashSet<String>();
-    File[] files = directory.listFiles(new FilenameFilter() {
-      @Override
-      public boolean accept(File dir, String name) {
-        return (name.matches(LuceneStorageSystem.FP_KEY_FILE_PREFIX + "\\d+$"));
-      }
-    });
+    File[] files = directory.listFiles();
 
     if (files != null) {
       for (int i = 0; i < files.length; i++) {
-        File file = getFilePathFromDFile(files[i]);
-        if (file != null) {
+        List<String> values = new ArrayList<String>();
+        if (files[i].isDirectory()) {
+          // tables of database files stored within indexes
+          try {
+            IndexFileTable table = IndexFileTable.read(files[i]
+                .getAbsolutePath());
+            if (table != null) {
+              values.addAll(table.getValues());
+            }
+          } catch (IOException e) {
+            continue;
+          }
+        } else if (files[i].getName().matches(
+            LuceneStorageSystem.FP_KEY_FILE_PREFIX + "\\d+$")) {
+          try {
+            values.add(FileUtils.readFileToString(files[i]));
+          } catch (Exception e) {
+            continue;
+          }
+        }
+        for (String value : values) {
+          File file = getFilePathFromKeyValue(directory, value);
           if (paths.add(file.getAbsolutePath())) {
             result.add(file);
           }
@@ -524,36 +544,18 @@ public class Utils {
   }
 
   /**
-   * 
-   * @param key
-   * 
-   * @return
+   * Returns the path to a database file given the content of a 'd' file or
+   * of an index file table entry.
    */
-  private static File getFilePathFromDFile(File dfilePath) {
-    File result = null;
-    try {
-      String srcFile = FileUtils.readFileToString(dfilePath);
-
-      if (srcFile.startsWith(LuceneStorageSystem.FP_KEY)) {
-        // starting with ngPlast 4.2+, we won't use anymore absolute path to
-        // retrieve
-        // path to data storage (see DBMirrorConfig.getMirrorPath()). So, here
-        // we build
-        // the full path from the index location of only the file name part
-        // stored in
-        // the "dX" file name.
-        // backward compatibility when data file was written as "FP:aaa" where
-        // aaa was an absolute file path
-        result = new File(
-            srcFile.substring(LuceneStorageSystem.FP_KEY.length()));
-      } else {
-        result = new File(dfilePath.getParentFile(), srcFile);
-      }
-    } catch (Exception e) {
-      return null;
+  private static File getFilePathFromKeyValue(File directory, String srcFile) {
+    if (srcFile.startsWith(LuceneStorageSystem.FP_KEY)) {
+      // starting with ngPlast 4.2+, we won't use anymore absolute path to
+      // retrieve path to data storage (see DBMirrorConfig.getMirrorPath()).
+      // backward compatibility when data file was written as "FP:aaa" where
+      // aaa was an absolute file path
+      return new File(srcFile.substring(LuceneStorageSystem.FP_KEY.length()));
     }
-
-    return result;
+    return new File(directory, srcFile);
   }
 
   /**
@@ -622,6 +624,7 @@ public class Utils {
    */
   public static String gunzipFile(String zipFile) {
 
+    JobContext job = LoggerCentral.getJobContext();
     String zipname, source;
     byte[] buffer;
     int length, bufSize = 8192;
@@ -639,7 +642,7 @@ public class Utils {
 
       while ((length = zipin.read(buffer, 0, bufSize)) != -1) {
         out.write(buffer, 0, length);
-        if (LoggerCentral.processAborted()) {
+        if (job.isAborted()) {
           throw new PTaskEngineAbortException();
         }
       }
@@ -653,6 +656,7 @@ public class Utils {
   }
 
   public static boolean unzipFile(String zipFile, String outputFolder) {
+    JobContext job = LoggerCentral.getJobContext();
     byte[] buffer = new byte[8192];
     boolean bRet = true;
     ZipEntry ze;
@@ -685,7 +689,7 @@ public class Utils {
           int len;
           while ((len = zis.read(buffer)) > 0) {
             fos.write(buffer, 0, len);
-            if (LoggerCentral.processAborted()) {
+            if (job.isAborted()) {
               throw new PTaskEngineAbortException();
             }
           }
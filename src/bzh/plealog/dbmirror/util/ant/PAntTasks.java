@@ -17,11 +17,13 @@
 package bzh.plealog.dbmirror.util.ant;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import bzh.plealog.dbmirror.util.ArchiveExtractor;
 import bzh.plealog.dbmirror.util.conf.Configuration;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 
@@ -89,49 +91,25 @@ public class PAntTasks {
   }
 
   public static boolean untar(String srcFile, String destDir) {
-    PAntRunner at = new PAntRunner();
-    HashMap<String, String> m = new HashMap<String, String>();
-    boolean bRet = false;
-
-    try {
-      // init
-      at.init(DBMSAbstractConfig.getConfPath(Configuration.SYSTEM) + "tasks.xml",
-          DBMSAbstractConfig.getConfPath(Configuration.SYSTEM));
-      // properties
-      m.put("src", srcFile);
-      m.put("dest", destDir);
-      at.setProperties(m, false);
-      // run
-      at.runTarget("untarrer");
-      bRet = true;
-    } catch (Exception e) {
-      LOGGER.warn("Unable to execute untar: " + e.getMessage());
-    }
-
-    return bRet;
+    return untar(srcFile, destDir, false);
   }
 
   public static boolean untartgz(String srcFile, String destDir) {
-    PAntRunner at = new PAntRunner();
-    HashMap<String, String> m = new HashMap<String, String>();
-    boolean bRet = false;
+    return untar(srcFile, destDir, true);
+  }
 
+  // Tar files are extracted without Ant: running a target costs much more
+  // than the extraction of small archives.
+  private static boolean untar(String srcFile, String destDir,
+      boolean gzipped) {
     try {
-      // init
-      at.init(DBMSAbstractConfig.getConfPath(Configuration.SYSTEM) + "tasks.xml",
-          DBMSAbstractConfig.getConfPath(Configuration.SYSTEM));
-      // properties
-      m.put("src", srcFile);
-      m.put("dest", destDir);
-      at.setProperties(m, false);
-      // run
-      at.runTarget("untarrertgz");
-      bRet = true;
-    } catch (Exception e) {
-      LOGGER.warn("Unable to execute untartgz: " + e.getMessage());
+      new ArchiveExtractor().untar(new File(srcFile), new File(destDir),
+          gzipped);
+      return true;
+    } catch (IOException e) {
+      LOGGER.warn("Unable to execute untar: " + e.getMessage());
     }
-
-    return bRet;
+    return false;
   }
 
   public static boolean deleteFiles(String dir, String fileFilter) {
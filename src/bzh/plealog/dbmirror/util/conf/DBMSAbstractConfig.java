@@ -403,6 +403,89 @@ public class DBMSAbstractConfig {
     return workers;
   }
 
+  /**
+   * Figures out whether gzipped files have to be uncompressed while they are
+   * downloaded or copied. Returns false if not set in the configuration.
+   **/
+  public static boolean isGunzipWhileCopying() {
+    if (_configurator == null) {
+      return false;
+    }
+    return "true".equalsIgnoreCase(_configurator
+        .getProperty(DBMSConfigurator.COPY_GUNZIP));
+  }
+
+  /**
+   * Figures out whether the unchanged files of the installed release of a bank
+   * have to be reused when installing a new release. Returns false if not set
+   * in the configuration.
+   **/
+  public static boolean isDeltaUpdate() {
+    if (_configurator == null) {
+      return false;
+    }
+    return "true".equalsIgnoreCase(_configurator
+        .getProperty(DBMSConfigurator.DELTA_UPDATE));
+  }
+
+  /**
+   * Returns the number of connections to use to download a single large file
+   * from an HTTP server. Returns 1 if not set in the configuration.
+   **/
+  public static int getDownloadSegments() {
+    if (_configurator == null) {
+      return 1;
+    }
+    String value = _configurator.getProperty(DBMSConfigurator.COPY_SEGMENTS);
+    int segments = 1;
+    try {
+      segments = Integer.valueOf(value.trim());
+      if (segments < 1 || segments > 8) {
+        segments = 1;
+      }
+    } catch (Exception e) {
+    }
+    return segments;
+  }
+
+  /**
+   * Returns the number of workers to use to parse a single sequence file
+   * during indexing. Returns 1 if not set in the configuration.
+   **/
+  public static int getIndexWorkers() {
+    if (_configurator == null) {
+      return 1;
+    }
+    String value = _configurator.getProperty(DBMSConfigurator.INDEX_WORKERS);
+    int workers = 1;
+    try {
+      workers = Integer.valueOf(value.trim());
+      workers = Math.max(1,
+          Math.min(workers, Runtime.getRuntime().availableProcessors()));
+    } catch (Exception e) {
+    }
+    return workers;
+  }
+
+  /**
+   * Returns the number of workers to use to uncompress a single gzipped file
+   * made of several members. Returns 1 if not set in the configuration.
+   **/
+  public static int getUnpackWorkers() {
+    if (_configurator == null) {
+      return 1;
+    }
+    String value = _configurator.getProperty(DBMSConfigurator.UNPACK_WORKERS);
+    int workers = 1;
+    try {
+      workers = Integer.valueOf(value.trim());
+      workers = Math.max(1,
+          Math.min(workers, Runtime.getRuntime().availableProcessors()));
+    } catch (Exception e) {
+    }
+    return workers;
+  }
+
   /**
    * Returns the current configuration definition of DB xRefs.
    */
@@ -492,6 +575,100 @@ public class DBMSAbstractConfig {
     }
   }
 
+  /**
+   * Returns the size of the RAM buffer used by Lucene to index sequence banks.
+   * Unit is Mb. Returns 64 if not set in the configuration. A value of zero
+   * means that flushes are only triggered by the number of buffered documents
+   * (see getLuceneMaxBufferedDocs()).
+   **/
+  public static int getLuceneRamBufferSize() {
+    if (_configurator == null) {
+      return 64;
+    }
+    String value = _configurator.getProperty(DBMSConfigurator.LUCENE_RAM_BUFFER);
+    int size = 64;
+    try {
+      size = Integer.valueOf(value.trim());
+      // Lucene does not accept buffers of 2 Gb or more
+      if (size < 0 || size > 2047) {
+        size = 64;
+      }
+    } catch (Exception e) {
+    }
+    return size;
+  }
+
+  /**
+   * Returns the maximum number of documents kept in the Lucene RAM buffer
+   * before flushing them to disk. Returns 0, i.e. no limit, if not set in the
+   * configuration.
+   **/
+  public static int getLuceneMaxBufferedDocs() {
+    if (_configurator == null) {
+      return 0;
+    }
+    String value = _configurator.getProperty(DBMSConfigurator.LUCENE_MAX_DOCS);
+    int docs = 0;
+    try {
+      docs = Math.max(0, Integer.valueOf(value.trim()));
+    } catch (Exception e) {
+    }
+    return docs;
+  }
+
+  public static DBMSConfigurator.LUCENE_MERGE_VALUES getLuceneMergePolicy(){
+    if (_configurator == null) {
+      return DBMSConfigurator.LUCENE_MERGE_VALUES.MERGE_OPTIMIZE;
+    }
+    String value = _configurator.getProperty(DBMSConfigurator.LUCENE_MERGE);
+    if ("install".equalsIgnoreCase(value)){
+    	return DBMSConfigurator.LUCENE_MERGE_VALUES.MERGE_INSTALL;
+    }
+    else if ("tiered".equalsIgnoreCase(value)){
+    	return DBMSConfigurator.LUCENE_MERGE_VALUES.MERGE_TIERED;
+    }
+    else if ("none".equalsIgnoreCase(value)){
+    	return DBMSConfigurator.LUCENE_MERGE_VALUES.MERGE_NONE;
+    }
+    else {
+    	return DBMSConfigurator.LUCENE_MERGE_VALUES.MERGE_OPTIMIZE;
+    }
+  }
+
+  /**
+   * Figures out whether or not per-file indexes of a bank are searched all
+   * together instead of being merged. Returns false if not set in the
+   * configuration.
+   **/
+  public static boolean isLuceneMultiIndex() {
+    if (_configurator == null) {
+      return false;
+    }
+    return "true".equalsIgnoreCase(_configurator
+        .getProperty(DBMSConfigurator.LUCENE_MULTI_INDEX));
+  }
+
+  /**
+   * Returns the maximum number of indexes kept opened to query them. Least
+   * recently used indexes are closed beyond that limit. Returns 64 if not set
+   * in the configuration.
+   **/
+  public static int getLuceneMaxOpenedIndexes() {
+    if (_configurator == null) {
+      return 64;
+    }
+    String value = _configurator.getProperty(DBMSConfigurator.LUCENE_MAX_OPENED);
+    int max = 64;
+    try {
+      max = Integer.valueOf(value.trim());
+      if (max < 1) {
+        max = 64;
+      }
+    } catch (Exception e) {
+    }
+    return max;
+  }
+
   public static void addDBMirrorListener(DBMirrorListener listener) {
     _listenerSupport.addDBMirrorListener(listener);
   }
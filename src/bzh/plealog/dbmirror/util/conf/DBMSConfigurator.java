@@ -53,6 +53,21 @@ public class DBMSConfigurator {
   public static final String        BCMD_PRG_NAME        = "blastcmd";
   public static final String        UI_SHOW_PATH         = "ui.showpath";
   public static final String        COPY_WORKERS         = "copy.workers";
+  // uncompress gzipped files while they are downloaded, instead of doing it
+  // once they are on disk. Not mandatory in dbms.config files; default is false.
+  public static final String        COPY_GUNZIP          = "copy.gunzip";
+  // number of connections used to download a single large file from an HTTP
+  // server. Not mandatory in dbms.config files; default is 1 (single stream).
+  public static final String        COPY_SEGMENTS        = "copy.segments";
+  // reuse the unchanged files of the installed release of a bank, along with
+  // their indexes. Not mandatory in dbms.config files; default is false.
+  public static final String        DELTA_UPDATE         = "delta.update";
+  // number of threads used to parse a single sequence file during indexing.
+  // Not mandatory in dbms.config files; default is 1 (sequential parsing).
+  public static final String        INDEX_WORKERS        = "index.workers";
+  // number of threads used to uncompress a single multi-member gzipped file.
+  // Not mandatory in dbms.config files; default is 1 (sequential).
+  public static final String        UNPACK_WORKERS       = "unpack.workers";
   //unit is number of Gb
   public static final String        FASTA_VOLSIZE        = "fasta.volsize";
   //use to handle Lucene FileSystem and Lock without recompiling the soft
@@ -62,6 +77,19 @@ public class DBMSConfigurator {
   // are use (see Lucene API doc).
   public static final String        LUCENE_FS            = "lucene.fs";
   public static final String        LUCENE_LOCK          = "lucene.lock";
+  // size of the Lucene write buffer (unit is Mb) and max number of buffered
+  // documents used when indexing sequence banks. Not mandatory in dbms.config
+  // files; defaults are 64 Mb and no limit on documents.
+  public static final String        LUCENE_RAM_BUFFER    = "lucene.ram.buffer";
+  public static final String        LUCENE_MAX_DOCS      = "lucene.max.buffered.docs";
+  // when to merge index segments and whether or not per-file indexes of a
+  // bank are merged. Not mandatory in dbms.config files; defaults are to
+  // optimize all indexes and to merge per-file indexes.
+  public static final String        LUCENE_MERGE         = "lucene.merge.policy";
+  public static final String        LUCENE_MULTI_INDEX   = "lucene.multi.index";
+  // max number of indexes kept opened to query them. Not mandatory in
+  // dbms.config files; default is 64.
+  public static final String        LUCENE_MAX_OPENED    = "lucene.max.opened";
 
   public static final String        ASPERA_KEY           = "aspera.key.path";
   public static final String        ASPERA_BIN           = "aspera.bin.path";
@@ -75,6 +103,7 @@ public class DBMSConfigurator {
   
   public static enum LUCENE_FS_VALUES {FS_DEFAULT, FS_NIO, FS_SIMPLE};
   public static enum LUCENE_LK_VALUES {LK_DEFAULT, LK_NATIVE, LK_SIMPLE};
+  public static enum LUCENE_MERGE_VALUES {MERGE_OPTIMIZE, MERGE_INSTALL, MERGE_TIERED, MERGE_NONE};
   
   private static final Log          LOGGER               = LogFactory
                                                              .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
@@ -83,7 +112,10 @@ public class DBMSConfigurator {
   private static final String[] KEYS ={MIRROR_PATH, MIRROR_PREPA_PATH, MIRROR_FILE,
 		  LONG_FILE_NAME, FDB_PRG_NAME, FDB_PATH_NAME, UI_SHOW_PATH, COPY_WORKERS,
 		  FASTA_VOLSIZE, LUCENE_FS, LUCENE_LOCK, ASPERA_KEY, ASPERA_BIN,
-		  ANNOT_GET_GO_PATH, ANNOT_GET_TAX_PATH, ANNOT_GET_ENZ_PATH};
+		  ANNOT_GET_GO_PATH, ANNOT_GET_TAX_PATH, ANNOT_GET_ENZ_PATH, INDEX_WORKERS,
+		  LUCENE_RAM_BUFFER, LUCENE_MAX_DOCS, LUCENE_MERGE, LUCENE_MULTI_INDEX,
+		  LUCENE_MAX_OPENED, COPY_GUNZIP, UNPACK_WORKERS, COPY_SEGMENTS,
+		  DELTA_UPDATE};
   
   public DBMSConfigurator() {
     try {
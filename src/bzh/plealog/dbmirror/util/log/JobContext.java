@@ -0,0 +1,176 @@
+/* Copyright (C) 2007-2022 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.dbmirror.util.log;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bzh.plealog.dbmirror.util.sequence.SequenceFileManager;
+
+/**
+ * This class holds the status of a job: cancellation, errors and warnings
+ * emitted, running state. Its methods do not lock anything, so that they can
+ * be called from tight loops (each sequence parsed, each block of data
+ * copied, etc).<br>
+ * A job context may have a parent: a job is then cancelled as soon as its
+ * parent is, and it sees the errors emitted by its parent, while its own
+ * errors remain local to it. This is how several databanks installed
+ * concurrently do not stop each other.<br>
+ * See LoggerCentral.setJobContext() to bind a job context to some threads.
+ *
+ * @author Patrick G. Durand
+ */
+public class JobContext {
+  private JobContext          _parent;
+  private volatile boolean    _aborted;
+  private volatile boolean    _errorEmitted;
+  private volatile boolean    _warnEmitted;
+  private volatile boolean    _running;
+  private AtomicInteger       _errors    = new AtomicInteger();
+  private AtomicInteger       _warnings  = new AtomicInteger();
+  private volatile SequenceFileManager _sfm;
+  // descendant jobs having a sequence file manager to stop with this job
+  private Set<JobContext>     _filtering = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Constructor of a job without parent.
+   */
+  public JobContext() {
+    this(null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param parent
+   *          the parent job. Can be null.
+   */
+  public JobContext(JobContext parent) {
+    _parent = parent;
+  }
+
+  public JobContext getParent() {
+    return _parent;
+  }
+
+  /**
+   * Cancels this job and its children. Sequence file managers set on this job
+   * or on its children are stopped.
+   */
+  public void abort() {
+    _aborted = true;
+    stopSequenceFileManager();
+    for (JobContext job : _filtering) {
+      job.stopSequenceFileManager();
+    }
+  }
+
+  private void stopSequenceFileManager() {
+    SequenceFileManager sfm = _sfm;
+
+    if (sfm != null) {
+      sfm.abortProcess();
+    }
+  }
+
+  /**
+   * Figures out whether this job, or its parent, has been cancelled.
+   */
+  public boolean isAborted() {
+    return _aborted || (_parent != null && _parent.isAborted());
+  }
+
+  /**
+   * Records an error emitted by this job.
+   */
+  public void errorEmitted() {
+    _errors.incrementAndGet();
+    _errorEmitted = true;
+  }
+
+  /**
+   * Figures out whether an error has been emitted by this job or by its
+   * parent.
+   */
+  public boolean hasError() {
+    return _errorEmitted || (_parent != null && _parent.hasError());
+  }
+
+  /**
+   * Records a warning emitted by this job.
+   */
+  public void warnEmitted() {
+    _warnings.incrementAndGet();
+    _warnEmitted = true;
+  }
+
+  /**
+   * Figures out whether a warning has been emitted by this job or by its
+   * parent.
+   */
+  public boolean hasWarning() {
+    return _warnEmitted || (_parent != null && _parent.hasWarning());
+  }
+
+  /**
+   * Returns the number of errors emitted by this job.
+   */
+  public int getErrorCount() {
+    return _errors.get();
+  }
+
+  /**
+   * Returns the number of warnings emitted by this job.
+   */
+  public int getWarnCount() {
+    return _warnings.get();
+  }
+
+  public void setRunning(boolean running) {
+    _running = running;
+  }
+
+  public boolean isRunning() {
+    return _running;
+  }
+
+  /**
+   * Sets the sequence file manager to stop when this job, or one of its
+   * parents, is cancelled. Use null to remove it.
+   */
+  public void setSequenceFileManager(SequenceFileManager sfm) {
+    _sfm = sfm;
+    for (JobContext job = _parent; job != null; job = job._parent) {
+      if (sfm != null) {
+        job._filtering.add(this);
+      } else {
+        job._filtering.remove(this);
+      }
+    }
+  }
+
+  /**
+   * Resets the status of this job: cancellation, errors and running state.
+   */
+  public void reset() {
+    _aborted = false;
+    _errorEmitted = false;
+    _running = false;
+    _errors.set(0);
+  }
+}
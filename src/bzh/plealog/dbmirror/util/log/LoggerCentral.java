@@ -44,21 +44,24 @@ import bzh.plealog.dbmirror.util.sequence.SequenceFileManager;
 /**
  * This class is used to centralize all logs. In addition, this class can be
  * used to figure whether some warnings where emitted during application life
- * cycle.
+ * cycle.<br>
+ * Error, warning and abort states are those of the job the calling thread is
+ * working for (see setJobContext()). By default, all threads work for a same
+ * application-wide job.
  * 
  * @author Patrick G. Durand
  */
 public class LoggerCentral {
-  public static boolean               _errorEmitted;
-  public static boolean               _warnEmitted;
-  public static boolean               _processAborted;
-  public static boolean               _isRunning;
+  private static final JobContext     DEFAULT_JOB = new JobContext();
 
   private static LoggerCentralGateway _logGateway;
   private static String               _logAppPath;
   private static String               _logAppFileName;
   private static String               _logAppFile;
 
+  // job of the threads not working for the application-wide job
+  private static final InheritableThreadLocal<JobContext> _jobContext = new InheritableThreadLocal<>();
+
   public static final String            APP_LOG_FILE_PROP_KEY        = DBMSAbstractConfigConstants.APP_KEY_PREFIX+"LOG_FILE";
   public static final String            APP_LOG_TYPE_PROP_KEY        = DBMSAbstractConfigConstants.APP_KEY_PREFIX+"LOG_TYPE";
   public static enum APP_LOG_TYPE {file, console, none}
@@ -210,7 +213,7 @@ public class LoggerCentral {
   }
 
   public static synchronized void warn(Log logger, String msg) {
-    _warnEmitted = true;
+    getJobContext().warnEmitted();
     logger.warn(msg);
     if (_logGateway != null) {
       _logGateway.warn(msg);
@@ -218,54 +221,68 @@ public class LoggerCentral {
   }
 
   public static synchronized void error(Log logger, String msg) {
-    _errorEmitted = true;
+    getJobContext().errorEmitted();
     logger.error(msg);
     if (_logGateway != null) {
       _logGateway.error(msg);
     }
   }
 
-  public static synchronized boolean warnMsgEmitted() {
-    return _warnEmitted;
+  public static boolean warnMsgEmitted() {
+    return getJobContext().hasWarning();
   }
 
-  public static synchronized boolean errorMsgEmitted() {
-    return _errorEmitted;
+  public static boolean errorMsgEmitted() {
+    return getJobContext().hasError();
   }
 
-  public static synchronized void abortProcess() {
-    _processAborted = true;
-    if (LoggerCentral.sfm != null) {
-      LoggerCentral.sfm.abortProcess();
-    }
+  public static void abortProcess() {
+    getJobContext().abort();
   }
 
-  public static synchronized boolean processAborted() {
-    return _processAborted;
+  public static boolean processAborted() {
+    return getJobContext().isAborted();
   }
 
-  public static synchronized void reset() {
-    _errorEmitted = false;
-    _processAborted = false;
-    _isRunning = false;
+  public static void reset() {
+    getJobContext().reset();
   }
 
-  public static synchronized void setRunning(boolean running) {
-    _isRunning = running;
+  public static void setRunning(boolean running) {
+    getJobContext().setRunning(running);
   }
 
-  public static synchronized boolean isRunning() {
-    return _isRunning;
+  public static boolean isRunning() {
+    return getJobContext().isRunning();
   }
 
-  private static SequenceFileManager sfm = null;
+  /**
+   * Binds the current thread, and the threads it will create, to a job. Use
+   * null to go back to the application-wide job.
+   */
+  public static void setJobContext(JobContext job) {
+    if (job != null) {
+      _jobContext.set(job);
+    } else {
+      _jobContext.remove();
+    }
+  }
+
+  /**
+   * Returns the job the current thread is working for. Never returns null.
+   * Tight loops should call this method once, then use the returned object.
+   */
+  public static JobContext getJobContext() {
+    JobContext job = _jobContext.get();
+    return job != null ? job : DEFAULT_JOB;
+  }
 
-  public static synchronized void stopThisSfmIfAbort(SequenceFileManager sfm) {
-    LoggerCentral.sfm = sfm;
+  public static void stopThisSfmIfAbort(SequenceFileManager sfm) {
+    getJobContext().setSequenceFileManager(sfm);
   }
 
-  public static synchronized void removeSfmToAbort() {
-    LoggerCentral.sfm = null;
+  public static void removeSfmToAbort() {
+    getJobContext().setSequenceFileManager(null);
   }
   
   private static ConfigurationBuilder<BuiltConfiguration> prepareBuilder(Level aLevel){
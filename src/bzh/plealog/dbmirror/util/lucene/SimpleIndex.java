@@ -123,7 +123,7 @@ public class SimpleIndex<T> {
     try {
       this.commit();
       if (this.writer != null) {
-        this.writer.optimize();
+        LuceneUtils.optimize(this.writer, true);
         this.writer.close();
         this.writer = null;
       }
@@ -17,6 +17,9 @@
 package bzh.plealog.dbmirror.util.runner;
 
 import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -27,59 +30,61 @@ import bzh.plealog.dbmirror.util.log.LoggerCentral;
 /**
  * This class is used to detect sequence redundancy. It is very important to
  * note that this checking is only done on sequence IDs, as they appear in
- * sequence files.
- * 
+ * sequence files.<br>
+ * <br>
+ * This class is thread-safe: several parsers can check their sequence IDs at
+ * the same time.
+ *
  * @author Patrick Durand
  */
 public class DBMSUniqueSeqIdDetector {
 
-  // use a more optimal implementation of HashSet than the Java standard API
-  // see http://java-performance.info/primitive-types-collections-trove-library/
-  // and trove4j.sourceforge.net
-
-  // notice: this class uses a Light Edition of the Trove Library made by
-  // Plealog.
-  // see //olorin/common/libraries/Trove-3.0.3/le
-
   /*
-   * This class works as follows. A HashSet is used to store at most set of
-   * MAX_SEQID seqquence IDs within RAM. The hashset is used to check whether or
-   * not a seqID has been seen. If not, it is added to the HasSet. Each time a
-   * set of MAX_SEQID seqquence IDs is reached, the content of the set is
-   * appended to a Lucene index. seqID check is also done against the Lucene
-   * index. This system enables to save chunks of seqIds within a Lucene index,
-   * instead of writing them one at a time.
+   * This class works as follows. Sequence IDs are dispatched among stripes
+   * given their hash; each stripe has its own lock and its own set of IDs
+   * kept in memory. Each time the stripes contain more than MAX_SEQID IDs, all
+   * of them are written at once in the disk-based index as a sorted run. A
+   * new ID is then looked up within the runs whose Bloom filter reports it
+   * may have been seen (see DBMSUniqueSeqIdIndex).
    */
 
-  // private TCustomHashSet<String> _seqIdsFilter; // the HashSet
-  private HashSet<String>      _seqIdsFilter;
+  private Stripe[]             _stripes;
   private DBMSUniqueSeqIdIndex _index;
   private String               _indexPath;
-  private boolean              _indexOk;
-  private long                 _workingTime;
-  private boolean              _used             = false;
+  private volatile boolean     _indexOk;
+  private boolean              _indexError;
+  private volatile boolean     _used             = false;
+  // number of IDs kept in the stripes
+  private AtomicInteger        _size             = new AtomicInteger();
+  // statistics
+  private AtomicLong           _workingTime      = new AtomicLong();
 
   // public and not final for tests
   public static int            MAX_SEQID         = 5000000;
-  private static final Object  SEM               = new Object();
   private static final Log     LOGGER            = LogFactory
                                                      .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
                                                          + ".PDMSUniqueSeqIdDetector");
   public static int            CHECK_MEMORY_STEP = 10;
 
+  // number of stripes is 2^STRIPE_BITS
+  private static final int     STRIPE_BITS       = 6;
+
+  private static class Stripe {
+    private ReentrantLock   lock = new ReentrantLock();
+    private HashSet<String> ids  = new HashSet<String>();
+  }
+
   private DBMSUniqueSeqIdDetector() {
-    // we ensure that no rehash will ever occur ; see Java Hashmap definition of
-    // load factor
-    // _seqIdsFilter = new TCustomHashSet<String>(new myStringHashingStrategy(),
-    // (int) ((float) MAX_SEQID / LFACTOR) + 1, LFACTOR);
-    _seqIdsFilter = new HashSet<String>();
-    _workingTime = 0l;
+    _stripes = new Stripe[1 << STRIPE_BITS];
+    for (int i = 0; i < _stripes.length; i++) {
+      _stripes[i] = new Stripe();
+    }
     _indexOk = false;
   }
 
   /**
-   * Return the absolute path to the Lucence index used by this class to
-   * permanently store seIds.
+   * Return the absolute path to the index used by this class to permanently
+   * store seIds.
    */
   public String getIndexPath() {
     return _indexPath;
@@ -87,26 +92,56 @@ public class DBMSUniqueSeqIdDetector {
 
   /**
    * Constructor.
-   * 
+   *
    * @param indexPath
-   *          the absolute path to the Lucene index that will be filled in by
-   *          this class with unique sequence IDs.
+   *          the absolute path to the index that will be filled in by this
+   *          class with unique sequence IDs. It is a directory.
    */
   public DBMSUniqueSeqIdDetector(String indexPath) {
     this();
 
     _indexPath = indexPath;
-
-    // needed to use WRITE_APPEND_MODE elsewhere in this code
     _index = new DBMSUniqueSeqIdIndex();
     LoggerCentral.info(LOGGER, "Create UniqueSeqId index: " + indexPath);
 
-    // verifier si _indexPath existe et si oui, virer le "write.lock" (si
-    // reprise d'installation)
-    _indexOk = _index.open(_indexPath, false);
+    // if _indexPath already exists (resuming an install), seqIds it contains
+    // are loaded
+    _indexOk = _index.open(_indexPath);
     if (!_indexOk) {
+      _indexError = true;
       LoggerCentral.error(LOGGER, "failed !");
-      return;
+    }
+  }
+
+  /**
+   * 64-bit hash of a sequence ID: FNV-1a followed by the finalizer of
+   * MurmurHash3 so that all bits can be used.
+   */
+  private static long hash(String seqId) {
+    long h = 0xcbf29ce484222325L;
+    int i, size = seqId.length();
+
+    for (i = 0; i < size; i++) {
+      h ^= seqId.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private void lockAll() {
+    for (Stripe stripe : _stripes) {
+      stripe.lock.lock();
+    }
+  }
+
+  private void unlockAll() {
+    for (Stripe stripe : _stripes) {
+      stripe.lock.unlock();
     }
   }
 
@@ -114,16 +149,39 @@ public class DBMSUniqueSeqIdDetector {
    * Reset the set of seqIds contains in this object.
    */
   public void reset() {
-    synchronized (SEM) {
-      _seqIdsFilter.clear();
+    lockAll();
+    try {
+      for (Stripe stripe : _stripes) {
+        stripe.ids.clear();
+      }
+      _size.set(0);
+    } finally {
+      unlockAll();
     }
   }
 
   /**
-   * Return the working time.
+   * Return the working time. Unit is milliseconds.
    */
   public long getWorkingTime() {
-    return _workingTime;
+    return _workingTime.get() / 1000000l;
+  }
+
+  /**
+   * Returns the number of times the filter of a run of the index reported
+   * that a sequence ID may have been seen, i.e. the number of lookups within
+   * the index.
+   */
+  public long getFilterHits() {
+    return _index != null ? _index.getLookups() : 0l;
+  }
+
+  /**
+   * Returns the ratio of run filters that wrongly reported that a sequence ID
+   * may have been seen.
+   */
+  public double getFalsePositiveRate() {
+    return _index != null ? _index.getFalsePositiveRate() : 0d;
   }
 
   /**
@@ -135,135 +193,155 @@ public class DBMSUniqueSeqIdDetector {
   }
 
   /**
-   * Close the Lucene index. Can be called to ensure there is no open files.
+   * Close the index. Can be called to ensure there is no open files.
    */
   public void closeIndex() throws DBMSUniqueSeqIdIndexException {
-    synchronized (SEM) {
+    lockAll();
+    try {
       if (_indexOk) {
-        _indexOk = _index.close();
-        if (!_indexOk) {
+        _indexOk = false;
+        if (!_index.close()) {
+          _indexError = true;
           throw new DBMSUniqueSeqIdIndexException(
               "Failed to close index (closeIndex)");
         }
       }
-      _seqIdsFilter.clear();
-      System.gc();
+      for (Stripe stripe : _stripes) {
+        stripe.ids.clear();
+      }
+      _size.set(0);
+    } finally {
+      unlockAll();
     }
   }
 
   /**
-   * Reopen the Lucene index .
+   * Reopen the index .
    */
   public void openIndex() throws DBMSUniqueSeqIdIndexException {
-    synchronized (SEM) {
-      if (_indexOk) {
-        _indexOk = _index.open(_indexPath, false);
+    lockAll();
+    try {
+      if (!_indexOk && !_indexError) {
+        _indexOk = _index.open(_indexPath);
         if (!_indexOk) {
+          _indexError = true;
           throw new DBMSUniqueSeqIdIndexException(
               "Failed to re-open index read mode (openIndexReadMode)");
         }
       }
+    } finally {
+      unlockAll();
     }
   }
 
   /**
    * Adds a new seqId only if it is not already contained in this object.
-   * 
+   *
    * @param seqId
    *          the new sequence ID to add
-   * 
+   *
    * @return false if the seqId was not added because it is already known, true
    *         otherwise. So, when this method returns false it means that seqId
    *         is redundant.
    */
   public boolean add(String seqId) {
-    synchronized (SEM) {
-      if (!_used) {
-        _used = true;
-      }
-
-      long time = System.currentTimeMillis();
+    long time = System.nanoTime();
+    long h = hash(seqId);
+    Stripe stripe = _stripes[(int) (h >>> (64 - STRIPE_BITS))];
+    int size = -1;
 
-      // this is to secure the HashSet size in case index is not available
-      // it means that redundancy will only be tested on the first MAX_SEQID
-      // from a data set
-      if (_seqIdsFilter.size() <= MAX_SEQID) {
-        if (!_seqIdsFilter.add(seqId)) {
-          _workingTime += (System.currentTimeMillis() - time);
-          return false;
-        }
+    if (!_used) {
+      _used = true;
+    }
+    stripe.lock.lock();
+    try {
+      if (stripe.ids.contains(seqId)) {
+        return false;
+      }
+      if (_indexOk && _index.contains(h, seqId)) {
+        return false;
+      }
+      // this is to secure memory in case index is not available: it means
+      // that redundancy will only be tested on the first MAX_SEQID from a data
+      // set
+      if (!_indexOk && _size.get() > MAX_SEQID) {
+        return true;
+      }
+      stripe.ids.add(seqId);
+      size = _size.incrementAndGet();
+    } finally {
+      stripe.lock.unlock();
+      _workingTime.addAndGet(System.nanoTime() - time);
+    }
 
+    if (_indexOk) {
+      if (size > MAX_SEQID) {
+        dumpSeqIdsInIndex(false);
+      } else {
         // check memory 10 times before a dump
         int checkStep = (MAX_SEQID / CHECK_MEMORY_STEP);
-        if (checkStep != 0) {
-          if (_seqIdsFilter.size() % checkStep == 0) {
-            if (Runtime.getRuntime().freeMemory() < (10 * Runtime.getRuntime()
-                .totalMemory() / 100)) {
-              this.dumpSeqIdsInLuceneIndex();
-            }
+        if (checkStep != 0 && size % checkStep == 0) {
+          if (Runtime.getRuntime().freeMemory() < (10 * Runtime.getRuntime()
+              .totalMemory() / 100)) {
+            dumpSeqIdsInIndex(true);
           }
         }
       }
-      boolean result = true;
-      if (_indexOk && _index.contains(seqId)) {// add search time; may take some
-                                               // time (Lucene)
-        _workingTime += (System.currentTimeMillis() - time);
-        result = false;
-      }
-      if (_indexOk && _seqIdsFilter.size() > MAX_SEQID) {
-        dumpSeqIdsInLuceneIndex();
-      }
-      // compute time only when everything is working fine
-      _workingTime += (System.currentTimeMillis() - time);
-
-      return result;
     }
+    return true;
   }
 
-  private void dumpSeqIdsInLuceneIndex() {
-    long time = System.currentTimeMillis();
+  /**
+   * Writes the seqIds kept in memory within the index.
+   *
+   * @param force
+   *          if false, seqIds are only written when they are more than
+   *          MAX_SEQID, i.e. when no other thread did it in the meantime.
+   */
+  private void dumpSeqIdsInIndex(boolean force) {
+    long time = System.nanoTime();
+    long[] hashes;
+    String[] ids;
+    int n = 0;
+
+    lockAll();
     try {
-      dumpSeqIds();
+      if (!_indexOk || _size.get() == 0 || (!force && _size.get() <= MAX_SEQID)) {
+        return;
+      }
+      hashes = new long[_size.get()];
+      ids = new String[hashes.length];
+      for (Stripe stripe : _stripes) {
+        for (String seqId : stripe.ids) {
+          hashes[n] = hash(seqId);
+          ids[n] = seqId;
+          n++;
+        }
+      }
+      _index.addSeqIDs(hashes, ids, n);
+      // in case of error with the index, seqIds are kept in memory
+      for (Stripe stripe : _stripes) {
+        stripe.ids.clear();
+      }
+      _size.set(0);
     } catch (DBMSUniqueSeqIdIndexException e) {
-      LoggerCentral.error(
-          LOGGER,
-          "Failed to dump sequence IDs within Lucene storage : "
-              + e.getMessage());
+      LoggerCentral.error(LOGGER, "Failed to dump sequence IDs within storage : "
+          + e.getMessage());
       _indexOk = false;
+      _indexError = true;
+    } finally {
+      unlockAll();
+      _workingTime.addAndGet(System.nanoTime() - time);
     }
-    // in case of error with Lucene storage, use the available seqIds in memory
-    if (_indexOk) {
-      _seqIdsFilter.clear();
-    }
-    // compute time only when everything is working fine
-    _workingTime += (System.currentTimeMillis() - time);
   }
 
   /**
-   * Forces this class to dump the internal set of seqIds within a Lucene index.
+   * Forces this class to dump the internal set of seqIds within the index.
    * This method should be used by the caller to ensure that everything is
    * written in the index, since this class cannot ensure that.
    */
   public void dumpContent() {
-    synchronized (SEM) {
-      dumpSeqIdsInLuceneIndex();
-    }
-  }
-
-  /**
-   * Utility method that dump the internal set of seqIds within a Lucene index.
-   */
-  private void dumpSeqIds() throws DBMSUniqueSeqIdIndexException {
-    if (_seqIdsFilter.size() == 0)
-      return;
-
-    // add all seqIds contained in the HashSet
-    for (String seqId : _seqIdsFilter) {
-      _index.addSeqID(seqId);// throws exception if problem
-    }
-    // commit added data at once
-    _index.commit();// throws exception if problem
-
+    dumpSeqIdsInIndex(true);
   }
 
 }
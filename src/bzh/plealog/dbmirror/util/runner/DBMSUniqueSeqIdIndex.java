@@ -16,233 +16,405 @@
  */
 package bzh.plealog.dbmirror.util.runner;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.Term;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.Version;
-
-import bzh.plealog.dbmirror.indexer.LuceneUtils;
+
+import bzh.plealog.dbmirror.indexer.CompactStorageSystem;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 
 /**
- * This class represents a Lucene-based index aims at storing unique sequence
- * IDs.
- * 
+ * This class represents a disk-based index aims at storing unique sequence
+ * IDs. The index is a directory containing runs of IDs sorted by hash. Each
+ * run is written at once and never modified afterwards.<br>
+ * <br>
+ * A run file is made of a header (magic, number of IDs), the sorted table of
+ * 64-bit ID hashes, the table of the positions of IDs, then the IDs
+ * themselves (length followed by UTF-8 bytes). Runs are memory mapped when
+ * the index is opened.<br>
+ * <br>
+ * Each run has its own Bloom filter, sized given its number of IDs and built
+ * from its hashes when the run is loaded. A run is only searched when its
+ * filter reports that it may contain an ID, so the filters never saturate
+ * whatever the number of IDs of the index.<br>
+ * <br>
+ * This class is not thread-safe: see DBMSUniqueSeqIdDetector. Method contains
+ * may be called by several threads at the same time, though.
+ *
  * @author Patrick G. Durand
  */
 public class DBMSUniqueSeqIdIndex {
 
-  private IndexWriter   _writer;
-  private IndexSearcher _searcher;
-  private String        _indexName;
-  private Document      _document    = new Document();
-  private Field         _field       = new Field(SEQID_FIELD, "",
-                                         Field.Store.NO,
-                                         Field.Index.NOT_ANALYZED);
-  private Term          _term        = new Term(SEQID_FIELD);
-  private int           nbDocInIndex = 0;
-
-  public static enum MODE {
-    READ_MODE, WRITE_MODE, WRITE_APPEND_MODE
-  };
+  private String              _indexName;
+  private List<Run>           _runs;
+  private int                 _nextRun;
+  // statistics
+  private AtomicLong          _filterChecks = new AtomicLong();
+  private AtomicLong          _lookups      = new AtomicLong();
+  private AtomicLong          _falseLookups = new AtomicLong();
+
+  private static final Log    LOGGER            = LogFactory
+                                                    .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY
+                                                        + ".KDMSUniqueSeqIdIndex");
+
+  private static final String RUN_PREFIX        = "run";
+  private static final int    MAGIC             = 0x42444D55;
+  private static final int    HEADER_SIZE       = 8;
+  // runs are mapped using a single buffer
+  private static final long   MAX_RUN_SIZE      = Integer.MAX_VALUE;
+  private static final int    IO_BUF_SIZE       = 1024 * 1024;
+  // false positive rate of run filters is about 0.3%
+  private static final int    BLOOM_BITS_PER_ID = 12;
+  private static final int    BLOOM_HASHES      = 8;
+
+  private static final String ERR_MSG3          = "unable to add seqIds: ";
+  private static final String ERR_MSG4          = "unable to open index: ";
+
+  private static class Run {
+    private MappedByteBuffer buf;
+    private int              count;
+    private long[]           filter;
+    private long             filterBits;
+
+    private void createFilter() {
+      long bits = Math.max(64l, (long) count * BLOOM_BITS_PER_ID);
+
+      filter = new long[(int) ((bits + 63) >>> 6)];
+      filterBits = (long) filter.length << 6;
+      for (int i = 0; i < count; i++) {
+        putInFilter(getHash(i));
+      }
+    }
 
-  private static final Log       LOGGER    = LogFactory
-      .getLog(DBMSAbstractConfig.KDMS_ROOTLOG_CATEGORY + "KDMSUniqueSeqIdIndex");
-  private static final int    LUCENE_SEARCH_HITS_MAX_NUMBER = 1;
+    private long getBit(long hash, int i) {
+      return Long.remainderUnsigned(hash + i * ((hash >>> 32) | 1), filterBits);
+    }
 
-  private static final String SEQID_FIELD                   = "seqid";
+    private void putInFilter(long hash) {
+      long bit;
 
-  private static final String ERR_MSG3                      = "unable to add seqId: ";
-  private static final String ERR_MSG4                      = "unable to commit data: ";
+      for (int i = 0; i < BLOOM_HASHES; i++) {
+        bit = getBit(hash, i);
+        filter[(int) (bit >>> 6)] |= 1l << bit;
+      }
+    }
 
-  public DBMSUniqueSeqIdIndex() {
-    this._document.add(this._field);
-  }
+    private boolean mightContain(long hash) {
+      long bit;
 
-  public void commit() throws DBMSUniqueSeqIdIndexException {
-    try {
-      _writer.commit();
-      this.openReader();
-    } catch (Exception e) {
-      throw new DBMSUniqueSeqIdIndexException(ERR_MSG4 + e);
+      for (int i = 0; i < BLOOM_HASHES; i++) {
+        bit = getBit(hash, i);
+        if ((filter[(int) (bit >>> 6)] & (1l << bit)) == 0) {
+          return false;
+        }
+      }
+      return true;
     }
-  }
 
-  public void addSeqID(String seqId) throws DBMSUniqueSeqIdIndexException {
-
-    try {
-      this._field.setValue(seqId);
-      _writer.addDocument(this._document);
-    } catch (Exception e) {
-      throw new DBMSUniqueSeqIdIndexException(ERR_MSG3 + seqId + ": "
-          + e.getMessage());
+    private long getHash(int i) {
+      return buf.getLong(HEADER_SIZE + 8 * i);
     }
-  }
 
-  public boolean contains(String id) throws DBMSUniqueSeqIdIndexException {
-    TopDocs hits = null;
-    boolean bFound = false;
+    private boolean equals(int i, byte[] id) {
+      int pos, len, j;
 
-    if (!isReaderOpen()) {
-      LOGGER.error("No reader open !");
-      return false;
+      pos = (int) buf.getLong(HEADER_SIZE + 8 * (count + i));
+      len = buf.getInt(pos);
+      if (len != id.length) {
+        return false;
+      }
+      pos += 4;
+      for (j = 0; j < len; j++) {
+        if (buf.get(pos + j) != id[j]) {
+          return false;
+        }
+      }
+      return true;
     }
 
-    if (this.nbDocInIndex > 0) {
-      try {
-
-        hits = _searcher.search(new TermQuery(this._term.createTerm(id)),
-            LUCENE_SEARCH_HITS_MAX_NUMBER);
-        bFound = (hits.totalHits != 0);
-      } catch (Exception e) {
-        throw new DBMSUniqueSeqIdIndexException("Unable to query index: " + e);
+    private boolean contains(long hash, byte[] id) {
+      int low, high, mid;
+
+      low = 0;
+      high = count;
+      // lower bound of hash
+      while (low < high) {
+        mid = (low + high) >>> 1;
+        if (getHash(mid) < hash)
+          low = mid + 1;
+        else
+          high = mid;
       }
+      for (; low < count && getHash(low) == hash; low++) {
+        if (equals(low, id)) {
+          return true;
+        }
+      }
+      return false;
     }
-    return bFound;
   }
 
   /**
-   * Closes a Lucene reader.
+   * Returns the number of runs of this index.
    */
-  private boolean closeReader() {
-    boolean bRet = false;
+  public int getRuns() {
+    return _runs != null ? _runs.size() : 0;
+  }
 
-    if (_searcher == null) {
-      LOGGER.warn("index (read mode) not closed : no searcher open");
-      LOGGER.warn("writer is : " + (_writer == null ? "null" : "not null"));
-      return bRet;
-    }
+  /**
+   * Returns the number of runs searched since this index has been created,
+   * i.e. the number of times the filter of a run reported that it may contain
+   * an ID.
+   */
+  public long getLookups() {
+    return _lookups.get();
+  }
 
-    try {
-      _searcher.close();
-      bRet = true;
-    } catch (Exception e) {
-      LOGGER.warn("Unable to close index (read mode): " + e);
-    }
-    return bRet;
+  /**
+   * Returns the ratio of run filters that wrongly reported that a run may
+   * contain an ID.
+   */
+  public double getFalsePositiveRate() {
+    long checks = _filterChecks.get();
+
+    return checks != 0 ? (double) _falseLookups.get() / (double) checks : 0d;
   }
 
   /**
-   * Closes a Lucene writer.
+   * Figures out whether or not a sequence ID is contained in this index.
+   *
+   * @param hash
+   *          the hash of the ID
+   * @param id
+   *          the sequence ID
    */
-  private boolean closeWriter(boolean optimize) {
-    boolean bRet = false;
+  public boolean contains(long hash, String id) {
+    byte[] bytes;
 
-    if (_writer == null) {
-      LOGGER.warn("index (read mode) not closed : no writer open");
-      LOGGER.warn("searcher is : " + (_searcher == null ? "null" : "not null"));
-      return bRet;
+    if (_runs == null || _runs.isEmpty()) {
+      return false;
     }
-
-    try {
-      _writer.commit();
-      if (optimize) {
-        // this is a very time consuming step: does it only when required
-        _writer.optimize();
-      }
-      _writer.close();
-      _writer = null;
-      bRet = true;
-    } catch (Exception e) {
-      LOGGER.warn("Unable to close index writer: " + e);
+    bytes = null;
+    for (Run run : _runs) {
+      _filterChecks.incrementAndGet();
+      if (!run.mightContain(hash)) {
+        continue;
+      }
+      _lookups.incrementAndGet();
+      if (bytes == null) {
+        bytes = id.getBytes(StandardCharsets.UTF_8);
+      }
+      if (run.contains(hash, bytes)) {
+        return true;
+      }
+      _falseLookups.incrementAndGet();
     }
-    return bRet;
+    return false;
   }
 
   /**
-   * Opens a Lucene writer.
+   * Adds a set of sequence IDs to this index. Arrays are sorted by this
+   * method.
+   *
+   * @param hashes
+   *          hashes of the IDs
+   * @param ids
+   *          the sequence IDs
+   * @param count
+   *          number of IDs to add
+   *
+   * @throws DBMSUniqueSeqIdIndexException
+   *           if IDs cannot be written
    */
-  private boolean openWriter() {
-
-    if (_writer != null) {
-      return true;
+  public void addSeqIDs(long[] hashes, String[] ids, int count)
+      throws DBMSUniqueSeqIdIndexException {
+    byte[][] bytes;
+    long[] ords;
+    long size;
+    int i, from;
+
+    if (count == 0) {
+      return;
     }
-
-    boolean bRet = true;
-
+    ords = new long[count];
+    for (i = 0; i < count; i++) {
+      ords[i] = i;
+    }
+    CompactStorageSystem.sortKeys(hashes, ords, 0, count);
+    bytes = new byte[count][];
+    from = 0;
+    size = HEADER_SIZE;
     try {
-
-      File dirIndex = new File(_indexName);
-      FSDirectory index = LuceneUtils.getDirectory(dirIndex);
-      // if (!(dirIndex.exists())) {
-      // _writer = new IndexWriter(index, new
-      // StandardAnalyzer(Version.LUCENE_29), true,
-      // IndexWriter.MaxFieldLength.UNLIMITED);
-      // _writer.close();
-      // }
-      //
-      // _writer = new IndexWriter(new RAMDirectory(index), new
-      // StandardAnalyzer(Version.LUCENE_29), false,
-      // IndexWriter.MaxFieldLength.UNLIMITED);
-      _writer = new IndexWriter(index, new StandardAnalyzer(Version.LUCENE_29),
-          !(dirIndex.exists()), IndexWriter.MaxFieldLength.UNLIMITED);
+      for (i = 0; i < count; i++) {
+        bytes[i] = ids[(int) ords[i]].getBytes(StandardCharsets.UTF_8);
+        if (size + 20 + bytes[i].length > MAX_RUN_SIZE) {
+          addRun(writeRun(hashes, bytes, from, i));
+          from = i;
+          size = HEADER_SIZE;
+        }
+        size += 20 + bytes[i].length;
+      }
+      addRun(writeRun(hashes, bytes, from, count));
     } catch (IOException e) {
-      LOGGER.warn("Unable to open index (write mode): " + e);
-      bRet = false;
+      throw new DBMSUniqueSeqIdIndexException(ERR_MSG3 + e);
     }
-    return bRet;
   }
 
-  boolean isWriterOpen() {
-    return _writer != null;
+  private File writeRun(long[] hashes, byte[][] ids, int from, int to)
+      throws IOException {
+    DataOutputStream out;
+    File tmpFile, file;
+    long pos;
+    int i;
+
+    file = new File(_indexName, RUN_PREFIX + _nextRun);
+    tmpFile = new File(_indexName, RUN_PREFIX + _nextRun + ".tmp");
+    _nextRun++;
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+        tmpFile), IO_BUF_SIZE));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(to - from);
+      for (i = from; i < to; i++) {
+        out.writeLong(hashes[i]);
+      }
+      pos = HEADER_SIZE + 16l * (to - from);
+      for (i = from; i < to; i++) {
+        out.writeLong(pos);
+        pos += 4 + ids[i].length;
+      }
+      for (i = from; i < to; i++) {
+        out.writeInt(ids[i].length);
+        out.write(ids[i]);
+      }
+    } finally {
+      out.close();
+    }
+    // a run is never seen partially written, e.g. when resuming an install
+    if (!tmpFile.renameTo(file)) {
+      throw new IOException("unable to rename " + tmpFile);
+    }
+    return file;
   }
 
-  boolean isReaderOpen() {
-    return _searcher != null;
+  private void addRun(File file) throws IOException {
+    RandomAccessFile raf;
+    FileChannel fc;
+    Run run;
+
+    raf = new RandomAccessFile(file, "r");
+    try {
+      fc = raf.getChannel();
+      run = new Run();
+      // mapping remains valid once the file is closed
+      run.buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+      if (run.buf.getInt(0) != MAGIC) {
+        throw new IOException("not a seqIds run: " + file);
+      }
+      run.count = run.buf.getInt(4);
+      run.createFilter();
+    } finally {
+      raf.close();
+    }
+    _runs.add(run);
   }
 
   /**
-   * Opens a Lucene reader.
+   * Releases the memory mapping of a run right now instead of waiting for the
+   * garbage collector, so that the run file can be deleted afterwards. There
+   * is no public API to do that: the mapping is left to the garbage collector
+   * when it fails.
    */
-  private boolean openReader() {
-    boolean bRet = true;
-    boolean readOnly = true;
+  private static void unmap(MappedByteBuffer buf) {
+    Class<?> unsafeClass;
+    Method method;
+    Field field;
+    Object cleaner;
 
-    // WARNING - potential poor multi-threading performance - check
-    // SimpleSimpleFSDirectory
     try {
-      if (_searcher != null) {
-        _searcher.close();
+      try {
+        // Java 9 and above
+        unsafeClass = Class.forName("sun.misc.Unsafe");
+        method = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        field = unsafeClass.getDeclaredField("theUnsafe");
+        field.setAccessible(true);
+        method.invoke(field.get(null), buf);
+      } catch (NoSuchMethodException e) {
+        // Java 8
+        method = buf.getClass().getMethod("cleaner");
+        method.setAccessible(true);
+        cleaner = method.invoke(buf);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
       }
-      _searcher = new IndexSearcher(LuceneUtils.getDirectory(new File(_indexName)),
-          readOnly);
-      this.nbDocInIndex = _searcher.maxDoc();
-    } catch (IOException e) {
-      LOGGER.warn("Unable to open index (read mode): " + e);
-      // e.printStackTrace();
-      bRet = false;
+    } catch (Exception e) {
+      LOGGER.debug("unable to unmap seqIds run: " + e);
     }
-    return bRet;
   }
 
+  /**
+   * Closes this index.
+   */
   public boolean close() {
-    return close(false);
-  }
-
-  public boolean close(boolean optimize) {
-    boolean closeWriter = closeWriter(optimize);
-    return closeReader() && closeWriter;
+    if (_runs != null) {
+      for (Run run : _runs) {
+        unmap(run.buf);
+        run.buf = null;
+      }
+      _runs = null;
+    }
+    return true;
   }
 
-  public boolean open(String name, boolean readOnly) {
+  /**
+   * Opens an index. Runs already contained in the index, e.g. when resuming
+   * an install, are loaded.
+   *
+   * @param name
+   *          the index path. The directory is created if needed.
+   */
+  public boolean open(String name) {
+    File dir;
+    File[] files;
+    int n;
 
     _indexName = name;
-
-    if (readOnly || openWriter()) {
-      return openReader();
+    _runs = new ArrayList<Run>();
+    _nextRun = 0;
+    dir = new File(name);
+    try {
+      if (!dir.exists() && !dir.mkdirs()) {
+        throw new IOException("unable to create " + name);
+      }
+      files = dir.listFiles((d, fName) -> fName.matches(RUN_PREFIX + "\\d+"));
+      Arrays.sort(files);
+      for (File f : files) {
+        n = Integer.parseInt(f.getName().substring(RUN_PREFIX.length()));
+        _nextRun = Math.max(_nextRun, n + 1);
+        addRun(f);
+      }
+    } catch (Exception e) {
+      LOGGER.warn(ERR_MSG4 + e);
+      close();
+      return false;
     }
-    return false;
-
+    return true;
   }
-}
\ No newline at end of file
+}
@@ -148,7 +148,9 @@ public abstract class FormatDBMonitor implements SeqIOConvertMonitor {
     _seqIdDetector.reset();
     if (_seqIdDetector.hasBeenUsed()) {
       LoggerCentral.info(LOGGER, "FormatDB/UniqueSeqId: total working time: "
-          + (_seqIdDetector.getWorkingTime() / 1000l) + " s.");
+          + (_seqIdDetector.getWorkingTime() / 1000l) + " s., filter hits: "
+          + _seqIdDetector.getFilterHits() + ", false positive rate: "
+          + String.format("%.4f", _seqIdDetector.getFalsePositiveRate()));
     }
     // close index before deletion
     try {
@@ -29,6 +29,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Serializable;
+import java.io.StringReader;
 import java.util.List;
 import java.util.NoSuchElementException;
 
@@ -384,6 +385,30 @@ public class SeqIOUtils {
     return fileType;
   }
 
+  /**
+   * Figures out the type of a Fasta entry provided as a string.
+   * 
+   * @param data
+   *          a string containing a full Fasta entry.
+   * 
+   * @return one of FASTADNA, FASTARNA, FASTAPROT or UNKNOWN if data does not
+   *         contain a Fasta entry.
+   */
+  public static int guessFastaDataFormat(String data) {
+    String seq;
+
+    seq = readFastaPartial(new BufferedReader(new StringReader(data)), '>');
+    if (seq.length() == 0) {
+      return UNKNOWN;
+    } else if (isProteic(seq)) {
+      return FASTAPROT;
+    } else if (isFastaDNA(seq)) {
+      return FASTADNA;
+    } else {
+      return FASTARNA;
+    }
+  }
+
   public static void fillDescription(String line, String id, String idDesc,
       StringBuilder buf) {
     buf.append(line.substring(idDesc.length()).replace(id, "").trim());
@@ -909,6 +934,24 @@ public class SeqIOUtils {
    */
   private static String readFastaPartial(String fname, char idKey) {
     BufferedReader reader = null;
+    String seq;
+
+    try {
+      reader = new BufferedReader(new FileReader(fname));
+      seq = readFastaPartial(reader, idKey);
+    } catch (Exception e) {// should not happen
+      seq = "";
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+    return seq;
+  }
+
+  /**
+   * Utility method. Read up to 50 line of fasta data and returns the sequence
+   * read.
+   */
+  private static String readFastaPartial(BufferedReader reader, char idKey) {
     StringBuffer buf;
     String line;
     boolean reading = false;
@@ -916,7 +959,6 @@ public class SeqIOUtils {
 
     buf = new StringBuffer();
     try {
-      reader = new BufferedReader(new FileReader(fname));
       while ((line = reader.readLine()) != null) {
         if (line.length() == 0)
           continue;
@@ -945,8 +987,6 @@ public class SeqIOUtils {
         }
       }
     } catch (Exception e) {// should not happen
-    } finally {
-      IOUtils.closeQuietly(reader);
     }
 
     return buf.toString();
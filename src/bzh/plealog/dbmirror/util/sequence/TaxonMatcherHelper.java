@@ -20,6 +20,7 @@ import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -27,6 +28,7 @@ import org.apache.commons.logging.Log;
 import bzh.plealog.dbmirror.lucenedico.DicoTermQuerySystem;
 import bzh.plealog.dbmirror.lucenedico.DicoUtils;
 import bzh.plealog.dbmirror.lucenedico.Dicos;
+import bzh.plealog.dbmirror.lucenedico.tax.TaxonomyTree;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 import bzh.plealog.dbmirror.util.conf.DBMirrorConfig;
 import bzh.plealog.dbmirror.util.descriptor.DBDescriptorUtils;
@@ -49,6 +51,22 @@ public class TaxonMatcherHelper {
   private DicoTermQuerySystem             _termRepository = null;
   private DBXrefTagManager                _xrefManager    = null;
 
+  // verdicts computed so far, given taxon IDs
+  private ConcurrentHashMap<String, Byte> _verdicts       = new ConcurrentHashMap<String, Byte>();
+  private volatile byte[]                 _taxonStates;
+
+  private static final byte               ACCEPTED        = 1;
+  private static final byte               REJECTED        = 2;
+  private static final byte               NOT_FOUND       = 3;
+  private static final int                MAX_VERDICTS    = 1000000;
+
+  // states of the taxonomy tree nodes: see getTaxonStates()
+  private static final byte               COMPUTED        = 1;
+  private static final byte               VALID           = 2;
+  private static final byte               INCLUDE         = 4;
+  private static final byte               EXCLUDE         = 8;
+  private static final int                MAX_DEPTH       = 1024;
+
   public static final String              ERR1            = "cannot use taxonomy constraints without NCBI Taxonomy Classification installed.";
 
   public static boolean isNCBITaxonomyInstalled() {
@@ -92,6 +110,14 @@ public class TaxonMatcherHelper {
     if (taxExclude != null) {
       _taxExclude = handleData(taxExclude);
     }
+    resetVerdicts();
+  }
+
+  private void resetVerdicts() {
+    synchronized (_verdicts) {
+      _verdicts.clear();
+      _taxonStates = null;
+    }
   }
 
   /**
@@ -107,10 +133,8 @@ public class TaxonMatcherHelper {
    *          ID a taxonomy ID
    * */
   public void isTaxonvalid(boolean[] values, String taxonID) {
-    boolean seqOk, foundInInclude, foundInExclude;
-    StringTokenizer tokenizer;
-    String taxPath, token;
     TaxonCounter counter;
+    byte verdict;
 
     values[0] = false;
     values[1] = true;
@@ -118,26 +142,21 @@ public class TaxonMatcherHelper {
     if (_termRepository == null) {
       return;
     }
-    seqOk = false;
+    verdict = REJECTED;
     if (taxonID != null) {
       values[0] = true;
-      taxPath = _termRepository.getTaxPathIds(taxonID, false);
-      if (taxPath != null) {
-        values[2] = true;
-        taxPath += DicoUtils.TAX_ID_NAME_PREFIX;
-        taxPath += taxonID;
-        foundInInclude = foundInExclude = false;
-        tokenizer = new StringTokenizer(taxPath, ";");
-        while (tokenizer.hasMoreTokens()) {
-          token = tokenizer.nextToken();
-          if (_taxInclude != null && _taxInclude.contains(token)) {
-            foundInInclude = true;
-          }
-          if (_taxExclude != null && _taxExclude.contains(token)) {
-            foundInExclude = true;
-          }
+      // sequence databanks reference a same taxon again and again
+      Byte known = _verdicts.get(taxonID);
+      if (known != null) {
+        verdict = known;
+      } else {
+        verdict = getVerdict(taxonID);
+        if (_verdicts.size() < MAX_VERDICTS) {
+          _verdicts.put(taxonID, verdict);
         }
-        seqOk = (foundInInclude && !foundInExclude);
+      }
+      if (verdict != NOT_FOUND) {
+        values[2] = true;
       } else {
         if (_taxNotFound.containsKey(taxonID)) {
           counter = _taxNotFound.get(taxonID);
@@ -148,7 +167,151 @@ public class TaxonMatcherHelper {
         values[2] = false;
       }
     }
-    values[1] = seqOk;
+    values[1] = (verdict == ACCEPTED);
+  }
+
+  /**
+   * Check a taxon ID against the constraints.
+   */
+  private byte getVerdict(String taxonID) {
+    boolean foundInInclude, foundInExclude;
+    TaxonomyTree tree;
+    byte[] states;
+    String token;
+    int taxId;
+
+    tree = _termRepository.getTaxonomyTree();
+    if (tree != null) {
+      states = getTaxonStates(tree);
+      taxId = tree.resolve(TaxonomyTree.parseTaxId(taxonID));
+      if (taxId < 0 || taxId == TaxonomyTree.ROOT_ID
+          || (states[taxId] & VALID) == 0) {
+        return NOT_FOUND;
+      }
+      // the taxon ID itself is checked too: it may be a merged one
+      token = DicoUtils.TAX_ID_NAME_PREFIX + taxonID;
+      foundInInclude = (states[taxId] & INCLUDE) != 0
+          || (_taxInclude != null && _taxInclude.contains(token));
+      foundInExclude = (states[taxId] & EXCLUDE) != 0
+          || (_taxExclude != null && _taxExclude.contains(token));
+    } else {
+      StringTokenizer tokenizer;
+      String taxPath;
+
+      taxPath = _termRepository.getTaxPathIds(taxonID, false);
+      if (taxPath == null) {
+        return NOT_FOUND;
+      }
+      taxPath += DicoUtils.TAX_ID_NAME_PREFIX;
+      taxPath += taxonID;
+      foundInInclude = foundInExclude = false;
+      tokenizer = new StringTokenizer(taxPath, ";");
+      while (tokenizer.hasMoreTokens()) {
+        token = tokenizer.nextToken();
+        if (_taxInclude != null && _taxInclude.contains(token)) {
+          foundInInclude = true;
+        }
+        if (_taxExclude != null && _taxExclude.contains(token)) {
+          foundInExclude = true;
+        }
+      }
+    }
+    return (foundInInclude && !foundInExclude) ? ACCEPTED : REJECTED;
+  }
+
+  /**
+   * Returns the state of all the nodes of the taxonomy tree given the
+   * constraints. For each node, the state tells whether its lineage is valid,
+   * i.e. it goes up to the root, and whether the node or one of its ancestors
+   * is an included or excluded taxon. States are computed once.
+   */
+  private byte[] getTaxonStates(TaxonomyTree tree) {
+    byte[] states = _taxonStates;
+
+    if (states != null) {
+      return states;
+    }
+    synchronized (_verdicts) {
+      if (_taxonStates == null) {
+        _taxonStates = computeTaxonStates(tree);
+      }
+      return _taxonStates;
+    }
+  }
+
+  private int[] getTaxIds(HashSet<String> set) {
+    int[] ids;
+    int i = 0;
+
+    if (set == null) {
+      return new int[0];
+    }
+    ids = new int[set.size()];
+    for (String token : set) {
+      ids[i++] = TaxonomyTree.parseTaxId(token
+          .substring(DicoUtils.TAX_ID_NAME_PREFIX.length()));
+    }
+    return ids;
+  }
+
+  private byte[] computeTaxonStates(TaxonomyTree tree) {
+    byte[] states, own;
+    int[] stack;
+    int taxId, node, n;
+    byte state;
+
+    states = new byte[tree.getMaxTaxId() + 1];
+    own = new byte[states.length];
+    for (int id : getTaxIds(_taxInclude)) {
+      if (id > 0 && id < own.length) {
+        own[id] |= INCLUDE;
+      }
+    }
+    for (int id : getTaxIds(_taxExclude)) {
+      if (id > 0 && id < own.length) {
+        own[id] |= EXCLUDE;
+      }
+    }
+    stack = new int[MAX_DEPTH];
+    for (taxId = 1; taxId < states.length; taxId++) {
+      if (states[taxId] != 0 || !tree.hasNode(taxId)) {
+        continue;
+      }
+      // go up to the first node having a known state
+      n = 0;
+      node = taxId;
+      state = 0;
+      while (true) {
+        if (!tree.hasNode(node)) {
+          state = COMPUTED;
+          break;
+        }
+        if (states[node] != 0) {
+          state = states[node];
+          break;
+        }
+        if (n == MAX_DEPTH) {
+          // cycle: none of these nodes has a valid lineage
+          state = COMPUTED;
+          break;
+        }
+        stack[n++] = node;
+        if (node == TaxonomyTree.ROOT_ID) {
+          state = COMPUTED | VALID;
+          break;
+        }
+        node = tree.getParent(node);
+      }
+      // then go down to the node, inheriting the state of the parent
+      while (n > 0) {
+        node = stack[--n];
+        if ((state & VALID) != 0) {
+          state = (byte) (state | own[node]);
+        }
+        states[node] = state;
+      }
+    }
+    return states;
   }
 
   /**
@@ -193,6 +356,7 @@ public class TaxonMatcherHelper {
 
   public void setDicoTermQuerySystem(DicoTermQuerySystem termRepository) {
     _termRepository = termRepository;
+    resetVerdicts();
   }
 
   /**
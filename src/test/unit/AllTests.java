@@ -39,6 +39,21 @@ import org.junit.runners.Suite.SuiteClasses;
   DBMSUniqueSeqIdDetectorTest.class,
   PLocalLoaderTest.class,
   LuceneStorageSystemTest.class,
+  ParallelRecordScannerTest.class,
+  ByteLineReaderTest.class,
+  StorageCacheTest.class,
+  TaxonomyTreeTest.class,
+  GeneOntologyDagTest.class,
+  GeneOntologyTermSerializerTest.class,
+  DBEntryRecordTest.class,
+  SRIterationProcessorTest.class,
+  PTaskEngineTest.class,
+  GunzipPipelineTest.class,
+  ArchiveExtractorTest.class,
+  SegmentedDownloadTest.class,
+  FileChecksumTest.class,
+  BankManifestTest.class,
+  BlastXmlChunkTest.class,
   NcbiTaxonomyIndexerTest.class,
   RunningMirrorPanelTest.class,
   SeqIOUtilsTest.class,
@@ -0,0 +1,240 @@
+/* Copyright (C) 2007-2022 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.tools.tar.TarEntry;
+import org.apache.tools.tar.TarOutputStream;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bzh.plealog.dbmirror.util.ArchiveExtractor;
+
+/**
+ * Check the extraction of Tar and gzipped files.
+ */
+public class ArchiveExtractorTest {
+
+  private static File _dir;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    UtilsTest.configureApp();
+    _dir = Files.createTempDirectory("bdmextract").toFile();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() {
+    FileUtils.deleteQuietly(_dir);
+  }
+
+  private void addEntry(TarOutputStream tos, String name, String content)
+      throws IOException {
+    byte[] data = content.getBytes(StandardCharsets.UTF_8);
+    TarEntry entry = new TarEntry(name);
+
+    entry.setSize(data.length);
+    tos.putNextEntry(entry);
+    tos.write(data);
+    tos.closeEntry();
+  }
+
+  private File createTar(String name, boolean gzipped, String... entries)
+      throws IOException {
+    File f = new File(_dir, name);
+    OutputStream out = new FileOutputStream(f);
+
+    if (gzipped) {
+      out = new GZIPOutputStream(out);
+    }
+    try (TarOutputStream tos = new TarOutputStream(out)) {
+      tos.setLongFileMode(TarOutputStream.LONGFILE_GNU);
+      for (String entry : entries) {
+        addEntry(tos, entry, "content of " + entry);
+      }
+    }
+    return f;
+  }
+
+  private void checkEntry(File dir, String name) throws IOException {
+    assertEquals("content of " + name,
+        FileUtils.readFileToString(new File(dir, name), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testUntar() throws Exception {
+    String longName = "dir/" + new String(new char[120]).replace('\0', 'n');
+    ArchiveExtractor extractor = new ArchiveExtractor(1);
+    File tar, tgz, dest;
+
+    tar = createTar("db.tar", false, "nr.00.pin", "dir/nr.00.psq", longName);
+    dest = new File(_dir, "tar");
+    extractor.untar(tar, dest, false);
+    checkEntry(dest, "nr.00.pin");
+    checkEntry(dest, "dir/nr.00.psq");
+    checkEntry(dest, longName);
+
+    tgz = createTar("db.tar.gz", true, "nr.01.pin", "dir/nr.01.psq");
+    dest = new File(_dir, "tgz");
+    extractor.untar(tgz, dest, true);
+    checkEntry(dest, "nr.01.pin");
+    checkEntry(dest, "dir/nr.01.psq");
+  }
+
+  @Test
+  public void testUntarOutsideDest() throws Exception {
+    File tar = createTar("evil.tar", false, "ok.txt", "../evil.txt");
+
+    try {
+      new ArchiveExtractor(1).untar(tar, new File(_dir, "evil"), false);
+      fail("entry extracted outside of destination directory");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("evil.txt"));
+    }
+    assertFalse(new File(_dir, "evil.txt").exists());
+  }
+
+  private byte[] gzip(byte[] data, int level) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (GZIPOutputStream gos = new GZIPOutputStream(bos) {
+      {
+        def.setLevel(level);
+      }
+    }) {
+      gos.write(data);
+    }
+    return bos.toByteArray();
+  }
+
+  private byte[] gunzipReference(File f) throws IOException {
+    try (InputStream in = new GZIPInputStream(new FileInputStream(f))) {
+      return IOUtils.toByteArray(in);
+    }
+  }
+
+  private void checkGunzip(File gzFile) throws Exception {
+    byte[] expected = gunzipReference(gzFile);
+    File target;
+
+    for (int workers : new int[] { 1, 4 }) {
+      target = new File(_dir, workers + "_" + gzFile.getName() + ".out");
+      new ArchiveExtractor(workers).gunzip(gzFile, target);
+      assertArrayEquals(gzFile.getName() + ", workers: " + workers, expected,
+          FileUtils.readFileToByteArray(target));
+      assertFalse(new File(target.getAbsolutePath()
+          + ArchiveExtractor.PART_FEXT).exists());
+    }
+  }
+
+  @Test
+  public void testGunzip() throws Exception {
+    Random rand = new Random(1);
+    byte[] data, fakeHeaders;
+    File gzFile;
+
+    gzFile = new File(_dir, "multi.gz");
+    try (OutputStream out = new FileOutputStream(gzFile)) {
+      // many small members
+      for (int i = 0; i < 40; i++) {
+        data = new byte[100000 + rand.nextInt(200000)];
+        rand.nextBytes(data);
+        out.write(gzip(data, Deflater.DEFAULT_COMPRESSION));
+      }
+      // stored data looking like gzip headers
+      fakeHeaders = new byte[3 * 1024 * 1024];
+      for (int i = 0; i < fakeHeaders.length; i += 4) {
+        fakeHeaders[i] = 0x1f;
+        fakeHeaders[i + 1] = (byte) 0x8b;
+        fakeHeaders[i + 2] = 8;
+      }
+      out.write(gzip(fakeHeaders, Deflater.NO_COMPRESSION));
+      // a member too large to be kept in memory
+      data = new byte[40 * 1024 * 1024];
+      Arrays.fill(data, (byte) 'A');
+      out.write(gzip(data, Deflater.DEFAULT_COMPRESSION));
+      data = new byte[3 * 1024 * 1024];
+      rand.nextBytes(data);
+      out.write(gzip(data, Deflater.DEFAULT_COMPRESSION));
+    }
+    checkGunzip(gzFile);
+
+    // a single member
+    gzFile = new File(_dir, "single.gz");
+    data = new byte[6 * 1024 * 1024];
+    rand.nextBytes(data);
+    FileUtils.writeByteArrayToFile(gzFile, gzip(data,
+        Deflater.DEFAULT_COMPRESSION));
+    checkGunzip(gzFile);
+
+    // trailing data are ignored
+    try (OutputStream out = new FileOutputStream(gzFile, true)) {
+      out.write(new byte[1024 * 1024]);
+    }
+    checkGunzip(gzFile);
+  }
+
+  @Test
+  public void testCorruptedGunzip() throws Exception {
+    Random rand = new Random(2);
+    File gzFile, target;
+    byte[] data, gzData;
+
+    data = new byte[6 * 1024 * 1024];
+    rand.nextBytes(data);
+    gzData = gzip(data, Deflater.DEFAULT_COMPRESSION);
+    gzFile = new File(_dir, "corrupted.gz");
+    FileUtils.writeByteArrayToFile(gzFile, gzData);
+    FileUtils.writeByteArrayToFile(gzFile, gzData, true);
+    // a member having a wrong CRC
+    gzData[gzData.length - 6] ^= 0xff;
+    FileUtils.writeByteArrayToFile(gzFile, gzData, true);
+    target = new File(_dir, "corrupted");
+    for (int workers : new int[] { 1, 4 }) {
+      try {
+        new ArchiveExtractor(workers).gunzip(gzFile, target);
+        fail("corrupted file uncompressed, workers: " + workers);
+      } catch (IOException e) {
+      }
+      assertFalse(target.exists());
+      assertFalse(new File(target.getAbsolutePath()
+          + ArchiveExtractor.PART_FEXT).exists());
+    }
+  }
+}
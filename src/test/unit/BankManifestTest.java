@@ -0,0 +1,174 @@
+/* Copyright (C) 2007-2022 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bzh.plealog.dbmirror.fetcher.BankManifest;
+import bzh.plealog.dbmirror.fetcher.DBMSFile;
+import bzh.plealog.dbmirror.fetcher.DBServerConfig;
+import bzh.plealog.dbmirror.fetcher.LoaderEngine;
+import bzh.plealog.dbmirror.fetcher.PLocalLoader;
+import bzh.plealog.dbmirror.indexer.LuceneUtils;
+import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
+
+/**
+ * Check the reuse of the unchanged files of an installed bank.
+ */
+public class BankManifestTest {
+
+  private static File _dir;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    UtilsTest.configureApp();
+    _dir = Files.createTempDirectory("bdmmanifest").toFile();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() {
+    FileUtils.deleteQuietly(_dir);
+  }
+
+  private class TestConfig extends DBServerConfig {
+    private String _tmp, _prod;
+
+    private TestConfig(String tmp, String prod) {
+      setName("delta");
+      _tmp = new File(_dir, tmp).getAbsolutePath() + File.separator;
+      _prod = new File(_dir, prod).getAbsolutePath() + File.separator;
+    }
+
+    @Override
+    public String getLocalTmpFolder() {
+      return _tmp;
+    }
+
+    @Override
+    public String getLocalProdFolder() {
+      return _prod;
+    }
+  }
+
+  private DBMSFile getFile(String name, long size, long stamp, String checksum) {
+    return new DBMSFile("ftp.server\t/db/\t" + name + "\t" + size + "\t"
+        + stamp + (checksum != null ? "\t" + checksum : ""));
+  }
+
+  private void createFile(String dir, String name) throws Exception {
+    FileUtils.writeStringToFile(new File(_dir, dir + File.separator + name),
+        "content of " + name, StandardCharsets.UTF_8);
+  }
+
+  private String readFile(String dir, String name) throws Exception {
+    return FileUtils.readFileToString(new File(_dir, dir + File.separator
+        + name), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testReuseUnchangedFiles() throws Exception {
+    TestConfig installed = new TestConfig("current", "none");
+    TestConfig update = new TestConfig("download", "current");
+    List<DBMSFile> files;
+    Map<String, DBMSFile> manifest;
+    String path;
+
+    // installed release
+    createFile("current", "gbbct1.seq");
+    createFile("current", "gbbct1.seq" + DBMSAbstractConfig.FEXT_NUM);
+    createFile("current", "gbbct1.seq" + LuceneUtils.DIR_OK_FEXT + "/segments");
+    createFile("current", "gbbct2.seq");
+    createFile("current", "gbbct3.seq");
+    createFile("current", "est.dat");
+    files = Arrays.asList(getFile("gbbct1.seq.gz", 10, 1000, "md5 0123"),
+        getFile("gbbct2.seq.gz", 20, 1000, null),
+        getFile("gbbct3.seq.gz", 30, 1000, null),
+        getFile("est.dat", 40, 1000, null),
+        getFile("taxdump.tar.gz", 50, 1000, null));
+    BankManifest.write(installed, files);
+    manifest = BankManifest.read(installed.getLocalTmpFolder());
+    assertEquals(5, manifest.size());
+    assertEquals("md5 0123", manifest.get("gbbct1.seq.gz").getChecksum());
+    assertNull(manifest.get("est.dat").getChecksum());
+
+    // new release: gbbct2 and gbbct3 changed, gbbct4 added
+    files = Arrays.asList(getFile("gbbct1.seq.gz", 10, 1000, null),
+        getFile("gbbct2.seq.gz", 21, 1000, null),
+        getFile("gbbct3.seq.gz", 30, 2000, null),
+        getFile("gbbct4.seq.gz", 40, 1000, null),
+        getFile("est.dat", 40, 1000, null),
+        getFile("taxdump.tar.gz", 50, 1000, null));
+    assertEquals(2, BankManifest.reuseUnchangedFiles(update, files));
+    assertEquals("content of gbbct1.seq", readFile("download", "gbbct1.seq"));
+    assertEquals("content of gbbct1.seq" + LuceneUtils.DIR_OK_FEXT
+        + "/segments", readFile("download", "gbbct1.seq"
+        + LuceneUtils.DIR_OK_FEXT + "/segments"));
+    assertTrue(new File(_dir, "download/gbbct1.seq"
+        + DBMSAbstractConfig.FEXT_NUM).exists());
+    assertEquals("content of est.dat", readFile("download", "est.dat"));
+    assertFalse(new File(_dir, "download/gbbct2.seq").exists());
+    assertFalse(new File(_dir, "download/gbbct3.seq").exists());
+
+    // reused files are loaded, along with their checksum
+    path = update.getLocalTmpFolder();
+    assertEquals("md5 0123", files.get(0).getChecksum());
+    assertEquals("md5 0123", LoaderEngine.getLoadOkChecksum(path + "gbbct1.seq.gz"));
+    assertTrue(LoaderEngine.testLoadOkForFileExists(path + "est.dat"));
+    assertFalse(LoaderEngine.testLoadOkForFileExists(path + "gbbct2.seq.gz"));
+    assertFalse(LoaderEngine.testLoadOkForFileExists(path + "taxdump.tar.gz"));
+  }
+
+  @Test
+  public void testReuseLocalFiles() throws Exception {
+    TestConfig installed = new TestConfig("lcurrent", "none");
+    TestConfig update = new TestConfig("ldownload", "lcurrent");
+    PLocalLoader loader = new PLocalLoader(update);
+    List<DBMSFile> files;
+
+    // gzipped files of a local bank, installed uncompressed
+    createFile("lsource", "lbct1.seq.gz");
+    createFile("lsource", "lbct2.seq.gz");
+    createFile("lcurrent", "lbct1.seq");
+    files = Arrays.asList(
+        new DBMSFile(new File(_dir, "lsource/lbct1.seq.gz")),
+        new DBMSFile(new File(_dir, "lsource/lbct2.seq.gz")));
+    BankManifest.write(installed, files);
+
+    assertEquals(1, BankManifest.reuseUnchangedFiles(update, files));
+    assertEquals(1, loader.copyFiles(files, update.getLocalTmpFolder(), null));
+    // the reused file is not copied again
+    assertFalse(new File(_dir, "ldownload/lbct1.seq.gz").exists());
+    assertEquals("content of lbct1.seq", readFile("ldownload", "lbct1.seq"));
+    assertEquals("content of lbct2.seq.gz", readFile("ldownload",
+        "lbct2.seq.gz"));
+  }
+}
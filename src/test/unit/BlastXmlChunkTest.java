@@ -0,0 +1,165 @@
+/* Copyright (C) 2006-2019 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bzh.plealog.bioinfo.api.core.config.CoreSystemConfigurator;
+import bzh.plealog.bioinfo.api.data.searchresult.SROutput;
+import bzh.plealog.bioinfo.io.searchresult.ncbi.BlastLoader;
+import bzh.plealog.dbmirror.annotator.BlastXmlChunkReader;
+import bzh.plealog.dbmirror.annotator.BlastXmlChunkWriter;
+import bzh.plealog.dbmirror.annotator.PAnnotateBlastResult;
+
+/**
+ * Check that a Blast XML file read and written by chunks of iterations is the
+ * same as the one read and written at once.
+ */
+public class BlastXmlChunkTest {
+
+  private static final int NB_QUERIES = 5;
+
+  private static File      _dir;
+  private static File      _input;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    String data, header, iteration, trailer;
+    StringBuilder buf;
+    int start, end;
+
+    UtilsTest.configureApp();
+    CoreSystemConfigurator.initializeSystem();
+    // a Blast result with several queries
+    data = FileUtils.readFileToString(new File(UtilsTest.getTestFilePath(
+        "blast_results", "testFull", "hits_only.xml")), StandardCharsets.UTF_8);
+    start = data.indexOf("<Iteration>");
+    end = data.indexOf("</Iteration>") + "</Iteration>".length();
+    header = data.substring(0, start);
+    iteration = data.substring(start, end);
+    trailer = data.substring(end);
+    buf = new StringBuilder(header);
+    for (int i = 1; i <= NB_QUERIES; i++) {
+      buf.append(iteration
+          .replace("<Iteration_iter-num>1<", "<Iteration_iter-num>" + i + "<")
+          .replace("<Iteration_query-ID>KKCC1_RAT<",
+              "<Iteration_query-ID>query_" + i + "<"));
+      buf.append("\n        ");
+    }
+    buf.append(trailer.trim());
+    _dir = Files.createTempDirectory("bdmchunk").toFile();
+    _input = new File(_dir, "input.xml");
+    FileUtils.writeStringToFile(_input, buf.toString(), StandardCharsets.UTF_8);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() {
+    FileUtils.deleteQuietly(_dir);
+  }
+
+  private void checkChunks(int chunkSize, int expectedChunks) throws Exception {
+    BlastLoader loader = new BlastLoader();
+    ArrayList<String> queries = new ArrayList<String>();
+    File expected, output, chunk;
+    StringWriter writer;
+    SROutput bo;
+    int n, nbChunks = 0;
+
+    expected = new File(_dir, "expected.xml");
+    loader.write(expected, loader.load(_input));
+
+    output = new File(_dir, "output.xml");
+    chunk = new File(_dir, "chunk.xml");
+    try (BlastXmlChunkReader reader = new BlastXmlChunkReader(_input,
+        chunkSize);
+        BlastXmlChunkWriter chunkWriter = new BlastXmlChunkWriter(output)) {
+      assertTrue(reader.open());
+      while (true) {
+        writer = new StringWriter();
+        n = reader.nextChunk(writer);
+        if (n == 0) {
+          break;
+        }
+        nbChunks++;
+        FileUtils.writeStringToFile(chunk, writer.toString(),
+            BlastXmlChunkReader.CHARSET);
+        bo = loader.load(chunk);
+        assertEquals(n, bo.countIteration());
+        for (int i = 0; i < n; i++) {
+          queries.add(bo.getIteration(i).getIterationQueryID());
+        }
+        chunkWriter.write(bo);
+      }
+    }
+    assertEquals(expectedChunks, nbChunks);
+    assertEquals(NB_QUERIES, queries.size());
+    for (int i = 0; i < NB_QUERIES; i++) {
+      assertEquals("query_" + (i + 1), queries.get(i));
+    }
+    assertEquals(
+        FileUtils.readFileToString(expected, StandardCharsets.UTF_8),
+        FileUtils.readFileToString(output, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testChunks() throws Exception {
+    // one iteration per chunk
+    checkChunks(1, NB_QUERIES);
+    // all iterations in a single chunk
+    checkChunks(Integer.MAX_VALUE, 1);
+  }
+
+  @Test
+  public void testNoIteration() throws Exception {
+    File f = new File(_dir, "empty.xml");
+
+    FileUtils.writeStringToFile(f, "<?xml version=\"1.0\"?>\n<BlastOutput>\n"
+        + "</BlastOutput>\n", StandardCharsets.UTF_8);
+    try (BlastXmlChunkReader reader = new BlastXmlChunkReader(f, 1)) {
+      assertFalse(reader.open());
+    }
+  }
+
+  @Test
+  public void testUnreadableChunk() throws Exception {
+    File f = new File(_dir, "unreadable.xml");
+    File output = new File(_dir, "unreadable_annotated.xml");
+    String data;
+
+    // iterations are found, but they cannot be loaded
+    data = FileUtils.readFileToString(_input, StandardCharsets.UTF_8);
+    FileUtils.writeStringToFile(f, data.replace("</Hit>", ""),
+        StandardCharsets.UTF_8);
+    assertFalse(new PAnnotateBlastResult().annotate(f.getAbsolutePath(),
+        output.getAbsolutePath(), PAnnotateBlastResult.writer_type_xml,
+        PAnnotateBlastResult.annot_type_bio_class_only, false, 1, true));
+    assertFalse(output.exists());
+  }
+}
@@ -0,0 +1,160 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bzh.plealog.dbmirror.indexer.ByteLineReader;
+import bzh.plealog.dbmirror.indexer.FastaParser;
+import bzh.plealog.dbmirror.indexer.ParserMonitor;
+import bzh.plealog.dbmirror.reader.DBUtils;
+
+/**
+ * Check ByteLineReader and byte-exact positions of entries.
+ */
+public class ByteLineReaderTest {
+
+  private File _file;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    UtilsTest.configureApp();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    _file = File.createTempFile("bdm", ".fas");
+  }
+
+  @After
+  public void tearDown() {
+    _file.delete();
+  }
+
+  private List<String> readLines(long from, long to) throws Exception {
+    ArrayList<String> lines = new ArrayList<String>();
+    ByteLineReader reader = new ByteLineReader(_file.getAbsolutePath(), from,
+        to);
+    try {
+      while (reader.nextLine()) {
+        lines.add(reader.getLinePos() + ":" + reader.getLine() + ":"
+            + reader.getPos());
+      }
+    } finally {
+      reader.close();
+    }
+    return lines;
+  }
+
+  @Test
+  public void testLineTerminators() throws Exception {
+    FileUtils.writeStringToFile(_file, "ab\r\ncd\ref\n\ngh",
+        StandardCharsets.UTF_8);
+    assertEquals(
+        Arrays.asList("0:ab:4", "4:cd:7", "7:ef:10", "10::11", "11:gh:13"),
+        readLines(0, -1));
+    assertEquals(Arrays.asList("4:cd:7", "7:ef:10"), readLines(4, 10));
+  }
+
+  @Test
+  public void testSlices() throws Exception {
+    FileUtils.writeStringToFile(_file, ">sp|P1 protéine\nACGT-nn*\n",
+        StandardCharsets.UTF_8);
+    ByteLineReader reader = new ByteLineReader(_file.getAbsolutePath());
+    try {
+      assertTrue(reader.nextLine());
+      assertTrue(reader.startsWith(ByteLineReader.toBytes(">sp|")));
+      assertFalse(reader.startsWith(ByteLineReader.toBytes(">tr|")));
+      assertTrue(reader.contains(ByteLineReader.toBytes("protéine")));
+      assertEquals(">sp|P1 protéine", reader.getLine());
+      assertEquals(16, reader.length());
+      assertTrue(reader.nextLine());
+      assertEquals(17, reader.getLinePos());
+      assertEquals(6, reader.countLetters());
+      assertFalse(reader.nextLine());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testLongLine() throws Exception {
+    char[] seq = new char[3 * 1024 * 1024];
+    Arrays.fill(seq, 'A');
+    FileUtils.writeStringToFile(_file, ">id\r\n" + new String(seq)
+        + "\r\n>id2\r\nC\r\n", StandardCharsets.UTF_8);
+    ByteLineReader reader = new ByteLineReader(_file.getAbsolutePath());
+    try {
+      assertTrue(reader.nextLine());
+      assertTrue(reader.nextLine());
+      assertEquals(5, reader.getLinePos());
+      assertEquals(seq.length, reader.countLetters());
+      assertTrue(reader.nextLine());
+      assertEquals(">id2", reader.getLine());
+      assertEquals(seq.length + 7, reader.getLinePos());
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testMultiByteOffsets() throws Exception {
+    final ArrayList<long[]> locs = new ArrayList<long[]>();
+    String file = _file.getAbsolutePath();
+    FastaParser parser = new FastaParser();
+
+    FileUtils.writeStringToFile(_file, ">seq1 Protéine kinase ß\nMKLV\n"
+        + ">seq2 Désaturase\nMKKA\n", StandardCharsets.UTF_8);
+    parser.setParallelScan(1, 1);
+    parser.setParserMonitor(new ParserMonitor() {
+      public void seqFound(String id, String name, String fName, long start,
+          long stop, boolean checkRedundancy) {
+        locs.add(new long[] { start, stop });
+      }
+
+      public void startProcessingFile(String fName, long fSize) {
+      }
+
+      public void stopProcessingFile(String fName, int entries) {
+      }
+
+      public boolean redundantSequenceFound() {
+        return false;
+      }
+    });
+    parser.parse(file, null);
+    assertEquals(2, locs.size());
+    assertEquals(">seq1 Protéine kinase ß\nMKLV\n",
+        DBUtils.readDBEntryData(file, locs.get(0)[0], locs.get(0)[1]));
+    assertEquals(">seq2 Désaturase\nMKKA\n",
+        DBUtils.readDBEntryData(file, locs.get(1)[0], locs.get(1)[1]));
+  }
+}
@@ -0,0 +1,143 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bzh.plealog.bioinfo.api.core.config.CoreSystemConfigurator;
+import bzh.plealog.bioinfo.api.data.feature.Feature;
+import bzh.plealog.bioinfo.api.data.feature.Qualifier;
+import bzh.plealog.dbmirror.reader.DBEntryRecord;
+import bzh.plealog.dbmirror.reader.DBUtils;
+import bzh.plealog.dbmirror.reader.PSequence;
+import bzh.plealog.dbmirror.util.conf.DBMirrorConfig;
+
+/**
+ * Check that features retrieved from a parsed entry are the same as the ones
+ * retrieved by reading the entry again.
+ */
+public class DBEntryRecordTest {
+
+  // ranges used to slice the entries; 0,0 stands for the full entry
+  private static final int[][] RANGES = { { 0, 0 }, { 1, 50 }, { 10, 200 },
+      { 100, 1000 }, { 300, 100000 } };
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    UtilsTest.configureApp();
+    CoreSystemConfigurator.initializeSystem();
+  }
+
+  private String readFirstEntry(String... path) throws Exception {
+    String data;
+
+    data = FileUtils.readFileToString(
+        new File(UtilsTest.getTestFilePath(path)), StandardCharsets.UTF_8);
+    return data.substring(0, data.indexOf("\n//") + 4);
+  }
+
+  private String toString(PSequence seq) {
+    ArrayList<String> feats = new ArrayList<String>();
+    Enumeration<Feature> features;
+    Enumeration<Qualifier> qualifiers;
+    StringBuilder buf;
+    Feature feat;
+    Qualifier qual;
+
+    features = seq.getFeatTable().enumFeatures();
+    while (features.hasMoreElements()) {
+      feat = features.nextElement();
+      buf = new StringBuilder();
+      buf.append(feat.getKey() + " " + feat.getFrom() + " " + feat.getTo()
+          + " " + feat.getStrand() + "\n");
+      qualifiers = feat.enumQualifiers();
+      while (qualifiers.hasMoreElements()) {
+        qual = qualifiers.nextElement();
+        buf.append("  " + qual.getName() + "=" + qual.getValue() + "\n");
+      }
+      feats.add(buf.toString());
+    }
+    // BioJava does not report features using a stable order
+    Collections.sort(feats);
+    return seq.getSeqInfo().getId() + "|" + seq.getSequence() + "\n"
+        + String.join("", feats);
+  }
+
+  private void checkEntry(String data, String reader, boolean remap) {
+    DBEntryRecord record;
+    PSequence expected, seq;
+
+    record = DBUtils.parseEntry(data, reader);
+    assertNotNull(reader, record);
+    assertEquals(data.length(), record.getSize());
+    for (int[] range : RANGES) {
+      if (DBMirrorConfig.GB_READER.equals(reader))
+        expected = DBUtils.readGenbankEntry(data, range[0], range[1], remap);
+      else if (DBMirrorConfig.GP_READER.equals(reader))
+        expected = DBUtils.readGenpeptEntry(data, range[0], range[1], remap);
+      else
+        expected = DBUtils.readUniProtEntry(data, range[0], range[1], remap);
+      seq = record.getSequence(range[0], range[1], remap);
+      assertTrue(expected.getFeatTable().features() > 0);
+      assertEquals(toString(expected), toString(seq));
+      // sequence information is shared by all ranges
+      assertSame(record.getSeqInfo(), seq.getSeqInfo());
+    }
+  }
+
+  @Test
+  public void testGenbank() throws Exception {
+    String data = readFirstEntry("SequenceFileManager", "testTaxonomy",
+        "genbank.dat");
+    checkEntry(data, DBMirrorConfig.GB_READER, false);
+    checkEntry(data, DBMirrorConfig.GB_READER, true);
+  }
+
+  @Test
+  public void testGenpept() throws Exception {
+    String data = readFirstEntry("DBXrefManager", "NP_006580.gp");
+    checkEntry(data, DBMirrorConfig.GP_READER, false);
+  }
+
+  @Test
+  public void testUniProt() throws Exception {
+    String data = readFirstEntry("SequenceFileManager", "testTaxonomy",
+        "uniprot.dat");
+    checkEntry(data, DBMirrorConfig.UP_READER, false);
+    checkEntry(data, DBMirrorConfig.UP_READER, true);
+  }
+
+  @Test
+  public void testErrors() {
+    assertNull(DBUtils.parseEntry("not an entry", DBMirrorConfig.GB_READER));
+    assertNull(DBUtils.parseEntry("not an entry", "unknown"));
+  }
+}
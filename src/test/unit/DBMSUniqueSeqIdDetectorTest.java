@@ -16,6 +16,7 @@
  */
 package test.unit;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -26,6 +27,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -91,6 +94,54 @@ public class DBMSUniqueSeqIdDetectorTest {
     assertFalse(detector.add("2"));
   }
 
+  @Test
+  public void testResume() throws Exception {
+    DBMSUniqueSeqIdDetector.MAX_SEQID = 2;
+    assertTrue(detector.add("1"));
+    assertTrue(detector.add("2"));
+    assertTrue(detector.add("3"));
+    detector.dumpContent();
+    detector.closeIndex();
+    // IDs written by a previous run are still detected
+    detector = new DBMSUniqueSeqIdDetector(indexFilePath);
+    assertFalse(detector.add("3"));
+    assertFalse(detector.add("1"));
+    assertTrue(detector.add("4"));
+  }
+
+  @Test
+  public void testConcurrentAdd() throws Exception {
+    final AtomicInteger added = new AtomicInteger();
+    final int nIds = 4000;
+    ArrayList<Thread> threads = new ArrayList<Thread>();
+
+    // several dumps happen while threads are adding IDs
+    DBMSUniqueSeqIdDetector.MAX_SEQID = 500;
+    detector.closeIndex();
+    FileUtils.deleteQuietly(new File(indexFilePath));
+    detector = new DBMSUniqueSeqIdDetector(indexFilePath);
+    // each ID is added by all threads: a single one has to succeed
+    for (int t = 0; t < 4; t++) {
+      threads.add(new Thread() {
+        public void run() {
+          for (int i = 0; i < nIds; i++) {
+            if (detector.add("seq" + i)) {
+              added.incrementAndGet();
+            }
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(nIds, added.get());
+    assertTrue(detector.getFalsePositiveRate() < 0.01d);
+  }
+
   @Test
   public void testWithFile() {
     String filePath = DefaultLoaderMonitorTest.getTestDatabankFilePath(
@@ -584,7 +584,7 @@ public class DefaultLoaderMonitorTest {
       fail("Unable to load the db descriptor");
     }
 
-    _taskEngine = new PTaskEngine(true);
+    _taskEngine = new PTaskEngine(false);
     _loaderMonitor = new DefaultLoaderMonitor(_taskEngine, _dbConf, 1);
     _loaderMonitor.beginLoading("SwissProt_human.fas");
     _loaderMonitor.doneLoading("SwissProt_human.fas", LoaderMonitor.STATUS_OK);
@@ -988,9 +988,9 @@ public class DefaultLoaderMonitorTest {
         .equalsIgnoreCase(DBMSAbstractConfig.getLocalMirrorPrepaPath()));
     String dbName = completeInstall("testNoIIPAndPrepaDir",
         "sample_fasta_nuc.dsc", true);
-    Assert.assertTrue(Paths
-        .get(DBMSAbstractConfig.getLocalMirrorPrepaPath(), "n", dbName,
-            "download", dbName, "d1").toFile().exists());
+    Assert.assertFalse(Utils.getOriginalFiles(
+        Paths.get(DBMSAbstractConfig.getLocalMirrorPrepaPath(), "n", dbName,
+            "download", dbName).toFile()).isEmpty());
     Assert.assertFalse(Paths
         .get(DBMSAbstractConfig.getLocalMirrorPath(), "n", dbName, "current")
         .toFile().exists());
@@ -0,0 +1,175 @@
+/* Copyright (C) 2007-2022 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bzh.plealog.dbmirror.fetcher.DBMSFile;
+import bzh.plealog.dbmirror.fetcher.DBServerConfig;
+import bzh.plealog.dbmirror.fetcher.FileChecksum;
+import bzh.plealog.dbmirror.fetcher.LoaderEngine;
+import bzh.plealog.dbmirror.fetcher.PLocalLoader;
+
+/**
+ * Check the verification of files using the checksums published by
+ * providers.
+ */
+public class FileChecksumTest {
+
+  // md5 of "hello\n"
+  private static final String HELLO_MD5 = "b1946ac92492d2347c6235b4d2611184";
+
+  private static File         _dir;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    UtilsTest.configureApp();
+    _dir = Files.createTempDirectory("bdmchecksum").toFile();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() {
+    FileUtils.deleteQuietly(_dir);
+  }
+
+  private DBServerConfig getConfig(String type) {
+    DBServerConfig config = new DBServerConfig();
+    config.setName("checksum");
+    if (type != null) {
+      config.setProperty("db.files.checksum", type);
+    }
+    return config;
+  }
+
+  @Test
+  public void testCreate() {
+    assertNull(FileChecksum.create(getConfig(null)));
+    assertNull(FileChecksum.create(getConfig("crc")));
+    assertEquals("md5", FileChecksum.create(getConfig("MD5")).getType());
+    assertEquals("nr.gz.sha256", FileChecksum.create(getConfig("sha256"))
+        .getCompanionName("nr.gz"));
+  }
+
+  @Test
+  public void testParseCompanion() {
+    assertEquals(HELLO_MD5, FileChecksum.parseCompanion(HELLO_MD5, "nr.gz"));
+    assertEquals(HELLO_MD5, FileChecksum.parseCompanion(
+        HELLO_MD5.toUpperCase() + "  nr.gz\n", "nr.gz"));
+    // list of checksums
+    assertEquals(HELLO_MD5, FileChecksum.parseCompanion(
+        "0123456789abcdef0123456789abcdef  nt.gz\n" + HELLO_MD5 + "  nr.gz\n",
+        "nr.gz"));
+    // file names are compared exactly
+    assertEquals(HELLO_MD5, FileChecksum.parseCompanion(
+        "0123456789abcdef0123456789abcdef  nr.gz.md5\n"
+            + "0123456789abcdef0123456789abcdef  xnr.gz\n" + HELLO_MD5
+            + " *nr.gz\n", "nr.gz"));
+    assertEquals(HELLO_MD5, FileChecksum.parseCompanion(
+        "MD5 (nt.gz) = 0123456789abcdef0123456789abcdef\nMD5 (nr.gz) = "
+            + HELLO_MD5 + "\n", "nr.gz"));
+    assertNull(FileChecksum.parseCompanion(
+        "0123456789abcdef0123456789abcdef  nt.gz\n" + HELLO_MD5 + "  xnr.gz\n",
+        "nr.gz"));
+    assertNull(FileChecksum.parseCompanion("not found", "nr.gz"));
+    assertNull(FileChecksum.parseCompanion(null, "nr.gz"));
+  }
+
+  @Test
+  public void testComputeChecksum() throws Exception {
+    FileChecksum checksum = FileChecksum.create(getConfig("md5"));
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    File f = new File(_dir, "data.txt");
+    byte[] data = new byte[1024 * 1024];
+    String value;
+
+    new Random(1).nextBytes(data);
+    try (OutputStream os = checksum.wrap(bos)) {
+      os.write(data, 0, 1000);
+      os.write(data[1000]);
+      os.write(data, 1001, data.length - 1001);
+    }
+    assertArrayEquals(data, bos.toByteArray());
+    assertEquals(data.length, checksum.getCount());
+    value = checksum.getValue();
+
+    // same value when part of the data are read from a file, as done when
+    // resuming a download
+    FileUtils.writeByteArrayToFile(f, Arrays.copyOf(data, 5000));
+    checksum.reset();
+    checksum.update(f, 3000);
+    checksum.wrap(new ByteArrayOutputStream()).write(data, 3000,
+        data.length - 3000);
+    assertEquals(value, checksum.getValue());
+
+    checksum.reset();
+    checksum.wrap(new ByteArrayOutputStream()).write(
+        "hello\n".getBytes(StandardCharsets.UTF_8));
+    assertEquals(HELLO_MD5, checksum.getValue());
+  }
+
+  private File createSource(String dir, String name, String md5)
+      throws Exception {
+    File src = new File(_dir, dir);
+    File f = new File(src, name);
+
+    FileUtils.writeStringToFile(f, "hello\n", StandardCharsets.UTF_8);
+    FileUtils.writeStringToFile(new File(src, name + ".md5"), md5 + "  "
+        + name + "\n", StandardCharsets.UTF_8);
+    return f;
+  }
+
+  @Test
+  public void testCopyFiles() throws Exception {
+    PLocalLoader loader = new PLocalLoader(getConfig("md5"));
+    String dest = new File(_dir, "dest").getAbsolutePath() + File.separator;
+    File f;
+
+    f = createSource("ok", "ok.dat", HELLO_MD5);
+    assertEquals(1, loader.copyFiles(Arrays.asList(new DBMSFile(f)), dest, null));
+    assertEquals("md5 " + HELLO_MD5,
+        LoaderEngine.getLoadOkChecksum(dest + "ok.dat"));
+
+    // a corrupted copy is done again
+    FileUtils.writeStringToFile(new File(dest, "ok.dat"), "hellO\n",
+        StandardCharsets.UTF_8);
+    new File(dest, "ok.dat" + LoaderEngine.LOAD_OK_FEXT).delete();
+    assertEquals(1, loader.copyFiles(Arrays.asList(new DBMSFile(f)), dest, null));
+    assertEquals("hello\n", FileUtils.readFileToString(new File(dest, "ok.dat"),
+        StandardCharsets.UTF_8));
+
+    // source file not matching its checksum
+    f = createSource("bad", "bad.dat", "0123456789abcdef0123456789abcdef");
+    assertEquals(0, loader.copyFiles(Arrays.asList(new DBMSFile(f)), dest, null));
+    assertFalse(new File(dest, "bad.dat").exists());
+  }
+}
@@ -0,0 +1,229 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bzh.plealog.dbmirror.lucenedico.DicoStorageSystem;
+import bzh.plealog.dbmirror.lucenedico.DicoStorageSystemImplem;
+import bzh.plealog.dbmirror.lucenedico.DicoTerm;
+import bzh.plealog.dbmirror.lucenedico.DicoTermQuerySystem;
+import bzh.plealog.dbmirror.lucenedico.DicoUtils;
+import bzh.plealog.dbmirror.lucenedico.Dicos;
+import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyDag;
+import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyGenerateTree;
+import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyGenerateTree.Path;
+import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyOBONodeParser;
+import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyTerm;
+import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyTermRelationship;
+
+/**
+ * Check the in-memory Gene Ontology graph using a small ontology.
+ */
+public class GeneOntologyDagTest {
+
+  private static File                _dir;
+  private static String              _idx;
+  private static DicoTermQuerySystem _dicoSystem;
+
+  private static final String[]      TERMS = {
+      "id: GO:0008150\nname: biological_process\nnamespace: biological_process",
+      "id: GO:0009987\nname: cellular process\nnamespace: biological_process\n"
+          + "is_a: GO:0008150 ! biological_process",
+      "id: GO:0008152\nname: metabolic process\nnamespace: biological_process\n"
+          + "is_a: GO:0008150 ! biological_process",
+      "id: GO:0044237\nname: cellular metabolic process\n"
+          + "namespace: biological_process\n"
+          + "is_a: GO:0009987 ! cellular process\n"
+          + "is_a: GO:0008152 ! metabolic process",
+      "id: GO:0006091\nname: generation of precursor metabolites and energy\n"
+          + "namespace: biological_process\nalt_id: GO:0006092\n"
+          + "is_a: GO:0044237 ! cellular metabolic process\n"
+          + "relationship: part_of GO:0008152 ! metabolic process",
+      "id: GO:0019222\nname: regulation of metabolic process\n"
+          + "namespace: biological_process\n"
+          + "is_a: GO:0099999 ! not defined\n"
+          + "relationship: regulates GO:0008152 ! metabolic process",
+      "id: GO:0005575\nname: cellular_component\n"
+          + "namespace: cellular_component" };
+
+  private static final String[]      IDS   = { "GO:0008150", "GO:0009987",
+      "GO:0008152", "GO:0044237", "GO:0006091", "GO:0006092", "GO:0019222",
+      "GO:0099999", "GO:0005575" };
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    StringBuilder obo;
+    DicoStorageSystem storage;
+    HashMap<String, String> dicos;
+    File file;
+
+    UtilsTest.configureApp();
+    _dir = Files.createTempDirectory("bdmgo").toFile();
+    obo = new StringBuilder("format-version: 1.2\n\n");
+    for (String term : TERMS) {
+      obo.append("[Term]\n" + term + "\n\n");
+    }
+    file = new File(_dir, "go.obo");
+    FileUtils.writeStringToFile(file, obo.toString(), StandardCharsets.UTF_8);
+
+    _idx = new File(_dir, "go.ldx").getAbsolutePath();
+    storage = new DicoStorageSystemImplem();
+    storage.open(_idx, DicoStorageSystem.WRITE_MODE);
+    new GeneOntologyOBONodeParser().parse(file.getAbsolutePath(), storage);
+    storage.close();
+
+    DicoTermQuerySystem.closeDicoTermQuerySystem();
+    dicos = new HashMap<String, String>();
+    dicos.put(DicoUtils.READER_GENE_ONTOLOGY, _idx);
+    _dicoSystem = DicoTermQuerySystem.getDicoTermQuerySystem(dicos);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    DicoTermQuerySystem.closeDicoTermQuerySystem();
+    FileUtils.deleteQuietly(_dir);
+  }
+
+  private List<String> getPathsFromIndex(DicoStorageSystem storage,
+      String id, boolean withNames) {
+    ArrayList<String> result = new ArrayList<String>();
+    StringBuilder buf;
+
+    for (Path path : new GeneOntologyGenerateTree().createTree(id, storage,
+        false)) {
+      buf = new StringBuilder();
+      for (GeneOntologyTermRelationship rel : path.get_path()) {
+        if (buf.length() != 0) {
+          buf.append(";");
+        }
+        if (withNames) {
+          buf.append("[" + rel.get_type_relation() + "] " + rel.get_id() + " "
+              + ((GeneOntologyTerm) storage.getTerm(rel.get_id())
+                  .get_dataObject()).get_node_name());
+        } else {
+          buf.append(rel.get_id());
+        }
+      }
+      result.add(buf.toString());
+    }
+    return result;
+  }
+
+  private String getRelationships(List<GeneOntologyTermRelationship> list) {
+    StringBuilder buf = new StringBuilder();
+
+    for (GeneOntologyTermRelationship rel : list) {
+      buf.append(rel.get_id() + ":" + rel.get_type_relation() + ";");
+    }
+    return buf.toString();
+  }
+
+  @Test
+  public void testPaths() {
+    DicoStorageSystem storage;
+
+    assertNotNull(_dicoSystem.getGeneOntologyDag());
+    // same paths as the ones computed using the index
+    storage = new DicoStorageSystemImplem();
+    assertTrue(storage.open(_idx, DicoStorageSystem.READ_MODE));
+    try {
+      for (String id : IDS) {
+        assertEquals(id, getPathsFromIndex(storage, id, false),
+            _dicoSystem.getGoPathId(id));
+        assertEquals(id, getPathsFromIndex(storage, id, true),
+            _dicoSystem.getGoPath(id));
+      }
+    } finally {
+      storage.close();
+    }
+
+    // parser adds GO:0003673 as the root of the three ontologies
+    assertEquals(Arrays.asList(
+        "GO:0003673;GO:0008150;GO:0009987;GO:0044237;GO:0006091",
+        "GO:0003673;GO:0008150;GO:0008152;GO:0044237;GO:0006091",
+        "GO:0003673;GO:0008150;GO:0008152;GO:0006091"),
+        _dicoSystem.getGoPathId("GO:0006091"));
+    assertTrue(_dicoSystem.getGoPath("GO:0006091").get(2)
+        .endsWith(";[K] GO:0008150 biological_process;"
+            + "[I] GO:0008152 metabolic process;"
+            + "[P] GO:0006091 generation of precursor metabolites and energy"));
+    assertEquals(Arrays.asList("GO:0099999;GO:0019222",
+        "GO:0003673;GO:0008150;GO:0008152;GO:0019222"),
+        _dicoSystem.getGoPathId("GO:0019222"));
+    // cached paths: same results
+    assertEquals(3, _dicoSystem.getGoPathId("GO:0006092").size());
+    assertTrue(_dicoSystem.getGoPathId("GO:1234567").isEmpty());
+  }
+
+  @Test
+  public void testTerms() {
+    DicoStorageSystem storage;
+    GeneOntologyDag dag;
+    GeneOntologyTerm term, expected;
+    DicoTerm dTerm;
+
+    dag = _dicoSystem.getGeneOntologyDag();
+    assertNotNull(dag);
+    // IDS plus the five other terms added by the parser
+    assertEquals(IDS.length + 5, dag.size());
+    storage = new DicoStorageSystemImplem();
+    assertTrue(storage.open(_idx, DicoStorageSystem.READ_MODE));
+    try {
+      for (String id : IDS) {
+        dTerm = _dicoSystem.getTerm(Dicos.GENE_ONTOLOGY, id);
+        assertEquals(id, dTerm.getId());
+        assertNull(dTerm.getDataField());
+        term = (GeneOntologyTerm) dTerm.get_dataObject();
+        expected = (GeneOntologyTerm) storage.getTerm(id).get_dataObject();
+        assertEquals(expected.get_node_id(), term.get_node_id());
+        assertEquals(expected.get_node_name(), term.get_node_name());
+        assertEquals(expected.get_node_ontology(), term.get_node_ontology());
+        assertEquals(expected.getFormatedNameAndOntology(),
+            term.getFormatedNameAndOntology());
+        assertEquals(getRelationships(expected.get_node_father()),
+            getRelationships(term.get_node_father()));
+        assertEquals(getRelationships(expected.get_node_sons()),
+            getRelationships(term.get_node_sons()));
+      }
+    } finally {
+      storage.close();
+    }
+    // alternative ID
+    term = (GeneOntologyTerm) _dicoSystem.getTerm(Dicos.GENE_ONTOLOGY,
+        "GO:0006092").get_dataObject();
+    assertEquals("GO:0006091", term.get_node_id());
+    assertEquals("P", term.get_node_ontology_code());
+    assertNull(_dicoSystem.getTerm(Dicos.GENE_ONTOLOGY, "GO:1234567"));
+  }
+}
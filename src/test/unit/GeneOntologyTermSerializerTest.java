@@ -0,0 +1,149 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bzh.plealog.dbmirror.lucenedico.DicoStorageSystem;
+import bzh.plealog.dbmirror.lucenedico.DicoStorageSystemImplem;
+import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyOBONodeParser;
+import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyTerm;
+import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyTermRelationship;
+import bzh.plealog.dbmirror.lucenedico.go.GeneOntologyTermSerializer;
+import bzh.plealog.dbmirror.util.lucene.DefaultSerializer;
+
+/**
+ * Check the compact format of Gene Ontology terms.
+ */
+public class GeneOntologyTermSerializerTest {
+
+  private static Map<String, GeneOntologyTerm> _terms;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    GeneOntologyOBONodeParser parser;
+
+    UtilsTest.configureApp();
+    parser = new GeneOntologyOBONodeParser();
+    parser.parse(UtilsTest.getTestFilePath("RunningMirrorPanel", "databanks",
+        "gene_ontology.obo"), null);
+    _terms = parser.get_nodes();
+  }
+
+  private String toString(GeneOntologyTerm term) {
+    StringBuilder buf = new StringBuilder();
+
+    buf.append(term.get_node_id() + "|" + term.get_node_name() + "|"
+        + term.get_node_ontology() + "|" + term.getFormatedNameAndOntology());
+    append(buf, term.get_node_father());
+    append(buf, term.get_node_sons());
+    return buf.toString();
+  }
+
+  private void append(StringBuilder buf, List<GeneOntologyTermRelationship> list) {
+    buf.append("|");
+    for (GeneOntologyTermRelationship rel : list) {
+      buf.append(rel.get_id() + ":" + rel.get_type_relation() + ";");
+    }
+  }
+
+  @Test
+  public void testFormat() throws Exception {
+    GeneOntologyTermSerializer serializer = new GeneOntologyTermSerializer();
+    DefaultSerializer javaSerializer = new DefaultSerializer();
+    GeneOntologyTerm term;
+    long compactSize = 0, javaSize = 0;
+    byte[] data, javaData;
+
+    assertTrue(_terms.size() > 4);
+    for (GeneOntologyTerm goTerm : _terms.values()) {
+      data = serializer.writeObject(goTerm, Object.class);
+      javaData = javaSerializer.writeObject(goTerm, Object.class);
+      assertTrue(GeneOntologyTermSerializer.isCompact(data));
+      assertFalse(GeneOntologyTermSerializer.isCompact(javaData));
+      compactSize += data.length;
+      javaSize += javaData.length;
+
+      term = serializer.readObject(data, GeneOntologyTerm.class);
+      assertEquals(toString(goTerm), toString(term));
+      // data written by previous releases
+      term = serializer.readObject(javaData, GeneOntologyTerm.class);
+      assertEquals(toString(goTerm), toString(term));
+    }
+    assertTrue(compactSize + " vs " + javaSize, 8 * compactSize < javaSize);
+
+    // values not handled by the parser
+    term = new GeneOntologyTerm("alt:1", "a|b", null);
+    term.set_node_nameAndOntology(null);
+    term.get_node_father().add(new GeneOntologyTermRelationship("GO:12"));
+    term.get_node_sons().add(
+        new GeneOntologyTermRelationship("GO:0000000",
+            GeneOntologyTermRelationship.TYPE_EDGE.N));
+    data = serializer.writeObject(term, Object.class);
+    assertEquals(toString(term),
+        toString(serializer.readObject(data, GeneOntologyTerm.class)));
+    // other objects use the standard Java serialization
+    data = serializer.writeObject("GO:0000001", Object.class);
+    assertFalse(GeneOntologyTermSerializer.isCompact(data));
+    assertEquals("GO:0000001", serializer.readObject(data, String.class));
+  }
+
+  @Test
+  public void testOldIndex() throws Exception {
+    DicoStorageSystemImplem storage;
+    File dir;
+    String idx;
+
+    dir = Files.createTempDirectory("bdmgo").toFile();
+    try {
+      // index created by a previous release
+      idx = new File(dir, "go.ldx").getAbsolutePath();
+      storage = new DicoStorageSystemImplem();
+      storage.setObjectSerializer(new DefaultSerializer());
+      storage.open(idx, DicoStorageSystem.WRITE_MODE);
+      for (Map.Entry<String, GeneOntologyTerm> entry : _terms.entrySet()) {
+        storage.addBinaryEntry(entry.getKey(), entry.getValue());
+      }
+      storage.close();
+
+      storage = new DicoStorageSystemImplem();
+      assertTrue(storage.open(idx, DicoStorageSystem.READ_MODE));
+      try {
+        for (Map.Entry<String, GeneOntologyTerm> entry : _terms.entrySet()) {
+          assertEquals(toString(entry.getValue()),
+              toString((GeneOntologyTerm) storage.getTerm(entry.getKey())
+                  .get_dataObject()));
+        }
+      } finally {
+        storage.close();
+      }
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/* Copyright (C) 2007-2022 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bzh.plealog.dbmirror.fetcher.GunzipPipeline;
+
+/**
+ * Check the decompression of gzipped data while they are transferred.
+ */
+public class GunzipPipelineTest {
+
+  private static File _dir;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    _dir = Files.createTempDirectory("bdmgunzip").toFile();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() {
+    FileUtils.deleteQuietly(_dir);
+  }
+
+  private byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (GZIPOutputStream gos = new GZIPOutputStream(bos)) {
+      gos.write(data);
+    }
+    return bos.toByteArray();
+  }
+
+  // sends data by blocks of various sizes, as a network transfer does
+  private void transfer(byte[] data, GunzipPipeline pipeline) throws IOException {
+    Random rand = new Random(data.length);
+    int pos = 0, n;
+
+    while (pos < data.length) {
+      n = Math.min(data.length - pos, 1 + rand.nextInt(100000));
+      pipeline.write(data, pos, n);
+      pos += n;
+    }
+  }
+
+  @Test
+  public void testGunzip() throws Exception {
+    File gzFile = new File(_dir, "data.fa.gz");
+    File target = GunzipPipeline.getTargetFile(gzFile);
+    byte[] data = new byte[5 * 1024 * 1024], part1, part2, gzData;
+    GunzipPipeline pipeline;
+
+    assertEquals("data.fa", target.getName());
+    new Random(1).nextBytes(data);
+    // multi-member gzip file, as the ones built by concatenation
+    part1 = gzip(Arrays.copyOfRange(data, 0, 1000000));
+    part2 = gzip(Arrays.copyOfRange(data, 1000000, data.length));
+    gzData = new byte[part1.length + part2.length];
+    System.arraycopy(part1, 0, gzData, 0, part1.length);
+    System.arraycopy(part2, 0, gzData, part1.length, part2.length);
+
+    pipeline = new GunzipPipeline(target);
+    try {
+      transfer(gzData, pipeline);
+      pipeline.close();
+      // not available until committed
+      assertFalse(target.exists());
+      pipeline.commit();
+    } finally {
+      pipeline.abort();
+    }
+    assertArrayEquals(data, FileUtils.readFileToByteArray(target));
+    assertFalse(new File(target.getAbsolutePath() + GunzipPipeline.PART_FEXT)
+        .exists());
+  }
+
+  @Test
+  public void testTruncatedData() throws Exception {
+    File target = new File(_dir, "truncated.fa");
+    byte[] data = new byte[1024 * 1024], gzData;
+    GunzipPipeline pipeline;
+
+    new Random(2).nextBytes(data);
+    gzData = gzip(data);
+    pipeline = new GunzipPipeline(target);
+    try {
+      transfer(Arrays.copyOf(gzData, gzData.length / 2), pipeline);
+      pipeline.close();
+      fail("truncated data uncompressed");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(target.getName()));
+    } finally {
+      pipeline.abort();
+    }
+    assertFalse(target.exists());
+    assertFalse(new File(target.getAbsolutePath() + GunzipPipeline.PART_FEXT)
+        .exists());
+  }
+}
@@ -18,12 +18,17 @@ package test.unit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
@@ -36,11 +41,17 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import bzh.plealog.dbmirror.indexer.CompactStorageSystem;
 import bzh.plealog.dbmirror.indexer.DBEntry;
 import bzh.plealog.dbmirror.indexer.FastaParser;
+import bzh.plealog.dbmirror.indexer.IndexFileTable;
 import bzh.plealog.dbmirror.indexer.LuceneStorageSystem;
+import bzh.plealog.dbmirror.indexer.LuceneUtils;
 import bzh.plealog.dbmirror.indexer.ParserMonitor;
 import bzh.plealog.dbmirror.indexer.StorageSystem;
+import bzh.plealog.dbmirror.reader.DBUtils;
+import bzh.plealog.dbmirror.reader.PSequence;
+import bzh.plealog.dbmirror.util.Utils;
 import bzh.plealog.dbmirror.util.runner.DBMSUniqueSeqIdDetector;
 
 public class LuceneStorageSystemTest {
@@ -146,6 +157,16 @@ public class LuceneStorageSystemTest {
       assertEquals("Sequence id '" + currentId + "' is not the first result",
           currentId, entries[0].getId());
 
+      // check in-memory entry retrieval
+      String data = DBUtils.readDBEntryData(entries[0].getFName(),
+          entries[0].getStart(), entries[0].getStop());
+      assertNotNull("Unable to read entry '" + currentId + "'", data);
+      assertTrue(data.startsWith(">" + currentId));
+      assertEquals(1, data.split(">").length - 1);
+      PSequence seq = DBUtils.readFastaEntry(data, 0, 0, false);
+      assertNotNull(seq);
+      assertTrue(currentId.contains(seq.getSeqInfo().getId()));
+
       query = new BooleanQuery();
       try {
         query.add(queryParser.parse(currentId), Occur.MUST);
@@ -161,6 +182,33 @@ public class LuceneStorageSystemTest {
 
     }
 
+    this.lss.close();
+
+    // check batch resolution of IDs
+    ArrayList<String> ids = new ArrayList<String>(monitor.getIds());
+    ids.add("P97756");
+    ids.add("unknown_id");
+    Map<String, DBEntry> batch = LuceneUtils.getEntries(
+        Arrays.asList(idxDirPath), ids);
+    assertEquals(monitor.getIds().size() + 1, batch.size());
+    for (String id : monitor.getIds()) {
+      assertEquals(id, batch.get(id).getId());
+      assertEquals(LuceneUtils.getEntry(Arrays.asList(idxDirPath), id)
+          .getStart(), batch.get(id).getStart());
+    }
+    assertEquals("sp|P97756|KKCC1_RAT", batch.get("P97756").getId());
+    // partial matches and tokens made of several terms: same entries as the
+    // ones of getEntry()
+    ids = new ArrayList<String>(Arrays.asList("KKCC1_RAT", "P97756|unknown_id",
+        "sp|unknown_id|KKCC1_RAT"));
+    batch = LuceneUtils.getEntries(Arrays.asList(idxDirPath), ids);
+    assertEquals(ids.size(), batch.size());
+    for (String id : ids) {
+      assertEquals(LuceneUtils.getEntry(Arrays.asList(idxDirPath), id)
+          .getStart(), batch.get(id).getStart());
+    }
+    LuceneUtils.closeStorages();
+
     // check redundant
     assertEquals(0, monitor.getRedundantIds().size());
 
@@ -179,6 +227,211 @@ public class LuceneStorageSystemTest {
     }
   }
 
+  @Test
+  public void compactStorage() throws IOException {
+    String idxDirPath = getTestFilePath("FastaParser", "uniprot.ldx");
+    TestMonitor monitor = parseFastaFile("FastaParser", "uniprot.ldx",
+        "uniprot.faa", "seqIds.ldx");
+    File tmpDir = Files.createTempDirectory("bdm").toFile();
+    String compactPath = new File(tmpDir, "uniprot.ldx").getAbsolutePath();
+    CompactStorageSystem css = new CompactStorageSystem();
+    DBEntry[] entries, lEntries;
+
+    try {
+      // convert the Lucene index
+      assertTrue(LuceneUtils.mergeIndex(compactPath,
+          Arrays.asList(idxDirPath), LuceneUtils.STORAGE_COMPACT, null));
+      assertEquals(LuceneUtils.STORAGE_COMPACT,
+          LuceneUtils.getStorageType(compactPath));
+      assertEquals(LuceneUtils.STORAGE_LUCENE,
+          LuceneUtils.getStorageType(idxDirPath));
+
+      assertTrue(this.lss.open(idxDirPath, StorageSystem.READ_MODE));
+      assertTrue(css.open(compactPath, StorageSystem.READ_MODE));
+      assertEquals(this.lss.size(), css.size());
+      for (String id : monitor.getIds()) {
+        entries = css.getEntry(id);
+        assertNotNull("Sequence id '" + id + "' not found", entries);
+        assertEquals(1, entries.length);
+        assertEquals(id, entries[0].getId());
+        lEntries = this.lss.getEntry(id);
+        assertEquals(lEntries[0].getStart(), entries[0].getStart());
+        assertEquals(lEntries[0].getStop(), entries[0].getStop());
+        assertEquals(new File(lEntries[0].getFName()).getName(), new File(
+            entries[0].getFName()).getName());
+        assertEquals(id, css.getEntry(id.toLowerCase())[0].getId());
+      }
+      assertEquals("sp|P97756|KKCC1_RAT", css.getEntry("P97756")[0].getId());
+      assertEquals("sp|P97756|KKCC1_RAT",
+          css.getEntry("KKCC1_RAT")[0].getId());
+      assertNull(css.getEntry("unknown_id"));
+
+      int n = 0;
+      Enumeration<DBEntry> enumEntries = css.entries();
+      while (enumEntries.hasMoreElements()) {
+        assertEquals(monitor.getIds().get(n), enumEntries.nextElement()
+            .getId());
+        n++;
+      }
+      assertEquals(monitor.getIds().size(), n);
+      css.close();
+      this.lss.close();
+
+      // compact index has to be usable through LuceneUtils
+      assertEquals(monitor.getIds().size(), LuceneUtils.getSize(compactPath));
+      assertEquals("sp|P97756|KKCC1_RAT",
+          LuceneUtils.getEntry(Arrays.asList(compactPath), "P97756").getId());
+      assertEquals(monitor.getIds().size(),
+          LuceneUtils.getEntries(Arrays.asList(compactPath), monitor.getIds())
+              .size());
+    } finally {
+      css.close();
+      LuceneUtils.closeStorages();
+      FileUtils.deleteDirectory(tmpDir);
+      FileUtils.deleteDirectory(new File(idxDirPath));
+      FileUtils.deleteDirectory(new File(getTestFilePath("FastaParser",
+          "seqIds.ldx")));
+    }
+  }
+
+  @Test
+  public void multiIndex() throws IOException {
+    String data = FileUtils.readFileToString(new File(getTestFilePath(
+        "FastaParser", "uniprot.faa")), "UTF-8");
+    File tmpDir = Files.createTempDirectory("bdm").toFile();
+    File movedDir = new File(tmpDir.getAbsolutePath() + ".moved");
+    ArrayList<String> ids = new ArrayList<String>();
+    ArrayList<String> indexes = new ArrayList<String>();
+    String mainIndex;
+    DBEntry entry;
+
+    try {
+      // index both halves of the Fasta file separately
+      int half = data.indexOf('>', data.length() / 2);
+      String[] parts = { data.substring(0, half), data.substring(half) };
+      for (int i = 0; i < parts.length; i++) {
+        File f = new File(tmpDir, "part" + i + ".faa");
+        FileUtils.writeStringToFile(f, parts[i], "UTF-8");
+        String idx = f.getAbsolutePath() + LuceneUtils.DIR_OK_FEXT;
+        LuceneStorageSystem storage = new LuceneStorageSystem();
+        assertTrue(storage.open(idx, StorageSystem.WRITE_MODE));
+        FastaParser parser = new FastaParser();
+        parser.parse(f.getAbsolutePath(), storage);
+        assertTrue(storage.close());
+        indexes.add(idx);
+        for (String line : parts[i].split("\n")) {
+          if (line.startsWith(">")) {
+            ids.add(line.substring(1).split(" ")[0]);
+          }
+        }
+      }
+
+      // link them within a single index, then move the whole directory
+      mainIndex = new File(tmpDir, "uniprot.ldx").getAbsolutePath();
+      assertTrue(LuceneUtils.linkIndex(mainIndex, indexes, null));
+      assertTrue(tmpDir.renameTo(movedDir));
+      mainIndex = new File(movedDir, "uniprot.ldx").getAbsolutePath();
+
+      assertEquals(ids.size(), LuceneUtils.getSize(mainIndex));
+      for (String id : ids) {
+        entry = LuceneUtils.getEntry(Arrays.asList(mainIndex), id);
+        assertNotNull("Sequence id '" + id + "' not found", entry);
+        assertEquals(id, entry.getId());
+        assertTrue(DBUtils.readDBEntryData(entry.getFName(), entry.getStart(),
+            entry.getStop()).startsWith(">" + id));
+      }
+      assertEquals(ids.size(),
+          LuceneUtils.getEntries(Arrays.asList(mainIndex), ids).size());
+      int n = 0;
+      try (LuceneUtils.EntryEnumeration enumEntries = LuceneUtils
+          .entries(mainIndex)) {
+        while (enumEntries.hasMoreElements()) {
+          assertEquals(ids.get(n), enumEntries.nextElement().getId());
+          n++;
+        }
+      }
+      assertEquals(ids.size(), n);
+    } finally {
+      LuceneUtils.closeStorages();
+      FileUtils.deleteDirectory(tmpDir);
+      FileUtils.deleteDirectory(movedDir);
+    }
+  }
+
+  private void checkEntries(String index, String data) {
+    LuceneStorageSystem storage = new LuceneStorageSystem();
+    Enumeration<DBEntry> enumEntries;
+    DBEntry entry;
+    int n = 0;
+
+    assertTrue(storage.open(index, StorageSystem.READ_MODE));
+    try {
+      enumEntries = storage.entries();
+      while (enumEntries.hasMoreElements()) {
+        entry = enumEntries.nextElement();
+        assertTrue(data.contains(DBUtils.readDBEntryData(entry.getFName(),
+            entry.getStart(), entry.getStop())));
+        n++;
+      }
+      assertEquals(storage.size(), n);
+      assertTrue(n > 0);
+    } finally {
+      storage.close();
+    }
+  }
+
+  @Test
+  public void fileTable() throws IOException {
+    String data = FileUtils.readFileToString(new File(getTestFilePath(
+        "FastaParser", "uniprot.faa")), "UTF-8");
+    File tmpDir = Files.createTempDirectory("bdm").toFile();
+    ArrayList<String> indexes = new ArrayList<String>();
+    String mainIndex;
+
+    try {
+      int half = data.indexOf('>', data.length() / 2);
+      String[] parts = { data.substring(0, half), data.substring(half) };
+      for (int i = 0; i < parts.length; i++) {
+        File f = new File(tmpDir, "part" + i + ".faa");
+        FileUtils.writeStringToFile(f, parts[i], "UTF-8");
+        String idx = f.getAbsolutePath() + LuceneUtils.DIR_OK_FEXT;
+        LuceneStorageSystem storage = new LuceneStorageSystem();
+        assertTrue(storage.open(idx, StorageSystem.WRITE_MODE));
+        new FastaParser().parse(f.getAbsolutePath(), storage);
+        assertTrue(storage.close());
+        assertTrue(new File(idx, IndexFileTable.TABLE_FILE).exists());
+        indexes.add(idx);
+      }
+      // no more 'dX' files next to indexes
+      assertEquals(0, tmpDir.list((dir, name) -> name.matches("d\\d+")).length);
+      assertEquals(2, Utils.getOriginalFiles(tmpDir).size());
+
+      // merged index references the files of source indexes by itself
+      mainIndex = new File(tmpDir, "uniprot.ldx").getAbsolutePath();
+      assertTrue(LuceneUtils.mergeIndex(mainIndex, indexes, null));
+      for (String idx : indexes) {
+        FileUtils.deleteDirectory(new File(idx));
+      }
+      assertEquals(2, IndexFileTable.read(mainIndex).size());
+      checkEntries(mainIndex, data);
+
+      // indexes created by previous releases rely on 'dX' files
+      for (String value : IndexFileTable.read(mainIndex).getValues()) {
+        for (int i = 0; i < 2; i++) {
+          if (value.endsWith("part" + i + ".faa")) {
+            FileUtils.writeStringToFile(new File(tmpDir,
+                LuceneStorageSystem.FP_KEY_FILE_PREFIX + (i + 1)), value,
+                "UTF-8");
+          }
+        }
+      }
+      assertTrue(new File(mainIndex, IndexFileTable.TABLE_FILE).delete());
+      checkEntries(mainIndex, data);
+    } finally {
+      FileUtils.deleteDirectory(tmpDir);
+    }
+  }
+
   @Test
   public void redundantSequences() {
     TestMonitor monitor = parseFastaFile("RedundantSequences", "uniprot.ldx",
@@ -30,6 +30,7 @@ import org.junit.Test;
 import bzh.plealog.dbmirror.fetcher.DBServerConfig;
 import bzh.plealog.dbmirror.fetcher.PFTPLoaderDescriptor;
 import bzh.plealog.dbmirror.fetcher.PFTPLoaderSystem;
+import bzh.plealog.dbmirror.util.Utils;
 import bzh.plealog.dbmirror.util.conf.DBMSAbstractConfig;
 import bzh.plealog.dbmirror.util.log.LoggerCentral;
 
@@ -90,8 +91,8 @@ public class PFTPLoaderSystemTest {
   public void installInProduction() {
     File prodRepository = install("uniprot");
     Assert.assertTrue("Prod repository exists", prodRepository.exists());
-    Assert
-        .assertTrue("d1 file exists", new File(prodRepository, "d1").exists());
+    Assert.assertFalse("database files are referenced", Utils
+        .getOriginalFiles(prodRepository).isEmpty());
     Assert.assertFalse(LoggerCentral.errorMsgEmitted());
   }
 
@@ -100,8 +101,8 @@ public class PFTPLoaderSystemTest {
     File prodRepository = install("uniprotNoInProd");
     Assert.assertTrue("Prod repository does not exists",
         !prodRepository.exists());
-    Assert.assertTrue("d1 file does not exists",
-        !new File(prodRepository, "d1").exists());
+    Assert.assertTrue("database files are not referenced", Utils
+        .getOriginalFiles(prodRepository).isEmpty());
     Assert.assertFalse(LoggerCentral.errorMsgEmitted());
   }
 
@@ -109,8 +110,8 @@ public class PFTPLoaderSystemTest {
   public void justInstallInProduction() {
     File prodRepository = install("uniprotJustInProd");
     Assert.assertTrue("Prod repository exists", prodRepository.exists());
-    Assert
-        .assertTrue("d1 file exists", new File(prodRepository, "d1").exists());
+    Assert.assertFalse("database files are referenced", Utils
+        .getOriginalFiles(prodRepository).isEmpty());
     Assert.assertFalse(LoggerCentral.errorMsgEmitted());
   }
 
@@ -0,0 +1,299 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bzh.plealog.dbmirror.indexer.ParserMonitor;
+import bzh.plealog.dbmirror.task.PAbstractTask;
+import bzh.plealog.dbmirror.task.PParserTask;
+import bzh.plealog.dbmirror.task.PTask;
+import bzh.plealog.dbmirror.task.PTaskEngine;
+import bzh.plealog.dbmirror.util.log.JobContext;
+import bzh.plealog.dbmirror.util.log.LoggerCentral;
+import bzh.plealog.dbmirror.util.sequence.SequenceFileManager;
+
+/**
+ * Check the scheduling of tasks by the task engine.
+ */
+public class PTaskEngineTest {
+
+  // events reported by tasks: "start:name" and "end:name", and by stopped
+  // sequence file managers: "abort:sfm"
+  private List<String> _events = Collections
+                                   .synchronizedList(new ArrayList<String>());
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    UtilsTest.configureApp();
+  }
+
+  @After
+  public void tearDown() {
+    LoggerCentral.setJobContext(null);
+    LoggerCentral.reset();
+  }
+
+  private class TestTask extends PAbstractTask {
+    private String _name;
+    private long   _delay;
+    private boolean _ok = true;
+
+    private TestTask(String name, long delay) {
+      _name = name;
+      _delay = delay;
+    }
+
+    public String getName() {
+      return _name;
+    }
+
+    public String getUserFriendlyName() {
+      return _name;
+    }
+
+    public void setParameters(String params) {
+    }
+
+    public String getErrorMsg() {
+      return "failed";
+    }
+
+    protected void run() throws Exception {
+      Thread.sleep(_delay);
+    }
+
+    public boolean execute() {
+      _events.add("start:" + _name);
+      try {
+        run();
+      } catch (Exception e) {
+        _ok = false;
+      }
+      _events.add("end:" + _name);
+      return _ok;
+    }
+  }
+
+  private class TestParserTask extends TestTask implements PParserTask {
+    private TestParserTask(String name, long delay) {
+      super(name, delay);
+    }
+
+    public void setParserMonitor(ParserMonitor pm) {
+    }
+  }
+
+  private void waitForTermination(PTaskEngine engine) throws Exception {
+    long limit = System.currentTimeMillis() + 30000;
+
+    while (!engine.terminate()) {
+      assertTrue("tasks not terminated", System.currentTimeMillis() < limit);
+      Thread.sleep(20);
+    }
+  }
+
+  private int indexOf(String event) {
+    int idx = _events.indexOf(event);
+    assertTrue(event, idx != -1);
+    return idx;
+  }
+
+  private void checkBefore(String event1, String event2) {
+    assertTrue(event1 + " before " + event2, indexOf(event1) < indexOf(event2));
+  }
+
+  @Test
+  public void testDependencies() throws Exception {
+    PTaskEngine engine = new PTaskEngine();
+    CountDownLatch merge = new CountDownLatch(1);
+    TestTask a1, a2, b1, b2;
+
+    // unit tasks of two files
+    a1 = new TestTask("a1", 200);
+    a2 = new TestTask("a2", 10);
+    b1 = new TestTask("b1", 10);
+    b2 = new TestTask("b2", 10);
+    engine.addTask(a1, "db", Collections.<PTask> emptyList());
+    engine.addTask(a2, "db", Arrays.<PTask> asList(a1));
+    engine.addTask(b1, "db", Collections.<PTask> emptyList());
+    engine.addTask(b2, "db", Arrays.<PTask> asList(b1));
+    // global tasks
+    engine.addTask(new TestTask("global", 10), "db");
+    engine.addTask(new TestTask("merge", 0) {
+      protected void run() throws Exception {
+        assertTrue(merge.await(10, TimeUnit.SECONDS));
+      }
+    }, "db", Collections.<PTask> emptyList());
+    engine.addTask(new TestTask("formatdb", 0) {
+      protected void run() throws Exception {
+        // runs alongside merge
+        merge.countDown();
+      }
+    }, "db", Collections.<PTask> emptyList());
+    engine.addTask(new TestTask("end", 0), "db");
+    waitForTermination(engine);
+
+    assertEquals(16, _events.size());
+    checkBefore("end:a1", "start:a2");
+    checkBefore("end:b1", "start:b2");
+    // the second file is handled while the first one is still in progress
+    checkBefore("end:b2", "end:a1");
+    for (String name : new String[] { "a2", "b2" }) {
+      checkBefore("end:" + name, "start:global");
+    }
+    checkBefore("end:global", "start:merge");
+    checkBefore("end:global", "start:formatdb");
+    checkBefore("end:merge", "start:end");
+    checkBefore("end:formatdb", "start:end");
+    assertFalse(LoggerCentral.errorMsgEmitted());
+  }
+
+  @Test
+  public void testSerialTasks() throws Exception {
+    PTaskEngine engine = new PTaskEngine();
+    AtomicInteger running = new AtomicInteger(), maxRunning = new AtomicInteger();
+
+    for (int i = 0; i < 4; i++) {
+      engine.addTask(new TestParserTask("idx" + i, 0) {
+        protected void run() throws Exception {
+          maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+          Thread.sleep(50);
+          running.decrementAndGet();
+        }
+      }, "db", Collections.<PTask> emptyList());
+    }
+    waitForTermination(engine);
+    assertEquals(8, _events.size());
+    // parsers share the sequence ID detector: one at a time
+    assertEquals(1, maxRunning.get());
+  }
+
+  @Test
+  public void testError() throws Exception {
+    PTaskEngine engine = new PTaskEngine();
+    TestTask failed;
+
+    failed = new TestTask("failed", 50) {
+      protected void run() throws Exception {
+        super.run();
+        throw new Exception("failed");
+      }
+    };
+    engine.addTask(failed, "db", Collections.<PTask> emptyList());
+    engine.addTask(new TestTask("next", 0), "db", Arrays.<PTask> asList(failed));
+    engine.addTask(new TestTask("end", 0), "db");
+    waitForTermination(engine);
+
+    assertEquals(Arrays.asList("start:failed", "end:failed"), _events);
+    assertTrue(LoggerCentral.errorMsgEmitted());
+    assertFalse(engine.hasTasks());
+  }
+
+  @Test
+  public void testNotLaunched() throws Exception {
+    PTaskEngine engine = new PTaskEngine(false);
+
+    engine.addTask(new TestTask("t1", 0), "db");
+    engine.addTask(new TestTask("t2", 0), "db", Collections.<PTask> emptyList());
+    engine.addTask(new TestTask("t3", 0), "db");
+    Thread.sleep(100);
+    assertEquals(3, engine.getTasks().size());
+    assertEquals("t1", engine.getTasks().get(0).getName());
+    assertEquals("t3", engine.getTasks().get(2).getName());
+    assertEquals("db", engine.getTasks().get(1).getDbConfName());
+    assertTrue(_events.isEmpty());
+  }
+
+  @Test
+  public void testJobContext() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    JobContext parent, job1, job2;
+    PTaskEngine engine1, engine2;
+    SequenceFileManager sfm;
+    TestTask failed;
+
+    // two jobs sharing the same threads
+    parent = LoggerCentral.getJobContext();
+    job1 = new JobContext(parent);
+    LoggerCentral.setJobContext(job1);
+    engine1 = new PTaskEngine();
+    job2 = new JobContext(parent);
+    LoggerCentral.setJobContext(job2);
+    engine2 = new PTaskEngine();
+    LoggerCentral.setJobContext(null);
+    engine1.setExecutor(executor);
+    engine2.setExecutor(executor);
+
+    failed = new TestTask("failed", 20) {
+      protected void run() throws Exception {
+        super.run();
+        throw new Exception("failed");
+      }
+    };
+    engine1.addTask(failed, "db1");
+    engine1.addTask(new TestTask("next1", 0), "db1");
+    engine2.addTask(new TestTask("t2", 50), "db2");
+    engine2.addTask(new TestTask("next2", 0), "db2");
+    waitForTermination(engine1);
+    waitForTermination(engine2);
+
+    // a failure of the first job does not stop the second one
+    assertFalse(_events.contains("start:next1"));
+    assertTrue(_events.contains("end:next2"));
+    assertTrue(job1.hasError());
+    assertEquals(1, job1.getErrorCount());
+    assertFalse(job2.hasError());
+    assertFalse(LoggerCentral.errorMsgEmitted());
+    // shared threads are not released by the engines
+    assertFalse(executor.isShutdown());
+    executor.shutdown();
+
+    // cancelling the parent job cancels its children, and stops their
+    // sequence filtering
+    assertFalse(job2.isAborted());
+    sfm = new SequenceFileManager((BufferedReader) null, null, null, null) {
+      public void abortProcess() {
+        super.abortProcess();
+        _events.add("abort:sfm");
+      }
+    };
+    job2.setSequenceFileManager(sfm);
+    LoggerCentral.abortProcess();
+    assertTrue(job1.isAborted());
+    assertTrue(job2.isAborted());
+    assertTrue(_events.contains("abort:sfm"));
+    job2.setSequenceFileManager(null);
+  }
+}
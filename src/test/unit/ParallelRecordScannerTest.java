@@ -0,0 +1,156 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bzh.plealog.dbmirror.indexer.DBParsable;
+import bzh.plealog.dbmirror.indexer.FastaParser;
+import bzh.plealog.dbmirror.indexer.GenbankParser;
+import bzh.plealog.dbmirror.indexer.ParallelRecordScanner;
+import bzh.plealog.dbmirror.indexer.ParserMonitor;
+import bzh.plealog.dbmirror.indexer.SwissProtParser;
+
+/**
+ * Check that parallel parsing of sequence files reports exactly the same
+ * entries than sequential parsing.
+ */
+public class ParallelRecordScannerTest {
+
+  private static final int  WORKERS    = 3;
+  private static final long CHUNK_SIZE = 300;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    UtilsTest.configureApp();
+  }
+
+  private String getTestFilePath(String fileName) {
+    return UtilsTest.getTestFilePath("SequenceFileManager", "testRename",
+        fileName);
+  }
+
+  private List<String> parse(DBParsable parser, String file) throws Exception {
+    EntryCollector collector = new EntryCollector();
+    parser.setParserMonitor(collector);
+    parser.parse(file, null);
+    assertEquals(collector.entries.size(), parser.getEntries());
+    return collector.entries;
+  }
+
+  @Test
+  public void testChunks() throws IOException {
+    String file = getTestFilePath("uniprot.dat");
+    byte[] data = FileUtils.readFileToByteArray(new File(file));
+    long[] chunks = ParallelRecordScanner.getChunks(file, "ID ", CHUNK_SIZE);
+
+    assertTrue(chunks.length > 2);
+    assertEquals(0, chunks[0]);
+    assertEquals(data.length, chunks[chunks.length - 1]);
+    for (int i = 1; i < chunks.length - 1; i++) {
+      assertTrue(chunks[i] > chunks[i - 1]);
+      assertEquals('\n', data[(int) chunks[i] - 1]);
+      assertEquals("ID ", new String(data, (int) chunks[i], 3,
+          StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testFasta() throws Exception {
+    String file = getTestFilePath("fastaFile.fas");
+    FastaParser seq = new FastaParser(), par = new FastaParser();
+
+    seq.setParallelScan(1, CHUNK_SIZE);
+    par.setParallelScan(WORKERS, CHUNK_SIZE);
+    List<String> expected = parse(seq, file);
+    assertEquals(10, expected.size());
+    assertEquals(expected, parse(par, file));
+  }
+
+  @Test
+  public void testFastaCRLF() throws Exception {
+    File file = File.createTempFile("bdm", ".fas");
+    FastaParser seq = new FastaParser(), par = new FastaParser();
+
+    try {
+      String data = FileUtils.readFileToString(new File(
+          getTestFilePath("fastaFile.fas")), StandardCharsets.UTF_8);
+      FileUtils.writeStringToFile(file, data.replace("\n", "\r\n"),
+          StandardCharsets.UTF_8);
+      seq.setParallelScan(1, CHUNK_SIZE);
+      par.setParallelScan(WORKERS, CHUNK_SIZE);
+      assertEquals(parse(seq, file.getAbsolutePath()),
+          parse(par, file.getAbsolutePath()));
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testGenbank() throws Exception {
+    String file = getTestFilePath("genbank.dat");
+    GenbankParser seq = new GenbankParser(), par = new GenbankParser();
+
+    seq.setParallelScan(1, CHUNK_SIZE);
+    par.setParallelScan(WORKERS, CHUNK_SIZE);
+    List<String> expected = parse(seq, file);
+    assertEquals(10, expected.size());
+    assertEquals(expected, parse(par, file));
+  }
+
+  @Test
+  public void testSwissProt() throws Exception {
+    String file = getTestFilePath("uniprot.dat");
+    SwissProtParser seq = new SwissProtParser(), par = new SwissProtParser();
+
+    seq.setParallelScan(1, CHUNK_SIZE);
+    par.setParallelScan(WORKERS, CHUNK_SIZE);
+    List<String> expected = parse(seq, file);
+    assertEquals(10, expected.size());
+    assertEquals(expected, parse(par, file));
+  }
+
+  private static class EntryCollector implements ParserMonitor {
+    private ArrayList<String> entries = new ArrayList<String>();
+
+    public void seqFound(String id, String name, String fName, long start,
+        long stop, boolean checkRedundancy) {
+      entries.add(id + "," + name + "," + start + "," + stop);
+    }
+
+    public void startProcessingFile(String fName, long fSize) {
+    }
+
+    public void stopProcessingFile(String file, int entries) {
+    }
+
+    public boolean redundantSequenceFound() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/* Copyright (C) 2006-2019 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bzh.plealog.bioinfo.api.core.config.CoreSystemConfigurator;
+import bzh.plealog.bioinfo.api.data.searchresult.SRIteration;
+import bzh.plealog.dbmirror.annotator.SRIterationProcessor;
+
+/**
+ * Check the multi-threaded processing of Blast iterations.
+ */
+public class SRIterationProcessorTest {
+
+  private static final int NB_ITERATIONS = 200;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    UtilsTest.configureApp();
+    CoreSystemConfigurator.initializeSystem();
+  }
+
+  private List<SRIteration> createIterations() {
+    ArrayList<SRIteration> iterations = new ArrayList<SRIteration>();
+    SRIteration bi;
+
+    for (int i = 1; i <= NB_ITERATIONS; i++) {
+      bi = CoreSystemConfigurator.getSRFactory().createBIteration();
+      bi.setIterationIterNum(i);
+      bi.setIterationQueryID("query_" + i);
+      iterations.add(bi);
+    }
+    return iterations;
+  }
+
+  private void checkOrder(int workers) throws Exception {
+    Set<String> threads = ConcurrentHashMap.newKeySet();
+    ArrayList<String> consumed = new ArrayList<String>();
+    AtomicInteger running = new AtomicInteger(), maxRunning = new AtomicInteger();
+    Random rand = new Random(workers);
+    List<SRIteration> iterations;
+    int[] delays;
+
+    iterations = createIterations();
+    delays = new int[NB_ITERATIONS + 1];
+    for (int i = 0; i < delays.length; i++) {
+      delays[i] = rand.nextInt(3);
+    }
+    SRIterationProcessor.process(iterations.iterator(), workers, bi -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      threads.add(Thread.currentThread().getName());
+      Thread.sleep(delays[bi.getIterationIterNum()]);
+      bi.setIterationQueryDesc(bi.getIterationQueryID() + " done");
+      running.decrementAndGet();
+    }, bi -> consumed.add(bi.getIterationQueryDesc()));
+
+    // results are consumed using the original order
+    assertEquals(NB_ITERATIONS, consumed.size());
+    for (int i = 0; i < NB_ITERATIONS; i++) {
+      assertEquals("query_" + (i + 1) + " done", consumed.get(i));
+    }
+    assertTrue(maxRunning.get() <= workers);
+    if (workers == 1) {
+      assertEquals(Thread.currentThread().getName(), threads.iterator().next());
+    } else {
+      assertTrue(threads.size() > 1);
+    }
+  }
+
+  @Test
+  public void testOrder() throws Exception {
+    checkOrder(1);
+    checkOrder(4);
+  }
+
+  @Test
+  public void testError() throws Exception {
+    ArrayList<Integer> consumed = new ArrayList<Integer>();
+
+    try {
+      SRIterationProcessor.process(createIterations().iterator(), 4, bi -> {
+        if (bi.getIterationIterNum() == 50) {
+          throw new IllegalStateException("failed: 50");
+        }
+      }, bi -> consumed.add(bi.getIterationIterNum()));
+      fail("no exception");
+    } catch (IllegalStateException e) {
+      assertEquals("failed: 50", e.getMessage());
+    }
+    // all iterations preceding the failing one have been consumed
+    assertEquals(49, consumed.size());
+  }
+
+  @Test
+  public void testWorkers() {
+    int cpus = Runtime.getRuntime().availableProcessors();
+
+    assertEquals(cpus, SRIterationProcessor.getWorkers(0));
+    assertEquals(1, SRIterationProcessor.getWorkers(1));
+    assertEquals(4 * cpus, SRIterationProcessor.getWorkers(10000));
+  }
+}
@@ -0,0 +1,253 @@
+/* Copyright (C) 2007-2022 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.net.io.CopyStreamEvent;
+import org.apache.commons.net.io.CopyStreamListener;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bzh.plealog.dbmirror.fetcher.SegmentedDownload;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Check the download of a file using several connections, against a local
+ * HTTP server.
+ */
+public class SegmentedDownloadTest {
+
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+  private static File          _dir;
+  private static byte[]        _data;
+
+  private HttpServer           _server;
+  private String               _url;
+  // start of the byte ranges requested to the server
+  private List<Long>           _starts   = Collections
+                                             .synchronizedList(new ArrayList<Long>());
+  private volatile boolean     _ranges   = true;
+  // number of responses to break, and bytes sent before breaking them
+  private AtomicInteger        _failures = new AtomicInteger();
+  private volatile long        _failAfter;
+  // bytes requested, byte ranges checks excluded
+  private AtomicLong           _requested = new AtomicLong();
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    UtilsTest.configureApp();
+    _dir = Files.createTempDirectory("bdmsegments").toFile();
+    _data = new byte[3 * 1024 * 1024 + 17];
+    new Random(1).nextBytes(_data);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() {
+    FileUtils.deleteQuietly(_dir);
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    _server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    _server.createContext("/db/", this::handle);
+    _server.setExecutor(Executors.newCachedThreadPool());
+    _server.start();
+    _url = "http://127.0.0.1:" + _server.getAddress().getPort()
+        + "/db/trembl.dat.gz";
+  }
+
+  @After
+  public void tearDown() {
+    _server.stop(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    Matcher m = range == null ? null : RANGE.matcher(range);
+    int start = 0, end = _data.length - 1, len;
+
+    if (_ranges && m != null && m.matches()) {
+      start = Integer.parseInt(m.group(1));
+      end = Math.min(end, Integer.parseInt(m.group(2)));
+      exchange.getResponseHeaders().add("Content-Range",
+          "bytes " + start + "-" + end + "/" + _data.length);
+      if (start != 0 || end != 0) {
+        _starts.add((long) start);
+        _requested.addAndGet(end - start + 1);
+      }
+    }
+    len = end - start + 1;
+    exchange.sendResponseHeaders(start != 0 || end != _data.length - 1 ? 206
+        : 200, len);
+    try (OutputStream os = exchange.getResponseBody()) {
+      if (_failures.getAndDecrement() > 0) {
+        // the connection is closed before the end of the data
+        os.write(_data, start, (int) Math.min(len / 2, _failAfter));
+        os.flush();
+        exchange.close();
+        return;
+      }
+      os.write(_data, start, len);
+    } catch (IOException e) {
+      // response broken on purpose
+    }
+  }
+
+  private File getTarget(String name) {
+    return new File(_dir, name);
+  }
+
+  private void checkDownloaded(File target) throws IOException {
+    assertArrayEquals(_data, FileUtils.readFileToByteArray(target));
+    assertFalse(new File(target.getAbsolutePath()
+        + SegmentedDownload.PART_FEXT).exists());
+    assertFalse(new File(target.getAbsolutePath()
+        + SegmentedDownload.STATE_FEXT).exists());
+  }
+
+  private class Counter implements CopyStreamListener {
+    private AtomicLong _total = new AtomicLong();
+
+    public void bytesTransferred(CopyStreamEvent event) {
+    }
+
+    public void bytesTransferred(long totalBytesTransferred,
+        int bytesTransferred, long streamSize) {
+      assertEquals(_total.addAndGet(bytesTransferred), totalBytesTransferred);
+      assertEquals(_data.length, streamSize);
+    }
+  }
+
+  @Test
+  public void testSupportsRanges() throws Exception {
+    assertTrue(SegmentedDownload.supportsRanges(_url, _data.length));
+    // not the expected file
+    assertFalse(SegmentedDownload.supportsRanges(_url, _data.length + 1));
+    _ranges = false;
+    assertFalse(SegmentedDownload.supportsRanges(_url, _data.length));
+  }
+
+  @Test
+  public void testDownload() throws Exception {
+    File target = getTarget("full.dat.gz");
+    SegmentedDownload download;
+    Counter counter = new Counter();
+
+    download = new SegmentedDownload(_url, target, _data.length, 4);
+    download.setCopyStreamListener(counter);
+    assertEquals(0, download.open());
+    download.download();
+    checkDownloaded(target);
+    assertEquals(_data.length, counter._total.get());
+    assertEquals(4, _starts.size());
+  }
+
+  @Test
+  public void testRetry() throws Exception {
+    File target = getTarget("retry.dat.gz");
+    SegmentedDownload download;
+
+    _failures.set(3);
+    _failAfter = 100000;
+    download = new SegmentedDownload(_url, target, _data.length, 4);
+    download.setRetry(3, 10);
+    download.download();
+    checkDownloaded(target);
+    // broken segments resume where they stopped
+    assertEquals(7, _starts.size());
+  }
+
+  @Test
+  public void testResume() throws Exception {
+    File target = getTarget("resume.dat.gz");
+    SegmentedDownload download;
+    long done;
+
+    _failures.set(Integer.MAX_VALUE);
+    _failAfter = 256 * 1024;
+    download = new SegmentedDownload(_url, target, _data.length, 4);
+    download.setRetry(0, 0);
+    try {
+      download.download();
+      fail("download succeeded");
+    } catch (IOException e) {
+    }
+    assertFalse(target.exists());
+    assertTrue(new File(target.getAbsolutePath()
+        + SegmentedDownload.STATE_FEXT).exists());
+
+    // next try, from a new loader
+    _failures.set(0);
+    _requested.set(0);
+    download = new SegmentedDownload(_url, target, _data.length, 4);
+    done = download.open();
+    assertTrue(String.valueOf(done), done > 0);
+    download.download();
+    checkDownloaded(target);
+    // only missing data have been requested
+    assertEquals(_data.length - done, _requested.get());
+  }
+
+  @Test
+  public void testResumeSameDownload() throws Exception {
+    File target = getTarget("resume2.dat.gz");
+    SegmentedDownload download;
+
+    _failures.set(Integer.MAX_VALUE);
+    _failAfter = 256 * 1024;
+    download = new SegmentedDownload(_url, target, _data.length, 4);
+    download.setRetry(0, 0);
+    try {
+      download.download();
+      fail("download succeeded");
+    } catch (IOException e) {
+    }
+    assertFalse(target.exists());
+
+    // next try, from the same loader
+    _failures.set(0);
+    download.download();
+    checkDownloaded(target);
+  }
+}
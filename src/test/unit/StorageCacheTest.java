@@ -0,0 +1,144 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import bzh.plealog.dbmirror.indexer.StorageCache;
+
+/**
+ * Check opening, sharing and eviction of storages.
+ */
+public class StorageCacheTest {
+
+  private static class FakeStorage {
+    private String  name;
+    private boolean closed;
+
+    private FakeStorage(String name) {
+      this.name = name;
+    }
+  }
+
+  private AtomicInteger opened = new AtomicInteger();
+
+  private StorageCache<FakeStorage> createCache(int maxSize) {
+    return new StorageCache<FakeStorage>(name -> {
+      if (name.startsWith("bad")) {
+        return null;
+      }
+      opened.incrementAndGet();
+      return new FakeStorage(name);
+    }, storage -> {
+      assertFalse("closed twice: " + storage.name, storage.closed);
+      storage.closed = true;
+    }, maxSize);
+  }
+
+  private FakeStorage use(StorageCache<FakeStorage> cache, String name) {
+    FakeStorage storage = cache.acquire(name);
+    cache.release(name, storage);
+    return storage;
+  }
+
+  @Test
+  public void testReuse() {
+    StorageCache<FakeStorage> cache = createCache(4);
+
+    FakeStorage s1 = use(cache, "a");
+    assertSame(s1, use(cache, "a"));
+    assertEquals(1, opened.get());
+    assertNull(cache.acquire("bad"));
+    assertEquals(1, cache.size());
+    cache.closeAll();
+    assertTrue(s1.closed);
+    assertEquals(0, cache.size());
+    assertNotSame(s1, use(cache, "a"));
+  }
+
+  @Test
+  public void testEviction() {
+    StorageCache<FakeStorage> cache = createCache(2);
+
+    FakeStorage a = use(cache, "a");
+    FakeStorage b = use(cache, "b");
+    use(cache, "a");
+    // b is the least recently used storage
+    FakeStorage c = use(cache, "c");
+    assertEquals(2, cache.size());
+    assertTrue(b.closed);
+    assertFalse(a.closed);
+    assertFalse(c.closed);
+
+    // storages in use are never closed
+    FakeStorage inUse = cache.acquire("a");
+    use(cache, "c");
+    use(cache, "d");
+    use(cache, "e");
+    assertFalse(inUse.closed);
+    assertSame(inUse, cache.acquire("a"));
+    cache.release("a", inUse);
+    cache.release("a", inUse);
+    use(cache, "f");
+    assertFalse(inUse.closed);
+    use(cache, "g");
+    assertEquals(2, cache.size());
+    assertTrue(inUse.closed);
+  }
+
+  @Test
+  public void testConcurrentAccess() throws Exception {
+    final StorageCache<FakeStorage> cache = createCache(3);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+
+    try {
+      for (int t = 0; t < 8; t++) {
+        final int seed = t;
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 2000; i++) {
+            String name = "s" + ((seed + i) % 5);
+            FakeStorage storage = cache.acquire(name);
+            assertFalse(storage.closed);
+            assertEquals(name, storage.name);
+            cache.release(name, storage);
+          }
+        }));
+      }
+      for (Future<?> f : futures) {
+        f.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertTrue(cache.size() <= 3);
+  }
+}
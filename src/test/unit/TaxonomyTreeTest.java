@@ -0,0 +1,226 @@
+/* Copyright (C) 2007-2017 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bzh.plealog.dbmirror.lucenedico.DicoStorageSystem;
+import bzh.plealog.dbmirror.lucenedico.DicoStorageSystemImplem;
+import bzh.plealog.dbmirror.lucenedico.DicoTerm;
+import bzh.plealog.dbmirror.lucenedico.DicoTermQuerySystem;
+import bzh.plealog.dbmirror.lucenedico.DicoUtils;
+import bzh.plealog.dbmirror.lucenedico.Dicos;
+import bzh.plealog.dbmirror.lucenedico.tax.NcbiTaxonomyTaxNamesParser;
+import bzh.plealog.dbmirror.lucenedico.tax.NcbiTaxonomyTaxNodesParser;
+import bzh.plealog.dbmirror.lucenedico.tax.TaxonomyRank;
+import bzh.plealog.dbmirror.lucenedico.tax.TaxonomyTree;
+import bzh.plealog.dbmirror.util.sequence.TaxonMatcherHelper;
+
+/**
+ * Check the in-memory NCBI Taxonomy tree using a small taxonomy.
+ */
+public class TaxonomyTreeTest {
+
+  private static File                _dir;
+  private static DicoTermQuerySystem _dicoSystem;
+
+  private static final String[][]    NODES = { { "1", "1", "no rank" },
+      { "131567", "1", "no rank" }, { "2759", "131567", "superkingdom" },
+      { "33208", "2759", "kingdom" }, { "7711", "33208", "phylum" },
+      { "40674", "7711", "class" }, { "9443", "40674", "order" },
+      { "9604", "9443", "family" }, { "207598", "9604", "subfamily" },
+      { "9605", "207598", "genus" }, { "9606", "9605", "species" },
+      { "63221", "9606", "subspecies" }, { "2", "131567", "superkingdom" },
+      { "1224", "2", "phylum" }, { "561", "1224", "genus" },
+      { "562", "561", "species" } };
+
+  private static final String[][]    NAMES = { { "1", "root" },
+      { "131567", "cellular organisms" }, { "2759", "Eukaryota" },
+      { "33208", "Metazoa" }, { "7711", "Chordata" },
+      { "40674", "Mammalia" }, { "9443", "Primates" },
+      { "9604", "Hominidae" }, { "207598", "Homininae" },
+      { "9605", "Homo" }, { "9606", "Homo sapiens" },
+      { "63221", "Homo sapiens neanderthalensis" }, { "2", "Bacteria" },
+      { "1224", "Proteobacteria" }, { "561", "Escherichia" },
+      { "562", "Escherichia coli" } };
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    StringBuilder nodes, names;
+    DicoStorageSystem storage;
+    HashMap<String, String> dicos;
+    String idx;
+
+    UtilsTest.configureApp();
+    _dir = Files.createTempDirectory("bdmtax").toFile();
+    nodes = new StringBuilder();
+    for (String[] node : NODES) {
+      nodes.append(node[0] + "\t|\t" + node[1] + "\t|\t" + node[2]
+          + "\t|\t\t|\t0\t|\n");
+    }
+    names = new StringBuilder();
+    for (String[] name : NAMES) {
+      names.append(name[0] + "\t|\t" + name[1] + "\t|\t\t|\tscientific name\t|\n");
+    }
+    names.append("9606\t|\thuman\t|\t\t|\tgenbank common name\t|\n");
+    FileUtils.writeStringToFile(new File(_dir, "nodes.dmp"),
+        nodes.toString(), StandardCharsets.UTF_8);
+    FileUtils.writeStringToFile(new File(_dir, "names.dmp"),
+        names.toString(), StandardCharsets.UTF_8);
+    FileUtils.writeStringToFile(new File(_dir, "merged.dmp"),
+        "1000001\t|\t9606\t|\n", StandardCharsets.UTF_8);
+
+    idx = new File(_dir, "taxonomy.ldx").getAbsolutePath();
+    storage = new DicoStorageSystemImplem();
+    storage.open(idx, DicoStorageSystem.WRITE_MODE);
+    new NcbiTaxonomyTaxNamesParser().parse(new File(_dir, "names.dmp")
+        .getAbsolutePath() + ":merged.dmp", storage);
+    new NcbiTaxonomyTaxNodesParser().parse(
+        new File(_dir, "nodes.dmp").getAbsolutePath(), storage);
+    storage.close();
+
+    DicoTermQuerySystem.closeDicoTermQuerySystem();
+    dicos = new HashMap<String, String>();
+    dicos.put(DicoUtils.READER_NCBI_TAXONOMY, idx);
+    _dicoSystem = DicoTermQuerySystem.getDicoTermQuerySystem(dicos);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    DicoTermQuerySystem.closeDicoTermQuerySystem();
+    FileUtils.deleteQuietly(_dir);
+  }
+
+  @Test
+  public void testTree() {
+    TaxonomyTree tree = _dicoSystem.getTaxonomyTree();
+    DicoTerm[] terms;
+    int[] lineage;
+
+    assertNotNull(tree);
+    assertEquals(NODES.length, tree.size());
+    assertEquals("Homo sapiens", tree.getName(9606));
+    assertEquals("subfamily", tree.getRank(207598));
+    assertEquals("root", tree.getRank(1));
+    assertEquals(9606, tree.resolve(1000001));
+    assertEquals(-1, tree.resolve(1000002));
+    assertNull(tree.getLineage(1000001));
+
+    // same lineage as the one computed using the index
+    lineage = tree.getLineage(63221);
+    terms = _dicoSystem.getStorage(Dicos.NCBI_TAXONOMY).getTerms("o63221",
+        "o1");
+    assertEquals(terms.length, lineage.length);
+    for (int i = 0; i < terms.length; i++) {
+      assertEquals(terms[i].getId(), DicoUtils.TAX_ID_NODE_PREFIX + lineage[i]);
+    }
+    assertArrayEquals(new int[] { 1, 131567, 2, 1224, 561, 562 },
+        tree.getLineage(562));
+
+    assertEquals(9606, TaxonomyTree.parseTaxId("9606"));
+    assertEquals(-1, TaxonomyTree.parseTaxId("+9606"));
+    assertEquals(-1, TaxonomyTree.parseTaxId("09606"));
+    assertEquals(-1, TaxonomyTree.parseTaxId("n9606"));
+  }
+
+  @Test
+  public void testTaxPath() {
+    assertEquals("n1;n2759;n33208;n7711;n40674;n9443;n9604;n9605;",
+        _dicoSystem.getTaxPathIds("9606"));
+    assertEquals("n1;n2759;n33208;n7711;n40674;n9443;n9604;n9605;n9606;",
+        _dicoSystem.getTaxPathIds("63221"));
+    assertEquals("n1;n131567;n2759;n33208;n7711;n40674;n9443;n9604;n207598;"
+        + "n9605;", _dicoSystem.getTaxPathIds("9606", false));
+    // merged taxon ID: the organism is reported with its new ID
+    assertEquals("n1;n2759;n33208;n7711;n40674;n9443;n9604;n9605;n9606;",
+        _dicoSystem.getTaxPathIds("1000001"));
+    assertEquals("root;d__Eukaryota;k__Metazoa;p__Chordata;c__Mammalia;"
+        + "o__Primates;f__Hominidae;g__Homo;s__Homo sapiens;",
+        _dicoSystem.getTaxPath("9606", true, true, false));
+    assertEquals("root;d__Bacteria;k__unknown;p__Proteobacteria;c__unknown;"
+        + "o__unknown;f__unknown;g__Escherichia;",
+        _dicoSystem.getTaxPath("562", true, false, true));
+    assertNull(_dicoSystem.getTaxPath("1"));
+    assertNull(_dicoSystem.getTaxPath("123456"));
+  }
+
+  @Test
+  public void testTerms() {
+    DicoTerm term;
+
+    assertEquals("9605",
+        _dicoSystem.getTaxIdForRank("63221", TaxonomyRank.GENUS));
+    assertEquals("", _dicoSystem.getTaxIdForRank("562", TaxonomyRank.ORDER));
+    assertEquals("subspecies", _dicoSystem.getRealTaxRank("63221"));
+    assertNull(_dicoSystem.getRealTaxRank("1000001"));
+
+    term = _dicoSystem.getTerm(Dicos.NCBI_TAXONOMY, "1000001");
+    assertEquals("n9606", term.getId());
+    assertEquals("Homo sapiens", term.getDataField());
+    assertNull(_dicoSystem.getTerm(Dicos.NCBI_TAXONOMY, "n9606"));
+  }
+
+  private String check(TaxonMatcherHelper matcher, String taxonID) {
+    boolean[] values = new boolean[3];
+
+    matcher.isSeqTaxonvalid(values, "taxon:" + taxonID);
+    return values[0] + "," + values[1] + "," + values[2];
+  }
+
+  @Test
+  public void testTaxonMatcher() {
+    TaxonMatcherHelper matcher = new TaxonMatcherHelper();
+
+    matcher.setDicoTermQuerySystem(_dicoSystem);
+    matcher.setTaxonomyFilter("9443,2", "9606");
+    assertEquals("true,true,true", check(matcher, "9605"));
+    assertEquals("true,true,true", check(matcher, "9443"));
+    assertEquals("true,true,true", check(matcher, "562"));
+    assertEquals("true,false,true", check(matcher, "9606"));
+    assertEquals("true,false,true", check(matcher, "63221"));
+    assertEquals("true,false,true", check(matcher, "1000001"));
+    assertEquals("true,false,true", check(matcher, "33208"));
+    assertEquals("true,false,false", check(matcher, "1"));
+    assertEquals("true,false,false", check(matcher, "123456"));
+    // verdicts are kept: same results
+    assertEquals("true,true,true", check(matcher, "9605"));
+    assertEquals("true,false,false", check(matcher, "123456"));
+
+    // exclusion only: everything else is valid
+    matcher.setTaxonomyFilter(null, "2");
+    assertEquals("true,false,true", check(matcher, "562"));
+    assertEquals("true,true,true", check(matcher, "63221"));
+
+    // merged taxon ID used as a constraint
+    matcher.setTaxonomyFilter("1000001", null);
+    assertEquals("true,true,true", check(matcher, "1000001"));
+    assertEquals("true,false,true", check(matcher, "9606"));
+  }
+}